@@ -0,0 +1,811 @@
+package org.mitre.taxii.codegen;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAnyAttribute;
+import javax.xml.bind.annotation.XmlAnyElement;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlMixed;
+import javax.xml.bind.annotation.XmlNs;
+import javax.xml.bind.annotation.XmlNsForm;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSchema;
+import javax.xml.bind.annotation.XmlSchemaType;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.bind.annotation.XmlValue;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Generates the StAX readers and writers of {@link org.mitre.taxii.messages.StaxCodec}
+ * from the JAXB classes XJC generated, so that messages are read and 
+ * written by straight line code rather than by the reflective JAXB runtime.
+ * 
+ * <p>Run by the generateStaxCodec task of the build, after the XJC classes 
+ * are compiled, with the classes on the classpath:</p>
+ * 
+ * <pre>
+ *      StaxCodecGenerator src/generated/java org.mitre.taxii.messages.xml11 ...
+ * </pre>
+ * 
+ * <p>For each package it writes the class StaxCodecBinding into the 
+ * package. The generator only knows the mappings XJC makes for the TAXII 
+ * schemas, and fails on anything else, rather than generating code that 
+ * writes different XML than JAXB does.</p>
+ */
+public final class StaxCodecGenerator {
+    
+    private static final String BINDING_CLASS = "StaxCodecBinding";
+    /** The value of JAXB annotation elements that are left to their default. */
+    private static final String JAXB_DEFAULT = "##default";
+    /** The defaultValue of an XmlElement that has none. */
+    private static final String NO_DEFAULT = "\u0000";
+    
+    private static final Comparator<Class<?>> BY_NAME = new Comparator<Class<?>>() {
+        @Override
+        public int compare(Class<?> a, Class<?> b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+    
+    private enum Kind { ATTRIBUTE, VALUE, ELEMENT, MIXED }
+    
+    /** A field bound to XML. */
+    private static final class Property {
+        final Field field;
+        final Kind kind;
+        final String namespace;
+        final String localName;
+        /** The class of the value, or of the items of a list. */
+        final Class<?> type;
+        final boolean list;
+        final String defaultValue;
+        
+        Property(Field field, Kind kind, String namespace, String localName, Class<?> type, boolean list, String defaultValue) {
+            this.field = field;
+            this.kind = kind;
+            this.namespace = namespace;
+            this.localName = localName;
+            this.type = type;
+            this.list = list;
+            this.defaultValue = defaultValue;
+        }
+    }
+    
+    private final String packageName;
+    private final String namespace;
+    private final boolean qualified;
+    /** The namespace URI of each prefix the package declares. */
+    private final Map<String, String> prefixes = new LinkedHashMap<>();
+    /** The constant of each namespace URI the code uses. */
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
+    private final List<Class<?>> classes = new ArrayList<>();
+    private final List<Class<?>> roots = new ArrayList<>();
+    private final Set<Class<?>> enums = new LinkedHashSet<>();
+    private final Map<Class<?>, String> adapters = new LinkedHashMap<>();
+    private final Set<Class<?>> jaxbClasses = new LinkedHashSet<>();
+    
+    private final StringBuilder out = new StringBuilder(64 * 1024);
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: StaxCodecGenerator <source directory> <package>...");
+            System.exit(1);
+        }
+        final File sourceDir = new File(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            final StaxCodecGenerator generator = new StaxCodecGenerator(args[i]);
+            final File file = new File(sourceDir, args[i].replace('.', File.separatorChar) + File.separator + BINDING_CLASS + ".java");
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+                writer.write(generator.generate());
+            }
+            System.out.println("Generated " + file);
+        }
+    }
+    
+    StaxCodecGenerator(String packageName) throws ClassNotFoundException {
+        this.packageName = packageName;
+        final Class<?> objectFactory = Class.forName(packageName + ".ObjectFactory");
+        final XmlSchema schema = objectFactory.getPackage().getAnnotation(XmlSchema.class);
+        if (null == schema) {
+            throw new IllegalStateException(packageName + " has no XmlSchema");
+        }
+        namespace = schema.namespace();
+        qualified = schema.elementFormDefault() == XmlNsForm.QUALIFIED;
+        for (XmlNs ns : schema.xmlns()) {
+            prefixes.put(ns.namespaceURI(), ns.prefix());
+        }
+        for (Method method : objectFactory.getMethods()) {
+            final Class<?> type = method.getReturnType();
+            if (method.getName().startsWith("create") && method.getParameterTypes().length == 0 
+                    && packageName.equals(type.getPackage().getName()) && type.isAnnotationPresent(XmlType.class)) {
+                classes.add(type);
+            }
+        }
+        Collections.sort(classes, BY_NAME);
+        for (Class<?> type : classes) {
+            if (type.isAnnotationPresent(XmlRootElement.class)) {
+                roots.add(type);
+            }
+        }
+    }
+    
+    String generate() {
+        for (String uri : prefixes.keySet()) {
+            nsConstant(uri);
+        }
+        final StringBuilder methods = new StringBuilder(64 * 1024);
+        for (Class<?> type : classes) {
+            if (Modifier.isAbstract(type.getModifiers())) {
+                continue;
+            }
+            generateRead(methods, type);
+            generateWrite(methods, type);
+        }
+        for (Class<?> type : enums) {
+            generateEnum(methods, type);
+        }
+        
+        out.append("package ").append(packageName).append(";\n\n");
+        out.append("// Generated by org.mitre.taxii.codegen.StaxCodecGenerator. Do not edit.\n\n");
+        out.append("import javax.xml.bind.JAXBException;\n");
+        out.append("import javax.xml.namespace.QName;\n");
+        out.append("import javax.xml.stream.XMLStreamException;\n\n");
+        out.append("import org.mitre.taxii.messages.StaxBinding;\n");
+        out.append("import org.mitre.taxii.messages.XmlInput;\n");
+        out.append("import org.mitre.taxii.messages.XmlOutput;\n\n");
+        out.append("/**\n");
+        out.append(" * The StAX readers and writers of the JAXB classes of this package, for\n");
+        out.append(" * {@link org.mitre.taxii.messages.StaxCodec}.\n");
+        out.append(" */\n");
+        out.append("public final class ").append(BINDING_CLASS).append(" extends StaxBinding {\n\n");
+        
+        for (Map.Entry<String, String> ns : namespaces.entrySet()) {
+            out.append("    private static final String ").append(ns.getValue()).append(" = ").append(quote(ns.getKey())).append(";\n");
+        }
+        out.append('\n');
+        out.append("    private static final QName[] ROOT_ELEMENTS = {\n");
+        for (Class<?> root : roots) {
+            out.append("        new QName(").append(nsConstant(rootNamespace(root))).append(", ")
+                    .append(quote(root.getAnnotation(XmlRootElement.class).name())).append("),\n");
+        }
+        out.append("    };\n\n");
+        out.append("    private static final Class<?>[] ROOT_CLASSES = {\n");
+        for (Class<?> root : roots) {
+            out.append("        ").append(typeName(root)).append(".class,\n");
+        }
+        out.append("    };\n\n");
+        out.append("    private static final String[] NAMESPACE_PREFIXES = {\n");
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            out.append("        ").append(nsConstant(prefix.getKey())).append(", ").append(quote(prefix.getValue())).append(",\n");
+        }
+        out.append("    };\n\n");
+        out.append("    private static final Class<?>[] JAXB_CLASSES = {\n");
+        for (Class<?> type : jaxbClasses) {
+            out.append("        ").append(typeName(type)).append(".class,\n");
+        }
+        out.append("    };\n\n");
+        for (Map.Entry<Class<?>, String> adapter : adapters.entrySet()) {
+            out.append("    private static final ").append(typeName(adapter.getKey())).append(' ').append(adapter.getValue())
+                    .append(" = new ").append(typeName(adapter.getKey())).append("();\n");
+        }
+        if (!adapters.isEmpty()) {
+            out.append('\n');
+        }
+        
+        out.append("    @Override\n");
+        out.append("    protected QName[] getRootElements() {\n");
+        out.append("        return ROOT_ELEMENTS.clone();\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    protected Class<?>[] getRootClasses() {\n");
+        out.append("        return ROOT_CLASSES.clone();\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    protected String[] getNamespacePrefixes() {\n");
+        out.append("        return NAMESPACE_PREFIXES.clone();\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    protected Class<?>[] getJaxbClasses() {\n");
+        out.append("        return JAXB_CLASSES.clone();\n");
+        out.append("    }\n\n");
+        
+        out.append("    @Override\n");
+        out.append("    protected Object read(int root, XmlInput in, Object parent) throws XMLStreamException, JAXBException {\n");
+        out.append("        switch (root) {\n");
+        for (int i = 0; i < roots.size(); i++) {
+            out.append("            case ").append(i).append(":\n");
+            out.append("                return read").append(roots.get(i).getSimpleName()).append("(in, parent);\n");
+        }
+        out.append("            default:\n");
+        out.append("                throw new IllegalArgumentException(String.valueOf(root));\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+        out.append("    @Override\n");
+        out.append("    protected void write(int root, Object value, XmlOutput out) throws JAXBException {\n");
+        out.append("        switch (root) {\n");
+        for (int i = 0; i < roots.size(); i++) {
+            out.append("            case ").append(i).append(":\n");
+            out.append("                write").append(roots.get(i).getSimpleName()).append("((")
+                    .append(typeName(roots.get(i))).append(") value, out);\n");
+            out.append("                break;\n");
+        }
+        out.append("            default:\n");
+        out.append("                throw new IllegalArgumentException(String.valueOf(root));\n");
+        out.append("        }\n");
+        out.append("    }\n");
+        out.append(methods);
+        out.append("}\n");
+        return out.toString();
+    }
+    
+    /*
+     * Readers.
+     */
+    
+    private void generateRead(StringBuilder sb, Class<?> type) {
+        final String name = typeName(type);
+        sb.append('\n');
+        sb.append("    static ").append(name).append(" read").append(type.getSimpleName())
+                .append("(XmlInput in, Object parent) throws XMLStreamException, JAXBException {\n");
+        sb.append("        final ").append(name).append(" value = new ").append(name).append("();\n");
+        final List<Property> attributes = attributes(type);
+        if (!attributes.isEmpty()) {
+            sb.append("        for (int i = 0, count = in.getAttributeCount(); i < count; i++) {\n");
+            String keyword = "            if";
+            for (Property p : attributes) {
+                sb.append(keyword).append(" (in.isAttribute(i, ").append(quote(p.localName)).append(")) {\n");
+                readLeaf(sb, "                ", p, "in.getAttributeValue(i)");
+                sb.append("            }");
+                keyword = " else if";
+            }
+            sb.append('\n');
+            sb.append("        }\n");
+        }
+        final List<Property> content = content(type);
+        if (content.size() == 1 && content.get(0).kind == Kind.VALUE) {
+            readLeaf(sb, "        ", content.get(0), "in.readText()");
+        } else if (content.size() == 1 && content.get(0).kind == Kind.MIXED) {
+            final String field = "value." + content.get(0).field.getName();
+            sb.append("        ").append(field).append(" = in.readMixed(").append(field).append(", value);\n");
+        } else {
+            sb.append("        while (in.nextElement()) {\n");
+            String keyword = "            if";
+            for (Property p : content) {
+                if (p.kind != Kind.ELEMENT) {
+                    throw unsupported(p, "text or mixed content alongside elements");
+                }
+                sb.append(keyword).append(" (in.is(").append(nsConstant(p.namespace)).append(", ")
+                        .append(quote(p.localName)).append(")) {\n");
+                readElement(sb, "                ", p);
+                sb.append("            }");
+                keyword = " else if";
+            }
+            if (content.isEmpty()) {
+                sb.append("            in.skipElement();\n");
+            } else {
+                sb.append(" else {\n");
+                sb.append("                in.skipElement();\n");
+                sb.append("            }\n");
+            }
+            sb.append("        }\n");
+        }
+        sb.append("        in.read(value, parent);\n");
+        sb.append("        return value;\n");
+        sb.append("    }\n");
+    }
+    
+    private void readElement(StringBuilder sb, String indent, Property p) {
+        final Class<?> type = p.type;
+        if (isBean(type)) {
+            assign(sb, indent, p, "read" + type.getSimpleName() + "(in, value)");
+        } else if (isJaxbRoot(p)) {
+            jaxbClasses.add(type);
+            sb.append(indent).append("final ").append(typeName(type)).append(" v = in.readWithJaxb(")
+                    .append(typeName(type)).append(".class);\n");
+            sb.append(indent).append("if (null != v) {\n");
+            assign(sb, indent + "    ", p, "v");
+            sb.append(indent).append("}\n");
+        } else if (null != p.defaultValue) {
+            sb.append(indent).append("String text = in.readText();\n");
+            sb.append(indent).append("if (text.isEmpty()) {\n");
+            sb.append(indent).append("    text = ").append(quote(p.defaultValue)).append(";\n");
+            sb.append(indent).append("}\n");
+            readLeaf(sb, indent, p, "text");
+        } else {
+            readLeaf(sb, indent, p, "in.readText()");
+        }
+    }
+    
+    /**
+     * Parses a leaf value. As JAXB, a value whose parsing throws is skipped, 
+     * while one that parses to null is set.
+     */
+    private void readLeaf(StringBuilder sb, String indent, Property p, String text) {
+        if (p.type == String.class && null == adapter(p)) {
+            assign(sb, indent, p, text);
+            return;
+        }
+        if (p.type == Boolean.class || p.type.isEnum()) {
+            // JAXB sets the null it parses these to.
+            assign(sb, indent, p, parse(p, text));
+            return;
+        }
+        sb.append(indent).append("final ").append(typeName(p.type)).append(" v = ").append(parse(p, text)).append(";\n");
+        sb.append(indent).append("if (null != v) {\n");
+        assign(sb, indent + "    ", p, "v");
+        sb.append(indent).append("}\n");
+    }
+    
+    private void assign(StringBuilder sb, String indent, Property p, String expression) {
+        final String field = "value." + p.field.getName();
+        if (p.list) {
+            sb.append(indent).append("if (null == ").append(field).append(") {\n");
+            sb.append(indent).append("    ").append(field).append(" = new java.util.ArrayList<")
+                    .append(typeName(p.type)).append(">();\n");
+            sb.append(indent).append("}\n");
+            sb.append(indent).append(field).append(".add(").append(expression).append(");\n");
+        } else {
+            sb.append(indent).append(field).append(" = ").append(expression).append(";\n");
+        }
+    }
+    
+    private String parse(Property p, String text) {
+        final String adapter = adapter(p);
+        if (null != adapter) {
+            return "parse(" + adapter + ", " + text + ")";
+        }
+        final Class<?> type = p.type;
+        if (type == BigInteger.class) {
+            return "parseInteger(" + text + ")";
+        } else if (type == Boolean.class) {
+            return "parseBoolean(" + text + ")";
+        } else if (type == XMLGregorianCalendar.class) {
+            checkDateTime(p);
+            return "parseDateTime(" + text + ")";
+        } else if (type.isEnum() && type.isAnnotationPresent(XmlEnum.class)) {
+            enums.add(type);
+            return "parse" + type.getSimpleName() + "(" + text + ")";
+        }
+        throw unsupported(p, type.getName());
+    }
+    
+    /*
+     * Writers.
+     */
+    
+    private void generateWrite(StringBuilder sb, Class<?> type) {
+        sb.append('\n');
+        sb.append("    static void write").append(type.getSimpleName()).append('(').append(typeName(type))
+                .append(" value, XmlOutput out) throws JAXBException {\n");
+        for (Property p : attributes(type)) {
+            final String field = "value." + p.field.getName();
+            sb.append("        if (null != ").append(field).append(") {\n");
+            sb.append("            out.attribute(").append(quote(p.localName)).append(", ").append(print(p, field)).append(");\n");
+            sb.append("        }\n");
+        }
+        for (Property p : content(type)) {
+            final String field = "value." + p.field.getName();
+            switch (p.kind) {
+                case VALUE:
+                    sb.append("        if (null != ").append(field).append(") {\n");
+                    sb.append("            out.text(").append(print(p, field)).append(");\n");
+                    sb.append("        }\n");
+                    break;
+                case MIXED:
+                    sb.append("        if (null != ").append(field).append(") {\n");
+                    sb.append("            out.writeMixed(").append(field).append(");\n");
+                    sb.append("        }\n");
+                    break;
+                default:
+                    sb.append("        if (null != ").append(field).append(") {\n");
+                    if (p.list) {
+                        sb.append("            for (").append(typeName(p.type)).append(" item : ").append(field).append(") {\n");
+                        sb.append("                checkItem(item);\n");
+                        writeElement(sb, "                ", p, "item");
+                        sb.append("            }\n");
+                    } else {
+                        writeElement(sb, "            ", p, field);
+                    }
+                    sb.append("        }\n");
+                    break;
+            }
+        }
+        sb.append("    }\n");
+    }
+    
+    private void writeElement(StringBuilder sb, String indent, Property p, String value) {
+        if (isJaxbRoot(p)) {
+            jaxbClasses.add(p.type);
+            sb.append(indent).append("checkClass(").append(value).append(", ").append(typeName(p.type)).append(".class);\n");
+            sb.append(indent).append("out.writeWithJaxb(").append(value).append(");\n");
+            return;
+        }
+        final String qName = quote(qualify(p.namespace, p.localName));
+        if (isBean(p.type)) {
+            // JAXB writes an xsi:type for a subclass.
+            sb.append(indent).append("checkClass(").append(value).append(", ").append(typeName(p.type)).append(".class);\n");
+            sb.append(indent).append("out.startElement(").append(qName).append(");\n");
+            sb.append(indent).append("write").append(p.type.getSimpleName()).append('(').append(value).append(", out);\n");
+            sb.append(indent).append("out.endElement(").append(qName).append(");\n");
+        } else {
+            sb.append(indent).append("out.startElement(").append(qName).append(");\n");
+            sb.append(indent).append("out.text(").append(print(p, value)).append(");\n");
+            sb.append(indent).append("out.endElement(").append(qName).append(");\n");
+        }
+    }
+    
+    private String print(Property p, String value) {
+        final String adapter = adapter(p);
+        if (null != adapter) {
+            return "print(" + adapter + ", " + value + ")";
+        }
+        final Class<?> type = p.type;
+        if (type == String.class) {
+            return value;
+        } else if (type == BigInteger.class || type == Boolean.class) {
+            return value + ".toString()";
+        } else if (type == XMLGregorianCalendar.class) {
+            checkDateTime(p);
+            return "printDateTime(" + value + ")";
+        } else if (type.isEnum() && type.isAnnotationPresent(XmlEnum.class)) {
+            enums.add(type);
+            return "print" + type.getSimpleName() + "(" + value + ")";
+        }
+        throw unsupported(p, type.getName());
+    }
+    
+    /*
+     * Enums, parsed and printed with the lexical values JAXB uses.
+     */
+    
+    private void generateEnum(StringBuilder sb, Class<?> type) {
+        final String name = typeName(type);
+        boolean token = false;
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (Object constant : type.getEnumConstants()) {
+            final String constantName = ((Enum<?>) constant).name();
+            final Field field;
+            try {
+                field = type.getField(constantName);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+            final XmlEnumValue enumValue = field.getAnnotation(XmlEnumValue.class);
+            values.put(constantName, (null == enumValue) ? constantName : enumValue.value());
+            // as JAXB, which trims the text of enums with a token constant
+            final XmlSchemaType schemaType = field.getAnnotation(XmlSchemaType.class);
+            token |= null != schemaType && "token".equals(schemaType.name());
+        }
+        sb.append('\n');
+        sb.append("    private static ").append(name).append(" parse").append(type.getSimpleName()).append("(String text) {\n");
+        final String text = token ? "text.trim()" : "text";
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            sb.append("        if (").append(quote(value.getValue())).append(".equals(").append(text).append(")) {\n");
+            sb.append("            return ").append(name).append('.').append(value.getKey()).append(";\n");
+            sb.append("        }\n");
+        }
+        sb.append("        return null;\n");
+        sb.append("    }\n");
+        sb.append('\n');
+        sb.append("    private static String print").append(type.getSimpleName()).append('(').append(name).append(" value) {\n");
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            sb.append("        if (value == ").append(name).append('.').append(value.getKey()).append(") {\n");
+            sb.append("            return ").append(quote(value.getValue())).append(";\n");
+            sb.append("        }\n");
+        }
+        sb.append("        throw new Unsupported(String.valueOf(value));\n");
+        sb.append("    }\n");
+    }
+    
+    /*
+     * The properties of a class, as JAXB finds them.
+     */
+    
+    /**
+     * @return the attributes, those of the class before those of its 
+     *          superclasses, in the order JAXB writes them.
+     */
+    private List<Property> attributes(Class<?> type) {
+        final List<Property> attributes = new ArrayList<>();
+        for (Class<?> c = type; isBean(c); c = c.getSuperclass()) {
+            for (Property p : properties(c)) {
+                if (p.kind == Kind.ATTRIBUTE) {
+                    attributes.add(p);
+                }
+            }
+        }
+        return attributes;
+    }
+    
+    /**
+     * @return the elements, text and mixed content, those of the 
+     *          superclasses first, each class's in its propOrder.
+     */
+    private List<Property> content(Class<?> type) {
+        final List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; isBean(c); c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        final List<Property> content = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            final List<Property> properties = new ArrayList<>();
+            for (Property p : properties(c)) {
+                if (p.kind != Kind.ATTRIBUTE) {
+                    properties.add(p);
+                }
+            }
+            final List<String> propOrder = Arrays.asList(c.getAnnotation(XmlType.class).propOrder());
+            if (!(propOrder.size() == 1 && propOrder.get(0).isEmpty())) {
+                final List<Property> ordered = new ArrayList<>();
+                for (String name : propOrder) {
+                    for (Property p : properties) {
+                        if (p.field.getName().equals(name)) {
+                            ordered.add(p);
+                        }
+                    }
+                }
+                if (ordered.size() != properties.size()) {
+                    throw new IllegalStateException(c.getName() + " has properties not in its propOrder");
+                }
+                properties.clear();
+                properties.addAll(ordered);
+            }
+            content.addAll(properties);
+        }
+        return content;
+    }
+    
+    private List<Property> properties(Class<?> type) {
+        final XmlAccessorType accessorType = type.getAnnotation(XmlAccessorType.class);
+        if (null == accessorType || accessorType.value() != XmlAccessType.FIELD) {
+            throw new IllegalStateException(type.getName() + " does not have field access");
+        }
+        final List<Property> properties = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            final int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                    || field.isAnnotationPresent(XmlTransient.class)) {
+                continue;
+            }
+            if (field.isAnnotationPresent(XmlAnyAttribute.class)) {
+                throw new IllegalStateException(type.getName() + "." + field.getName() + ": xs:anyAttribute is not supported");
+            }
+            final boolean list = List.class.isAssignableFrom(field.getType());
+            final Class<?> itemType = list ? listItemType(field) : field.getType();
+            final XmlAttribute attribute = field.getAnnotation(XmlAttribute.class);
+            final XmlElement element = field.getAnnotation(XmlElement.class);
+            if (null != attribute) {
+                if (!JAXB_DEFAULT.equals(attribute.namespace()) && !attribute.namespace().isEmpty()) {
+                    throw new IllegalStateException(type.getName() + "." + field.getName() + ": qualified attributes are not supported");
+                }
+                properties.add(new Property(field, Kind.ATTRIBUTE, "", name(attribute.name(), field), itemType, list, null));
+            } else if (field.isAnnotationPresent(XmlValue.class)) {
+                properties.add(new Property(field, Kind.VALUE, null, null, itemType, list, null));
+            } else if (field.isAnnotationPresent(XmlMixed.class) && field.isAnnotationPresent(XmlAnyElement.class)) {
+                if (!field.getAnnotation(XmlAnyElement.class).lax() || itemType != Object.class) {
+                    throw new IllegalStateException(type.getName() + "." + field.getName() + ": only lax mixed content is supported");
+                }
+                properties.add(new Property(field, Kind.MIXED, null, null, itemType, list, null));
+            } else if (null != element || field.getAnnotations().length == 0 
+                    || (field.getAnnotations().length == 1 && field.isAnnotationPresent(XmlSchemaType.class))
+                    || field.isAnnotationPresent(XmlJavaTypeAdapter.class)) {
+                String ns = qualified ? namespace : "";
+                String localName = field.getName();
+                String defaultValue = null;
+                if (null != element) {
+                    if (element.nillable()) {
+                        throw new IllegalStateException(type.getName() + "." + field.getName() + ": nillable elements are not supported");
+                    }
+                    // XJC names the value type of an adapted element, e.g. 
+                    // String for the primitive binding profile's longs.
+                    if (element.type() != XmlElement.DEFAULT.class && element.type() != adaptedType(field)) {
+                        throw new IllegalStateException(type.getName() + "." + field.getName() + ": typed elements are not supported");
+                    }
+                    ns = JAXB_DEFAULT.equals(element.namespace()) ? ns : element.namespace();
+                    localName = name(element.name(), field);
+                    defaultValue = NO_DEFAULT.equals(element.defaultValue()) ? null : element.defaultValue();
+                }
+                properties.add(new Property(field, Kind.ELEMENT, ns, localName, itemType, list, defaultValue));
+            } else {
+                throw new IllegalStateException(type.getName() + "." + field.getName() + " has an unsupported mapping");
+            }
+        }
+        return properties;
+    }
+    
+    private static Class<?> listItemType(Field field) {
+        final Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            final Type item = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (item instanceof Class) {
+                return (Class<?>) item;
+            }
+        }
+        throw new IllegalStateException(field + " is not a list of a class");
+    }
+    
+    /**
+     * @return the type a field's XmlJavaTypeAdapter adapts it to, or null if
+     *          it has no adapter.
+     */
+    private static Type adaptedType(Field field) {
+        final XmlJavaTypeAdapter annotation = field.getAnnotation(XmlJavaTypeAdapter.class);
+        if (null == annotation) {
+            return null;
+        }
+        final Type superclass = annotation.value().getGenericSuperclass();
+        return (superclass instanceof ParameterizedType) 
+                ? ((ParameterizedType) superclass).getActualTypeArguments()[0] 
+                : null;
+    }
+    
+    private static String name(String annotated, Field field) {
+        return JAXB_DEFAULT.equals(annotated) ? field.getName() : annotated;
+    }
+    
+    /**
+     * @return the static field holding the property's adapter, or null if 
+     *          it has none.
+     */
+    private String adapter(Property p) {
+        final XmlJavaTypeAdapter annotation = p.field.getAnnotation(XmlJavaTypeAdapter.class);
+        if (null == annotation) {
+            return null;
+        }
+        final Class<?> adapterClass = annotation.value();
+        final Type superclass = adapterClass.getGenericSuperclass();
+        if (!(superclass instanceof ParameterizedType) 
+                || ((ParameterizedType) superclass).getRawType() != XmlAdapter.class
+                || ((ParameterizedType) superclass).getActualTypeArguments()[0] != String.class) {
+            throw unsupported(p, "adapter " + adapterClass.getName() + " is not an XmlAdapter<String, ?>");
+        }
+        String name = adapters.get(adapterClass);
+        if (null == name) {
+            name = "ADAPTER_" + adapters.size();
+            adapters.put(adapterClass, name);
+        }
+        return name;
+    }
+    
+    /**
+     * Only xs:dateTime calendars are supported. XJC names the schema type of
+     * a calendar bound to a built-in type such as xs:date, but not always of 
+     * one bound to a simple type derived from it (e.g. TimestampLabelType), 
+     * and the only such types in the TAXII schemas restrict xs:dateTime.
+     */
+    private static void checkDateTime(Property p) {
+        final XmlSchemaType schemaType = p.field.getAnnotation(XmlSchemaType.class);
+        if (null != schemaType && !"dateTime".equals(schemaType.name())) {
+            throw unsupported(p, "calendar that isn't an xs:dateTime");
+        }
+    }
+    
+    /**
+     * @return true for a class XJC generated in this package.
+     */
+    private boolean isBean(Class<?> type) {
+        return null != type.getPackage() && packageName.equals(type.getPackage().getName()) 
+                && type.isAnnotationPresent(XmlType.class) && !type.isEnum();
+    }
+    
+    /**
+     * @return true for the root element of a class of another package, e.g.
+     *          an XML Digital Signature, which is read and written with JAXB.
+     */
+    private boolean isJaxbRoot(Property p) {
+        if (isBean(p.type)) {
+            return false;
+        }
+        final XmlRootElement root = p.type.getAnnotation(XmlRootElement.class);
+        if (null == root) {
+            return false;
+        }
+        final XmlSchema schema = p.type.getPackage().getAnnotation(XmlSchema.class);
+        final String rootNamespace = JAXB_DEFAULT.equals(root.namespace()) 
+                ? ((null == schema) ? "" : schema.namespace()) 
+                : root.namespace();
+        if (!rootNamespace.equals(p.namespace) || !root.name().equals(p.localName)) {
+            throw unsupported(p, "element named differently to the root element of " + p.type.getName());
+        }
+        return true;
+    }
+    
+    private String rootNamespace(Class<?> root) {
+        final String ns = root.getAnnotation(XmlRootElement.class).namespace();
+        return JAXB_DEFAULT.equals(ns) ? namespace : ns;
+    }
+    
+    private String nsConstant(String uri) {
+        String name = namespaces.get(uri);
+        if (null == name) {
+            name = "NS" + namespaces.size();
+            namespaces.put(uri, name);
+        }
+        return name;
+    }
+    
+    private String qualify(String uri, String localName) {
+        final String prefix = prefixes.get(uri);
+        if (null == prefix) {
+            throw new IllegalStateException("No prefix is declared for " + uri);
+        }
+        return prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+    
+    private String typeName(Class<?> type) {
+        final String typePackage = type.getPackage().getName();
+        return (packageName.equals(typePackage) || "java.lang".equals(typePackage)) ? type.getSimpleName() : type.getCanonicalName();
+    }
+    
+    private static IllegalStateException unsupported(Property p, String what) {
+        return new IllegalStateException(p.field.getDeclaringClass().getName() + "." + p.field.getName() + ": unsupported " + what);
+    }
+    
+    private static String quote(String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
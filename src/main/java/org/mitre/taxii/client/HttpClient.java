@@ -26,33 +26,74 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLException;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
 import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.ParseException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.mitre.taxii.Versions;
 import org.mitre.taxii.messages.TaxiiXml;
+import org.mitre.taxii.util.Validation;
+import org.xml.sax.SAXException;
 
 /**
  * <p>
@@ -93,10 +134,32 @@ import org.mitre.taxii.messages.TaxiiXml;
     // Call the service
     Object responseObj = taxiiClient.callTaxiiService(new URI(serverUrl), dr);
  </pre>
+ *
+ * <h3>Connection pooling</h3>
+ * <p>
+ * The underlying Apache HttpClient is kept open between calls, so connections
+ * (and TLS sessions) are reused by HTTP keep-alive. For heavy use, construct the
+ * client with {@link #HttpClient(int, int)} or
+ * {@link #HttpClient(PoolingHttpClientConnectionManager, long, TimeUnit)} to get
+ * a pooled client that limits the number of connections per route and in total,
+ * and that evicts expired and idle connections in the background.
+ * Either way, call {@link #close()} when the client is no longer needed.
+ * </p>
+ * <pre>
+    HttpClient taxiiClient = new HttpClient(100, 20);
+    try {
+        for (PollRequest pr : requests) {
+            Object responseObj = taxiiClient.callTaxiiService(pollUri, pr);
+            ...
+        }
+    } finally {
+        taxiiClient.close();
+    }
+ </pre>
  
  * @author jasenj1
  */
-public class HttpClient {
+public class HttpClient implements Closeable {
 
     public final static String SCHEME_HTTP = "http";
     public final static String SCHEME_HTTPS = "https";
@@ -115,9 +178,57 @@ public class HttpClient {
     /** The X-TAXII-Services header name */
     public final static String HEADER_X_TAXII_SERVICES = "x-taxii-services";
 
+    /** Default maximum number of pooled connections, across all routes. */
+    public final static int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+    /** Default maximum number of pooled connections to a single route (host). */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    /** Default time, in seconds, a pooled connection may sit idle before it is evicted. */
+    public final static long DEFAULT_MAX_IDLE_SECONDS = 30;
+    /** Default number of responses that may wait for asynchronous validation before more are dropped. */
+    public final static int DEFAULT_VALIDATION_QUEUE_SIZE = 1000;
+
     /** <a href="http://hc.apache.org">Apache Commons HTTP Client</a> that handles connection management */
     private CloseableHttpClient httpClient;
 
+    /** true if this object created the Apache client, and so may close it when it is replaced. */
+    private boolean ownsHttpClient = false;
+
+    /** Background task that evicts expired and idle pooled connections. null if not pooled. */
+    private ScheduledExecutorService connectionEvictor;
+
+    /** Whether request bodies are sent with chunked transfer encoding. */
+    private boolean chunkedRequests = true;
+
+    /** Largest response body, in bytes, that will be unmarshalled. Negative for no limit. */
+    private long maxResponseSize = -1;
+
+    /** Non-blocking Apache HttpAsyncClient used by callTaxiiServiceAsync. Created on first use. */
+    private CloseableHttpAsyncClient asyncHttpClient;
+
+    /** Runs marshalling and unmarshalling for callTaxiiServiceAsync. Created on first use. */
+    private Executor executor;
+
+    /** true if this object created the executor, and so must shut it down. */
+    private boolean ownsExecutor = false;
+
+    /** How responses are validated, unless there is a policy for the request class. */
+    private volatile ValidationPolicy defaultValidationPolicy = new ValidationPolicy(ResponseValidation.OFF, 0);
+
+    /** How responses are validated, by the class of the request they answer. */
+    private final ConcurrentMap<Class<?>, ValidationPolicy> validationPolicies = new ConcurrentHashMap<>();
+
+    /** Told about responses that fail validation. Responses aren't validated without one. */
+    private volatile ResponseValidationListener responseValidationListener;
+
+    /** Runs asynchronous response validation. Created on first use. */
+    private ExecutorService validationExecutor;
+
+    /** true if this object created the validation executor, and so must shut it down. */
+    private boolean ownsValidationExecutor = false;
+
+    /** The number of responses not validated asynchronously because the executor was full. */
+    private final AtomicLong droppedValidations = new AtomicLong();
+
     // Structures to handle multiple versions of TAXII
     
     /**
@@ -178,6 +289,71 @@ public class HttpClient {
      */
     public HttpClient() {
         this(HttpClientBuilder.create().useSystemProperties().build());
+        ownsHttpClient = true;
+    }
+
+    /**
+     * Create a connection pooling client that handles TAXII 1.0 and 1.1.
+     * Idle connections are evicted after {@link #DEFAULT_MAX_IDLE_SECONDS}.
+     *
+     * @param maxTotal maximum number of open connections, across all routes.
+     * @param maxPerRoute maximum number of open connections to a single route.
+     */
+    public HttpClient(int maxTotal, int maxPerRoute) {
+        this(newConnectionManager(maxTotal, maxPerRoute), DEFAULT_MAX_IDLE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create a client that handles TAXII 1.0 and 1.1 and draws its connections
+     * from the given pool. Expired connections, and connections that have been
+     * idle longer than maxIdleTime, are closed by a background thread.
+     * The pool is shut down when this client is closed.
+     *
+     * @param connectionManager the pool to draw connections from.
+     * @param maxIdleTime how long a connection may sit idle in the pool.
+     * @param unit the time unit of maxIdleTime.
+     */
+    public HttpClient(final PoolingHttpClientConnectionManager connectionManager, final long maxIdleTime, final TimeUnit unit) {
+        this(HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .build());
+        ownsHttpClient = true;
+        startConnectionEvictor(connectionManager, maxIdleTime, unit);
+    }
+
+    /**
+     * Create a pooling connection manager with the given limits.
+     */
+    private static PoolingHttpClientConnectionManager newConnectionManager(int maxTotal, int maxPerRoute) {
+        final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(maxTotal);
+        cm.setDefaultMaxPerRoute(maxPerRoute);
+        return cm;
+    }
+
+    /**
+     * Periodically close expired connections and connections that have been
+     * idle too long. Apache HttpClient 4.3 does not do this on its own.
+     */
+    private void startConnectionEvictor(final PoolingHttpClientConnectionManager connectionManager, final long maxIdleTime, final TimeUnit unit) {
+        connectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "java-taxii-connection-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Check at least as often as connections may go idle, but no more than once a second.
+        final long period = Math.max(unit.toMillis(maxIdleTime) / 2, 1000);
+        connectionEvictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(maxIdleTime, unit);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -215,6 +391,9 @@ public class HttpClient {
      * in the "x-taxii-accept" header. This library only sets and sends the
      * version of the message being sent.
      *
+     * The underlying Apache HttpClient is left open so that its connections
+     * can be reused by later calls. Call {@link #close()} when done.
+     *
      * @param uri The address of the endpoint to send the message to
      * @param message The message to send.
      * @param context The context to send with the response (to allow preemptive authentication)
@@ -227,6 +406,125 @@ public class HttpClient {
      */
     public Object callTaxiiService(final URI uri, final Object message, HttpClientContext context) throws JAXBException, UnsupportedEncodingException, IOException {
 
+        final TaxiiXml taxiiXml = getTaxiiXmlForMessage(message);
+        final HttpPost postRequest = buildPostRequest(uri, message, taxiiXml);
+
+        Object resultObj = null;
+
+        // Do the request
+        try (CloseableHttpResponse response = httpClient.execute(postRequest,context)) {
+            resultObj = handleResponse(uri, response, message, taxiiXml);
+            // Make sure the response is fully read so the connection can be reused.
+            EntityUtils.consumeQuietly(response.getEntity());
+        } catch (SSLException ex) {
+            resultObj = taxiiXml.getResponseHandler().buildSSLErrorStatusMessage(ex, message);
+        } catch (IOException ex) {
+            // The message is marshalled while the request is written; report marshalling errors as such.
+            if (ex.getCause() instanceof JAXBException) {
+                throw (JAXBException) ex.getCause();
+            }
+            throw ex;
+        }
+        return resultObj;
+    }
+
+    /**
+     * Send a TAXII message to an endpoint without blocking the calling thread.
+     *
+     * @see #callTaxiiServiceAsync(URI, Object, HttpClientContext, FutureCallback)
+     * 
+     * @param uri The address of the endpoint to send the message to
+     * @param message The message to send.
+     * @return a Future that will hold the TAXII response object.
+     */
+    public Future<Object> callTaxiiServiceAsync(final URI uri, final Object message) {
+        return callTaxiiServiceAsync(uri, message, null, null);
+    }
+
+    /**
+     * Send a TAXII message to an endpoint without blocking the calling thread.
+     * This behaves like {@link #callTaxiiService(URI, Object, HttpClientContext)},
+     * except that the HTTP exchange is done by a non-blocking Apache
+     * HttpAsyncClient, and the message is marshalled and the response
+     * unmarshalled on the executor set by {@link #setExecutor(Executor)}.
+     * 
+     * Non-200 responses and TLS failures are turned into Status Messages by the
+     * {@link HttpResponseErrorHandler} of the message's TAXII version, just as
+     * they are for the blocking call. Any other failure (e.g. a
+     * {@link JAXBException} or {@link IOException}) is reported through 
+     * {@link Future#get()} as an {@link java.util.concurrent.ExecutionException}
+     * and to the callback's failed() method.
+     *
+     * @param uri The address of the endpoint to send the message to
+     * @param message The message to send.
+     * @param context The context to send with the response (to allow preemptive authentication). May be null.
+     * @param callback Notified when the call completes. May be null.
+     * @return a Future that will hold the TAXII response object.
+     */
+    public Future<Object> callTaxiiServiceAsync(final URI uri, final Object message, final HttpClientContext context, final FutureCallback<Object> callback) {
+        final BasicFuture<Object> result = new BasicFuture<>(callback);
+        final Executor exec = getExecutor();
+        final CloseableHttpAsyncClient client = getAsyncHttpClient();
+
+        exec.execute(new Runnable() {
+            @Override
+            public void run() {
+                final TaxiiXml taxiiXml;
+                final HttpPost postRequest;
+                try {
+                    taxiiXml = getTaxiiXmlForMessage(message);
+                    postRequest = buildPostRequest(uri, message, taxiiXml);
+                } catch (JAXBException | IOException | RuntimeException ex) {
+                    result.failed(ex);
+                    return;
+                }
+
+                client.execute(HttpAsyncMethods.create(postRequest), new LimitedResponseConsumer(maxResponseSize), 
+                        context, new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(final HttpResponse response) {
+                        // Don't tie up the I/O dispatch thread with unmarshalling.
+                        exec.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    result.completed(handleResponse(uri, new AsyncResponse(response), message, taxiiXml));
+                                } catch (SSLException ex) {
+                                    result.completed(taxiiXml.getResponseHandler().buildSSLErrorStatusMessage(ex, message));
+                                } catch (JAXBException | IOException | RuntimeException ex) {
+                                    result.failed(ex);
+                                } finally {
+                                    EntityUtils.consumeQuietly(response.getEntity());
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        if (ex instanceof SSLException) {
+                            result.completed(taxiiXml.getResponseHandler().buildSSLErrorStatusMessage((SSLException) ex, message));
+                        } else {
+                            result.failed(ex);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel();
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Find the TaxiiXml that handles the version of the given message.
+     * 
+     * @throws JAXBException if the message is of an unknown TAXII version.
+     */
+    private TaxiiXml getTaxiiXmlForMessage(final Object message) throws JAXBException {
         // Figure out the version of the message.
         String msgPackage = message.getClass().getPackage().getName();
 
@@ -245,96 +543,567 @@ public class HttpClient {
          if (null == taxiiXml) {
             throw new JAXBException("Message is unknown TAXII version.");
         }
+        return taxiiXml;
+    }
+
+    /**
+     * Build the HTTP POST, with the TAXII headers and the serialized message, 
+     * to send to the endpoint.
+     */
+    private HttpPost buildPostRequest(final URI uri, final Object message, final TaxiiXml taxiiXml) throws IOException {
+        final String msgVersion = taxiiXml.getTaxiiVersion();
+
+        // The TAXII messages must be sent as POST.
+        HttpPost postRequest = new HttpPost(uri);            
+
+        // Set the required HTTP Headers.
+        postRequest.addHeader("User-Agent", "java-taxii.httpclient");
+        postRequest.addHeader(HEADER_CONTENT_TYPE, "application/xml");
+        postRequest.addHeader(HEADER_ACCEPT, "application/xml");
+        if (taxiiXml.isRequestMessage(message)) {
+            // Should be present for requests. Should NOT be present for responses.
+            postRequest.addHeader(HEADER_X_TAXII_ACCEPT, msgVersion);
+        }
+        postRequest.addHeader(HEADER_X_TAXII_CONTENT_TYPE, msgVersion);
+        postRequest.addHeader(HEADER_X_TAXII_SERVICES, taxiiXml.getServiceVersion());
+        
+        // validate the scheme (HTTP or HTTPS)
+        if (null == postRequest.getURI().getScheme()) {
+            throw new IOException("Invalid service URI.");
+        } else if (!(postRequest.getURI().getScheme().toLowerCase().equals(SCHEME_HTTP) || 
+                postRequest.getURI().getScheme().toLowerCase().equals(SCHEME_HTTPS))) {
+            throw new IOException("Invalid service URI. Only 'http' or 'https' are supported");                
+        }
+
+        if (postRequest.getURI().getScheme().equals(SCHEME_HTTPS)) {
+            postRequest.addHeader(HEADER_X_TAXII_PROTOCOL, Versions.VID_TAXII_HTTPS_10);
+        } else {
+            postRequest.addHeader(HEADER_X_TAXII_PROTOCOL, Versions.VID_TAXII_HTTP_10);
+        }
 
-        // we now have a TaxiiXml that knows how to handle the message we receieved.
-        String resultStr = null;
+        // The message is marshalled straight to the connection when the request is sent.
+        TaxiiMessageEntity reqEntity = new TaxiiMessageEntity(taxiiXml, message);
+        reqEntity.setChunked(chunkedRequests);
+        postRequest.setEntity(reqEntity);
+
+        return postRequest;
+    }
+
+    /**
+     * Turn the HTTP response into a TAXII message. Either the response body is
+     * unmarshalled or, if the response is not a TAXII message of the expected
+     * version, a Status Message is built from the HTTP status.
+     * 
+     * If the body is to be validated, it is read into memory first, so that 
+     * the bytes that were received can be validated.
+     */
+    private Object handleResponse(final URI uri, final CloseableHttpResponse response, final Object message, final TaxiiXml taxiiXml) throws JAXBException, IOException {
+        final String msgVersion = taxiiXml.getTaxiiVersion();
         Object resultObj = null;
 
-        // Make the call to the server.
+        // Check that we got the TAXII Content Type we're expecting.
+        Header[] headers = response.getHeaders(HEADER_X_TAXII_CONTENT_TYPE);
+        List<Header> headerList = Arrays.asList(headers);
+
+        boolean contentFound = false;
+        for (Header header : headerList) {
+            if (msgVersion.equals(header.getValue())) {
+                contentFound = true;
+                break;
+            }
+        }
+
+        if (!contentFound) { // Response is not a TAXII Message we understand.
+            // go create a TAXII status message based on the headers.
+            resultObj = taxiiXml.getResponseHandler().buildStatusCodeStatusMessage(response, message);
+        } else { // We should know how to handle the response.
+
+            // Unmarshal straight from the response body, rather than reading
+            // it into a String first.
+            HttpEntity respEntity = response.getEntity();
+            if (null == respEntity) {
+                throw new JAXBException("Unable to unmarshal response.");
+            }
+            if (maxResponseSize >= 0 && respEntity.getContentLength() > maxResponseSize) {
+                abortResponse(response);
+                throw new IOException("Response of " + respEntity.getContentLength() 
+                        + " bytes exceeds the maximum response size of " + maxResponseSize + " bytes.");
+            }
+
+            final ResponseValidation validation = getValidationFor(message);
+            byte[] body = null;
+
+            // Attempt to parse the response into a JAXB object regardless of the 
+            // HTTP status code.
+            Unmarshaller um = taxiiXml.borrowUnmarshaller();
+            try (LimitedInputStream limited = new LimitedInputStream(respEntity.getContent(), maxResponseSize)) {
+                InputStream in = limited;
+                try {
+                    if (ResponseValidation.OFF != validation) {
+                        body = readFully(limited);
+                        in = new ByteArrayInputStream(body);
+                    }
+                    Charset charset = getCharset(respEntity);
+                    if (null != charset) {
+                        // The charset in the HTTP header wins over the XML declaration.
+                        resultObj = um.unmarshal(new InputStreamReader(in, charset));
+                    } else {
+                        // Let the parser work out the encoding from the document itself.
+                        resultObj = um.unmarshal(in);
+                    }
+                } catch (Exception ex) {
+                    if (limited.isLimitExceeded()) {
+                        abortResponse(response);
+                        throw new IOException("Response exceeds the maximum response size of " + maxResponseSize + " bytes.", ex);
+                    }
+                    // The body is read while it is parsed, so a failure of the
+                    // connection shows up wrapped in a parse error.
+                    IOException ioe = findIOException(ex);
+                    if (null != ioe) {
+                        abortResponse(response);
+                        throw ioe;
+                    }
+                    // We were told the response would be a TAXII Message, but 
+                    // it couldn't be parsed.
+                    throw new JAXBException("Unable to unmarshal response.", ex);
+                }
+            } finally {
+                taxiiXml.returnUnmarshaller(um);
+            }
+            if (null != body) {
+                validateResponse(validation, uri, message, resultObj, taxiiXml, body);
+            }
+        }
+        return resultObj;
+    }
+
+    /**
+     * Find the IOException, if any, behind an exception thrown while a
+     * response was unmarshalled.
+     * 
+     * @return the IOException, or null if the failure wasn't one of I/O.
+     */
+    private static IOException findIOException(Throwable ex) {
+        Throwable t = ex;
+        while (null != t) {
+            if (t instanceof IOException) {
+                return (IOException) t;
+            }
+            Throwable next = t.getCause();
+            if (null == next && t instanceof JAXBException) {
+                next = ((JAXBException) t).getLinkedException();
+            }
+            t = (next == t) ? null : next;
+        }
+        return null;
+    }
+
+    /**
+     * Decide whether, and how, to validate the response to a request.
+     * 
+     * @return OFF, or the mode of the request's policy if the response is sampled.
+     */
+    private ResponseValidation getValidationFor(final Object request) {
+        if (null == responseValidationListener) {
+            return ResponseValidation.OFF;
+        }
+        ValidationPolicy policy = validationPolicies.get(request.getClass());
+        if (null == policy) {
+            policy = defaultValidationPolicy;
+        }
+        if (ResponseValidation.OFF == policy.mode
+                || (policy.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= policy.sampleRate)) {
+            return ResponseValidation.OFF;
+        }
+        return policy.mode;
+    }
+
+    /**
+     * Validate the body of a response, and tell the listener if it fails.
+     */
+    private void validateResponse(final ResponseValidation validation, final URI uri, 
+            final Object request, final Object response, final TaxiiXml taxiiXml, final byte[] body) {
+        final ResponseValidationListener listener = responseValidationListener;
+        if (null == listener) {
+            return;
+        }
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Validation results = taxiiXml.validateAll(ByteBuffer.wrap(body), true);
+                    if (results.isFailure()) {
+                        listener.invalidResponse(uri, request, response, results);
+                    }
+                } catch (JAXBException | SAXException | IOException | RuntimeException ex) {
+                    listener.validationFailed(uri, request, response, ex);
+                }
+            }
+        };
+        if (ResponseValidation.ASYNC == validation) {
+            try {
+                getValidationExecutor().execute(task);
+            } catch (RejectedExecutionException ex) {
+                droppedValidations.incrementAndGet();
+            }
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Read the rest of a stream into memory.
+     */
+    private static byte[] readFully(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the charset given in the Content-Type header of the entity.
+     * 
+     * @return the charset, or null if there is none or it is not supported.
+     */
+    private static Charset getCharset(final HttpEntity entity) {
         try {
-            // The TAXII messages must be sent as POST.
-            HttpPost postRequest = new HttpPost(uri);            
-
-            // Set the required HTTP Headers.
-            postRequest.addHeader("User-Agent", "java-taxii.httpclient");
-            postRequest.addHeader(HEADER_CONTENT_TYPE, "application/xml");
-            postRequest.addHeader(HEADER_ACCEPT, "application/xml");
-            if (taxiiXml.isRequestMessage(message)) {
-                // Should be present for requests. Should NOT be present for responses.
-                postRequest.addHeader(HEADER_X_TAXII_ACCEPT, msgVersion);
+            ContentType contentType = ContentType.get(entity);
+            return (null == contentType) ? null : contentType.getCharset();
+        } catch (ParseException | UnsupportedCharsetException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * A response of the asynchronous client as a CloseableHttpResponse, the
+     * type the HttpResponseErrorHandler is handed. Closing it discards
+     * whatever is left of the body.
+     */
+    private static final class AsyncResponse implements CloseableHttpResponse {
+        private final HttpResponse response;
+
+        AsyncResponse(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void close() {
+            EntityUtils.consumeQuietly(getEntity());
+        }
+
+        @Override
+        public StatusLine getStatusLine() {
+            return response.getStatusLine();
+        }
+
+        @Override
+        public void setStatusLine(StatusLine statusline) {
+            response.setStatusLine(statusline);
+        }
+
+        @Override
+        public void setStatusLine(ProtocolVersion ver, int code) {
+            response.setStatusLine(ver, code);
+        }
+
+        @Override
+        public void setStatusLine(ProtocolVersion ver, int code, String reason) {
+            response.setStatusLine(ver, code, reason);
+        }
+
+        @Override
+        public void setStatusCode(int code) {
+            response.setStatusCode(code);
+        }
+
+        @Override
+        public void setReasonPhrase(String reason) {
+            response.setReasonPhrase(reason);
+        }
+
+        @Override
+        public HttpEntity getEntity() {
+            return response.getEntity();
+        }
+
+        @Override
+        public void setEntity(HttpEntity entity) {
+            response.setEntity(entity);
+        }
+
+        @Override
+        public Locale getLocale() {
+            return response.getLocale();
+        }
+
+        @Override
+        public void setLocale(Locale loc) {
+            response.setLocale(loc);
+        }
+
+        @Override
+        public ProtocolVersion getProtocolVersion() {
+            return response.getProtocolVersion();
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            return response.containsHeader(name);
+        }
+
+        @Override
+        public Header[] getHeaders(String name) {
+            return response.getHeaders(name);
+        }
+
+        @Override
+        public Header getFirstHeader(String name) {
+            return response.getFirstHeader(name);
+        }
+
+        @Override
+        public Header getLastHeader(String name) {
+            return response.getLastHeader(name);
+        }
+
+        @Override
+        public Header[] getAllHeaders() {
+            return response.getAllHeaders();
+        }
+
+        @Override
+        public void addHeader(Header header) {
+            response.addHeader(header);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            response.addHeader(name, value);
+        }
+
+        @Override
+        public void setHeader(Header header) {
+            response.setHeader(header);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            response.setHeader(name, value);
+        }
+
+        @Override
+        public void setHeaders(Header[] headers) {
+            response.setHeaders(headers);
+        }
+
+        @Override
+        public void removeHeader(Header header) {
+            response.removeHeader(header);
+        }
+
+        @Override
+        public void removeHeaders(String name) {
+            response.removeHeaders(name);
+        }
+
+        @Override
+        public HeaderIterator headerIterator() {
+            return response.headerIterator();
+        }
+
+        @Override
+        public HeaderIterator headerIterator(String name) {
+            return response.headerIterator(name);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public org.apache.http.params.HttpParams getParams() {
+            return response.getParams();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setParams(org.apache.http.params.HttpParams params) {
+            response.setParams(params);
+        }
+    }
+
+    /**
+     * Close the connection behind a response without reading the rest of the
+     * body. The connection will not be reused.
+     */
+    private static void abortResponse(final HttpResponse response) {
+        if (response instanceof Closeable) {
+            try {
+                ((Closeable) response).close();
+            } catch (IOException ex) {
+                // Don't care
             }
-            postRequest.addHeader(HEADER_X_TAXII_CONTENT_TYPE, msgVersion);
-            postRequest.addHeader(HEADER_X_TAXII_SERVICES, taxiiXml.getServiceVersion());
-            
-            // validate the scheme (HTTP or HTTPS)
-            if (null == postRequest.getURI().getScheme()) {
-                throw new IOException("Invalid service URI.");
-            } else if (!(postRequest.getURI().getScheme().toLowerCase().equals(SCHEME_HTTP) || 
-                    postRequest.getURI().getScheme().toLowerCase().equals(SCHEME_HTTPS))) {
-                throw new IOException("Invalid service URI. Only 'http' or 'https' are supported");                
+        }
+    }
+
+    /**
+     * Fails reads once more than a given number of bytes has been read, so 
+     * that an oversized response is abandoned instead of being parsed to 
+     * the end.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count = 0;
+        private boolean limitExceeded = false;
+
+        /**
+         * @param in the stream to read from.
+         * @param limit the maximum number of bytes that may be read, or a 
+         *              negative number for no limit.
+         */
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
             }
+            return b;
+        }
 
-            if (postRequest.getURI().getScheme().equals(SCHEME_HTTPS)) {
-                postRequest.addHeader(HEADER_X_TAXII_PROTOCOL, Versions.VID_TAXII_HTTPS_10);
-            } else {
-                postRequest.addHeader(HEADER_X_TAXII_PROTOCOL, Versions.VID_TAXII_HTTP_10);
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
             }
+            return n;
+        }
 
-            // Serialize the message.
-            final Marshaller m = taxiiXml.createMarshaller(false); // Don't pretty print.
-            m.setProperty(Marshaller.JAXB_FRAGMENT, true); // Don't generate xml declaration.
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
 
-            // Render the JAXB object to a string.
-            final StringWriter sw = new StringWriter();
-            m.marshal(message, sw);
-            String requestStr = sw.toString();
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
 
-            // Put the XML string in an entiny for the Request.
-            StringEntity reqEntity = new StringEntity(requestStr, "UTF-8");
-            postRequest.setEntity(reqEntity);
+        private void count(long n) throws IOException {
+            count += n;
+            if (limit >= 0 && count > limit) {
+                limitExceeded = true;
+                throw new IOException("Response exceeds " + limit + " bytes.");
+            }
+        }
+    }
 
-            // Do the request
-            try (CloseableHttpResponse response = httpClient.execute(postRequest,context)) {
+    /**
+     * Buffers the response of the asynchronous client, like the default 
+     * BasicAsyncResponseConsumer, but refuses a response that declares a 
+     * Content-Length over the limit and fails as soon as more bytes than the 
+     * limit have arrived, rather than buffering the whole body first.
+     */
+    private static class LimitedResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+        /** The most that is allocated for the body before any of it arrives. */
+        private static final int MAX_INITIAL_BUFFER = 64 * 1024;
 
-                // Check that we got the TAXII Content Type we're expecting.
-                Header[] headers = response.getHeaders(HEADER_X_TAXII_CONTENT_TYPE);
-                List<Header> headerList = Arrays.asList(headers);
+        private final long limit;
+        private long count = 0;
+        private volatile HttpResponse response;
+        private volatile SimpleInputBuffer buf;
 
-                boolean contentFound = false;
-                for (Header header : headerList) {
-                    if (msgVersion.equals(header.getValue())) {
-                        contentFound = true;
-                        break;
-                    }
-                }
+        /**
+         * @param limit the maximum number of bytes that may be received, or a 
+         *              negative number for no limit.
+         */
+        LimitedResponseConsumer(long limit) {
+            this.limit = limit;
+        }
 
-                if (!contentFound) { // Response is not a TAXII Message we understand.
-                    // go create a TAXII status message based on the headers.
-                    resultObj = taxiiXml.getResponseHandler().buildStatusCodeStatusMessage(response, message);
-                } else { // We should know how to handle the response.
-
-                    // Extract the response body.
-                    HttpEntity respEntity = response.getEntity();
-                    resultStr = EntityUtils.toString(respEntity);
-
-                    // Attempt to parse the response into a JAXB object regardless of the 
-                    // HTTP status code.
-                    Unmarshaller um = taxiiXml.getJaxbContext().createUnmarshaller();
-                    try {
-                        resultObj = um.unmarshal(new StringReader(resultStr));
-                    } catch (Exception ex) {
-                        // We were told the response would be a TAXII Message, but 
-                        // it couldn't be parsed.
-                        throw new JAXBException("Unable to unmarshal response.");                        
-                    }
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            long len = entity.getContentLength();
+            if (limit >= 0 && len > limit) {
+                throw new IOException("Response of " + len 
+                        + " bytes exceeds the maximum response size of " + limit + " bytes.");
+            }
+            if (len < 0) {
+                len = 4096;
+            }
+            buf = new SimpleInputBuffer((int) Math.min(len, MAX_INITIAL_BUFFER), new HeapByteBufferAllocator());
+            response.setEntity(new ContentBufferEntity(entity, buf));
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            int n = buf.consumeContent(decoder);
+            if (n > 0) {
+                count += n;
+                if (limit >= 0 && count > limit) {
+                    throw new IOException("Response exceeds the maximum response size of " + limit + " bytes.");
                 }
-            } catch (SSLException ex) {
-                resultObj = taxiiXml.getResponseHandler().buildSSLErrorStatusMessage(ex, message);
             }
-        } finally {
-            httpClient.close();
         }
-        return resultObj;
+
+        @Override
+        protected void releaseResources() {
+            response = null;
+            buf = null;
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            return response;
+        }
+    }
+
+    /**
+     * Release the underlying Apache HttpClient, along with any pooled
+     * connections. The TAXII client can not be used after it is closed.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (null != connectionEvictor) {
+            connectionEvictor.shutdownNow();
+            connectionEvictor = null;
+        }
+        synchronized (this) {
+            if (ownsExecutor) {
+                ((ExecutorService) executor).shutdown();
+                executor = null;
+                ownsExecutor = false;
+            }
+            if (ownsValidationExecutor) {
+                validationExecutor.shutdown();
+                validationExecutor = null;
+                ownsValidationExecutor = false;
+            }
+            if (null != asyncHttpClient) {
+                asyncHttpClient.close();
+                asyncHttpClient = null;
+            }
+        }
+        httpClient.close();
     }
 
     /**
@@ -368,11 +1137,272 @@ public class HttpClient {
      * Set the Apache Components HTTP Client.
      * This method is very useful when needing an HttpClient configured to use a
      * proxy or SSL certificates or other authorization technique.
+     * <p>
+     * If this object created the client being replaced, that client is 
+     * closed, along with its pooled connections. A client passed to a 
+     * constructor is left open. The background eviction of idle connections
+     * from the old pool is stopped. The new client is closed by 
+     * {@link #close()}.
      * 
      * @param httpclient 
      */
     public void setHttpclient(CloseableHttpClient httpclient) {
+        final CloseableHttpClient old = this.httpClient;
+        final boolean ownedOld = ownsHttpClient;
         this.httpClient = httpclient;
+        ownsHttpClient = false;
+        if (null != connectionEvictor) {
+            connectionEvictor.shutdownNow();
+            connectionEvictor = null;
+        }
+        if (ownedOld && null != old && old != httpclient) {
+            try {
+                old.close();
+            } catch (IOException ex) {
+                // Don't care
+            }
+        }
+    }
+
+    /**
+     * Whether request bodies are sent with chunked transfer encoding.
+     *
+     * @return true if requests are chunked, the default.
+     */
+    public boolean isChunkedRequests() {
+        return chunkedRequests;
+    }
+
+    /**
+     * Set whether request bodies are sent with chunked transfer encoding.
+     * Either way, the message is marshalled straight to the connection.
+     * Turn chunking off for servers that require a Content-Length; the message
+     * will then be marshalled twice, once to measure it and once to send it.
+     *
+     * @param chunkedRequests
+     */
+    public void setChunkedRequests(boolean chunkedRequests) {
+        this.chunkedRequests = chunkedRequests;
+    }
+
+    /**
+     * Get the largest response body, in bytes, that will be unmarshalled.
+     *
+     * @return the maximum response size, or a negative number if there is no limit.
+     */
+    public long getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    /**
+     * Set the largest response body, in bytes, that will be unmarshalled.
+     * A response that declares a larger Content-Length is refused before it is
+     * read, and one that turns out to be larger while it is being parsed is 
+     * abandoned. In both cases the connection is closed and an IOException 
+     * is thrown. There is no limit by default.
+     * 
+     * callTaxiiServiceAsync receives the whole response before it is parsed,
+     * so there the limit is checked while the body arrives: a response that
+     * declares a larger Content-Length is refused before its body is buffered,
+     * and one that turns out to be larger fails once the limit is passed.
+     *
+     * @param maxResponseSize the maximum response size, or a negative number for no limit.
+     */
+    public void setMaxResponseSize(long maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * Get the Apache Components HTTP Async Client used by callTaxiiServiceAsync.
+     * If none was set, a default one, configured from the system properties,
+     * is created and started.
+     *
+     * @return the started Apache Components HTTP Async Client.
+     */
+    public synchronized CloseableHttpAsyncClient getAsyncHttpClient() {
+        if (null == asyncHttpClient) {
+            asyncHttpClient = HttpAsyncClients.custom().useSystemProperties().build();
+        }
+        if (!asyncHttpClient.isRunning()) {
+            asyncHttpClient.start();
+        }
+        return asyncHttpClient;
+    }
+
+    /**
+     * Set the Apache Components HTTP Async Client used by callTaxiiServiceAsync.
+     * Like {@link #setHttpclient(CloseableHttpClient)}, this is how to use a proxy,
+     * SSL certificates or other authorization with asynchronous calls.
+     * The client will be started if it is not already running.
+     *
+     * @param asyncHttpClient
+     */
+    public synchronized void setAsyncHttpClient(CloseableHttpAsyncClient asyncHttpClient) {
+        this.asyncHttpClient = asyncHttpClient;
+    }
+
+    /**
+     * Get the executor that marshals and unmarshals messages for
+     * callTaxiiServiceAsync. If none was set, a cached pool of daemon threads 
+     * is created, which is shut down by {@link #close()}.
+     *
+     * @return the executor used for asynchronous calls.
+     */
+    public synchronized Executor getExecutor() {
+        if (null == executor) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "java-taxii-async");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            ownsExecutor = true;
+        }
+        return executor;
+    }
+
+    /**
+     * Set the executor that marshals and unmarshals messages for
+     * callTaxiiServiceAsync. The caller remains responsible for shutting it down.
+     *
+     * @param executor
+     */
+    public synchronized void setExecutor(Executor executor) {
+        if (ownsExecutor) {
+            ((ExecutorService) this.executor).shutdown();
+            ownsExecutor = false;
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * How the responses a client receives are validated.
+     * 
+     * @see HttpClient#setResponseValidation(ResponseValidation, double)
+     */
+    public enum ResponseValidation {
+        /** Responses are not validated. The default. */
+        OFF,
+        /** Responses are validated before the call returns. */
+        INLINE,
+        /** Responses are validated on a background thread after the call returns. */
+        ASYNC
+    }
+
+    /**
+     * How the responses to one class of request are validated.
+     */
+    private static final class ValidationPolicy {
+        final ResponseValidation mode;
+        final double sampleRate;
+
+        ValidationPolicy(ResponseValidation mode, double sampleRate) {
+            if (sampleRate < 0.0 || sampleRate > 1.0) {
+                throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + sampleRate);
+            }
+            this.mode = mode;
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * Set how responses are validated, unless there is a policy for the
+     * class of the request. 
+     * 
+     * A sampled response is read into memory, unmarshalled, and its bytes 
+     * validated by {@link TaxiiXml#validateAll(ByteBuffer, boolean)}, 
+     * including spec conformance. Failures are reported to the 
+     * {@link ResponseValidationListener}, never to the caller; there is no 
+     * validation while no listener is set. Status Messages made up from HTTP 
+     * errors are not validated.
+     * 
+     * With INLINE validation the listener has been told before the call 
+     * returns. ASYNC validation is queued on the validation executor; if 
+     * that is full, the response isn't validated, and is counted by 
+     * {@link #getDroppedValidations()}.
+     *
+     * @param mode how sampled responses are validated.
+     * @param sampleRate the fraction of responses to validate, e.g. 0.01 for 1%.
+     */
+    public void setResponseValidation(ResponseValidation mode, double sampleRate) {
+        defaultValidationPolicy = new ValidationPolicy(mode, sampleRate);
+    }
+
+    /**
+     * Set how the responses to a class of request, e.g. PollRequest, are validated.
+     * 
+     * @see #setResponseValidation(ResponseValidation, double)
+     * 
+     * @param requestClass the class of the TAXII messages sent.
+     * @param mode how sampled responses are validated.
+     * @param sampleRate the fraction of responses to validate, e.g. 0.01 for 1%.
+     */
+    public void setResponseValidation(Class<?> requestClass, ResponseValidation mode, double sampleRate) {
+        validationPolicies.put(requestClass, new ValidationPolicy(mode, sampleRate));
+    }
+
+    public ResponseValidationListener getResponseValidationListener() {
+        return responseValidationListener;
+    }
+
+    /**
+     * Set who is told about responses that fail validation. 
+     * 
+     * @param listener the listener, or null to stop validating responses.
+     */
+    public void setResponseValidationListener(ResponseValidationListener listener) {
+        this.responseValidationListener = listener;
+    }
+
+    /**
+     * Get the executor that validates responses asynchronously. If none was 
+     * set, a single daemon thread with a queue of 
+     * {@link #DEFAULT_VALIDATION_QUEUE_SIZE} responses is created, which is 
+     * shut down by {@link #close()}.
+     *
+     * @return the executor used for asynchronous validation.
+     */
+    public synchronized ExecutorService getValidationExecutor() {
+        if (null == validationExecutor) {
+            validationExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(DEFAULT_VALIDATION_QUEUE_SIZE),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "java-taxii-validation");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            ownsValidationExecutor = true;
+        }
+        return validationExecutor;
+    }
+
+    /**
+     * Set the executor that validates responses asynchronously. It should be 
+     * bounded, and reject work when it is full, so that validation can't 
+     * fall behind without limit. The caller remains responsible for shutting 
+     * it down.
+     *
+     * @param validationExecutor
+     */
+    public synchronized void setValidationExecutor(ExecutorService validationExecutor) {
+        if (ownsValidationExecutor) {
+            this.validationExecutor.shutdown();
+            ownsValidationExecutor = false;
+        }
+        this.validationExecutor = validationExecutor;
+    }
+
+    /**
+     * @return the number of responses that were sampled for asynchronous 
+     *          validation, but dropped because the validation executor was full.
+     */
+    public long getDroppedValidations() {
+        return droppedValidations.get();
     }
 
     /**
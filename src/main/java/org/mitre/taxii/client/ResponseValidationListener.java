@@ -0,0 +1,64 @@
+package org.mitre.taxii.client;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.net.URI;
+
+import org.mitre.taxii.util.Validation;
+
+/**
+ * Told about the responses that fail the validation an {@link HttpClient} 
+ * does of the responses it receives.
+ * 
+ * @see HttpClient#setResponseValidation(HttpClient.ResponseValidation, double)
+ */
+public interface ResponseValidationListener {
+    
+    /**
+     * A response failed validation. For asynchronous validation this is 
+     * called on a background thread, possibly after the response has been 
+     * returned to the caller.
+     * 
+     * @param uri the address the request was sent to.
+     * @param request the TAXII message that was sent.
+     * @param response the TAXII message that was received.
+     * @param results the validation errors and warnings.
+     */
+    void invalidResponse(URI uri, Object request, Object response, Validation results);
+    
+    /**
+     * A response could not be validated, e.g. because a fatal error stopped 
+     * validation.
+     * 
+     * @param uri the address the request was sent to.
+     * @param request the TAXII message that was sent.
+     * @param response the TAXII message that was received.
+     * @param e what went wrong.
+     */
+    void validationFailed(URI uri, Object request, Object response, Exception e);
+}
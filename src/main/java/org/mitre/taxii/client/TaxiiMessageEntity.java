@@ -0,0 +1,170 @@
+package org.mitre.taxii.client;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.mitre.taxii.messages.TaxiiXml;
+
+/**
+ * An HTTP entity that marshals a TAXII message straight to the connection's
+ * OutputStream as UTF-8 XML.
+ * <p>
+ * Unlike building the XML in a String and wrapping it in a StringEntity, the
+ * message is never held in memory as text, so the memory needed to send a
+ * message does not grow with the size of the message.
+ * </p><p>
+ * By default the entity is sent with chunked transfer encoding. Some servers
+ * do not accept chunked requests; for those, call {@code setChunked(false)}.
+ * The Content-Length is then found by marshalling the message once, throwing
+ * away the bytes and only counting them, before it is marshalled again to the
+ * connection.
+ * </p>
+ */
+public class TaxiiMessageEntity extends AbstractHttpEntity {
+
+    private final TaxiiXml taxiiXml;
+    private final Object message;
+
+    /** Cached length of the marshalled message. -1 if not yet known. */
+    private long contentLength = -1;
+
+    /**
+     * Create an entity for the given message.
+     * 
+     * @param taxiiXml The TaxiiXml that knows how to marshal the message.
+     * @param message The TAXII message to send.
+     */
+    public TaxiiMessageEntity(final TaxiiXml taxiiXml, final Object message) {
+        if (null == taxiiXml || null == message) {
+            throw new IllegalArgumentException("TaxiiXml and message may not be null");
+        }
+        this.taxiiXml = taxiiXml;
+        this.message = message;
+        setContentType(ContentType.APPLICATION_XML.toString());
+        setChunked(true);
+    }
+
+    /**
+     * The message can be marshalled any number of times.
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Returns -1 (unknown) when chunked. Otherwise, the message is marshalled
+     * once to count its bytes.
+     */
+    @Override
+    public long getContentLength() {
+        if (isChunked()) {
+            return -1;
+        }
+        if (contentLength < 0) {
+            final CountingOutputStream counter = new CountingOutputStream();
+            try {
+                writeTo(counter);
+            } catch (IOException ex) {
+                return -1;
+            }
+            contentLength = counter.getCount();
+        }
+        return contentLength;
+    }
+
+    /**
+     * Returns the marshalled message. This buffers the whole message in memory.
+     * The blocking HttpClient sends the message with {@link #writeTo(OutputStream)}
+     * instead, but non-blocking clients read the entity through this method.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * Marshal the message, as UTF-8 XML without an XML declaration, to the stream.
+     */
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+        if (null == outstream) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        Marshaller m = null;
+        try {
+            m = taxiiXml.borrowMarshaller(false); // Don't pretty print.
+            m.setProperty(Marshaller.JAXB_FRAGMENT, true); // Don't generate xml declaration.
+            m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            m.marshal(message, outstream);
+        } catch (JAXBException ex) {
+            throw new IOException("Unable to marshal message.", ex);
+        } finally {
+            taxiiXml.returnMarshaller(m);
+        }
+    }
+
+    /**
+     * The content is generated on demand, not read from a stream.
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * An OutputStream that throws away everything written to it, keeping 
+     * only a count of the bytes.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
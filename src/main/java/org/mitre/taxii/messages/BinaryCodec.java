@@ -0,0 +1,970 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAnyAttribute;
+import javax.xml.bind.annotation.XmlAnyElement;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementRefs;
+import javax.xml.bind.annotation.XmlElements;
+import javax.xml.bind.annotation.XmlList;
+import javax.xml.bind.annotation.XmlMixed;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.Versions;
+import org.mitre.taxii.util.ByteArrayBuffer;
+
+/**
+ * A compact binary encoding of TAXII messages, for passing them between 
+ * processes that use this library, e.g. through queues and archives, 
+ * without writing and parsing XML. Get one from 
+ * {@link TaxiiXml#getBinaryCodec()}.
+ * 
+ * <p>Each field of a message object is written as a tag, which holds the
+ * field's index and how its value is written, followed by the value. Text, 
+ * bytes and nested objects are length prefixed, so a reader can skip a 
+ * field. The URNs of {@link Versions} and {@link ContentBindings} are 
+ * written as an index into a dictionary of them. Mixed content, e.g. the 
+ * payload of a Content_Block, is kept as the UTF-8 XML text it has in the 
+ * XML form of the message; {@link #encodeRaw(RawMessage, OutputStream)} 
+ * writes the payloads of a {@link RawMessage} as they are, and 
+ * {@link #decodeRaw(ByteBuffer)} leaves them unparsed.</p>
+ * 
+ * <p>Decoding an encoded message gives the object unmarshalling its XML 
+ * form gives. Values with no binary form, e.g. the XML Digital Signature, 
+ * are written as XML by JAXB.</p>
+ * 
+ * <p>The encoding starts with its format version, {@link #FORMAT_VERSION},
+ * and a message in another format version is not decoded. The dictionary is
+ * append-only, so a URN constant added in a later release doesn't change 
+ * the encoding of those before it. Fields a reader doesn't know, e.g. ones
+ * written by a later release, are skipped. The field and class indexes
+ * follow the generated classes, so a change to those that moves an index 
+ * needs a new format version. A codec is thread safe.</p>
+ * 
+ * <pre>
+ *      BinaryCodec codec = taxiiXml.getBinaryCodec();
+ *      byte[] bytes = codec.encode(msg);
+ *      Object same = codec.decode(bytes);
+ * </pre>
+ */
+public final class BinaryCodec {
+    
+    /**
+     * The version of the encoding, written after "TXB". It changes
+     * when a message can no longer be read the way it was written, not when
+     * the dictionary grows.
+     */
+    public static final int FORMAT_VERSION = 1;
+    
+    /** Starts every encoded message. */
+    private static final byte[] MAGIC = {'T', 'X', 'B'};
+    
+    /**
+     * The URNs written as an index into this array. Only ever append to it:
+     * an entry's index is part of the encoding.
+     */
+    private static final String[] URNS = {
+        Versions.VID_TAXII_SERVICES_10,
+        Versions.VID_TAXII_SERVICES_11,
+        Versions.VID_TAXII_XML_10,
+        Versions.VID_TAXII_XML_11,
+        Versions.VID_TAXII_HTTP_10,
+        Versions.VID_TAXII_HTTPS_10,
+        Versions.VID_CERT_EU_JSON_10,
+        ContentBindings.CB_STIX_XML_10,
+        ContentBindings.CB_STIX_XML_101,
+        ContentBindings.CB_STIX_XML_11,
+        ContentBindings.CB_STIX_XML_111,
+        ContentBindings.CB_CAP_11,
+        ContentBindings.CB_XENC_122002,
+        ContentBindings.CB_SMIME,
+    };
+    
+    private static final Map<String, Integer> URN_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < URNS.length; i++) {
+            URN_INDEX.put(URNS[i], i);
+        }
+    }
+    
+    /* How a value is written, the low three bits of its tag. */
+    /** A boolean, integer or enum constant's ordinal, as a varint. */
+    private static final int VARINT = 0;
+    /** A varint length and UTF-8 text. */
+    private static final int STRING = 1;
+    /** The varint index of a dictionary string. */
+    private static final int DICTIONARY = 2;
+    /** A varint length and bytes. */
+    private static final int BYTES = 3;
+    /** The varint index of the object's class, a four byte length, and the object's fields, ended by 0. */
+    private static final int OBJECT = 4;
+    /** A varint length and the UTF-8 XML JAXB writes for the value. */
+    private static final int XML = 5;
+    /** A varint length and the UTF-8 text of mixed content. */
+    private static final int CONTENT = 6;
+    /** A null item of a list. */
+    private static final int NULL = 7;
+    
+    /** The element values are wrapped in when they are written with JAXB. */
+    private static final QName XML_VALUE = new QName("value");
+    
+    private static final Comparator<Class<?>> CLASS_NAME = new Comparator<Class<?>>() {
+        @Override
+        public int compare(Class<?> a, Class<?> b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+    
+    private static final Comparator<Field> FIELD_NAME = new Comparator<Field>() {
+        @Override
+        public int compare(Field a, Field b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+    
+    private enum Kind { STRING, BOOLEAN, INTEGER, BIG_INTEGER, CALENDAR, ENUM, BYTES, OBJECT, CONTENT, XML }
+    
+    /** A field of a JAXB class. */
+    private static final class Property {
+        final Field field;
+        final Kind kind;
+        /** The class of the value, or of the items of a list. */
+        final Class<?> type;
+        final boolean list;
+        /** 
+         * true if a new object has a default value for the field, so a null 
+         * is written, e.g. for an enum JAXB couldn't parse. 
+         */
+        boolean defaulted;
+        
+        Property(Field field, Kind kind, Class<?> type, boolean list) {
+            this.field = field;
+            this.kind = kind;
+            this.type = type;
+            this.list = list;
+        }
+    }
+    
+    /** A JAXB class of the context. */
+    private static final class BeanClass {
+        final Class<?> type;
+        final int index;
+        Constructor<?> constructor;
+        /** Null if the class is written with JAXB. */
+        Property[] properties;
+        /** The Content of a Content_Block, whose payload can be kept raw. */
+        Property payload;
+        
+        BeanClass(Class<?> type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+    }
+    
+    private final TaxiiXml taxiiXml;
+    private final BeanClass[] beanClasses;
+    private final Map<Class<?>, BeanClass> beans = new HashMap<>();
+    
+    BinaryCodec(TaxiiXml taxiiXml) {
+        this.taxiiXml = taxiiXml;
+        final List<Class<?>> classes = new ArrayList<>();
+        for (String contextPackage : taxiiXml.getJaxbContextPath()) {
+            addClasses(contextPackage, classes);
+        }
+        Collections.sort(classes, CLASS_NAME);
+        beanClasses = new BeanClass[classes.size()];
+        for (int i = 0; i < beanClasses.length; i++) {
+            beanClasses[i] = new BeanClass(classes.get(i), i);
+            beans.put(classes.get(i), beanClasses[i]);
+        }
+        for (BeanClass bean : beanClasses) {
+            try {
+                bean.constructor = bean.type.getDeclaredConstructor();
+                bean.constructor.setAccessible(true);
+                bean.properties = findProperties(bean.type);
+                if (null != bean.properties) {
+                    final Object defaults = bean.constructor.newInstance();
+                    for (Property p : bean.properties) {
+                        p.defaulted = !p.list && null != get(p, defaults);
+                    }
+                }
+            } catch (ReflectiveOperationException e) {
+                bean.properties = null;
+            }
+            bean.payload = findPayload(bean);
+        }
+    }
+    
+    /**
+     * Encodes a message.
+     * 
+     * @throws JAXBException if the message can't be encoded.
+     */
+    public byte[] encode(Object message) throws JAXBException {
+        final ByteArrayBuffer buffer = taxiiXml.borrowBuffer();
+        try {
+            new Encoder(buffer, null).message(message);
+            return buffer.toByteArray();
+        } finally {
+            taxiiXml.returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Encodes a message to a stream, in one write. The stream is neither 
+     * flushed nor closed.
+     * 
+     * @throws JAXBException if the message can't be encoded.
+     * @throws IOException if the stream can't be written.
+     */
+    public void encode(Object message, OutputStream out) throws JAXBException, IOException {
+        final ByteArrayBuffer buffer = taxiiXml.borrowBuffer();
+        try {
+            new Encoder(buffer, null).message(message);
+            buffer.writeTo(out);
+        } finally {
+            taxiiXml.returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Encodes a message with raw payloads, e.g. one from 
+     * {@link TaxiiXml#unmarshalRaw(ByteBuffer)}. The payloads are written
+     * as they are, as the content of the Content_Blocks. The encoding is
+     * the same as that of the message with the payloads parsed.
+     * 
+     * @throws JAXBException if the message can't be encoded.
+     * @throws IOException if the stream can't be written.
+     */
+    public void encodeRaw(RawMessage raw, OutputStream out) throws JAXBException, IOException {
+        final ByteArrayBuffer buffer = taxiiXml.borrowBuffer();
+        try {
+            new Encoder(buffer, raw.getContents()).message(raw.getMessage());
+            buffer.writeTo(out);
+        } finally {
+            taxiiXml.returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Decodes a message.
+     * 
+     * @throws JAXBException if the bytes aren't an encoded message, or are 
+     *          in a different format version.
+     */
+    public Object decode(byte[] bytes) throws JAXBException {
+        return new Decoder(bytes, 0, bytes.length, null).message();
+    }
+    
+    /**
+     * Decodes a message from the bytes from the buffer's position to its 
+     * limit. The buffer's position is not changed.
+     * 
+     * @throws JAXBException if the bytes aren't an encoded message, or are 
+     *          in a different format version.
+     */
+    public Object decode(ByteBuffer buffer) throws JAXBException {
+        if (buffer.hasArray()) {
+            return new Decoder(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), null).message();
+        }
+        return decode(toArray(buffer));
+    }
+    
+    /**
+     * Decodes a message, keeping the payload of each Content_Block as the
+     * bytes it was encoded as, as {@link TaxiiXml#unmarshalRaw(ByteBuffer)} 
+     * does. The Content elements of the returned message are empty. 
+     * 
+     * @param buffer The bytes from the buffer's position to its limit are 
+     *          read. The buffer's position is not changed. The payloads are
+     *          slices of an array-backed buffer, so it must not be changed
+     *          while they are in use.
+     * @throws JAXBException if the bytes aren't an encoded message, or are 
+     *          in a different format version.
+     */
+    public RawMessage decodeRaw(ByteBuffer buffer) throws JAXBException {
+        final List<RawContent> payloads = new ArrayList<>();
+        final Object message;
+        if (buffer.hasArray()) {
+            message = new Decoder(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), payloads).message();
+        } else {
+            final byte[] bytes = toArray(buffer);
+            message = new Decoder(bytes, 0, bytes.length, payloads).message();
+        }
+        return new RawMessage(message, payloads);
+    }
+    
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Writes a message into a buffer.
+     */
+    private final class Encoder {
+        private final ByteArrayBuffer out;
+        /** The raw payloads of the Content_Blocks, or null. */
+        private final List<RawContent> payloads;
+        private int block = 0;
+        
+        Encoder(ByteArrayBuffer out, List<RawContent> payloads) {
+            this.out = out;
+            this.payloads = payloads;
+        }
+        
+        void message(Object message) throws JAXBException {
+            out.write(MAGIC, 0, MAGIC.length);
+            out.write(FORMAT_VERSION);
+            final BeanClass bean = beans.get(message.getClass());
+            if (null != bean && null != bean.properties) {
+                out.write(OBJECT);
+                object(bean, message, null);
+            } else if (null == payloads) {
+                out.write(XML);
+                xml(message, null);
+            } else {
+                throw new MarshalException("Unable to encode " + message.getClass().getName() + " with raw payloads.");
+            }
+        }
+        
+        /**
+         * @param content the text of the object's mixed content, or null 
+         *          to write its own.
+         */
+        private void object(BeanClass bean, Object value, RawContent content) throws JAXBException {
+            writeVarint(bean.index);
+            final int start = out.size();
+            writeInt(0); // the length, once it is known
+            RawContent payload = null;
+            if (null != payloads && null != bean.payload) {
+                payload = (block < payloads.size()) ? payloads.get(block) : null;
+                block++;
+            }
+            final Property[] properties = bean.properties;
+            for (int i = 0; i < properties.length; i++) {
+                final Property p = properties[i];
+                final Object v = (null == value) ? null : get(p, value);
+                if (p.kind == Kind.CONTENT && null != content) {
+                    writeTag(i, CONTENT);
+                    writeVarint(content.length());
+                    try {
+                        content.writeTo(out);
+                    } catch (IOException e) {
+                        throw new MarshalException(e); // The buffer is in memory.
+                    }
+                } else if (p == bean.payload && null != payload) {
+                    final BeanClass contentClass = beans.get((null == v) ? p.type : v.getClass());
+                    if (null == contentClass || null == contentClass.properties) {
+                        throw new MarshalException("Unable to encode the raw payload of " + bean.type.getName());
+                    }
+                    writeTag(i, OBJECT);
+                    object(contentClass, v, payload);
+                } else if (null == v) {
+                    if (p.defaulted) {
+                        writeTag(i, NULL);
+                    }
+                } else if (p.kind == Kind.CONTENT) {
+                    @SuppressWarnings("unchecked")
+                    final List<Object> mixed = (List<Object>) v;
+                    if (!mixed.isEmpty()) {
+                        writeTag(i, CONTENT);
+                        writeString(taxiiXml.getStaxCodec().writeContent(mixed));
+                    }
+                } else if (p.list) {
+                    for (Object item : (List<?>) v) {
+                        if (null == item) {
+                            writeTag(i, NULL);
+                        } else {
+                            value(i, p, item);
+                        }
+                    }
+                } else {
+                    value(i, p, v);
+                }
+            }
+            out.write(0);
+            final int length = out.size() - start - 4;
+            final byte[] bytes = out.array();
+            bytes[start] = (byte) (length >>> 24);
+            bytes[start + 1] = (byte) (length >>> 16);
+            bytes[start + 2] = (byte) (length >>> 8);
+            bytes[start + 3] = (byte) length;
+        }
+        
+        private void value(int index, Property p, Object v) throws JAXBException {
+            switch (p.kind) {
+                case STRING:
+                    final Integer entry = URN_INDEX.get(v);
+                    if (null != entry) {
+                        writeTag(index, DICTIONARY);
+                        writeVarint(entry);
+                    } else {
+                        writeTag(index, STRING);
+                        writeString((String) v);
+                    }
+                    break;
+                case BOOLEAN:
+                    writeTag(index, VARINT);
+                    writeVarint(((Boolean) v) ? 1 : 0);
+                    break;
+                case INTEGER:
+                    final long n = ((Number) v).longValue();
+                    writeTag(index, VARINT);
+                    writeVarint((n << 1) ^ (n >> 63));
+                    break;
+                case ENUM:
+                    writeTag(index, VARINT);
+                    writeVarint(((Enum<?>) v).ordinal());
+                    break;
+                case BIG_INTEGER:
+                    writeTag(index, BYTES);
+                    writeBytes(((BigInteger) v).toByteArray());
+                    break;
+                case BYTES:
+                    writeTag(index, BYTES);
+                    writeBytes((byte[]) v);
+                    break;
+                case CALENDAR:
+                    writeTag(index, STRING);
+                    writeString(((XMLGregorianCalendar) v).toXMLFormat());
+                    break;
+                case OBJECT:
+                    final BeanClass bean = beans.get(v.getClass());
+                    if (null != bean && null != bean.properties) {
+                        writeTag(index, OBJECT);
+                        object(bean, v, null);
+                    } else {
+                        writeTag(index, XML);
+                        xml(v, p.type);
+                    }
+                    break;
+                default:
+                    writeTag(index, XML);
+                    xml(v, p.type);
+                    break;
+            }
+        }
+        
+        /**
+         * Writes a value with JAXB.
+         * 
+         * @param declaredType the class of the property, or null for a 
+         *          root element.
+         */
+        private void xml(Object value, Class<?> declaredType) throws JAXBException {
+            final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            final Marshaller m = taxiiXml.borrowMarshaller(false);
+            try {
+                m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+                m.marshal((null == declaredType) ? value : wrap(value, declaredType), xml);
+            } finally {
+                taxiiXml.returnMarshaller(m);
+            }
+            writeBytes(xml.toByteArray());
+        }
+        
+        private void writeTag(int index, int wireType) {
+            writeVarint(((index + 1) << 3) | wireType);
+        }
+        
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+        
+        private void writeInt(int value) {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+        
+        private void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        private void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static JAXBElement<?> wrap(Object value, Class<?> declaredType) {
+        return new JAXBElement(XML_VALUE, declaredType, value);
+    }
+    
+    /**
+     * Reads a message from an array.
+     */
+    private final class Decoder {
+        private final byte[] in;
+        private int pos;
+        private final int limit;
+        /** Where the raw payloads are kept, or null to parse them. */
+        private final List<RawContent> payloads;
+        private final Unmarshaller.Listener listener;
+        
+        Decoder(byte[] in, int offset, int length, List<RawContent> payloads) {
+            this.in = in;
+            this.pos = offset;
+            this.limit = offset + length;
+            this.payloads = payloads;
+            this.listener = taxiiXml.getInterningListener();
+        }
+        
+        Object message() throws JAXBException {
+            try {
+                for (byte b : MAGIC) {
+                    if (readByte() != b) {
+                        throw new UnmarshalException("Not an encoded TAXII message.");
+                    }
+                }
+                final int version = readByte();
+                if (version != FORMAT_VERSION) {
+                    throw new UnmarshalException("The message is in binary format version " + version 
+                            + ", not " + FORMAT_VERSION + ".");
+                }
+                final int wireType = readByte();
+                if (wireType == OBJECT) {
+                    final Object message = object(null, -1);
+                    if (null == message) {
+                        throw new UnmarshalException("The message is of a class this version of the TAXII classes doesn't have.");
+                    }
+                    return message;
+                } else if (wireType == XML) {
+                    return xml(null);
+                }
+                throw new UnmarshalException("Not an encoded TAXII message.");
+            } catch (IndexOutOfBoundsException | ClassCastException | IllegalArgumentException e) {
+                throw new UnmarshalException("The encoded message is corrupt.", e);
+            }
+        }
+        
+        /**
+         * @param payload the index of the raw payload to keep the object's
+         *          mixed content as, or -1 to parse it.
+         * @return the object, or null if it is of a class this reader 
+         *          doesn't know, and was skipped.
+         */
+        private Object object(Object parent, int payload) throws JAXBException {
+            final long classIndex = readVarint();
+            final int length = readInt();
+            if (length < 0 || length > limit - pos) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (classIndex >= beanClasses.length) {
+                pos += length;
+                return null;
+            }
+            final BeanClass bean = beanClasses[(int) classIndex];
+            final Object value = newInstance(bean);
+            int block = -1;
+            if (null != payloads && null != bean.payload) {
+                block = payloads.size();
+                payloads.add(null);
+            }
+            final Property[] properties = bean.properties;
+            for (;;) {
+                final int tag = (int) readVarint();
+                if (tag == 0) {
+                    break;
+                }
+                final int wireType = tag & 7;
+                final int index = (tag >>> 3) - 1;
+                if (index >= properties.length) {
+                    skip(wireType);
+                    continue;
+                }
+                final Property p = properties[index];
+                if (wireType == CONTENT) {
+                    final int contentLength = readLength();
+                    if (payload >= 0) {
+                        payloads.set(payload, new RawContent(in, pos, contentLength));
+                    } else {
+                        set(p, value, taxiiXml.getStaxCodec().readContent(in, pos, contentLength, value));
+                    }
+                    pos += contentLength;
+                } else if (wireType == OBJECT) {
+                    final Object child = object(value, (p == bean.payload) ? block : -1);
+                    if (null != child) {
+                        add(p, value, child);
+                    }
+                } else {
+                    add(p, value, read(p, wireType));
+                }
+            }
+            if (null != listener) {
+                listener.afterUnmarshal(value, parent);
+            }
+            return value;
+        }
+        
+        private Object read(Property p, int wireType) throws JAXBException {
+            switch (wireType) {
+                case VARINT:
+                    final long n = readVarint();
+                    switch (p.kind) {
+                        case BOOLEAN:
+                            return n != 0;
+                        case ENUM:
+                            // A constant added later is read as null, as JAXB reads a value it can't parse.
+                            final Object[] constants = p.type.getEnumConstants();
+                            return (n < constants.length) ? constants[(int) n] : null;
+                        default:
+                            return toInteger((n >>> 1) ^ -(n & 1), p.type);
+                    }
+                case STRING:
+                    final String text = readString();
+                    return (p.kind == Kind.CALENDAR) ? DatatypeFactoryHolder.FACTORY.newXMLGregorianCalendar(text) : text;
+                case DICTIONARY:
+                    final long entry = readVarint();
+                    if (entry >= URNS.length) {
+                        throw new UnmarshalException("The message uses a URN this version of the library doesn't know.");
+                    }
+                    return URNS[(int) entry];
+                case BYTES:
+                    final byte[] bytes = readBytes();
+                    return (p.kind == Kind.BIG_INTEGER) ? new BigInteger(bytes) : bytes;
+                case XML:
+                    return xml(p.type);
+                case NULL:
+                    return null;
+                default:
+                    throw new UnmarshalException("Unexpected wire type " + wireType);
+            }
+        }
+        
+        private Object xml(Class<?> declaredType) throws JAXBException {
+            final int length = readLength();
+            final StreamSource source = new StreamSource(new ByteArrayInputStream(in, pos, length));
+            pos += length;
+            final Unmarshaller u = taxiiXml.borrowUnmarshaller();
+            try {
+                return (null == declaredType) ? u.unmarshal(source) : u.unmarshal(source, declaredType).getValue();
+            } finally {
+                taxiiXml.returnUnmarshaller(u);
+            }
+        }
+        
+        private void skip(int wireType) {
+            switch (wireType) {
+                case VARINT:
+                case DICTIONARY:
+                    readVarint();
+                    break;
+                case OBJECT:
+                    readVarint();
+                    pos += readInt();
+                    break;
+                case NULL:
+                    break;
+                default:
+                    pos += readLength();
+                    break;
+            }
+        }
+        
+        private int readByte() {
+            if (pos >= limit) {
+                throw new IndexOutOfBoundsException();
+            }
+            return in[pos++];
+        }
+        
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IndexOutOfBoundsException();
+        }
+        
+        private int readInt() {
+            return (readByte() & 0xFF) << 24 | (readByte() & 0xFF) << 16 | (readByte() & 0xFF) << 8 | (readByte() & 0xFF);
+        }
+        
+        private int readLength() {
+            final long length = readVarint();
+            if (length > limit - pos) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (int) length;
+        }
+        
+        private String readString() {
+            final int length = readLength();
+            final String value = new String(in, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+        
+        private byte[] readBytes() {
+            final int length = readLength();
+            final byte[] value = Arrays.copyOfRange(in, pos, pos + length);
+            pos += length;
+            return value;
+        }
+    }
+    
+    private static Object toInteger(long value, Class<?> type) {
+        if (type == Integer.class || type == int.class) {
+            return (int) value;
+        } else if (type == Short.class || type == short.class) {
+            return (short) value;
+        } else if (type == Byte.class || type == byte.class) {
+            return (byte) value;
+        }
+        return value;
+    }
+    
+    private static Object get(Property p, Object bean) {
+        try {
+            return p.field.get(bean);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+    
+    private static void set(Property p, Object bean, Object value) {
+        try {
+            p.field.set(bean, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+    
+    /**
+     * Sets a property, or adds to it if it is a list.
+     */
+    private static void add(Property p, Object bean, Object value) {
+        if (!p.list) {
+            set(p, bean, value);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) get(p, bean);
+        if (null == list) {
+            list = new ArrayList<>();
+            set(p, bean, list);
+        }
+        list.add(value);
+    }
+    
+    private static Object newInstance(BeanClass bean) throws UnmarshalException {
+        if (null == bean.properties) {
+            throw new UnmarshalException(bean.type.getName() + " isn't encoded field by field.");
+        }
+        try {
+            return bean.constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new UnmarshalException(e);
+        }
+    }
+    
+    /**
+     * Adds the JAXB classes an ObjectFactory creates.
+     */
+    static void addClasses(String jaxbPackage, List<Class<?>> classes) {
+        final Class<?> objectFactory;
+        try {
+            objectFactory = Class.forName(jaxbPackage + ".ObjectFactory", true, BinaryCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        for (Method method : objectFactory.getMethods()) {
+            final Class<?> type = method.getReturnType();
+            if (method.getName().startsWith("create") && method.getParameterTypes().length == 0
+                    && type.isAnnotationPresent(XmlType.class) && !type.isEnum() && !classes.contains(type)) {
+                classes.add(type);
+            }
+        }
+    }
+    
+    /**
+     * Finds the fields of a class, superclass fields first, each class's in 
+     * order of name.
+     * 
+     * @return the fields, or null if the class has one the encoding has no
+     *          form for, and is written with JAXB.
+     */
+    private Property[] findProperties(Class<?> type) {
+        final List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; null != c && Object.class != c; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        final List<Property> properties = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            final XmlAccessorType access = c.getAnnotation(XmlAccessorType.class);
+            if (null == access || access.value() != XmlAccessType.FIELD) {
+                return null;
+            }
+            final Field[] fields = c.getDeclaredFields();
+            Arrays.sort(fields, FIELD_NAME);
+            for (Field field : fields) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                        || field.isAnnotationPresent(XmlTransient.class)) {
+                    continue;
+                }
+                final Property p = findProperty(field);
+                if (null == p) {
+                    return null;
+                }
+                field.setAccessible(true);
+                properties.add(p);
+            }
+        }
+        return properties.toArray(new Property[properties.size()]);
+    }
+    
+    private Property findProperty(Field field) {
+        if (field.isAnnotationPresent(XmlElementRef.class) || field.isAnnotationPresent(XmlElementRefs.class)
+                || field.isAnnotationPresent(XmlElements.class) || field.isAnnotationPresent(XmlAnyAttribute.class)
+                || field.isAnnotationPresent(XmlList.class)) {
+            return null;
+        }
+        Class<?> type = field.getType();
+        boolean list = false;
+        if (List.class == type) {
+            final Type item = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (!(item instanceof Class)) {
+                return null;
+            }
+            type = (Class<?>) item;
+            list = true;
+            if (Object.class == type) {
+                // Mixed content with lax xs:any children, which is read as it is in a message.
+                final XmlAnyElement any = field.getAnnotation(XmlAnyElement.class);
+                return (field.isAnnotationPresent(XmlMixed.class) && null != any && any.lax())
+                        ? new Property(field, Kind.CONTENT, type, false) : null;
+            }
+        }
+        final Kind kind = kindOf(type);
+        return (null == kind) ? null : new Property(field, kind, type, list);
+    }
+    
+    private Kind kindOf(Class<?> type) {
+        if (String.class == type) {
+            return Kind.STRING;
+        } else if (Boolean.class == type || boolean.class == type) {
+            return Kind.BOOLEAN;
+        } else if (Long.class == type || long.class == type || Integer.class == type || int.class == type
+                || Short.class == type || short.class == type || Byte.class == type || byte.class == type) {
+            return Kind.INTEGER;
+        } else if (BigInteger.class == type) {
+            return Kind.BIG_INTEGER;
+        } else if (XMLGregorianCalendar.class == type) {
+            return Kind.CALENDAR;
+        } else if (byte[].class == type) {
+            return Kind.BYTES;
+        } else if (type.isEnum()) {
+            return Kind.ENUM;
+        } else if (beans.containsKey(type)) {
+            return Kind.OBJECT;
+        } else if (type.isAnnotationPresent(XmlType.class) || type.isAnnotationPresent(XmlRootElement.class)) {
+            return Kind.XML;
+        }
+        return null;
+    }
+    
+    /**
+     * @return the Content property of a Content_Block class, or null.
+     */
+    private Property findPayload(BeanClass bean) {
+        final XmlRootElement root = bean.type.getAnnotation(XmlRootElement.class);
+        if (null == bean.properties || null == root || !"Content_Block".equals(root.name())) {
+            return null;
+        }
+        for (Property p : bean.properties) {
+            final XmlElement element = p.field.getAnnotation(XmlElement.class);
+            if (p.kind == Kind.OBJECT && !p.list && null != element && "Content".equals(element.name())) {
+                return p;
+            }
+        }
+        return null;
+    }
+    
+    private static final class DatatypeFactoryHolder {
+        static final DatatypeFactory FACTORY = newDatatypeFactory();
+        
+        private static DatatypeFactory newDatatypeFactory() {
+            try {
+                return DatatypeFactory.newInstance();
+            } catch (DatatypeConfigurationException e) {
+                throw new RuntimeException("Deployment error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.mitre.taxii.util.Diagnostic;
+import org.mitre.taxii.util.Validation;
+
+/**
+ * A Java implementation of one Schematron pattern of a TAXII message binding,
+ * checked against the JAXB object graph of a message instead of a 
+ * serialized copy of it.
+ * 
+ * <p>Each rule reports its failed assertions with the same text as the 
+ * Schematron-derived stylesheet: the assertion followed by its XPath test in 
+ * parentheses, so results don't depend on which one did the checking.</p>
+ * 
+ * @param <M> the class of the message the rule applies to.
+ */
+public abstract class ConformanceRule<M> {
+    
+    private final Class<M> messageClass;
+    private final List<Assertion> assertions;
+
+    /**
+     * @param messageClass the class of the messages this rule checks.
+     * @param assertions every assertion the rule can report.
+     */
+    protected ConformanceRule(Class<M> messageClass, Assertion... assertions) {
+        this.messageClass = messageClass;
+        this.assertions = Collections.unmodifiableList(Arrays.asList(assertions));
+    }
+    
+    /**
+     * Checks the message if it is one this rule applies to, adding an error to
+     * the results for each failed assertion.
+     */
+    public final void check(Object message, Validation results) {
+        if (messageClass.isInstance(message)) {
+            checkMessage(messageClass.cast(message), results);
+        }
+    }
+    
+    /**
+     * Checks a message of the class this rule applies to.
+     */
+    protected abstract void checkMessage(M message, Validation results);
+    
+    public Class<M> getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * @return every assertion the rule can report.
+     */
+    public List<Assertion> getAssertions() {
+        return assertions;
+    }
+    
+    /**
+     * Adds the failed assertion to the results.
+     */
+    protected static void fail(Validation results, Assertion assertion) {
+        results.add(Diagnostic.conformance(assertion.getText(), assertion.getTest()));
+    }
+    
+    /**
+     * A Schematron assert (or report) and the XPath test it was written with.
+     */
+    public static final class Assertion {
+        private final String text;
+        private final String test;
+
+        public Assertion(String text, String test) {
+            this.text = text;
+            this.test = test;
+        }
+
+        /**
+         * @return the natural language text of the assertion.
+         */
+        public String getText() {
+            return text;
+        }
+        
+        /**
+         * @return the XPath test of the assertion.
+         */
+        public String getTest() {
+            return test;
+        }
+        
+        /**
+         * @return the text and the test, as the Schematron-derived 
+         * stylesheet reports them (after whitespace normalization).
+         */
+        @Override
+        public String toString() {
+            return text + " (" + test + ")";
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads the Content Blocks of a Poll_Response or Inbox_Message one at a time,
+ * rather than unmarshalling the whole message at once.
+ * 
+ * <p>
+ * The message is walked with a StAX reader. Everything that comes before
+ * the first Content_Block is unmarshalled when the reader is created and is 
+ * available from {@link #getMessage()}. The Content Blocks are then
+ * unmarshalled one at a time as the iterator is advanced, so only one block
+ * is held in memory at a time, however many the message contains. The
+ * message returned by getMessage() never contains any Content Blocks. 
+ * Elements that follow the Content Blocks (i.e. a Signature) are added to
+ * the message once {@link #hasNext()} has returned false.
+ * </p>
+ * <pre>
+ *      try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, in)) {
+ *          PollResponse pr = (PollResponse) reader.getMessage();
+ *          while (reader.hasNext()) {
+ *              ContentBlock cb = reader.next();
+ *              // do something with cb
+ *          }
+ *      }
+ * </pre>
+ * <p>
+ * A reader is not thread safe. Since the iterator can not throw checked 
+ * exceptions, errors reading a Content Block are thrown from 
+ * {@link #hasNext()} and {@link #next()} as RuntimeExceptions wrapping the
+ * underlying JAXBException or XMLStreamException.
+ * </p>
+ * 
+ * @param <M> the base class of the version's TAXII messages
+ * @param <B> the version's Content Block class
+ */
+public abstract class ContentBlockReader<M, B> implements Iterator<B>, Closeable {
+
+    private static final String POLL_RESPONSE = "Poll_Response";
+    private static final String INBOX_MESSAGE = "Inbox_Message";
+    private static final String CONTENT_BLOCK = "Content_Block";
+    
+    private static final XMLInputFactory inputFactory = newInputFactory();
+    private static final DocumentBuilderFactory documentBuilderFactory = newDocumentBuilderFactory();
+    
+    private final XMLStreamReader reader;
+    private final InputStream in;
+    private final TaxiiXml taxiiXml;
+    private final Unmarshaller unmarshaller;
+    private final Class<M> messageClass;
+    private final Class<B> blockClass;
+    private final String namespace;
+    private final Document document;
+    /** The message's root element, without any children. */
+    private final Element root;
+    private final M message;
+    
+    /** true if the reader is positioned at the start of a Content_Block. */
+    private boolean blockPending = false;
+    /** true once the end of the message has been read. */
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /**
+     * Create a reader for a message in an InputStream. The encoding is 
+     * detected from the document. The stream is closed when the reader is.
+     * 
+     * @param taxiiXml The TaxiiXml of the message's version.
+     * @param in The message.
+     * @param messageClass The base class of the version's messages.
+     * @param blockClass The version's Content Block class.
+     * @param namespace The version's XML namespace.
+     * @throws JAXBException 
+     *          if the message is not a Poll_Response or Inbox_Message of the
+     *          given version, or the start of the message can't be read.
+     */
+    protected ContentBlockReader(TaxiiXml taxiiXml, InputStream in, Class<M> messageClass, Class<B> blockClass, String namespace) throws JAXBException {
+        this(taxiiXml, newStreamReader(in), in, messageClass, blockClass, namespace);
+    }
+    
+    /**
+     * Create a reader for a message in a StAX stream. The stream must be 
+     * positioned at the start of the document or at the message's start tag.
+     * 
+     * @param taxiiXml The TaxiiXml of the message's version.
+     * @param reader The message.
+     * @param messageClass The base class of the version's messages.
+     * @param blockClass The version's Content Block class.
+     * @param namespace The version's XML namespace.
+     * @throws JAXBException 
+     *          if the message is not a Poll_Response or Inbox_Message of the
+     *          given version, or the start of the message can't be read.
+     */
+    protected ContentBlockReader(TaxiiXml taxiiXml, XMLStreamReader reader, Class<M> messageClass, Class<B> blockClass, String namespace) throws JAXBException {
+        this(taxiiXml, reader, null, messageClass, blockClass, namespace);
+    }
+
+    private ContentBlockReader(TaxiiXml taxiiXml, XMLStreamReader reader, InputStream in, Class<M> messageClass, Class<B> blockClass, String namespace) throws JAXBException {
+        this.reader = reader;
+        this.in = in;
+        this.taxiiXml = taxiiXml;
+        this.unmarshaller = taxiiXml.borrowUnmarshaller();
+        this.messageClass = messageClass;
+        this.blockClass = blockClass;
+        this.namespace = namespace;
+        try {
+            this.document = newDocument();
+            toTag();
+            if (!reader.isStartElement() || !namespace.equals(reader.getNamespaceURI()) 
+                    || !(POLL_RESPONSE.equals(reader.getLocalName()) || INBOX_MESSAGE.equals(reader.getLocalName()))) {
+                throw new JAXBException("Expected a " + POLL_RESPONSE + " or " + INBOX_MESSAGE + " in namespace " + namespace);
+            }
+            root = copyStartElement();
+            
+            // Collect everything before the first Content_Block.
+            final Element header = (Element) root.cloneNode(false);
+            reader.next();
+            toTag();
+            while (reader.isStartElement() && !isContentBlock()) {
+                header.appendChild(copyElement());
+                toTag();
+            }
+            message = unmarshalMessage(header);
+            findNext();
+        } catch (XMLStreamException ex) {
+            closeQuietly();
+            throw new JAXBException("Unable to read message.", ex);
+        } catch (JAXBException | RuntimeException ex) {
+            closeQuietly();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the message, without its Content Blocks. Elements that follow
+     * the Content Blocks are only present once {@link #hasNext()} has 
+     * returned false.
+     */
+    public M getMessage() {
+        return message;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!blockPending && !finished) {
+            try {
+                toTag();
+                findNext();
+            } catch (XMLStreamException | JAXBException ex) {
+                throw new RuntimeException("Unable to read message.", ex);
+            }
+        }
+        return blockPending;
+    }
+
+    @Override
+    public B next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        blockPending = false;
+        try {
+            return unmarshaller.unmarshal(reader, blockClass).getValue();
+        } catch (JAXBException ex) {
+            throw new RuntimeException("Unable to read " + CONTENT_BLOCK + ".", ex);
+        }
+    }
+
+    /**
+     * Not supported.
+     * 
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Closes the StAX reader, and the InputStream if the reader was created
+     * from one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        taxiiXml.returnUnmarshaller(unmarshaller);
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            if (null != in) {
+                in.close();
+            }
+        }
+    }
+    
+    /**
+     * Return the Unmarshaller and close the streams when the start of the
+     * message can't be read.
+     */
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ex) {
+            // Don't care
+        }
+    }
+
+    /**
+     * Copy the elements that follow the Content Blocks into the message.
+     * 
+     * @param message the message returned by {@link #getMessage()}
+     * @param trailer a message holding only the elements that follow the
+     *          Content Blocks.
+     */
+    protected abstract void mergeTrailer(M message, M trailer);
+
+    /**
+     * With the reader positioned at a tag, either note that a Content_Block
+     * is next or read the rest of the message.
+     */
+    private void findNext() throws XMLStreamException, JAXBException {
+        if (isContentBlock()) {
+            blockPending = true;
+            return;
+        }
+        
+        if (reader.isStartElement()) {
+            final Element trailer = (Element) root.cloneNode(false);
+            while (reader.isStartElement()) {
+                trailer.appendChild(copyElement());
+                toTag();
+            }
+            mergeTrailer(message, unmarshalMessage(trailer));
+        }
+        finished = true;
+    }
+    
+    private M unmarshalMessage(Element element) throws JAXBException {
+        return messageClass.cast(JAXBIntrospector.getValue(unmarshaller.unmarshal(element)));
+    }
+
+    private boolean isContentBlock() {
+        return reader.isStartElement() 
+                && CONTENT_BLOCK.equals(reader.getLocalName()) 
+                && namespace.equals(reader.getNamespaceURI());
+    }
+    
+    /**
+     * Skip text, comments, etc. up to the next start or end tag. 
+     */
+    private void toTag() throws XMLStreamException {
+        while (!reader.isStartElement() && !reader.isEndElement()) {
+            reader.next();
+        }
+    }
+    
+    /**
+     * Copy the element the reader is positioned at, with all its content,
+     * into a DOM element. The reader is left just past the element's end tag.
+     */
+    private Element copyElement() throws XMLStreamException {
+        final Element element = copyStartElement();
+        reader.next();
+        while (!reader.isEndElement()) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.appendChild(copyElement());
+                    continue; // Already past the child.
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    element.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                default:
+                    // Comments and processing instructions are dropped.
+            }
+            reader.next();
+        }
+        reader.next();
+        return element;
+    }
+
+    /**
+     * Copy the start tag the reader is positioned at, with its namespace
+     * declarations and attributes, into a DOM element.
+     */
+    private Element copyStartElement() {
+        final Element element = document.createElementNS(
+                emptyToNull(reader.getNamespaceURI()), qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String prefix = reader.getNamespacePrefix(i);
+            final String uri = reader.getNamespaceURI(i);
+            final String name = (null == prefix || prefix.isEmpty()) 
+                    ? XMLConstants.XMLNS_ATTRIBUTE 
+                    : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, null == uri ? "" : uri);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+    
+    private static String qualifiedName(String prefix, String localName) {
+        return (null == prefix || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String s) {
+        return (null == s || s.isEmpty()) ? null : s;
+    }
+
+    static XMLStreamReader newStreamReader(InputStream in) throws JAXBException {
+        try {
+            synchronized (inputFactory) {
+                return inputFactory.createXMLStreamReader(in);
+            }
+        } catch (XMLStreamException ex) {
+            throw new JAXBException("Unable to read message.", ex);
+        }
+    }
+
+    private static Document newDocument() {
+        try {
+            synchronized (documentBuilderFactory) {
+                return documentBuilderFactory.newDocumentBuilder().newDocument();
+            }
+        } catch (ParserConfigurationException ex) {
+            throw new RuntimeException("Deployment error", ex);
+        }
+    }
+
+    /**
+     * Parse a document, without allowing a DTD.
+     */
+    static Document parseDocument(InputStream in) throws JAXBException {
+        final DocumentBuilder builder;
+        try {
+            synchronized (documentBuilderFactory) {
+                builder = documentBuilderFactory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException ex) {
+            throw new RuntimeException("Deployment error", ex);
+        }
+        try {
+            return builder.parse(in);
+        } catch (SAXException | IOException ex) {
+            throw new JAXBException("Unable to read content.", ex);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        // TAXII messages have no DTD, and must not be able to pull in external entities.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            // Content must not be able to pull in external entities.
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException ex) {
+            throw new RuntimeException("Deployment error", ex);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,405 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAnyAttribute;
+import javax.xml.bind.annotation.XmlAnyElement;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementRefs;
+import javax.xml.bind.annotation.XmlElements;
+import javax.xml.bind.annotation.XmlList;
+import javax.xml.bind.annotation.XmlMixed;
+import javax.xml.bind.annotation.XmlNs;
+import javax.xml.bind.annotation.XmlNsForm;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSchema;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.bind.annotation.XmlValue;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads and writes TAXII messages as JSON, for consumers that parse JSON 
+ * more readily than XML. Get one from {@link TaxiiXml#getJsonCodec()}.
+ * 
+ * <p>The JSON is written a member at a time as JAXB marshals the message, 
+ * and read as a stream of the StAX events of the message's XML form, so 
+ * neither holds a copy of the whole message. To read a large Poll_Response 
+ * a Content_Block at a time, hand {@link #createStreamReader(InputStream)}
+ * to a ContentBlockReader.</p>
+ * 
+ * <p>The JSON follows the XML form of the message:</p>
+ * <ul>
+ * <li>The document is an object with one member, named for the message's
+ *     root element, e.g. <code>{"Poll_Response": {...}}</code>.</li>
+ * <li>An element with no attributes or child elements is a string 
+ *     holding its text, e.g. <code>"Message": "Hello"</code>.</li>
+ * <li>Any other element is an object. Its attributes come first, each a 
+ *     member named for the attribute with an "@" prefix, then its child 
+ *     elements, each a member named for the element's local name. Text 
+ *     alongside attributes or child elements is the member "#text".</li>
+ * <li>An element the schema allows to repeat is an array, even if there 
+ *     is only one, e.g. <code>"Content_Block": [{...}]</code>.</li>
+ * <li>Values are strings, exactly as they are written in the XML, so 
+ *     integers keep their size and timestamps their time zone.</li>
+ * <li>The text of an element of mixed content, e.g. a Content_Block's 
+ *     Content or an Extended_Header, is its content as XML, with the 
+ *     namespace declarations it needs.</li>
+ * <li>An element of another namespace than its parent, e.g. the XML 
+ *     Digital Signature, is a string holding the XML of the element.</li>
+ * </ul>
+ * <p>The members are in the order of the XML. When reading, the 
+ * attributes must come before the other members of an element, and a
+ * member may also be a number or boolean literal, which is read as its
+ * text, or null, which is skipped.</p>
+ * 
+ * <p>A codec is thread safe.</p>
+ * 
+ * <pre>
+ *      JsonCodec codec = taxiiXml.getJsonCodec();
+ *      codec.marshal(msg, out);
+ *      Object same = codec.unmarshal(in);
+ * </pre>
+ */
+public final class JsonCodec {
+    
+    /** How an element's content is written. */
+    enum Kind {
+        /** As members: attributes, child elements and text. */
+        MEMBERS,
+        /** As the XML text of the content. */
+        MIXED,
+        /** The whole element as XML text. */
+        XML
+    }
+    
+    /** The content of the elements of a JAXB class. */
+    static final class Content {
+        final Kind kind;
+        /** The child elements, by local name. */
+        final Map<String, Element> children = new HashMap<>();
+        
+        Content(Kind kind) {
+            this.kind = kind;
+        }
+    }
+    
+    /** An element, as a root element or the child of its parent's class. */
+    static final class Element {
+        final String name;
+        final String namespace;
+        final boolean repeated;
+        final Content content;
+        
+        Element(String name, String namespace, boolean repeated, Content content) {
+            this.name = name;
+            this.namespace = namespace;
+            this.repeated = repeated;
+            this.content = content;
+        }
+    }
+    
+    /** The content of simple types, and of elements the schema doesn't name. */
+    static final Content TEXT = new Content(Kind.MEMBERS);
+    private static final Content XML_CONTENT = new Content(Kind.XML);
+    private static final String DEFAULT = "##default";
+    
+    private static final XMLInputFactory inputFactory = newInputFactory();
+    
+    private final TaxiiXml taxiiXml;
+    private final Map<String, Element> roots = new HashMap<>();
+    private final Map<Class<?>, Content> contents = new HashMap<>();
+    /** The prefixes the packages declare, by namespace. */
+    private final Map<String, String> prefixes = new HashMap<>();
+    
+    JsonCodec(TaxiiXml taxiiXml) {
+        this.taxiiXml = taxiiXml;
+        final List<Class<?>> classes = new ArrayList<>();
+        for (String contextPackage : taxiiXml.getJaxbContextPath()) {
+            BinaryCodec.addClasses(contextPackage, classes);
+        }
+        for (Class<?> type : classes) {
+            final XmlSchema schema = type.getPackage().getAnnotation(XmlSchema.class);
+            if (null != schema) {
+                for (XmlNs ns : schema.xmlns()) {
+                    if (!prefixes.containsKey(ns.namespaceURI())) {
+                        prefixes.put(ns.namespaceURI(), ns.prefix());
+                    }
+                }
+            }
+        }
+        for (Class<?> type : classes) {
+            final XmlRootElement root = type.getAnnotation(XmlRootElement.class);
+            if (null == root) {
+                continue;
+            }
+            final String name = DEFAULT.equals(root.name()) ? decapitalize(type.getSimpleName()) : root.name();
+            final XmlSchema schema = type.getPackage().getAnnotation(XmlSchema.class);
+            final String namespace = !DEFAULT.equals(root.namespace()) ? root.namespace() 
+                    : (null == schema) ? "" : schema.namespace();
+            if (!roots.containsKey(name)) {
+                roots.put(name, new Element(name, namespace, false, contentOf(type)));
+            }
+        }
+    }
+    
+    /**
+     * Marshals a message to a stream as UTF-8 encoded JSON. The stream is 
+     * flushed but not closed.
+     * 
+     * @throws JAXBException if the message can't be marshalled.
+     */
+    public void marshal(Object message, OutputStream out) throws JAXBException {
+        marshal(message, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Marshals a message to a Writer as JSON. The Writer is flushed but not
+     * closed.
+     * 
+     * @throws JAXBException if the message can't be marshalled.
+     */
+    public void marshal(Object message, Writer out) throws JAXBException {
+        final JsonStreamWriter writer = new JsonStreamWriter(this, out);
+        final Marshaller m = taxiiXml.borrowMarshaller(false);
+        try {
+            m.marshal(message, writer);
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new MarshalException(e);
+        } finally {
+            taxiiXml.returnMarshaller(m);
+        }
+    }
+    
+    public String marshalToString(Object message) throws JAXBException {
+        final StringWriter sw = new StringWriter();
+        marshal(message, sw);
+        return sw.toString();
+    }
+    
+    /**
+     * Unmarshals a message from UTF-8 encoded JSON. The stream is not closed.
+     * 
+     * @throws JAXBException if the JSON isn't a message.
+     */
+    public Object unmarshal(InputStream in) throws JAXBException {
+        return unmarshal(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Unmarshals a message from JSON. The Reader is not closed.
+     * 
+     * @throws JAXBException if the JSON isn't a message.
+     */
+    public Object unmarshal(Reader in) throws JAXBException {
+        final XMLStreamReader reader = createStreamReader(in);
+        final Object message = taxiiXml.getStaxCodec().unmarshal(reader);
+        try {
+            // Check that nothing follows the message.
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e);
+        }
+        return message;
+    }
+    
+    /**
+     * Creates a StAX reader of the events of the XML form of a JSON message, 
+     * in UTF-8. The JSON is read as the events are. Closing the reader 
+     * doesn't close the stream.
+     * 
+     * <pre>
+     *      ContentBlockReader reader = new ContentBlockReader(taxiiXml, codec.createStreamReader(in));
+     * </pre>
+     */
+    public XMLStreamReader createStreamReader(InputStream in) {
+        return createStreamReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Creates a StAX reader of the events of the XML form of a JSON message.
+     * Closing the reader doesn't close the Reader.
+     */
+    public XMLStreamReader createStreamReader(Reader in) {
+        return new JsonStreamReader(this, in);
+    }
+    
+    /**
+     * @return the root element of the name, or null.
+     */
+    Element getRoot(String name) {
+        return roots.get(name);
+    }
+    
+    /**
+     * @return the prefix the JAXB classes declare for the namespace, or null.
+     */
+    String getPrefix(String namespace) {
+        return prefixes.get(namespace);
+    }
+    
+    /**
+     * @return a child element the schema doesn't name.
+     */
+    static Element unknown(String name, String namespace, String parentNamespace) {
+        return new Element(name, namespace, false, namespace.equals(parentNamespace) ? TEXT : XML_CONTENT);
+    }
+    
+    /**
+     * Creates a reader of the XML text of an element or of mixed content.
+     */
+    static XMLStreamReader createXmlReader(Reader in) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(in);
+    }
+    
+    private Content contentOf(Class<?> type) {
+        Content content = contents.get(type);
+        if (null != content) {
+            return content;
+        }
+        if (!type.isAnnotationPresent(XmlType.class) || type.isEnum()) {
+            return TEXT;
+        }
+        final List<Class<?>> hierarchy = new ArrayList<>();
+        Kind kind = Kind.MEMBERS;
+        for (Class<?> c = type; null != c && Object.class != c; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+            final XmlAccessorType access = c.getAnnotation(XmlAccessorType.class);
+            if (null == access || access.value() != XmlAccessType.FIELD) {
+                kind = Kind.XML;
+                break;
+            }
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent(XmlElementRef.class) || field.isAnnotationPresent(XmlElementRefs.class)
+                        || field.isAnnotationPresent(XmlElements.class) || field.isAnnotationPresent(XmlAnyAttribute.class)
+                        || field.isAnnotationPresent(XmlList.class)) {
+                    kind = Kind.XML;
+                } else if (field.isAnnotationPresent(XmlMixed.class)) {
+                    if (kind != Kind.XML) {
+                        kind = Kind.MIXED;
+                    }
+                } else if (field.isAnnotationPresent(XmlAnyElement.class)) {
+                    kind = Kind.XML;
+                }
+            }
+        }
+        if (kind == Kind.XML) {
+            contents.put(type, XML_CONTENT);
+            return XML_CONTENT;
+        }
+        content = new Content(kind);
+        contents.put(type, content);
+        if (kind == Kind.MIXED) {
+            return content;
+        }
+        for (Class<?> c : hierarchy) {
+            final String parentNamespace = packageNamespace(c);
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                        || field.isAnnotationPresent(XmlTransient.class) || field.isAnnotationPresent(XmlAttribute.class)
+                        || field.isAnnotationPresent(XmlValue.class)) {
+                    continue;
+                }
+                final XmlElement annotation = field.getAnnotation(XmlElement.class);
+                final String name = (null == annotation || DEFAULT.equals(annotation.name())) 
+                        ? field.getName() : annotation.name();
+                final String namespace = (null == annotation || DEFAULT.equals(annotation.namespace())) 
+                        ? parentNamespace : annotation.namespace();
+                final boolean repeated = List.class.isAssignableFrom(field.getType());
+                Type itemType = field.getGenericType();
+                if (repeated) {
+                    itemType = (itemType instanceof ParameterizedType) 
+                            ? ((ParameterizedType) itemType).getActualTypeArguments()[0] : Object.class;
+                }
+                final Content childContent;
+                if (!namespace.equals(parentNamespace)) {
+                    childContent = XML_CONTENT;
+                } else if (itemType instanceof Class) {
+                    childContent = contentOf((Class<?>) itemType);
+                } else {
+                    childContent = TEXT;
+                }
+                content.children.put(name, new Element(name, namespace, repeated, childContent));
+            }
+        }
+        return content;
+    }
+    
+    /**
+     * @return the namespace of the elements of a JAXB class.
+     */
+    private static String packageNamespace(Class<?> type) {
+        final XmlSchema schema = type.getPackage().getAnnotation(XmlSchema.class);
+        if (null == schema || schema.elementFormDefault() != XmlNsForm.QUALIFIED) {
+            return "";
+        }
+        return schema.namespace();
+    }
+    
+    private static String decapitalize(String name) {
+        return name.isEmpty() ? name : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+    
+    private static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The XML is only ever content, and must not be able to pull in external entities.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,878 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.mitre.taxii.messages.JsonCodec.Element;
+import org.mitre.taxii.messages.JsonCodec.Kind;
+
+/**
+ * Reads the JSON {@link JsonCodec} describes as the StAX events of the 
+ * message's XML form. The JSON is read as the events are asked for. The XML
+ * of mixed content, and of elements written whole as XML, is read with a
+ * StAX reader of its own, whose events are passed on.
+ */
+final class JsonStreamReader implements XMLStreamReader, XMLStreamConstants {
+    
+    /** The element wrapped around XML text while it is read. */
+    private static final String WRAPPER = "json";
+    
+    /** Reading the members of an element's object. */
+    private static final int MEMBERS = 0;
+    /** The element's text is the next event. */
+    private static final int TEXT = 1;
+    /** The element's end tag is the next event. */
+    private static final int END = 2;
+    
+    /** An open element read from JSON. */
+    private static final class Frame {
+        final Element element;
+        /** true for the root element, which declares the namespace. */
+        final boolean root;
+        int state = MEMBERS;
+        /** The text of a string value. */
+        String text;
+        /** true until the object has had a member. */
+        boolean first = true;
+        /** The name of a member read while looking for the attributes. */
+        String heldName;
+        /** The repeated child element whose array is being read, or null. */
+        Element array;
+        
+        Frame(Element element, boolean root) {
+            this.element = element;
+            this.root = root;
+        }
+    }
+    
+    private final JsonCodec codec;
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    /** The offset in the JSON of the start of the buffer. */
+    private long offset;
+    private final StringBuilder sb = new StringBuilder();
+    
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private String namespace = "";
+    private String prefix = "";
+    
+    private int event = START_DOCUMENT;
+    /** The element of the current start or end tag. */
+    private Frame current;
+    private final List<String> attributeNames = new ArrayList<>();
+    private final List<String> attributeValues = new ArrayList<>();
+    private String text;
+    private char[] textCharacters;
+    
+    /** The reader of the XML being read, or null. */
+    private XMLStreamReader xml;
+    /** The depth of the XML reader's current element, within the wrapper. */
+    private int xmlDepth;
+    /** true if the current event is the XML reader's. */
+    private boolean fromXml;
+    
+    JsonStreamReader(JsonCodec codec, Reader in) {
+        this.codec = codec;
+        this.in = in;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (event == END_DOCUMENT) {
+            throw new NoSuchElementException("The end of the message has been read.");
+        }
+        text = null;
+        textCharacters = null;
+        if (null != xml) {
+            final int e = nextXml();
+            if (e >= 0) {
+                event = e;
+                return e;
+            }
+        }
+        fromXml = false;
+        event = advance();
+        return event;
+    }
+    
+    /**
+     * Reads the next event from the JSON.
+     */
+    private int advance() throws XMLStreamException {
+        for (;;) {
+            final Frame f = frames.peek();
+            if (null == f) {
+                if (event != START_DOCUMENT) {
+                    expect('}');
+                    if (skipWhitespace() >= 0) {
+                        throw error("Expected the end of the message");
+                    }
+                    return END_DOCUMENT;
+                }
+                if (peek() == '\uFEFF') {
+                    pos++;
+                }
+                expect('{');
+                final String name = readString();
+                expect(':');
+                final Element root = codec.getRoot(name);
+                if (null == root) {
+                    throw error("There is no message named " + name);
+                }
+                namespace = root.namespace;
+                final String declared = codec.getPrefix(namespace);
+                prefix = (null == declared || namespace.isEmpty()) ? "" : declared;
+                final int e = startValue(root, true);
+                if (e >= 0) {
+                    return e;
+                }
+                event = END_ELEMENT; // Nothing was read, but the root is done.
+                continue;
+            }
+            switch (f.state) {
+                case TEXT:
+                    f.state = END;
+                    final String value = f.text;
+                    f.text = null;
+                    if (!value.isEmpty()) {
+                        final int e = startText(f, value);
+                        if (e >= 0) {
+                            return e;
+                        }
+                    }
+                    continue;
+                case END:
+                    frames.pop();
+                    current = f;
+                    return END_ELEMENT;
+                default:
+                    break;
+            }
+            if (null != f.array) {
+                if (skipWhitespace() == ',') {
+                    pos++;
+                    final int e = startValue(f.array, false);
+                    if (e >= 0) {
+                        return e;
+                    }
+                    continue;
+                }
+                expect(']');
+                f.array = null;
+            }
+            String name = f.heldName;
+            f.heldName = null;
+            if (null == name) {
+                name = nextName(f);
+            }
+            if (null == name) {
+                f.state = END;
+                continue;
+            }
+            if (name.startsWith("@")) {
+                throw error("The attribute " + name + " must come before the other members of " + f.element.name);
+            }
+            if ("#text".equals(name)) {
+                final String value = readText();
+                if (null != value && !value.isEmpty()) {
+                    final int e = startText(f, value);
+                    if (e >= 0) {
+                        return e;
+                    }
+                }
+                continue;
+            }
+            Element child = f.element.content.children.get(name);
+            if (null == child) {
+                child = JsonCodec.unknown(name, f.element.namespace, f.element.namespace);
+            }
+            if (skipWhitespace() == '[') {
+                pos++;
+                if (skipWhitespace() == ']') {
+                    pos++;
+                    continue;
+                }
+                f.array = child;
+            }
+            final int e = startValue(child, false);
+            if (e >= 0) {
+                return e;
+            }
+        }
+    }
+    
+    /**
+     * Reads the value of an element.
+     * 
+     * @return the first event of the element, or -1 if it was null.
+     */
+    private int startValue(Element element, boolean root) throws XMLStreamException {
+        if (element.content.kind == Kind.XML) {
+            final String value = readText();
+            return (null == value) ? -1 : startXml(value);
+        }
+        final Frame f = new Frame(element, root);
+        attributeNames.clear();
+        attributeValues.clear();
+        if (skipWhitespace() == '{') {
+            pos++;
+            String name;
+            while (null != (name = nextName(f)) && name.startsWith("@")) {
+                final String value = readText();
+                if (null != value) {
+                    attributeNames.add(name.substring(1));
+                    attributeValues.add(value);
+                }
+            }
+            if (null == name) {
+                f.state = END;
+            } else {
+                f.heldName = name;
+            }
+        } else {
+            final String value = readText();
+            if (null == value) {
+                return -1;
+            }
+            f.state = TEXT;
+            f.text = value;
+        }
+        frames.push(f);
+        current = f;
+        return START_ELEMENT;
+    }
+    
+    /**
+     * @return the first event of the text of an element, or -1 if there is 
+     *          none.
+     */
+    private int startText(Frame f, String value) throws XMLStreamException {
+        if (f.element.content.kind == Kind.MIXED) {
+            return startXml(value);
+        }
+        text = value;
+        return CHARACTERS;
+    }
+    
+    /*
+     * The XML of mixed content and of elements written whole.
+     */
+    
+    /**
+     * Starts reading XML text, within a wrapper that declares the prefix of
+     * the message's namespace.
+     * 
+     * @return its first event, or -1 if it has none.
+     */
+    private int startXml(String value) throws XMLStreamException {
+        final StringBuilder wrapped = new StringBuilder(value.length() + 128);
+        wrapped.append('<').append(WRAPPER);
+        if (!prefix.isEmpty()) {
+            wrapped.append(" xmlns:").append(prefix).append("=\"").append(namespace.replace("&", "&amp;").replace("\"", "&quot;")).append('"');
+        }
+        wrapped.append('>').append(value).append("</").append(WRAPPER).append('>');
+        xml = JsonCodec.createXmlReader(new StringReader(wrapped.toString()));
+        while (xml.next() != START_ELEMENT) {
+            // Up to the wrapper.
+        }
+        xmlDepth = 0;
+        return nextXml();
+    }
+    
+    /**
+     * @return the next event of the XML, or -1 at its end.
+     */
+    private int nextXml() throws XMLStreamException {
+        for (;;) {
+            final int e = xml.next();
+            switch (e) {
+                case START_ELEMENT:
+                    xmlDepth++;
+                    fromXml = true;
+                    return e;
+                case END_ELEMENT:
+                    if (xmlDepth == 0) {
+                        // The wrapper's end, which must end the XML.
+                        while (xml.hasNext()) {
+                            xml.next();
+                        }
+                        xml.close();
+                        xml = null;
+                        fromXml = false;
+                        return -1;
+                    }
+                    xmlDepth--;
+                    fromXml = true;
+                    return e;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    fromXml = true;
+                    return CHARACTERS;
+                default:
+                    // Comments and processing instructions are dropped.
+            }
+        }
+    }
+    
+    /*
+     * JSON input.
+     */
+    
+    /**
+     * @return the name of the object's next member, or null at its end.
+     */
+    private String nextName(Frame f) throws XMLStreamException {
+        if (skipWhitespace() == '}') {
+            pos++;
+            return null;
+        }
+        if (f.first) {
+            f.first = false;
+        } else {
+            expect(',');
+        }
+        final String name = readString();
+        expect(':');
+        return name;
+    }
+    
+    /**
+     * Reads a string, or a number or boolean literal as its text.
+     * 
+     * @return the text, or null for a null literal.
+     */
+    private String readText() throws XMLStreamException {
+        final int c = skipWhitespace();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '-' || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')) {
+            sb.setLength(0);
+            for (int d = peek(); d == '-' || d == '+' || d == '.' || (d >= '0' && d <= '9') 
+                    || (d >= 'a' && d <= 'z') || (d >= 'A' && d <= 'Z'); d = peek()) {
+                sb.append((char) d);
+                pos++;
+            }
+            final String literal = sb.toString();
+            if ("null".equals(literal)) {
+                return null;
+            }
+            if ("true".equals(literal) || "false".equals(literal) || c == '-' || c <= '9') {
+                return literal;
+            }
+            throw error("Unexpected " + literal);
+        }
+        throw error((c < 0) ? "Unexpected end of the message" : "Expected a string");
+    }
+    
+    private String readString() throws XMLStreamException {
+        if (skipWhitespace() != '"') {
+            throw error("Expected a string");
+        }
+        pos++;
+        sb.setLength(0);
+        for (;;) {
+            if (pos == limit && !fill()) {
+                throw error("Unterminated string");
+            }
+            final int start = pos;
+            while (pos < limit) {
+                final char c = buffer[pos];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                pos++;
+            }
+            sb.append(buffer, start, pos - start);
+            if (pos == limit) {
+                continue;
+            }
+            final char c = buffer[pos++];
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c < 0x20) {
+                throw error("Control character in a string");
+            }
+            final char escaped = nextChar();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(escaped);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(nextChar(), 16);
+                        if (digit < 0) {
+                            throw error("Invalid \\u escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                default:
+                    throw error("Invalid escape \\" + escaped);
+            }
+        }
+    }
+    
+    private char nextChar() throws XMLStreamException {
+        if (pos == limit && !fill()) {
+            throw error("Unterminated string");
+        }
+        return buffer[pos++];
+    }
+    
+    private void expect(char c) throws XMLStreamException {
+        if (skipWhitespace() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+    
+    /**
+     * @return the next character that isn't whitespace, without reading it,
+     *          or -1 at the end of the JSON.
+     */
+    private int skipWhitespace() throws XMLStreamException {
+        for (;;) {
+            final int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+    }
+    
+    private int peek() throws XMLStreamException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+    
+    private boolean fill() throws XMLStreamException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        try {
+            final int n = in.read(buffer);
+            if (n > 0) {
+                limit = n;
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+        return limit > 0;
+    }
+    
+    private XMLStreamException error(String message) {
+        return new XMLStreamException(message + " at offset " + (offset + pos) + " of the JSON.", getLocation());
+    }
+    
+    /*
+     * XMLStreamReader
+     */
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (type != getEventType()
+                || (null != namespaceURI && !namespaceURI.equals(getNamespaceURI()))
+                || (null != localName && !localName.equals(getLocalName()))) {
+            throw new XMLStreamException("Expected event " + type + " " + namespaceURI + " " + localName, getLocation());
+        }
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != START_ELEMENT) {
+            throw new XMLStreamException("Not at a start tag", getLocation());
+        }
+        final StringBuilder content = new StringBuilder();
+        for (int e = next(); e != END_ELEMENT; e = next()) {
+            if (e == START_ELEMENT) {
+                throw new XMLStreamException("The element has child elements", getLocation());
+            }
+            if (e == CHARACTERS) {
+                content.append(getText());
+            }
+        }
+        return content.toString();
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int e = next();
+        while (e == CHARACTERS && isWhiteSpace()) {
+            e = next();
+        }
+        if (e != START_ELEMENT && e != END_ELEMENT) {
+            throw new XMLStreamException("Expected a start or end tag", getLocation());
+        }
+        return e;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return event != END_DOCUMENT;
+    }
+
+    /**
+     * Frees the reader, without closing the JSON's Reader.
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        if (null != xml) {
+            xml.close();
+            xml = null;
+        }
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        return getNamespaceContext().getNamespaceURI(prefix);
+    }
+
+    @Override
+    public boolean isStartElement() {
+        return event == START_ELEMENT;
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return event == END_ELEMENT;
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return event == CHARACTERS;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        if (event != CHARACTERS) {
+            return false;
+        }
+        final String s = getText();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        if (fromXml) {
+            return xml.getAttributeValue(namespaceURI, localName);
+        }
+        if (null != namespaceURI && !namespaceURI.isEmpty()) {
+            return null;
+        }
+        final int i = attributeNames.indexOf(localName);
+        return (i < 0) ? null : attributeValues.get(i);
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return fromXml ? xml.getAttributeCount() : attributeNames.size();
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        return fromXml ? xml.getAttributeName(index) : new QName(attributeNames.get(index));
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return fromXml ? xml.getAttributeNamespace(index) : null;
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        return fromXml ? xml.getAttributeLocalName(index) : attributeNames.get(index);
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        return fromXml ? xml.getAttributePrefix(index) : "";
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        return fromXml ? xml.getAttributeType(index) : "CDATA";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return fromXml ? xml.getAttributeValue(index) : attributeValues.get(index);
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+        return fromXml ? xml.isAttributeSpecified(index) : true;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        if (fromXml) {
+            return xml.getNamespaceCount();
+        }
+        return (current.root && !namespace.isEmpty()) ? 1 : 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        return fromXml ? xml.getNamespacePrefix(index) : prefix;
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        return fromXml ? xml.getNamespaceURI(index) : namespace;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        if (fromXml) {
+            return xml.getNamespaceContext();
+        }
+        return new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String p) {
+                if (prefix.equals(p)) {
+                    return namespace;
+                } else if (XMLConstants.XML_NS_PREFIX.equals(p)) {
+                    return XMLConstants.XML_NS_URI;
+                } else if (XMLConstants.XMLNS_ATTRIBUTE.equals(p)) {
+                    return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+                }
+                return XMLConstants.NULL_NS_URI;
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return namespace.equals(namespaceURI) ? prefix : null;
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                return namespace.equals(namespaceURI) 
+                        ? Collections.singletonList(prefix).iterator() : Collections.<String>emptyIterator();
+            }
+        };
+    }
+
+    @Override
+    public int getEventType() {
+        return event;
+    }
+
+    @Override
+    public String getText() {
+        if (fromXml) {
+            return xml.getText();
+        }
+        return text;
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (fromXml) {
+            return xml.getTextCharacters();
+        }
+        if (null == textCharacters && null != text) {
+            textCharacters = text.toCharArray();
+        }
+        return textCharacters;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        if (fromXml) {
+            return xml.getTextCharacters(sourceStart, target, targetStart, length);
+        }
+        final int n = Math.max(0, Math.min(length, text.length() - sourceStart));
+        text.getChars(sourceStart, sourceStart + n, target, targetStart);
+        return n;
+    }
+
+    @Override
+    public int getTextStart() {
+        return fromXml ? xml.getTextStart() : 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return fromXml ? xml.getTextLength() : text.length();
+    }
+
+    @Override
+    public String getEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean hasText() {
+        return event == CHARACTERS;
+    }
+
+    @Override
+    public Location getLocation() {
+        final long characterOffset = offset + pos;
+        return new Location() {
+            @Override
+            public int getLineNumber() {
+                return -1;
+            }
+
+            @Override
+            public int getColumnNumber() {
+                return -1;
+            }
+
+            @Override
+            public int getCharacterOffset() {
+                return (int) Math.min(Integer.MAX_VALUE, characterOffset);
+            }
+
+            @Override
+            public String getPublicId() {
+                return null;
+            }
+
+            @Override
+            public String getSystemId() {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public QName getName() {
+        if (fromXml) {
+            return xml.getName();
+        }
+        return new QName(current.element.namespace, current.element.name, prefix);
+    }
+
+    @Override
+    public String getLocalName() {
+        return fromXml ? xml.getLocalName() : current.element.name;
+    }
+
+    @Override
+    public boolean hasName() {
+        return event == START_ELEMENT || event == END_ELEMENT;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        if (fromXml) {
+            return xml.getNamespaceURI();
+        }
+        return hasName() ? current.element.namespace : null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return fromXml ? xml.getPrefix() : prefix;
+    }
+
+    @Override
+    public String getVersion() {
+        return null;
+    }
+
+    @Override
+    public boolean isStandalone() {
+        return false;
+    }
+
+    @Override
+    public boolean standaloneSet() {
+        return false;
+    }
+
+    @Override
+    public String getCharacterEncodingScheme() {
+        return null;
+    }
+
+    @Override
+    public String getPITarget() {
+        return null;
+    }
+
+    @Override
+    public String getPIData() {
+        return null;
+    }
+}
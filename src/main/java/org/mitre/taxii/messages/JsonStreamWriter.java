@@ -0,0 +1,751 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.mitre.taxii.messages.JsonCodec.Element;
+import org.mitre.taxii.messages.JsonCodec.Kind;
+
+/**
+ * Writes the StAX events of the XML form of a message as the JSON 
+ * {@link JsonCodec} describes, a member at a time. The XML of mixed 
+ * content, and of elements written whole as XML, is collected until the 
+ * string holding it is complete.
+ */
+final class JsonStreamWriter implements XMLStreamWriter {
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    /** An open element written as JSON. */
+    private static final class Frame {
+        final Element element;
+        /** The size of the namespace scope before the element's declarations. */
+        final int scope;
+        /** true once the element's object has been started. */
+        boolean object;
+        /** true until the object has a member. */
+        boolean first = true;
+        /** true once a child element has been written. */
+        boolean children;
+        /** The name of the repeated child element whose array is open, or null. */
+        String array;
+        StringBuilder text;
+        
+        Frame(Element element, int scope) {
+            this.element = element;
+            this.scope = scope;
+        }
+    }
+    
+    private final JsonCodec codec;
+    private final Writer out;
+    private final char[] buffer = new char[8192];
+    private int length;
+    
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    /** The namespace bindings in scope, as prefix, URI pairs. */
+    private final List<String> bindings = new ArrayList<>();
+    private NamespaceContext namespaceContext;
+    /** true if the last element was started by writeEmptyElement. */
+    private boolean emptyElement;
+    
+    /** The XML of the element or mixed content being collected, or null. */
+    private StringBuilder xml;
+    /** true if the XML is a whole element, rather than an element's content. */
+    private boolean xmlElement;
+    /** The size of the namespace scope outside the XML. */
+    private int xmlScope;
+    /** The qualified names of the open elements of the XML. */
+    private final List<String> xmlNames = new ArrayList<>();
+    /** The size of the namespace scope before each open element's declarations. */
+    private int[] xmlScopes = new int[16];
+    /** true while the last start tag can take attributes. */
+    private boolean startTagOpen;
+    /** The namespaces the open start tag's element and attributes are in, as prefix, URI pairs. */
+    private final List<String> tagNamespaces = new ArrayList<>();
+    
+    JsonStreamWriter(JsonCodec codec, Writer out) {
+        this.codec = codec;
+        this.out = out;
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        writeStartElement("", localName, namespaceOf(""));
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeStartElement(prefixOf(namespaceURI), localName, namespaceURI);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        closeEmptyElement();
+        final String namespace = (null == namespaceURI) ? "" : namespaceURI;
+        final Frame parent = frames.peek();
+        if (null == xml && null != parent && parent.element.content.kind == Kind.MIXED) {
+            startXml(false);
+        }
+        if (null != xml) {
+            startXmlElement(prefix, localName, namespace);
+            return;
+        }
+        Element element;
+        if (null == parent) {
+            element = codec.getRoot(localName);
+            if (null == element || !element.namespace.equals(namespace)) {
+                element = JsonCodec.unknown(localName, namespace, namespace);
+            }
+            write('{');
+            writeName(localName);
+        } else {
+            element = parent.element.content.children.get(localName);
+            if (null == element || !element.namespace.equals(namespace)) {
+                element = JsonCodec.unknown(localName, namespace, parent.element.namespace);
+            }
+            startMember(parent, element);
+        }
+        if (element.content.kind == Kind.XML) {
+            startXml(true);
+            startXmlElement(prefix, localName, namespace);
+        } else {
+            frames.push(new Frame(element, bindings.size()));
+        }
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeStartElement(namespaceURI, localName);
+        emptyElement = true;
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        writeStartElement(prefix, localName, namespaceURI);
+        emptyElement = true;
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeStartElement(localName);
+        emptyElement = true;
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        closeEmptyElement();
+        if (null != xml && !xmlNames.isEmpty()) {
+            endXmlElement();
+            if (xmlNames.isEmpty() && xmlElement) {
+                writeString(xml);
+                xml = null;
+                if (frames.isEmpty()) {
+                    write('}');
+                }
+            }
+            return;
+        }
+        final Frame f = frames.pop();
+        CharSequence text = f.text;
+        if (f.element.content.kind == Kind.MIXED) {
+            text = xml;
+            xml = null;
+        }
+        if (!f.object) {
+            writeString((null == text) ? "" : text);
+        } else {
+            closeArray(f);
+            if (null != text && text.length() > 0 && !(f.children && isWhitespace(text))) {
+                comma(f);
+                writeName("#text");
+                writeString(text);
+            }
+            write('}');
+        }
+        clearScope(f.scope);
+        if (frames.isEmpty()) {
+            write('}');
+        }
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        closeEmptyElement();
+        while (!frames.isEmpty() || (null != xml && !xmlNames.isEmpty())) {
+            writeEndElement();
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flushBuffer();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        writeAttribute("", "", localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        writeAttribute(prefixOf(namespaceURI), namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        if (null != xml) {
+            if (!startTagOpen) {
+                throw new XMLStreamException("An attribute must follow a start tag: " + localName);
+            }
+            xml.append(' ').append(qualifiedName(prefix, localName)).append("=\"");
+            escape(value, true);
+            xml.append('"');
+            if (null != prefix && !prefix.isEmpty()) {
+                tagNamespaces.add(prefix);
+                tagNamespaces.add(namespaceURI);
+            }
+            return;
+        }
+        final Frame f = frames.peek();
+        if (null == f || f.children || null != f.text) {
+            throw new XMLStreamException("An attribute must follow a start tag: " + localName);
+        }
+        if (null != namespaceURI && !namespaceURI.isEmpty()) {
+            throw new XMLStreamException("The attribute " + qualifiedName(prefix, localName) + " has no JSON form.");
+        }
+        startObject(f);
+        comma(f);
+        writeName("@" + localName);
+        writeString(value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (null == prefix || prefix.isEmpty() || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+            writeDefaultNamespace(namespaceURI);
+            return;
+        }
+        if (null != xml && startTagOpen) {
+            xml.append(" xmlns:").append(prefix).append("=\"");
+            escape(namespaceURI, true);
+            xml.append('"');
+        }
+        bind(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        if (null != xml && startTagOpen) {
+            xml.append(" xmlns=\"");
+            escape(namespaceURI, true);
+            xml.append('"');
+        }
+        bind("", namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        closeEmptyElement();
+        if (null != xml) {
+            closeStartTag();
+            xml.append("<!--").append(data).append("-->");
+        }
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        writeProcessingInstruction(target, null);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        closeEmptyElement();
+        if (null != xml) {
+            closeStartTag();
+            xml.append("<?").append(target);
+            if (null != data) {
+                xml.append(' ').append(data);
+            }
+            xml.append("?>");
+        }
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) {
+        // A message has no DTD.
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        closeEmptyElement();
+        if (null == xml) {
+            throw new XMLStreamException("The entity reference " + name + " has no JSON form.");
+        }
+        closeStartTag();
+        xml.append('&').append(name).append(';');
+    }
+
+    @Override
+    public void writeStartDocument() {
+        // The JSON starts with the root element.
+    }
+
+    @Override
+    public void writeStartDocument(String version) {
+        // The JSON starts with the root element.
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) {
+        // The JSON starts with the root element.
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        closeEmptyElement();
+        final StringBuilder sb = textBuffer();
+        if (null == sb) {
+            return;
+        }
+        if (sb == xml) {
+            escape(text, false);
+        } else {
+            sb.append(text);
+        }
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+            if (bindings.get(i + 1).equals(uri)) {
+                return bindings.get(i);
+            }
+        }
+        return (null == namespaceContext) ? null : namespaceContext.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        bind(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+        bind("", uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) {
+        this.namespaceContext = context;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return namespaceOf(prefix);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return JsonStreamWriter.this.getPrefix(namespaceURI);
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                final String prefix = getPrefix(namespaceURI);
+                return (null == prefix) ? Collections.<String>emptyIterator() : Collections.singletonList(prefix).iterator();
+            }
+        };
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        if (XMLOutputFactory.IS_REPAIRING_NAMESPACES.equals(name)) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException(name);
+    }
+    
+    /**
+     * @return where text goes: the XML being collected, the text of the 
+     *          open element, or null outside the root element.
+     */
+    private StringBuilder textBuffer() throws XMLStreamException {
+        final Frame f = frames.peek();
+        if (null == xml && null != f && f.element.content.kind == Kind.MIXED) {
+            startXml(false);
+        }
+        if (null != xml) {
+            closeStartTag();
+            return xml;
+        }
+        if (null == f) {
+            return null;
+        }
+        if (null == f.text) {
+            f.text = new StringBuilder();
+        }
+        return f.text;
+    }
+    
+    private void startMember(Frame parent, Element element) throws XMLStreamException {
+        startObject(parent);
+        if (null != parent.text) {
+            // Text before the child elements.
+            if (!isWhitespace(parent.text)) {
+                closeArray(parent);
+                comma(parent);
+                writeName("#text");
+                writeString(parent.text);
+            }
+            parent.text = null;
+        }
+        parent.children = true;
+        if (null != parent.array && !parent.array.equals(element.name)) {
+            closeArray(parent);
+        }
+        if (element.repeated) {
+            if (element.name.equals(parent.array)) {
+                write(',');
+            } else {
+                comma(parent);
+                writeName(element.name);
+                write('[');
+                parent.array = element.name;
+            }
+        } else {
+            comma(parent);
+            writeName(element.name);
+        }
+    }
+    
+    private void startObject(Frame f) throws XMLStreamException {
+        if (!f.object) {
+            write('{');
+            f.object = true;
+        }
+    }
+    
+    private void closeArray(Frame f) throws XMLStreamException {
+        if (null != f.array) {
+            write(']');
+            f.array = null;
+        }
+    }
+    
+    private void comma(Frame f) throws XMLStreamException {
+        if (f.first) {
+            f.first = false;
+        } else {
+            write(',');
+        }
+    }
+    
+    private void closeEmptyElement() throws XMLStreamException {
+        if (emptyElement) {
+            emptyElement = false;
+            writeEndElement();
+        }
+    }
+    
+    /*
+     * The XML of mixed content and of elements written whole.
+     */
+    
+    private void startXml(boolean element) {
+        xml = new StringBuilder(256);
+        xmlElement = element;
+        xmlScope = bindings.size();
+    }
+    
+    private void startXmlElement(String prefix, String localName, String namespace) throws XMLStreamException {
+        closeStartTag();
+        final String p = (null == prefix) ? "" : prefix;
+        final int depth = xmlNames.size();
+        if (depth == xmlScopes.length) {
+            final int[] grown = new int[depth * 2];
+            System.arraycopy(xmlScopes, 0, grown, 0, depth);
+            xmlScopes = grown;
+        }
+        xmlScopes[depth] = bindings.size();
+        final String qName = qualifiedName(p, localName);
+        xmlNames.add(qName);
+        xml.append('<').append(qName);
+        startTagOpen = true;
+        tagNamespaces.clear();
+        tagNamespaces.add(p);
+        tagNamespaces.add(namespace);
+    }
+    
+    private void endXmlElement() {
+        final int depth = xmlNames.size() - 1;
+        final String qName = xmlNames.remove(depth);
+        if (startTagOpen) {
+            declareTagNamespaces();
+            xml.append("/>");
+            startTagOpen = false;
+        } else {
+            xml.append("</").append(qName).append('>');
+        }
+        clearScope(xmlScopes[depth]);
+    }
+    
+    private void closeStartTag() {
+        if (startTagOpen) {
+            declareTagNamespaces();
+            xml.append('>');
+            startTagOpen = false;
+        }
+    }
+    
+    /**
+     * Declares the namespaces of the open start tag that were declared 
+     * outside the XML, so the XML stands on its own.
+     */
+    private void declareTagNamespaces() {
+        for (int t = 0; t < tagNamespaces.size(); t += 2) {
+            final String prefix = tagNamespaces.get(t);
+            final String uri = (null == tagNamespaces.get(t + 1)) ? "" : tagNamespaces.get(t + 1);
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                continue;
+            }
+            String bound = null;
+            for (int i = bindings.size() - 2; i >= xmlScope; i -= 2) {
+                if (bindings.get(i).equals(prefix)) {
+                    bound = bindings.get(i + 1);
+                    break;
+                }
+            }
+            if (uri.equals(bound) || (null == bound && prefix.isEmpty() && uri.isEmpty())) {
+                continue;
+            }
+            xml.append(prefix.isEmpty() ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+            escape(uri, true);
+            xml.append('"');
+            bind(prefix, uri);
+        }
+        tagNamespaces.clear();
+    }
+    
+    private void escape(String text, boolean attribute) {
+        final StringBuilder sb = xml;
+        int start = 0;
+        final int end = text.length();
+        for (int i = 0; i < end; i++) {
+            final char c = text.charAt(i);
+            final String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (null != replacement) {
+                sb.append(text, start, i).append(replacement);
+                start = i + 1;
+            }
+        }
+        sb.append(text, start, end);
+    }
+    
+    /*
+     * Namespace scope.
+     */
+    
+    private void bind(String prefix, String uri) {
+        bindings.add((null == prefix) ? "" : prefix);
+        bindings.add((null == uri) ? "" : uri);
+    }
+    
+    private void clearScope(int size) {
+        bindings.subList(size, bindings.size()).clear();
+    }
+    
+    private String namespaceOf(String prefix) {
+        for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+            if (bindings.get(i).equals(prefix)) {
+                return bindings.get(i + 1);
+            }
+        }
+        if (null != namespaceContext) {
+            return namespaceContext.getNamespaceURI(prefix);
+        }
+        return prefix.isEmpty() ? "" : null;
+    }
+    
+    private String prefixOf(String namespaceURI) {
+        final String prefix = getPrefix(namespaceURI);
+        return (null == prefix) ? "" : prefix;
+    }
+    
+    private static String qualifiedName(String prefix, String localName) {
+        return (null == prefix || prefix.isEmpty()) ? localName : prefix + ':' + localName;
+    }
+    
+    private static boolean isWhitespace(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /*
+     * JSON output.
+     */
+    
+    private void writeName(String name) throws XMLStreamException {
+        writeString(name);
+        write(':');
+    }
+    
+    private void writeString(CharSequence s) throws XMLStreamException {
+        write('"');
+        final int end = s.length();
+        for (int i = 0; i < end; i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    write('\\');
+                    write('"');
+                    break;
+                case '\\':
+                    write('\\');
+                    write('\\');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                default:
+                    // The line separators aren't valid in JavaScript strings.
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        write('\\');
+                        write('u');
+                        write(HEX[c >> 12]);
+                        write(HEX[(c >> 8) & 0xF]);
+                        write(HEX[(c >> 4) & 0xF]);
+                        write(HEX[c & 0xF]);
+                    } else {
+                        write(c);
+                    }
+            }
+        }
+        write('"');
+    }
+    
+    private void write(char c) throws XMLStreamException {
+        if (length == buffer.length) {
+            flushBuffer();
+        }
+        buffer[length++] = c;
+    }
+    
+    private void flushBuffer() throws XMLStreamException {
+        if (length > 0) {
+            try {
+                out.write(buffer, 0, length);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+            length = 0;
+        }
+    }
+}
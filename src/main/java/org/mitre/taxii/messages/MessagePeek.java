@@ -0,0 +1,244 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.mitre.taxii.Versions;
+import org.mitre.taxii.util.ByteBufferInputStream;
+
+/**
+ * The routing information at the start of a TAXII message, read without 
+ * unmarshalling the message.
+ * 
+ * <p>
+ * Only the message's start tag is read (and, for an Inbox_Message, the 
+ * Destination_Collection_Name that may follow it), so peeking costs the 
+ * same however large the message is. Nothing is validated; a message that
+ * peeks well may still be invalid.
+ * </p>
+ * <pre>
+ *      MessagePeek peek = MessagePeek.peek(buffer);
+ *      TaxiiXml taxiiXml = peek.select(taxiiXml10, taxiiXml11);
+ *      if ("Poll_Response".equals(peek.getMessageType()) &amp;&amp; peek.isMore()) {
+ *          // ...
+ *      }
+ * </pre>
+ */
+public final class MessagePeek {
+    
+    /** The XML namespace of TAXII 1.0 messages. */
+    private static final String NAMESPACE_10 = org.mitre.taxii.messages.xml10.ContentBlockReader.NAMESPACE;
+    /** The XML namespace of TAXII 1.1 messages. */
+    private static final String NAMESPACE_11 = org.mitre.taxii.messages.xml11.ContentBlockReader.NAMESPACE;
+    
+    private static final String INBOX_MESSAGE = "Inbox_Message";
+    private static final String DESTINATION_COLLECTION_NAME = "Destination_Collection_Name";
+
+    private final String namespace;
+    private final String messageType;
+    private final String messageId;
+    private final String inResponseTo;
+    private final String collectionName;
+    private final String resultId;
+    private final boolean more;
+
+    private MessagePeek(String namespace, String messageType, String messageId, 
+            String inResponseTo, String collectionName, String resultId, boolean more) {
+        this.namespace = namespace;
+        this.messageType = messageType;
+        this.messageId = messageId;
+        this.inResponseTo = inResponseTo;
+        this.collectionName = collectionName;
+        this.resultId = resultId;
+        this.more = more;
+    }
+    
+    /**
+     * Peek at a message in an InputStream. The stream is not closed, but 
+     * more of it than the start of the message may have been read.
+     * 
+     * @throws JAXBException if the start of the message can't be read.
+     */
+    public static MessagePeek peek(InputStream in) throws JAXBException {
+        final XMLStreamReader reader = ContentBlockReader.newStreamReader(in);
+        try {
+            return peek(reader);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                // Nothing was held open that the stream doesn't own.
+            }
+        }
+    }
+    
+    /**
+     * Peek at a message in a ByteBuffer. The buffer's position is not changed,
+     * so the message can then be unmarshalled from it.
+     * 
+     * @throws JAXBException if the start of the message can't be read.
+     */
+    public static MessagePeek peek(ByteBuffer buffer) throws JAXBException {
+        return peek(new ByteBufferInputStream(buffer));
+    }
+
+    /**
+     * Peek at a message in a StAX stream. The stream must be positioned at 
+     * the start of the document or at the message's start tag, and is left 
+     * part way through the message.
+     * 
+     * @throws JAXBException if the start of the message can't be read.
+     */
+    public static MessagePeek peek(XMLStreamReader reader) throws JAXBException {
+        try {
+            while (!reader.isStartElement()) {
+                reader.next();
+            }
+            final String namespace = reader.getNamespaceURI();
+            final String messageType = reader.getLocalName();
+            String collectionName = reader.getAttributeValue(null, "collection_name");
+            if (null == collectionName) {
+                collectionName = reader.getAttributeValue(null, "feed_name"); // TAXII 1.0
+            }
+            final String messageId = reader.getAttributeValue(null, "message_id");
+            final String inResponseTo = reader.getAttributeValue(null, "in_response_to");
+            final String resultId = reader.getAttributeValue(null, "result_id");
+            final boolean more = parseBoolean(reader.getAttributeValue(null, "more"));
+            if (null == collectionName 
+                    && INBOX_MESSAGE.equals(messageType) 
+                    && NAMESPACE_11.equals(namespace)
+                    && reader.nextTag() == XMLStreamConstants.START_ELEMENT
+                    && DESTINATION_COLLECTION_NAME.equals(reader.getLocalName())) {
+                collectionName = reader.getElementText().trim();
+            }
+            return new MessagePeek(namespace, messageType, messageId, inResponseTo, 
+                    collectionName, resultId, more);
+        } catch (XMLStreamException ex) {
+            throw new JAXBException("Unable to read message.", ex);
+        }
+    }
+    
+    /**
+     * Parse an xs:boolean, which may be "1" as well as "true". Anything that
+     * isn't true, including a missing value, is false.
+     */
+    private static boolean parseBoolean(String value) {
+        if (null == value) {
+            return false;
+        }
+        final String collapsed = value.trim();
+        return "true".equals(collapsed) || "1".equals(collapsed);
+    }
+    
+    /**
+     * @return the XML namespace of the message.
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return the local name of the message's root element, e.g. Poll_Request.
+     */
+    public String getMessageType() {
+        return messageType;
+    }
+    
+    /**
+     * @return {@link Versions#VID_TAXII_XML_10}, {@link Versions#VID_TAXII_XML_11},
+     *          or null if the message is not in a TAXII namespace.
+     */
+    public String getTaxiiVersion() {
+        if (NAMESPACE_11.equals(namespace)) {
+            return Versions.VID_TAXII_XML_11;
+        } else if (NAMESPACE_10.equals(namespace)) {
+            return Versions.VID_TAXII_XML_10;
+        }
+        return null;
+    }
+    
+    /**
+     * Pick the TaxiiXml that reads this message.
+     * 
+     * @param candidates TaxiiXmls of different versions.
+     * @return the candidate of the message's version, or null if there is none.
+     */
+    public TaxiiXml select(TaxiiXml... candidates) {
+        final String taxiiVersion = getTaxiiVersion();
+        for (TaxiiXml candidate : candidates) {
+            if (candidate.getTaxiiVersion().equals(taxiiVersion)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getInResponseTo() {
+        return inResponseTo;
+    }
+
+    /**
+     * @return the collection (feed, in TAXII 1.0) the message is about, or 
+     *          the first Destination_Collection_Name of an Inbox_Message, 
+     *          or null if it has none.
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public String getResultId() {
+        return resultId;
+    }
+
+    /**
+     * @return the more attribute of a Poll_Response; false if it has none.
+     */
+    public boolean isMore() {
+        return more;
+    }
+
+    @Override
+    public String toString() {
+        return messageType + "[message_id=" + messageId 
+                + ", in_response_to=" + inResponseTo 
+                + ", collection=" + collectionName
+                + ", result_id=" + resultId
+                + ", more=" + more + "]";
+    }
+}
@@ -0,0 +1,195 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The payload of a Content_Block's Content, kept as the UTF-8 bytes it was
+ * received as.
+ * 
+ * <p>
+ * The bytes are usually a slice of the message they were read from, so 
+ * holding on to a RawContent holds on to the whole message. They are 
+ * only parsed when {@link #toContent()} or {@link #unmarshal(Unmarshaller)} 
+ * is called, and a payload that isn't well formed is only found out then.
+ * </p>
+ * 
+ * @see TaxiiXml#unmarshalRaw(ByteBuffer)
+ */
+public final class RawContent {
+    
+    private static final byte[] START = "<raw>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "</raw>".getBytes(StandardCharsets.UTF_8);
+    
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param bytes a well-formed XML fragment, in UTF-8. Not copied.
+     */
+    public RawContent(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    RawContent(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    /**
+     * @return the number of bytes.
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * @return a read-only view of the bytes.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+    }
+    
+    /**
+     * @return a copy of the bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+    
+    public InputStream openStream() {
+        return new ByteArrayInputStream(bytes, offset, length);
+    }
+    
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * Parse the payload into the form JAXB unmarshals it to: Elements, and 
+     * Strings for the text between them.
+     * 
+     * @return the same list {@code AnyMixedContentType.getContent()} would hold.
+     * @throws JAXBException if the payload isn't well formed.
+     */
+    public List<Object> toContent() throws JAXBException {
+        final Document document = ContentBlockReader.parseDocument(wrapped());
+        final List<Object> content = new ArrayList<>();
+        StringBuilder text = null;
+        for (Node node = document.getDocumentElement().getFirstChild(); null != node; node = node.getNextSibling()) {
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    if (null != text) {
+                        content.add(text.toString());
+                        text = null;
+                    }
+                    content.add(node);
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (null == text) {
+                        text = new StringBuilder();
+                    }
+                    text.append(node.getNodeValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (null != text) {
+            content.add(text.toString());
+        }
+        return content;
+    }
+    
+    /**
+     * Unmarshal the first element of the payload, e.g. a STIX_Package, 
+     * without building a DOM.
+     * 
+     * @param unmarshaller an unmarshaller whose context knows the payload.
+     * @return the unmarshalled element.
+     * @throws JAXBException if the payload has no element or can't be unmarshalled.
+     */
+    public Object unmarshal(Unmarshaller unmarshaller) throws JAXBException {
+        final XMLStreamReader reader = ContentBlockReader.newStreamReader(wrapped());
+        try {
+            reader.nextTag(); // <raw>
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                    return unmarshaller.unmarshal(reader);
+                }
+            }
+            throw new JAXBException("No element in content.");
+        } catch (XMLStreamException ex) {
+            throw new JAXBException("Unable to read content.", ex);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                // The streams are all in memory.
+            }
+        }
+    }
+    
+    /**
+     * The payload wrapped in an element, so that it is a document.
+     */
+    private InputStream wrapped() {
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(START), openStream(), new ByteArrayInputStream(END))));
+    }
+
+    /**
+     * @return the payload as text.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
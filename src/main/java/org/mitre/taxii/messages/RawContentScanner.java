@@ -0,0 +1,472 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Finds the Content of each Content_Block in the UTF-8 bytes of a message, 
+ * without parsing the payloads.
+ * 
+ * <p>
+ * The message is tokenized just enough to track element depth: tags, 
+ * comments, CDATA sections and processing instructions are recognized, but
+ * payload text is skipped over and payload attributes are only read for the
+ * top-level payload elements. The Content_Block and Content elements are 
+ * recognized by name and namespace as children of the root and of a 
+ * Content_Block.
+ * </p>
+ * <p>
+ * A payload that uses namespace prefixes declared outside it (on the root,
+ * Content_Block or Content elements) has those declarations copied onto its
+ * top-level elements, so that it can stand on its own. The declarations of 
+ * the TAXII namespace itself are only copied onto elements in it.
+ * </p>
+ */
+final class RawContentScanner {
+    
+    private static final String CONTENT_BLOCK = "Content_Block";
+    private static final String CONTENT = "Content";
+    private static final String XMLNS = XMLConstants.XMLNS_ATTRIBUTE;
+    
+    /**
+     * Where one Content element is in the message.
+     */
+    static final class Span {
+        /** The index of the Content_Block among the root's Content_Blocks. */
+        final int block;
+        /** The qualified name of the Content element. */
+        final String qName;
+        /** The start of the body, or of the "/>" of an empty element tag. */
+        int bodyStart;
+        /** The end of the body, i.e. the start of the end tag. */
+        int bodyEnd;
+        /** The end of the element. */
+        int end;
+        boolean emptyElement;
+        /** The payload, if it was captured. */
+        RawContent content;
+
+        Span(int block, String qName) {
+            this.block = block;
+            this.qName = qName;
+        }
+    }
+    
+    /** A namespace declaration, and its attribute as written. */
+    private static final class Declaration {
+        final String prefix;
+        final String uri;
+        final int start;
+        final int end;
+
+        Declaration(String prefix, String uri, int start, int end) {
+            this.prefix = prefix;
+            this.uri = uri;
+            this.start = start;
+            this.end = end;
+        }
+    }
+    
+    private final byte[] b;
+    private final int limit;
+    private final boolean capture;
+    private int pos;
+    
+    /** The declarations made by each of the root, Content_Block and Content elements that are open. */
+    private final List<List<Declaration>> scopes = new ArrayList<>(3);
+    private final List<Span> spans = new ArrayList<>();
+    private String rootNamespace;
+    private int blocks = 0;
+    
+    // Per tag
+    private String tagName;
+    private int tagNameEnd;
+    private boolean emptyElement;
+    private final List<Declaration> tagDeclarations = new ArrayList<>();
+    
+    private RawContentScanner(byte[] b, int offset, int length, boolean capture) {
+        this.b = b;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.capture = capture;
+    }
+    
+    /**
+     * Finds the Content elements of the Content_Blocks in a message.
+     * 
+     * @param capture if true, the payload of each is captured as RawContent.
+     * @return the Content elements, in document order.
+     * @throws JAXBException if the message isn't UTF-8, or isn't well formed.
+     */
+    static List<Span> scan(byte[] b, int offset, int length, boolean capture) throws JAXBException {
+        final RawContentScanner scanner = new RawContentScanner(b, offset, length, capture);
+        scanner.scan();
+        return scanner.spans;
+    }
+
+    /**
+     * Copies a message without the bodies of its Content elements.
+     */
+    static byte[] envelope(byte[] b, int offset, int length, List<Span> spans) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        int from = offset;
+        for (Span span : spans) {
+            if (!span.emptyElement) {
+                out.write(b, from, span.bodyStart - from);
+                from = span.bodyEnd;
+            }
+        }
+        out.write(b, from, offset + length - from);
+        return out.toByteArray();
+    }
+    
+    private void scan() throws JAXBException {
+        checkEncoding();
+        int depth = 0;
+        Span span = null;
+        boolean blockOpen = false;
+        List<Integer> injections = null;
+        List<List<Declaration>> injected = null;
+        while (true) {
+            while (pos < limit && b[pos] != '<') {
+                pos++;
+            }
+            if (pos >= limit) {
+                break;
+            }
+            final int tagStart = pos;
+            if (startsWith("<?")) {
+                pos = find("?>", pos + 2) + 2;
+            } else if (startsWith("<!--")) {
+                pos = find("-->", pos + 4) + 3;
+            } else if (startsWith("<![CDATA[")) {
+                pos = find("]]>", pos + 9) + 3;
+            } else if (startsWith("<!")) {
+                throw new JAXBException("DTDs are not allowed in TAXII messages.");
+            } else if (startsWith("</")) {
+                pos = find(">", pos + 2) + 1;
+                if (depth <= 0) {
+                    throw notWellFormed();
+                }
+                if (depth <= 3) {
+                    scopes.remove(depth - 1);
+                }
+                if (3 == depth && null != span) {
+                    span.bodyEnd = tagStart;
+                    span.end = pos;
+                    if (capture) {
+                        span.content = capture(span, injections, injected);
+                    }
+                    span = null;
+                } else if (2 == depth) {
+                    blockOpen = false;
+                }
+                depth--;
+            } else {
+                final int level = depth + 1;
+                final boolean payloadTop = (4 == level && null != span);
+                if (level <= 3 || (payloadTop && capture)) {
+                    readTag();
+                } else {
+                    skipTag();
+                }
+                if (level <= 3) {
+                    scopes.add(new ArrayList<>(tagDeclarations));
+                    final String namespace = namespaceOf(tagName);
+                    if (1 == level) {
+                        rootNamespace = namespace;
+                    } else if (2 == level) {
+                        blockOpen = CONTENT_BLOCK.equals(localName(tagName)) && equal(rootNamespace, namespace);
+                        if (blockOpen) {
+                            blocks++;
+                        }
+                    } else if (3 == level && blockOpen 
+                            && CONTENT.equals(localName(tagName)) && equal(rootNamespace, namespace)) {
+                        span = new Span(blocks - 1, tagName);
+                        spans.add(span);
+                        if (emptyElement) {
+                            span.emptyElement = true;
+                            span.bodyStart = pos - 2;
+                            span.bodyEnd = pos - 2;
+                            span.end = pos;
+                            if (capture) {
+                                span.content = new RawContent(new byte[0]);
+                            }
+                            span = null;
+                        } else {
+                            span.bodyStart = pos;
+                            injections = new ArrayList<>();
+                            injected = new ArrayList<>();
+                        }
+                    }
+                    if (emptyElement) {
+                        scopes.remove(level - 1);
+                    }
+                } else if (payloadTop && capture) {
+                    final List<Declaration> missing = inheritedDeclarations();
+                    if (!missing.isEmpty()) {
+                        injections.add(tagNameEnd);
+                        injected.add(missing);
+                    }
+                }
+                if (!emptyElement) {
+                    depth++;
+                }
+            }
+        }
+        if (0 != depth || null == rootNamespace) {
+            throw notWellFormed();
+        }
+    }
+    
+    /**
+     * The payload of a Content element, with the namespace declarations it 
+     * inherits added to its top-level elements.
+     */
+    private RawContent capture(Span span, List<Integer> injections, List<List<Declaration>> injected) {
+        if (injections.isEmpty()) {
+            return new RawContent(b, span.bodyStart, span.bodyEnd - span.bodyStart);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(span.bodyEnd - span.bodyStart + 256);
+        int from = span.bodyStart;
+        for (int i = 0; i < injections.size(); i++) {
+            final int at = injections.get(i);
+            out.write(b, from, at - from);
+            for (Declaration declaration : injected.get(i)) {
+                out.write(' ');
+                out.write(b, declaration.start, declaration.end - declaration.start);
+            }
+            from = at;
+        }
+        out.write(b, from, span.bodyEnd - from);
+        final byte[] bytes = out.toByteArray();
+        return new RawContent(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * The declarations in scope from outside the payload that a top-level 
+     * payload element doesn't make itself.
+     */
+    private List<Declaration> inheritedDeclarations() {
+        final List<Declaration> inherited = new ArrayList<>();
+        for (int level = scopes.size() - 1; level >= 0; level--) {
+            for (Declaration declaration : scopes.get(level)) {
+                if ((!declaration.prefix.isEmpty() && equal(rootNamespace, declaration.uri) 
+                            && !declaration.prefix.equals(prefixOf(tagName)))
+                        || isDeclared(declaration.prefix, tagDeclarations)
+                        || isDeclared(declaration.prefix, inherited)) {
+                    continue;
+                }
+                inherited.add(declaration);
+            }
+        }
+        return inherited;
+    }
+    
+    private static boolean isDeclared(String prefix, List<Declaration> declarations) {
+        for (Declaration declaration : declarations) {
+            if (declaration.prefix.equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Reads a start tag, its name and its namespace declarations.
+     */
+    private void readTag() throws JAXBException {
+        tagDeclarations.clear();
+        pos++;
+        final int nameStart = pos;
+        while (pos < limit && !isWhitespace(b[pos]) && b[pos] != '>' && b[pos] != '/') {
+            pos++;
+        }
+        tagNameEnd = pos;
+        tagName = string(nameStart, pos);
+        while (true) {
+            while (pos < limit && isWhitespace(b[pos])) {
+                pos++;
+            }
+            if (pos >= limit) {
+                throw notWellFormed();
+            } else if (b[pos] == '>') {
+                pos++;
+                emptyElement = false;
+                return;
+            } else if (b[pos] == '/') {
+                if (pos + 1 >= limit || b[pos + 1] != '>') {
+                    throw notWellFormed();
+                }
+                pos += 2;
+                emptyElement = true;
+                return;
+            }
+            final int attributeStart = pos;
+            while (pos < limit && b[pos] != '=' && !isWhitespace(b[pos])) {
+                pos++;
+            }
+            final String attributeName = string(attributeStart, pos);
+            pos = find("=", pos) + 1;
+            while (pos < limit && isWhitespace(b[pos])) {
+                pos++;
+            }
+            if (pos >= limit || (b[pos] != '"' && b[pos] != '\'')) {
+                throw notWellFormed();
+            }
+            final byte quote = b[pos];
+            final int valueStart = pos + 1;
+            pos = find(quote == '"' ? "\"" : "'", valueStart) + 1;
+            if (XMLNS.equals(attributeName) || attributeName.startsWith(XMLNS + ":")) {
+                final String prefix = XMLNS.equals(attributeName) ? "" : attributeName.substring(XMLNS.length() + 1);
+                tagDeclarations.add(new Declaration(prefix, string(valueStart, pos - 1), attributeStart, pos));
+            }
+        }
+    }
+    
+    /**
+     * Skips a start tag, minding quoted attribute values.
+     */
+    private void skipTag() throws JAXBException {
+        pos++;
+        byte quote = 0;
+        while (pos < limit) {
+            final byte c = b[pos++];
+            if (0 != quote) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                emptyElement = (b[pos - 2] == '/');
+                return;
+            }
+        }
+        throw notWellFormed();
+    }
+    
+    private String namespaceOf(String qName) {
+        final String prefix = prefixOf(qName);
+        for (int level = scopes.size() - 1; level >= 0; level--) {
+            for (Declaration declaration : scopes.get(level)) {
+                if (declaration.prefix.equals(prefix)) {
+                    return declaration.uri;
+                }
+            }
+        }
+        return "";
+    }
+    
+    private static String prefixOf(String qName) {
+        final int colon = qName.indexOf(':');
+        return (colon < 0) ? "" : qName.substring(0, colon);
+    }
+    
+    private static String localName(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+    
+    /**
+     * Skips a UTF-8 byte order mark, and rejects any declared encoding other than UTF-8.
+     */
+    private void checkEncoding() throws JAXBException {
+        if (limit - pos >= 3 && (b[pos] & 0xFF) == 0xEF && (b[pos + 1] & 0xFF) == 0xBB && (b[pos + 2] & 0xFF) == 0xBF) {
+            pos += 3;
+        }
+        if (startsWith("<?xml")) {
+            final int end = find("?>", pos);
+            final String declaration = string(pos, end);
+            final int encoding = declaration.indexOf("encoding");
+            if (encoding >= 0) {
+                final String name = declaration.substring(encoding).replaceFirst("^encoding\\s*=\\s*['\"]([^'\"]*).*$", "$1");
+                if (!"UTF-8".equalsIgnoreCase(name) && !"UTF8".equalsIgnoreCase(name)) {
+                    throw new JAXBException("Raw content needs a UTF-8 message, not " + name + ".");
+                }
+            }
+        } else if (limit - pos >= 2 && (b[pos] == 0 || b[pos + 1] == 0 || (b[pos] & 0xFF) >= 0xFE)) {
+            throw new JAXBException("Raw content needs a UTF-8 message.");
+        }
+    }
+    
+    private boolean startsWith(String s) {
+        if (pos + s.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (b[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return the index of the next occurrence of an ASCII string.
+     * @throws JAXBException if there is none.
+     */
+    private int find(String s, int from) throws JAXBException {
+        final byte first = (byte) s.charAt(0);
+        outer:
+        for (int i = from; i + s.length() <= limit; i++) {
+            if (b[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < s.length(); j++) {
+                if (b[i + j] != s.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw notWellFormed();
+    }
+    
+    private String string(int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+    
+    private static boolean equal(String a, String b) {
+        return (null == a) ? null == b : a.equals(b);
+    }
+    
+    private JAXBException notWellFormed() {
+        return new JAXBException("Message is not well formed near byte " + pos + ".");
+    }
+}
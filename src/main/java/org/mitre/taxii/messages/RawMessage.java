@@ -0,0 +1,74 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message whose Content_Block payloads are kept as raw bytes.
+ * 
+ * <p>
+ * The message itself is unmarshalled as usual, except that the Content of 
+ * each Content_Block is empty. The payloads are in {@link #getContents()}, 
+ * in the same order as the message's Content_Blocks. 
+ * {@link TaxiiXml#marshalRaw(RawMessage, java.io.OutputStream)} writes them
+ * back into the Content elements as they are.
+ * </p>
+ * 
+ * @see TaxiiXml#unmarshalRaw(java.nio.ByteBuffer)
+ */
+public final class RawMessage {
+    
+    private final Object message;
+    private final List<RawContent> contents;
+
+    /**
+     * @param message the message, whose Content elements are written from contents.
+     * @param contents the payload of each Content_Block. A null entry 
+     *          leaves that Content_Block's Content as it is in the message.
+     */
+    public RawMessage(Object message, List<RawContent> contents) {
+        this.message = message;
+        this.contents = Collections.unmodifiableList(contents);
+    }
+    
+    /**
+     * @return the message, without its payloads.
+     */
+    public Object getMessage() {
+        return message;
+    }
+    
+    /**
+     * @return the payload of each Content_Block, in order.
+     */
+    public List<RawContent> getContents() {
+        return contents;
+    }
+}
@@ -0,0 +1,293 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The readers and writers generated for the JAXB classes of one package,
+ * by {@code org.mitre.taxii.codegen.StaxCodecGenerator} at build time. 
+ * Each package's binding is the class StaxCodecBinding in the package, 
+ * which {@link StaxCodec} loads if it is there.
+ * 
+ * <p>The leaf values are parsed and printed as the JAXB reference 
+ * implementation does.</p>
+ */
+public abstract class StaxBinding {
+    
+    /**
+     * Thrown by generated code that meets something it can't write exactly
+     * as JAXB would, e.g. a subclass where a property's declared class was 
+     * expected. The message is then marshalled with JAXB.
+     */
+    public static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Unsupported(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * @return the names of the root elements the binding reads and writes.
+     */
+    protected abstract QName[] getRootElements();
+    
+    /**
+     * @return the classes of the root elements, in the same order.
+     */
+    protected abstract Class<?>[] getRootClasses();
+    
+    /**
+     * @return the namespace URI, prefix pairs the generated element names 
+     *          use. The binding is only used to write messages if the 
+     *          JAXBContext declares the same prefixes.
+     */
+    protected abstract String[] getNamespacePrefixes();
+    
+    /**
+     * @return the classes of other packages that are read and written with
+     *          JAXB, e.g. the XML Digital Signature.
+     */
+    protected abstract Class<?>[] getJaxbClasses();
+    
+    /**
+     * Reads the root element at the index of {@link #getRootElements()}.
+     * The input is at its start tag.
+     */
+    protected abstract Object read(int root, XmlInput in, Object parent) throws XMLStreamException, JAXBException;
+    
+    /**
+     * Writes the attributes and content of a root element of the class at 
+     * the index of {@link #getRootClasses()}. Its start tag has been written.
+     */
+    protected abstract void write(int root, Object value, XmlOutput out) throws JAXBException;
+    
+    /*
+     * Helpers for the generated code.
+     */
+    
+    protected static BigInteger parseInteger(String text) {
+        try {
+            return DatatypeConverter.parseInteger(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Parses an xs:boolean as the JAXB reference implementation's 
+     * DatatypeConverterImpl._parseBoolean does, which accepts some text 
+     * that isn't a valid xs:boolean.
+     */
+    protected static Boolean parseBoolean(String text) {
+        final int length = text.length();
+        if (length == 0) {
+            return null;
+        }
+        try {
+            int i = 0;
+            char c;
+            do {
+                c = text.charAt(i++);
+            } while (isWhiteSpace(c) && i < length);
+            
+            boolean value = false;
+            int matched = 0;
+            switch (c) {
+                case '1':
+                    value = true;
+                    break;
+                case '0':
+                    value = false;
+                    break;
+                case 't':
+                    do {
+                        c = text.charAt(i++);
+                    } while ("rue".charAt(matched++) == c && i < length && matched < 3);
+                    if (matched != 3) {
+                        return Boolean.FALSE;
+                    }
+                    value = true;
+                    break;
+                case 'f':
+                    do {
+                        c = text.charAt(i++);
+                    } while ("alse".charAt(matched++) == c && i < length && matched < 4);
+                    if (matched != 4) {
+                        return Boolean.FALSE;
+                    }
+                    value = false;
+                    break;
+                default:
+                    break;
+            }
+            if (i < length) {
+                do {
+                    c = text.charAt(i++);
+                } while (isWhiteSpace(c) && i < length);
+            }
+            return (i == length) ? Boolean.valueOf(value) : null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+    
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+    
+    protected static XMLGregorianCalendar parseDateTime(String text) {
+        try {
+            return DatatypeFactoryHolder.FACTORY.newXMLGregorianCalendar(text.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @return the value the adapter unmarshals the text to, or null if it 
+     *          can't.
+     */
+    protected static <T> T parse(XmlAdapter<String, T> adapter, String text) {
+        try {
+            return adapter.unmarshal(text);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    protected static String print(XmlAdapter<String, ?> adapter, Object value) {
+        final String text;
+        try {
+            @SuppressWarnings("unchecked")
+            final XmlAdapter<String, Object> objectAdapter = (XmlAdapter<String, Object>) adapter;
+            text = objectAdapter.marshal(value);
+        } catch (Exception e) {
+            throw new Unsupported(e.toString());
+        }
+        if (null == text) {
+            throw new Unsupported("Adapter returned null");
+        }
+        return text;
+    }
+    
+    /**
+     * Prints an xs:dateTime with the format JAXB uses, rather than 
+     * XMLGregorianCalendar.toXMLFormat().
+     */
+    protected static String printDateTime(XMLGregorianCalendar value) {
+        if (null == value.getEonAndYear() 
+                || value.getMonth() == DatatypeConstants.FIELD_UNDEFINED
+                || value.getDay() == DatatypeConstants.FIELD_UNDEFINED
+                || value.getHour() == DatatypeConstants.FIELD_UNDEFINED
+                || value.getMinute() == DatatypeConstants.FIELD_UNDEFINED
+                || value.getSecond() == DatatypeConstants.FIELD_UNDEFINED) {
+            throw new Unsupported("Incomplete xs:dateTime " + value);
+        }
+        final StringBuilder sb = new StringBuilder(32);
+        pad(sb, value.getEonAndYear().toString(), 4);
+        sb.append('-');
+        pad(sb, String.valueOf(value.getMonth()), 2);
+        sb.append('-');
+        pad(sb, String.valueOf(value.getDay()), 2);
+        sb.append('T');
+        pad(sb, String.valueOf(value.getHour()), 2);
+        sb.append(':');
+        pad(sb, String.valueOf(value.getMinute()), 2);
+        sb.append(':');
+        pad(sb, String.valueOf(value.getSecond()), 2);
+        final BigDecimal fraction = value.getFractionalSecond();
+        if (null != fraction) {
+            final String digits = fraction.toPlainString();
+            sb.append(digits, 1, digits.length()); // drop the leading zero
+        }
+        int offset = value.getTimezone();
+        if (offset == 0) {
+            sb.append('Z');
+        } else if (offset != DatatypeConstants.FIELD_UNDEFINED) {
+            if (offset < 0) {
+                sb.append('-');
+                offset = -offset;
+            } else {
+                sb.append('+');
+            }
+            pad(sb, String.valueOf(offset / 60), 2);
+            sb.append(':');
+            pad(sb, String.valueOf(offset % 60), 2);
+        }
+        return sb.toString();
+    }
+    
+    private static void pad(StringBuilder sb, String digits, int width) {
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+    }
+    
+    /**
+     * @throws Unsupported for a value that isn't exactly of the declared class.
+     */
+    protected static void checkClass(Object value, Class<?> declared) {
+        if (value.getClass() != declared) {
+            throw new Unsupported(value.getClass().getName() + " where " + declared.getName() + " was declared");
+        }
+    }
+    
+    /**
+     * @throws Unsupported for a null item of a list.
+     */
+    protected static void checkItem(Object item) {
+        if (null == item) {
+            throw new Unsupported("null list item");
+        }
+    }
+    
+    private static final class DatatypeFactoryHolder {
+        static final DatatypeFactory FACTORY = newDatatypeFactory();
+        
+        private static DatatypeFactory newDatatypeFactory() {
+            try {
+                return DatatypeFactory.newInstance();
+            } catch (DatatypeConfigurationException e) {
+                throw new RuntimeException("Deployment error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.bind.annotation.XmlElementDecl;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Element;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads and writes TAXII messages with the StAX readers and writers 
+ * generated for the JAXB classes at build time (see 
+ * {@code org.mitre.taxii.codegen.StaxCodecGenerator}), rather than with 
+ * the reflective JAXB runtime. Get one from {@link TaxiiXml#getStaxCodec()}.
+ * 
+ * <p>The codec is a drop in replacement for a pooled Marshaller and 
+ * Unmarshaller: the XML written is character for character what 
+ * {@link TaxiiXml#marshalToString(Object, boolean)} writes, and the objects 
+ * read are those a JAXB Unmarshaller builds, including the DOM content of 
+ * xs:any and the whitespace of mixed content. Messages the generated code 
+ * can't handle exactly, e.g. ones with a subclass where JAXB would write 
+ * an xsi:type, are handed to JAXB, as are the XML Digital Signatures 
+ * within messages.</p>
+ * 
+ * <p>If the build generated no bindings, every message is handed to JAXB.
+ * A codec is thread safe.</p>
+ * 
+ * <pre>
+ *      StaxCodec codec = taxiiXml.getStaxCodec();
+ *      String xml = codec.marshalToString(msg, false);
+ *      Object parsed = codec.unmarshal(new StringReader(xml));
+ * </pre>
+ */
+public final class StaxCodec {
+    
+    private static final String BINDING_CLASS = "StaxCodecBinding";
+    /** The element content is wrapped in while it is read or written on its own. */
+    private static final String CONTENT_ELEMENT = "content";
+    
+    private static final XMLInputFactory inputFactory = newInputFactory();
+    private static final DocumentBuilderFactory documentBuilderFactory = newDocumentBuilderFactory();
+    
+    private final TaxiiXml taxiiXml;
+    
+    /** A generated root element, and the binding that reads and writes it. */
+    private static final class Root {
+        final StaxBinding binding;
+        final int index;
+        final String uri;
+        final String prefix;
+        final String qName;
+        
+        Root(StaxBinding binding, int index, String uri, String prefix, String localName) {
+            this.binding = binding;
+            this.index = index;
+            this.uri = uri;
+            this.prefix = prefix;
+            this.qName = prefix.isEmpty() ? localName : prefix + ':' + localName;
+        }
+    }
+    
+    private final Map<QName, Root> readers = new HashMap<>();
+    private final Map<Class<?>, Root> writers = new HashMap<>();
+    /** The root elements of the JAXB classes the bindings don't cover. */
+    private final Set<QName> jaxbElements = new HashSet<>();
+    /** The namespaces JAXB declares on a root element, as prefix, URI pairs. */
+    private final String[] rootNamespaces;
+    /** The start tag {@link #readContent} wraps content in, declaring the root namespaces. */
+    private volatile byte[] contentStartTag;
+    
+    StaxCodec(TaxiiXml taxiiXml) {
+        this.taxiiXml = taxiiXml;
+        final List<StaxBinding> bindings = new ArrayList<>();
+        for (String contextPackage : taxiiXml.getJaxbContextPath()) {
+            final StaxBinding binding = loadBinding(contextPackage);
+            if (null != binding) {
+                bindings.add(binding);
+            }
+        }
+        if (bindings.isEmpty()) {
+            rootNamespaces = new String[0];
+            return;
+        }
+        rootNamespaces = findRootNamespaces(bindings.get(0).getRootClasses()[0]);
+        final Map<String, String> declared = new HashMap<>();
+        for (int i = 0; i < rootNamespaces.length; i += 2) {
+            declared.put(rootNamespaces[i + 1], rootNamespaces[i]);
+        }
+        final Set<Class<?>> jaxbClasses = new HashSet<>();
+        for (StaxBinding binding : bindings) {
+            final QName[] elements = binding.getRootElements();
+            final Class<?>[] classes = binding.getRootClasses();
+            // Only write with the binding if it names elements as JAXB does.
+            boolean writable = true;
+            final String[] prefixes = binding.getNamespacePrefixes();
+            for (int i = 0; i < prefixes.length; i += 2) {
+                writable &= prefixes[i + 1].equals(declared.get(prefixes[i]));
+            }
+            for (int i = 0; i < elements.length; i++) {
+                final String uri = elements[i].getNamespaceURI();
+                final Root root = new Root(binding, i, uri, prefixFor(prefixes, uri), elements[i].getLocalPart());
+                readers.put(elements[i], root);
+                if (writable) {
+                    writers.put(classes[i], root);
+                }
+            }
+            Collections.addAll(jaxbClasses, binding.getJaxbClasses());
+        }
+        for (Class<?> jaxbClass : jaxbClasses) {
+            addJaxbElements(jaxbClass.getPackage().getName());
+        }
+    }
+    
+    /**
+     * @return true if messages of the class are written by generated code.
+     */
+    public boolean isGenerated(Class<?> messageClass) {
+        return writers.containsKey(messageClass);
+    }
+    
+    /**
+     * Unmarshals a message from a StAX stream, positioned at the start of 
+     * the document or at the message's start tag. The stream is left at 
+     * the message's end tag.
+     * 
+     * @throws JAXBException if the message can't be read.
+     */
+    public Object unmarshal(XMLStreamReader reader) throws JAXBException {
+        final XmlInput in = new XmlInput(reader, this, taxiiXml.getInterningListener());
+        try {
+            in.startDocument();
+            final Root root = readers.get(reader.getName());
+            if (null == root) {
+                return unmarshalElement(reader);
+            }
+            return root.binding.read(root.index, in, null);
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e);
+        }
+    }
+    
+    /**
+     * Unmarshals a message from an InputStream. The encoding is detected 
+     * from the document.
+     */
+    public Object unmarshal(InputStream in) throws JAXBException {
+        try {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                return unmarshal(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e);
+        }
+    }
+    
+    public Object unmarshal(Reader in) throws JAXBException {
+        try {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                return unmarshal(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e);
+        }
+    }
+    
+    /**
+     * Marshals a message to a String, exactly as 
+     * {@link TaxiiXml#marshalToString(Object, boolean)} does.
+     */
+    public String marshalToString(Object msg, boolean prettyPrint) throws JAXBException {
+        final StringBuilder sb = new StringBuilder(1024);
+        marshal(msg, sb, prettyPrint, false);
+        return sb.toString();
+    }
+    
+    /**
+     * Marshals a message to a Writer.
+     * 
+     * @param fragment if true, without the XML declaration, as 
+     *          Marshaller.JAXB_FRAGMENT.
+     */
+    public void marshal(Object msg, Writer out, boolean prettyPrint, boolean fragment) throws JAXBException {
+        final StringBuilder sb = new StringBuilder(1024);
+        marshal(msg, sb, prettyPrint, fragment);
+        try {
+            out.append(sb);
+        } catch (IOException e) {
+            throw new MarshalException(e);
+        }
+    }
+    
+    /**
+     * Marshals a message to an OutputStream, UTF-8 encoded. The characters 
+     * written are those of {@link #marshalToString(Object, boolean)}.
+     */
+    public void marshal(Object msg, OutputStream out, boolean prettyPrint) throws JAXBException {
+        final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        marshal(msg, writer, prettyPrint, false);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new MarshalException(e);
+        }
+    }
+    
+    private void marshal(Object msg, StringBuilder sb, boolean prettyPrint, boolean fragment) throws JAXBException {
+        final Root root = writers.get(msg.getClass());
+        if (null != root) {
+            final int start = sb.length();
+            try {
+                final XmlOutput out = new XmlOutput(sb, prettyPrint, this);
+                if (!fragment) {
+                    out.startDocument();
+                }
+                out.startElement(root.qName);
+                for (int i = 0; i < rootNamespaces.length; i += 2) {
+                    out.declare(rootNamespaces[i], rootNamespaces[i + 1]);
+                }
+                root.binding.write(root.index, msg, out);
+                out.endElement(root.qName);
+                if (!fragment) {
+                    out.endDocument();
+                }
+                return;
+            } catch (StaxBinding.Unsupported e) {
+                sb.setLength(start); // JAXB does it instead.
+            }
+        }
+        final Marshaller m = taxiiXml.borrowMarshaller(prettyPrint);
+        try {
+            m.setProperty(Marshaller.JAXB_FRAGMENT, fragment);
+            final StringWriter sw = new StringWriter();
+            m.marshal(msg, sw);
+            sb.append(sw.getBuffer());
+        } finally {
+            taxiiXml.returnMarshaller(m);
+        }
+    }
+    
+    /**
+     * Reads the current element of mixed xs:any content: as a generated 
+     * root element, as a JAXB object, or as a DOM Element.
+     * 
+     * @param first true for the first element of the content.
+     */
+    Object readElement(XmlInput in, Object parent, boolean first) throws XMLStreamException, JAXBException {
+        final QName name = in.getReader().getName();
+        final Root root = readers.get(name);
+        if (null != root) {
+            return root.binding.read(root.index, in, parent);
+        }
+        if (jaxbElements.contains(name)) {
+            return in.readWithJaxb();
+        }
+        return in.readDom(first);
+    }
+    
+    /**
+     * Writes an item of xs:any content.
+     */
+    void writeElement(XmlOutput out, Object value) throws JAXBException {
+        if (value instanceof Element) {
+            out.element((Element) value);
+            return;
+        }
+        final Root root = writers.get(value.getClass());
+        if (null != root && root.uri.equals(out.namespaceUri(root.prefix))) {
+            out.startElement(root.qName);
+            root.binding.write(root.index, value, out);
+            out.endElement(root.qName);
+            return;
+        }
+        out.writeWithJaxb(value);
+    }
+    
+    /**
+     * Writes mixed content as the text it has in a message this codec 
+     * writes, i.e. with the root element's namespaces in scope.
+     */
+    String writeContent(List<Object> content) throws JAXBException {
+        final StringBuilder sb = new StringBuilder();
+        final XmlOutput out = new XmlOutput(sb, false, this);
+        out.startElement(CONTENT_ELEMENT);
+        for (int i = 0; i < rootNamespaces.length; i += 2) {
+            out.declare(rootNamespaces[i], rootNamespaces[i + 1]);
+        }
+        out.text(""); // closes the start tag
+        final int start = sb.length();
+        out.writeMixed(content);
+        return sb.substring(start);
+    }
+
+    /**
+     * Writes mixed content, e.g. that of a Content Block, to an
+     * OutputStream, UTF-8 encoded, as it is written within a message.
+     */
+    public void writeContent(List<Object> content, OutputStream out) throws JAXBException {
+        final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            writer.write(writeContent(content));
+            writer.flush();
+        } catch (IOException e) {
+            throw new MarshalException(e);
+        }
+    }
+
+    /**
+     * Reads mixed content from the text {@link #writeContent(List)} writes,
+     * or the payload of a {@link RawContent}, as JAXB reads it within a 
+     * message.
+     * 
+     * @param bytes the content, UTF-8 encoded.
+     * @param parent the object the content belongs to.
+     * @return the content, or null if there is none.
+     */
+    List<Object> readContent(byte[] bytes, int offset, int length, Object parent) throws JAXBException {
+        final byte[] start = contentStartTag();
+        final byte[] end = ("</" + CONTENT_ELEMENT + ">").getBytes(StandardCharsets.UTF_8);
+        final byte[] document = new byte[start.length + length + end.length];
+        System.arraycopy(start, 0, document, 0, start.length);
+        System.arraycopy(bytes, offset, document, start.length, length);
+        System.arraycopy(end, 0, document, start.length + length, end.length);
+        try {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(document), "UTF-8");
+            try {
+                final XmlInput in = new XmlInput(reader, this, taxiiXml.getInterningListener());
+                in.startDocument();
+                return in.readMixed(null, parent);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e);
+        }
+    }
+    
+    private byte[] contentStartTag() {
+        byte[] tag = contentStartTag;
+        if (null == tag) {
+            final StringBuilder sb = new StringBuilder();
+            final XmlOutput out = new XmlOutput(sb, false, this);
+            out.startElement(CONTENT_ELEMENT);
+            for (int i = 0; i < rootNamespaces.length; i += 2) {
+                out.declare(rootNamespaces[i], rootNamespaces[i + 1]);
+            }
+            out.text("");
+            tag = sb.toString().getBytes(StandardCharsets.UTF_8);
+            contentStartTag = tag;
+        }
+        return tag;
+    }
+    
+    /**
+     * Unmarshals the element the stream is at with JAXB. The stream is 
+     * left after its end tag.
+     */
+    Object unmarshalElement(XMLStreamReader reader) throws JAXBException {
+        final Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        try {
+            return u.unmarshal(reader);
+        } finally {
+            taxiiXml.returnUnmarshaller(u);
+        }
+    }
+    
+    /**
+     * Marshals an element with JAXB, as SAX events.
+     */
+    void marshalElement(Object value, ContentHandler handler) throws JAXBException {
+        final Marshaller m = taxiiXml.borrowMarshaller(false);
+        try {
+            m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            m.marshal(value, handler);
+        } finally {
+            taxiiXml.returnMarshaller(m);
+        }
+    }
+    
+    private static StaxBinding loadBinding(String contextPackage) {
+        final Class<?> bindingClass;
+        try {
+            bindingClass = Class.forName(contextPackage + '.' + BINDING_CLASS, true, StaxCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null; // Not generated.
+        }
+        try {
+            return (StaxBinding) bindingClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+    
+    /**
+     * Finds the namespaces JAXB declares on a root element by marshalling 
+     * an empty one. JAXB declares the same namespaces, in the same order, 
+     * on every root element.
+     */
+    private String[] findRootNamespaces(Class<?> rootClass) {
+        final List<String> namespaces = new ArrayList<>();
+        final ContentHandler handler = new DefaultHandler() {
+            private boolean started = false;
+            
+            @Override
+            public void startPrefixMapping(String prefix, String uri) {
+                if (!started) {
+                    namespaces.add(prefix);
+                    namespaces.add(uri);
+                }
+            }
+            
+            @Override
+            public void startElement(String uri, String localName, String qName, org.xml.sax.Attributes atts) {
+                started = true;
+            }
+        };
+        try {
+            marshalElement(rootClass.newInstance(), handler);
+        } catch (JAXBException | InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+        return namespaces.toArray(new String[namespaces.size()]);
+    }
+    
+    /**
+     * Adds the root elements of a package JAXB reads, which are the 
+     * ObjectFactory's element declarations and root element classes. An 
+     * element is only added if JAXB unmarshals it.
+     */
+    private void addJaxbElements(String jaxbPackage) {
+        final Class<?> objectFactory;
+        try {
+            objectFactory = Class.forName(jaxbPackage + ".ObjectFactory", true, StaxCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        final JAXBIntrospector introspector = taxiiXml.getJaxbContext().createJAXBIntrospector();
+        final Set<QName> candidates = new HashSet<>();
+        for (Method method : objectFactory.getMethods()) {
+            final XmlElementDecl decl = method.getAnnotation(XmlElementDecl.class);
+            if (null != decl) {
+                candidates.add(new QName(decl.namespace(), decl.name()));
+            } else if (method.getName().startsWith("create") && method.getParameterTypes().length == 0) {
+                try {
+                    final QName name = introspector.getElementName(method.invoke(objectFactory.newInstance()));
+                    if (null != name) {
+                        candidates.add(name);
+                    }
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException("Deployment error", e);
+                }
+            }
+        }
+        final Unmarshaller u;
+        try {
+            u = taxiiXml.borrowUnmarshaller();
+            u.setEventHandler(new ValidationEventHandler() {
+                @Override
+                public boolean handleEvent(ValidationEvent event) {
+                    return false;
+                }
+            });
+        } catch (JAXBException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+        try {
+            for (QName candidate : candidates) {
+                final String xml = "<p:" + candidate.getLocalPart() + " xmlns:p=\"" + candidate.getNamespaceURI() + "\"/>";
+                try {
+                    u.unmarshal(inputFactory.createXMLStreamReader(new StringReader(xml)));
+                    jaxbElements.add(candidate);
+                } catch (JAXBException | XMLStreamException e) {
+                    // Not a root element.
+                }
+            }
+        } finally {
+            taxiiXml.returnUnmarshaller(u);
+        }
+    }
+    
+    private static String prefixFor(String[] prefixes, String uri) {
+        for (int i = 0; i < prefixes.length; i += 2) {
+            if (prefixes[i].equals(uri)) {
+                return prefixes[i + 1];
+            }
+        }
+        return "";
+    }
+    
+    static DocumentBuilder newDocumentBuilder() {
+        try {
+            return documentBuilderFactory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        // TAXII messages have no DTD, and must not be able to pull in external entities.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+}
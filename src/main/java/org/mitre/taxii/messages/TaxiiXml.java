@@ -27,36 +27,77 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
  */
 
+import java.beans.Introspector;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.MarshalException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.util.JAXBSource;
+import javax.xml.bind.UnmarshallerHandler;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSchema;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
+import net.sf.saxon.s9api.BuildingContentHandler;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.SAXDestination;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XsltExecutable;
 import net.sf.saxon.s9api.XsltTransformer;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.Versions;
 import org.mitre.taxii.client.HttpResponseErrorHandler;
 
 // import org.mitre.taxii.messages.xmldsig.Signature;
+import org.mitre.taxii.util.ByteArrayBuffer;
+import org.mitre.taxii.util.ByteBufferInputStream;
+import org.mitre.taxii.util.Diagnostic;
 import org.mitre.taxii.util.Iterators;
+import org.mitre.taxii.util.ObjectPool;
+import org.mitre.taxii.util.ParallelChunks;
+import org.mitre.taxii.util.RootElementFilter;
+import org.mitre.taxii.util.StringInterner;
+import org.mitre.taxii.util.TeeContentHandler;
 import org.mitre.taxii.util.Validation;
 import org.mitre.taxii.util.ValidationErrorHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
@@ -223,14 +264,60 @@ import org.xml.sax.helpers.DefaultHandler;
  }
  </pre>
  * 
+ * <h3>Concurrency</h3>
+ * <p>
+ * A TaxiiXml is thread safe, and meant to be shared. Marshallers, 
+ * Unmarshallers and validators are pooled, so each thread validating a 
+ * message uses its own. {@link #validateBatch(Collection, boolean)} 
+ * validates many messages at once on a thread pool.
+ * </p>
  * 
  * @author Jonathan W. Cranford & Jasen Jacobsen
  */
 public abstract class TaxiiXml {
+
+    /*
+     * JAXBContexts, Schemas and compiled stylesheets are expensive to build,
+     * immutable, and thread safe, so they are shared by every TaxiiXml in the
+     * process that has the same configuration. The JAXBContexts are keyed by
+     * context path, the others by the URL of the resource they were built from.
+     */
+    private static final ConcurrentMap<String, JAXBContext> jaxbContextCache = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Schema> schemaCache = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, XsltExecutable> validatorCache = new ConcurrentHashMap<>();
+        
+    /** The most idle Marshallers, Unmarshallers, etc. each TaxiiXml keeps for reuse. */
+    private static final int POOL_MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+    /** The initial size of the buffers messages are marshalled into. */
+    private static final int BUFFER_SIZE = 8192;
         
     private final JAXBContext jaxbContext;
+    private final ObjectPool<Marshaller> marshallerPool = new ObjectPool<>(POOL_MAX_IDLE);
+    private final ObjectPool<Unmarshaller> unmarshallerPool = new ObjectPool<>(POOL_MAX_IDLE);
+    private final ObjectPool<ValidatorHandler> validatorPool = new ObjectPool<>(POOL_MAX_IDLE);
+    private final ObjectPool<XsltTransformer> transformerPool = new ObjectPool<>(POOL_MAX_IDLE);
+    private final ObjectPool<XMLReader> readerPool = new ObjectPool<>(POOL_MAX_IDLE);
+    private final ObjectPool<ByteArrayBuffer> bufferPool = new ObjectPool<>(POOL_MAX_IDLE);
+    /** Stands in for the handlers of idle XMLReaders, so they don't keep them alive. */
+    private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
     private final Schema taxiiSchema;
-    private final XsltExecutable schematronValidator;
+    private final URL schematronValidatorResource;
+    private final List<ConformanceRule<?>> conformanceRules;
+    /** The rules for each class of message, found the first time one is checked. */
+    private final ConcurrentMap<Class<?>, List<ConformanceRule<?>>> rulesByClass = new ConcurrentHashMap<>();
+    /** The root elements of the messages that have rules. */
+    private final Set<QName> ruleRootElements;
+    private volatile ConformanceMode conformanceMode;
+    /** Validation stops once it has found this many errors. */
+    private volatile int maxValidationErrors = Integer.MAX_VALUE;
+    /** Set on borrowed unmarshallers; null when Strings aren't interned. */
+    private volatile Unmarshaller.Listener interningListener;
+    /** Created the first time it is asked for. */
+    private volatile StaxCodec staxCodec;
+    /** Created the first time it is asked for. */
+    private volatile BinaryCodec binaryCodec;
+    /** Created the first time it is asked for. */
+    private volatile JsonCodec jsonCodec;
     private final List<String> contextEntries;
     private final String taxiiVersion;
     private final String serviceVersion;
@@ -245,6 +332,12 @@ public abstract class TaxiiXml {
      * @see org.mitre.taxii.messages.xml10.TaxiiXmlFactory
      * @see org.mitre.taxii.messages.xml11.TaxiiXmlFactory
      * 
+     * The JAXBContext, Schema and validating stylesheet are only built the 
+     * first time they are needed in the process, and are shared with other
+     * TaxiiXml instances that use the same packages and resources.
+     * 
+     * Spec conformance is checked with the validating stylesheet.
+     * 
      * @param taxiiVersion
      * @param serviceVersion
      * @param taxiiPackage
@@ -254,19 +347,214 @@ public abstract class TaxiiXml {
      * @throws RuntimeException
      *              if a deployment error prevents the underlying JAXBContext
      *              from being created, the Schema from being parsed, or 
-     *              the validating stylesheet from being compiled.
+     *              the validating stylesheet from being found.
      */
     public TaxiiXml(String taxiiVersion, String serviceVersion, String taxiiPackage, List<String> otherPackages, String schemaLocation, String validatorLocation) {
+        this(taxiiVersion, serviceVersion, taxiiPackage, otherPackages, schemaLocation, validatorLocation, 
+                Collections.<ConformanceRule<?>>emptyList());
+    }
+    
+    /**
+     * Constructor that also takes the Java implementation of the Schematron
+     * rules in the validating stylesheet. Spec conformance is checked with 
+     * the rules, unless the {@link ConformanceMode} is changed to 
+     * {@link ConformanceMode#SCHEMATRON}. The stylesheet is then only 
+     * compiled if that happens.
+     * 
+     * @see #TaxiiXml(String, String, String, List, String, String)
+     * 
+     * @param conformanceRules
+     *              the rules equivalent to the stylesheet at validatorLocation.
+     */
+    public TaxiiXml(String taxiiVersion, String serviceVersion, String taxiiPackage, List<String> otherPackages, String schemaLocation, String validatorLocation,
+            List<ConformanceRule<?>> conformanceRules) {
         contextEntries = initializeJaxbContextEntries();
         contextEntries.add(taxiiPackage);
         contextEntries.addAll(otherPackages);
         jaxbContext = newJaxbContext(contextEntries);
         taxiiSchema = newSchema(schemaLocation);
-        schematronValidator = newValidator(validatorLocation);
+        schematronValidatorResource = getClass().getResource(validatorLocation);
+        if (schematronValidatorResource == null) {
+            throw new RuntimeException("Deployment error: can't find additional TAXII validator (" + validatorLocation + ")");
+        }
+        this.conformanceRules = Collections.unmodifiableList(new ArrayList<>(conformanceRules));
+        final Set<QName> rootElements = new HashSet<>();
+        for (ConformanceRule<?> rule : conformanceRules) {
+            rootElements.add(elementName(rule.getMessageClass()));
+        }
+        ruleRootElements = Collections.unmodifiableSet(rootElements);
+        this.conformanceMode = this.conformanceRules.isEmpty() ? ConformanceMode.SCHEMATRON : ConformanceMode.RULES;
         this.taxiiVersion = taxiiVersion;
         this.serviceVersion = serviceVersion;
     }
     
+    /**
+     * How spec conformance, beyond what XML Schema provides, is checked.
+     */
+    public enum ConformanceMode {
+        /** 
+         * Java rules are checked against the JAXB objects of the message. 
+         * The default, when the TaxiiXml has rules.
+         * <p>
+         * The rules report what the stylesheet reports, with one exception:
+         * the stylesheet orders timestamps by their text, e.g. it finds 
+         * 2014-05-12T12:00:00+02:00 later than 2014-05-12T11:00:00Z. The 
+         * rules do the same with the default binding, but the primitive 
+         * binding profile keeps only the point in time, so its rules order 
+         * timestamps by time.
+         */
+        RULES,
+        /** 
+         * The Schematron-derived stylesheet is run over the message. Slower,
+         * but it is the reference the rules are tested against.
+         */
+        SCHEMATRON
+    }
+    
+    public ConformanceMode getConformanceMode() {
+        return conformanceMode;
+    }
+    
+    /**
+     * @throws IllegalArgumentException 
+     *          if the mode is RULES and this TaxiiXml has no rules.
+     */
+    public void setConformanceMode(ConformanceMode conformanceMode) {
+        if (ConformanceMode.RULES == conformanceMode && conformanceRules.isEmpty()) {
+            throw new IllegalArgumentException("No conformance rules for TAXII " + taxiiVersion);
+        }
+        this.conformanceMode = conformanceMode;
+    }
+    
+    public int getMaxValidationErrors() {
+        return maxValidationErrors;
+    }
+    
+    /**
+     * Set how many errors validation reports before it gives up on a 
+     * message. The default is no limit. A message that reaches the limit 
+     * is not checked for spec conformance.
+     * 
+     * @throws IllegalArgumentException if maxValidationErrors is less than 1.
+     */
+    public void setMaxValidationErrors(int maxValidationErrors) {
+        if (maxValidationErrors < 1) {
+            throw new IllegalArgumentException("maxValidationErrors must be at least 1: " + maxValidationErrors);
+        }
+        this.maxValidationErrors = maxValidationErrors;
+    }
+    
+    /**
+     * The intern table shared by the TaxiiXmls that use 
+     * {@link #setStringInterning(boolean)}, preloaded with the Version IDs
+     * and Content Binding IDs.
+     */
+    private static final class SharedInterner {
+        private static final int MAX_SIZE = 4096;
+        static final StringInterner INSTANCE = new StringInterner(MAX_SIZE)
+                .internConstants(Versions.class)
+                .internConstants(ContentBindings.class);
+    }
+    
+    public boolean isStringInterning() {
+        return null != interningListener;
+    }
+    
+    /**
+     * Turn interning of repeated Strings on or off, with an intern table 
+     * shared by all TaxiiXmls.
+     * 
+     * @see #setStringInterner(StringInterner)
+     */
+    public void setStringInterning(boolean interning) {
+        setStringInterner(interning ? SharedInterner.INSTANCE : null);
+    }
+    
+    /**
+     * Intern the low-cardinality Strings of unmarshalled messages: Content 
+     * Binding and subtype IDs, collection names, protocol and message 
+     * bindings, Extended Header names and the like. A poll response with
+     * thousands of Content Blocks then holds each Content Binding ID once.
+     * Off by default.
+     * 
+     * <p>Interning is done by the listener from 
+     * {@link #getInterningListener()}, which is set on the unmarshallers
+     * from {@link #borrowUnmarshaller()}; HttpClient and validation with 
+     * unmarshal use those. An unmarshaller created from the JAXBContext 
+     * needs the listener set on it.</p>
+     * 
+     * @param interner the intern table, or null to turn interning off.
+     */
+    public void setStringInterner(final StringInterner interner) {
+        interningListener = (null == interner) ? null : new Unmarshaller.Listener() {
+            @Override
+            public void afterUnmarshal(Object target, Object parent) {
+                internStrings(target, interner);
+            }
+        };
+    }
+    
+    /**
+     * @return the listener that interns the Strings of unmarshalled 
+     *          messages, or null if interning is off.
+     */
+    public Unmarshaller.Listener getInterningListener() {
+        return interningListener;
+    }
+    
+    /**
+     * @return the Java implementation of the Schematron rules.
+     */
+    public List<ConformanceRule<?>> getConformanceRules() {
+        return conformanceRules;
+    }
+    
+    /**
+     * @return the rules that apply to messages of the given class, which
+     * are the only ones checked for them.
+     */
+    public List<ConformanceRule<?>> getConformanceRules(Class<?> messageClass) {
+        List<ConformanceRule<?>> rules = rulesByClass.get(messageClass);
+        if (null == rules) {
+            final List<ConformanceRule<?>> found = new ArrayList<>();
+            for (ConformanceRule<?> rule : conformanceRules) {
+                if (rule.getMessageClass().isAssignableFrom(messageClass)) {
+                    found.add(rule);
+                }
+            }
+            rules = found.isEmpty() 
+                    ? Collections.<ConformanceRule<?>>emptyList() 
+                    : Collections.unmodifiableList(found);
+            final List<ConformanceRule<?>> existing = rulesByClass.putIfAbsent(messageClass, rules);
+            if (null != existing) {
+                rules = existing;
+            }
+        }
+        return rules;
+    }
+    
+    /**
+     * Gets the name of the root element a JAXB class is bound to.
+     */
+    private static QName elementName(Class<?> messageClass) {
+        final XmlRootElement root = messageClass.getAnnotation(XmlRootElement.class);
+        if (null == root) {
+            throw new IllegalArgumentException(messageClass.getName() + " is not bound to a root element");
+        }
+        String namespace = root.namespace();
+        if (JAXB_DEFAULT.equals(namespace)) {
+            final XmlSchema schema = messageClass.getPackage().getAnnotation(XmlSchema.class);
+            namespace = (null == schema) ? XMLConstants.NULL_NS_URI : schema.namespace();
+        }
+        final String name = JAXB_DEFAULT.equals(root.name()) 
+                ? Introspector.decapitalize(messageClass.getSimpleName()) 
+                : root.name();
+        return new QName(namespace, name);
+    }
+    
+    /** The value of JAXB annotation elements that are left to their default. */
+    private static final String JAXB_DEFAULT = "##default";
+    
     
     /**
      * Initialize the JAXB Context with known contexts that every instance of
@@ -289,11 +577,18 @@ public abstract class TaxiiXml {
      *              the JAXBContext from being created
      */
     private static JAXBContext newJaxbContext(List<String> contextEntries) {
+        final String contextPath = Iterators.join(contextEntries.iterator(), ":");
+        JAXBContext context = jaxbContextCache.get(contextPath);
+        if (null != context) {
+            return context;
+        }
         try {      
-            return JAXBContext.newInstance(Iterators.join(contextEntries.iterator(), ":"));
+            context = JAXBContext.newInstance(contextPath);
         } catch (JAXBException e) {
             throw new RuntimeException("Deployment error", e);
         }
+        final JAXBContext existing = jaxbContextCache.putIfAbsent(contextPath, context);
+        return (null == existing) ? context : existing;
     }
                 
     /**
@@ -314,6 +609,107 @@ public abstract class TaxiiXml {
         return m;
     }
     
+    /**
+     * Borrows a marshaller from this TaxiiXml's pool, creating one if none
+     * is idle. The marshaller must only be used by one thread at a time, and 
+     * should be handed back with {@link #returnMarshaller(Marshaller)} when 
+     * done, typically in a finally block.
+     * 
+     * <pre>
+     *      Marshaller m = taxiiXml.borrowMarshaller(false);
+     *      try {
+     *          m.marshal(msg, out);
+     *      } finally {
+     *          taxiiXml.returnMarshaller(m);
+     *      }
+     * </pre>
+     * 
+     * @param prettyPrint
+     *              Returns a marshaller that indents the output if true.
+     * @return a marshaller to serialize TAXII XML objects.
+     * @throws JAXBException 
+     *              if an error was encountered while creating the Marshaler
+     */
+    public Marshaller borrowMarshaller(boolean prettyPrint) throws JAXBException {
+        Marshaller m = marshallerPool.poll();
+        if (null == m) {
+            m = jaxbContext.createMarshaller();
+        }
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, prettyPrint);
+        return m;
+    }
+    
+    /**
+     * Hands a marshaller obtained from {@link #borrowMarshaller(boolean)} back
+     * to the pool. The standard properties (fragment, encoding, formatted 
+     * output), schema, listener and event handler are reset. A caller that
+     * changed anything else, e.g. set an adapter or a vendor property, must 
+     * not return the marshaller.
+     * 
+     * @param m the marshaller. May be null.
+     */
+    public void returnMarshaller(Marshaller m) {
+        if (null == m) {
+            return;
+        }
+        try {
+            m.setProperty(Marshaller.JAXB_FRAGMENT, false);
+            m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+            m.setSchema(null);
+            m.setListener(null);
+            m.setEventHandler(null);
+        } catch (JAXBException e) {
+            return; // Can't be cleaned, so don't reuse it.
+        }
+        marshallerPool.offer(m);
+    }
+    
+    /**
+     * Borrows an unmarshaller from this TaxiiXml's pool, creating one if none
+     * is idle. The unmarshaller must only be used by one thread at a time,
+     * and should be handed back with {@link #returnUnmarshaller(Unmarshaller)}
+     * when done, typically in a finally block.
+     * 
+     * If Strings are interned, the unmarshaller's listener does it. 
+     * 
+     * @return an unmarshaller to parse TAXII XML messages.
+     * @throws JAXBException 
+     *              if an error was encountered while creating the Unmarshaller
+     * @see #setStringInterner(StringInterner)
+     */
+    public Unmarshaller borrowUnmarshaller() throws JAXBException {
+        final Unmarshaller pooled = unmarshallerPool.poll();
+        final Unmarshaller u = (null == pooled) ? jaxbContext.createUnmarshaller() : pooled;
+        final Unmarshaller.Listener listener = interningListener;
+        if (null != listener) {
+            u.setListener(listener);
+        }
+        return u;
+    }
+    
+    /**
+     * Hands an unmarshaller obtained from {@link #borrowUnmarshaller()} back
+     * to the pool. The schema, listener and event handler are reset. A caller
+     * that changed anything else, e.g. set an adapter or a vendor property, 
+     * must not return the unmarshaller.
+     * 
+     * @param u the unmarshaller. May be null.
+     */
+    public void returnUnmarshaller(Unmarshaller u) {
+        if (null == u) {
+            return;
+        }
+        try {
+            u.setSchema(null);
+            u.setListener(null);
+            u.setEventHandler(null);
+        } catch (JAXBException e) {
+            return; // Can't be cleaned, so don't reuse it.
+        }
+        unmarshallerPool.offer(u);
+    }
+    
     
     /**
      * Returns a JAXP Schema that can be used to validate against the TAXII
@@ -324,13 +720,21 @@ public abstract class TaxiiXml {
      *              being parsed
      */
     private Schema newSchema(String schemaLocation) {
-        final SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         try {
             final URL resource = getClass().getResource(schemaLocation);
             if (resource == null) {
                 throw new RuntimeException("Deployment error: can't find TAXII 1.0 schema (" + schemaLocation + ")");
             }
-            return sf.newSchema(resource);
+            Schema schema = schemaCache.get(resource.toString());
+            if (null == schema) {
+                final SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                schema = sf.newSchema(resource);
+                final Schema existing = schemaCache.putIfAbsent(resource.toString(), schema);
+                if (null != existing) {
+                    schema = existing;
+                }
+            }
+            return schema;
         } catch (SAXException e) {
             throw new RuntimeException("Deployment error: can't parse TAXII schema", e);
         }
@@ -340,18 +744,16 @@ public abstract class TaxiiXml {
     /**
      * Compiles the (Schematron-derived) XSLT stylesheet that implements additional validation checks.
      */
-    private XsltExecutable newValidator(String validatorPath) {
-        // This method should only be called once in the constructor, and the
-        // stylesheet is only compiled once, so we
-        // don't cache any of these objects like we normally would.
-        final URL resource = getClass().getResource(validatorPath);
-        if (resource == null) {
-            throw new RuntimeException("Deployment error: can't find additional TAXII validator (" + validatorPath + ")");
+    private static XsltExecutable newValidator(URL resource) {
+        XsltExecutable executable = validatorCache.get(resource.toString());
+        if (null != executable) {
+            return executable;
         }
         try {
-            final boolean useLicensedEdition = false;
-            return new Processor(useLicensedEdition).newXsltCompiler()
+            executable = Saxon.PROCESSOR.newXsltCompiler()
                     .compile(new StreamSource(resource.toString()));
+            final XsltExecutable existing = validatorCache.putIfAbsent(resource.toString(), executable);
+            return (null == existing) ? executable : existing;
         } 
         catch (SaxonApiException e) {
             throw new RuntimeException("Deployment error: The validator stylesheet contains static errors or it cannot be read. See the standard error output for details.",
@@ -408,7 +810,517 @@ public abstract class TaxiiXml {
         return validate(m, true, checkSpecConformance);
     }
     
+    /**
+     * Validates a serialized message, returning all accumulated errors and
+     * warnings. The XML is validated as it is parsed, without being bound to
+     * JAXB objects.
+     * 
+     * @param in
+     *       The XML of the message to validate. Not closed.
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @return 
+     *       The validation results, including all errors and warnings.  
+     * @throws JAXBException 
+     *      If the message couldn't be validated because of an underlying JAXB error
+     * @throws IOException 
+     *      If the stream can't be read.
+     * @throws SAXException 
+     *      on any fatal validation error, e.g. XML that is not well formed.
+     */
+    public Validation validateAll(InputStream in, boolean checkSpecConformance) 
+            throws JAXBException, SAXException, IOException {
+        return validateAll(in, checkSpecConformance, false);
+    }
+    
+    /**
+     * Validates a serialized message, returning all accumulated errors and
+     * warnings, and optionally unmarshals it in the same pass. 
+     * 
+     * @param in
+     *       The XML of the message to validate. Not closed.
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @param unmarshal
+     *       If true, the message is unmarshalled while it is validated. When
+     *       validation succeeds, the message is available from 
+     *       {@link Validation#getUnmarshalledObject()}.
+     * @return 
+     *       The validation results, including all errors and warnings.  
+     * @throws JAXBException 
+     *      If the message couldn't be validated or unmarshalled because of an
+     *      underlying JAXB error
+     * @throws IOException 
+     *      If the stream can't be read.
+     * @throws SAXException 
+     *      on any fatal validation error, e.g. XML that is not well formed.
+     */
+    public Validation validateAll(InputStream in, boolean checkSpecConformance, boolean unmarshal) 
+            throws JAXBException, SAXException, IOException {
+        return validate(new ParsedMessage(in), false, checkSpecConformance, unmarshal);
+    }
+    
+    /**
+     * Validates a serialized message, throwing a SAXException on the first
+     * validation error encountered. The XML is validated as it is parsed, 
+     * without being bound to JAXB objects.
+     * 
+     * @param in
+     *       The XML of the message to validate. Not closed.
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @return    
+     *       The validation results, including any warnings.
+     * @throws JAXBException 
+     *      If the message couldn't be validated because of an underlying JAXB error
+     * @throws IOException 
+     *      If the stream can't be read.
+     * @throws SAXException 
+     *      On the first validation error 
+     */
+    public Validation validateFast(InputStream in, boolean checkSpecConformance) 
+            throws JAXBException, SAXException, IOException {
+        return validateFast(in, checkSpecConformance, false);
+    }
+    
+    /**
+     * Validates a serialized message, throwing a SAXException on the first
+     * validation error encountered, and optionally unmarshals it in the
+     * same pass. 
+     * 
+     * @param in
+     *       The XML of the message to validate. Not closed.
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @param unmarshal
+     *       If true, the message is unmarshalled while it is validated, and
+     *       is available from {@link Validation#getUnmarshalledObject()}.
+     * @return    
+     *       The validation results, including any warnings.
+     * @throws JAXBException 
+     *      If the message couldn't be validated or unmarshalled because of an
+     *      underlying JAXB error
+     * @throws IOException 
+     *      If the stream can't be read.
+     * @throws SAXException 
+     *      On the first validation error 
+     */
+    public Validation validateFast(InputStream in, boolean checkSpecConformance, boolean unmarshal) 
+            throws JAXBException, SAXException, IOException {
+        return validate(new ParsedMessage(in), true, checkSpecConformance, unmarshal);
+    }
+    
+    /**
+     * Validates a serialized message held in a ByteBuffer. The bytes from the
+     * buffer's position to its limit are read; the buffer's position is not
+     * changed.
+     * 
+     * @see #validateAll(InputStream, boolean, boolean)
+     */
+    public Validation validateAll(ByteBuffer buffer, boolean checkSpecConformance) 
+            throws JAXBException, SAXException, IOException {
+        return validateAll(new ByteBufferInputStream(buffer), checkSpecConformance, false);
+    }
+    
+    /**
+     * Validates a serialized message held in a ByteBuffer, and optionally 
+     * unmarshals it in the same pass. The bytes from the buffer's position to
+     * its limit are read; the buffer's position is not changed.
+     * 
+     * @see #validateAll(InputStream, boolean, boolean)
+     */
+    public Validation validateAll(ByteBuffer buffer, boolean checkSpecConformance, boolean unmarshal) 
+            throws JAXBException, SAXException, IOException {
+        return validateAll(new ByteBufferInputStream(buffer), checkSpecConformance, unmarshal);
+    }
+    
+    /**
+     * Validates a serialized message held in a ByteBuffer, throwing a 
+     * SAXException on the first validation error encountered. The bytes from
+     * the buffer's position to its limit are read; the buffer's position is 
+     * not changed.
+     * 
+     * @see #validateFast(InputStream, boolean, boolean)
+     */
+    public Validation validateFast(ByteBuffer buffer, boolean checkSpecConformance) 
+            throws JAXBException, SAXException, IOException {
+        return validateFast(new ByteBufferInputStream(buffer), checkSpecConformance, false);
+    }
+    
+    /**
+     * Validates a serialized message held in a ByteBuffer, throwing a 
+     * SAXException on the first validation error encountered, and optionally
+     * unmarshals it in the same pass. The bytes from the buffer's position to
+     * its limit are read; the buffer's position is not changed.
+     * 
+     * @see #validateFast(InputStream, boolean, boolean)
+     */
+    public Validation validateFast(ByteBuffer buffer, boolean checkSpecConformance, boolean unmarshal) 
+            throws JAXBException, SAXException, IOException {
+        return validateFast(new ByteBufferInputStream(buffer), checkSpecConformance, unmarshal);
+    }
+    
+    /**
+     * Validates the given messages in parallel on a shared pool with one 
+     * thread per processor, returning all accumulated errors and warnings 
+     * for each.
+     * 
+     * @see #validateBatch(Collection, boolean, ExecutorService)
+     */
+    public List<Validation> validateBatch(Collection<?> messages, boolean checkSpecConformance) 
+            throws InterruptedException {
+        return validateBatch(messages, checkSpecConformance, ParallelChunks.getExecutor());
+    }
 
+    /**
+     * Validates the given messages in parallel, returning all accumulated 
+     * errors and warnings for each, as {@link #validateAll(Object, boolean)}
+     * would.
+     * 
+     * <p>The messages are split into a few chunks per thread of the 
+     * executor, and each chunk is validated as one task. An exception that
+     * prevents a message from being validated is reported as a fatal error
+     * in its results; it doesn't stop the other messages from being validated.</p>
+     * 
+     * @param messages
+     *       Messages to validate
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @param executor
+     *       Runs the validation tasks. The calling thread waits for them.
+     * @return 
+     *       The validation results of each message, in the order the 
+     *       collection iterates over them.
+     * @throws InterruptedException 
+     *       If the calling thread is interrupted while waiting. The tasks 
+     *       that hadn't finished are cancelled.
+     */
+    public List<Validation> validateBatch(Collection<?> messages, 
+            final boolean checkSpecConformance, 
+            ExecutorService executor) 
+            throws InterruptedException {
+        final Object[] batch = messages.toArray();
+        final Validation[] results = new Validation[batch.length];
+        ParallelChunks.invokeAll(batch.length, 1, new ParallelChunks.Chunk<Void>() {
+            @Override
+            public Void call(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    results[i] = validateBatchMessage(batch[i], checkSpecConformance);
+                }
+                return null;
+            }
+        }, executor);
+        return Arrays.asList(results);
+    }
+    
+    private Validation validateBatchMessage(Object message, boolean checkSpecConformance) {
+        try {
+            return validateAll(message, checkSpecConformance);
+        } catch (JAXBException | SAXException | IOException | RuntimeException e) {
+            return Validation.fatalError(e.toString());
+        }
+    }
+    
+    /** The fewest Content Blocks validated as one task when a message is split. */
+    private static final int MIN_CONTENT_BLOCK_CHUNK = 64;
+    
+    /**
+     * Validates a message with many Content Blocks in parallel on the shared
+     * pool of ParallelChunks. With a single processor, where splitting the 
+     * message would only add work, it is validated as by 
+     * {@link #validateAll(Object, boolean)}.
+     * 
+     * @see #validateSplit(Object, boolean, ExecutorService)
+     */
+    public Validation validateSplit(Object m, boolean checkSpecConformance) 
+            throws JAXBException, SAXException, IOException, InterruptedException {
+        if (Runtime.getRuntime().availableProcessors() == 1) {
+            return validateAll(m, checkSpecConformance);
+        }
+        return validateSplit(m, checkSpecConformance, ParallelChunks.getExecutor());
+    }
+    
+    /**
+     * Validates a message with many Content Blocks (a Poll_Response or 
+     * Inbox_Message) in parallel, returning all accumulated errors and warnings.
+     * 
+     * <p>The message without its Content Blocks is validated once, on the 
+     * calling thread. The Content Blocks are split into chunks that are 
+     * schema validated as separate tasks, each block against the global
+     * Content_Block element. Their errors and warnings follow those of the
+     * rest of the message, in block order, and start with the position of 
+     * the block, e.g. "Content_Block[12]: ". Spec conformance is checked 
+     * with the rules on the whole message.</p>
+     * 
+     * <p>Messages with few Content Blocks, and all messages when the 
+     * {@link ConformanceMode} is SCHEMATRON, are validated as by 
+     * {@link #validateAll(Object, boolean)}.</p>
+     * 
+     * @param m
+     *       Message to validate
+     * @param checkSpecConformance      
+     *       Check conformance to specification beyond what XML Schema provides.
+     * @param executor
+     *       Runs the validation tasks for the Content Blocks. 
+     * @return 
+     *       The validation results.
+     * @throws JAXBException 
+     *      If the message couldn't be validated because of an underlying JAXB error
+     * @throws SAXException 
+     *      If a fatal error prevented validation.
+     * @throws InterruptedException 
+     *       If the calling thread is interrupted while waiting. The tasks 
+     *       that hadn't finished are cancelled.
+     */
+    public Validation validateSplit(Object m, 
+            boolean checkSpecConformance, 
+            ExecutorService executor) 
+            throws JAXBException, SAXException, IOException, InterruptedException {
+        final Object message = JAXBIntrospector.getValue(m);
+        final List<?> contentBlocks = getContentBlocks(message);
+        if (null == contentBlocks 
+                || contentBlocks.size() < 2 * MIN_CONTENT_BLOCK_CHUNK
+                || (checkSpecConformance && ConformanceMode.SCHEMATRON == conformanceMode)) {
+            return validateAll(m, checkSpecConformance);
+        }
+        
+        final Object[] blocks = contentBlocks.toArray();
+        List<Future<Validation>> chunks = Collections.emptyList();
+        try {
+            chunks = ParallelChunks.submit(blocks.length, MIN_CONTENT_BLOCK_CHUNK, new ParallelChunks.Chunk<Validation>() {
+                @Override
+                public Validation call(int from, int to) throws JAXBException, SAXException, IOException {
+                    return validateContentBlocks(message, blocks, from, to);
+                }
+            }, executor);
+            
+            final Validation results = validate(withContentBlocks(message, Collections.emptyList()), false, false);
+            for (Future<Validation> chunk : chunks) {
+                results.addAll(chunk.get());
+            }
+            if (results.isSuccess() && checkSpecConformance) {
+                checkConformance(message, results);
+            }
+            return results;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JAXBException) {
+                throw (JAXBException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // Nothing left to wait for if this failed.
+            for (Future<Validation> chunk : chunks) {
+                chunk.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * Schema validates each of a range of Content Blocks against the global
+     * Content_Block element.
+     * 
+     * <p>A copy of the message with just those blocks is marshalled, and 
+     * only the Content_Block subtrees are passed on to the validator, so 
+     * there is one marshalling for the whole range. (The validator only
+     * accepts one root element per document.)</p>
+     */
+    private Validation validateContentBlocks(Object message, Object[] blocks, int from, int to) 
+            throws JAXBException, SAXException, IOException {
+        final Validation results = new Validation(maxValidationErrors);
+        final ContentBlockErrorHandler errorHandler = new ContentBlockErrorHandler(results, from);
+        ValidatorHandler validatorHandler = validatorPool.poll();
+        if (null == validatorHandler) {
+            validatorHandler = taxiiSchema.newValidatorHandler();
+        }
+        validatorHandler.setErrorHandler(errorHandler);
+        boolean reusable = false;
+        try {
+            final Object chunk = withContentBlocks(message, Arrays.asList(blocks).subList(from, to));
+            new MarshalledMessage(chunk).send(new ContentBlockFilter(validatorHandler, errorHandler), errorHandler);
+            reusable = true;
+        } catch (SAXException e) {
+            if (!results.isLimitReached()) {
+                throw e;
+            }
+        } finally {
+            validatorHandler.setErrorHandler(null);
+            if (reusable) {
+                validatorPool.offer(validatorHandler);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Passes on only the Content_Block children of the root element of a 
+     * document, each as a document of its own, and keeps track of their
+     * positions.
+     */
+    private static final class ContentBlockFilter extends DefaultHandler {
+        private static final String CONTENT_BLOCK = "Content_Block";
+        private final ContentHandler handler;
+        private final ContentBlockErrorHandler errorHandler;
+        /** The prefix mappings of the root element, which are in scope in every block. */
+        private final List<String[]> prefixMappings = new ArrayList<>();
+        private int depth;
+        private boolean inContentBlock;
+
+        ContentBlockFilter(ContentHandler handler, ContentBlockErrorHandler errorHandler) {
+            this.handler = handler;
+            this.errorHandler = errorHandler;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            handler.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            if (inContentBlock) {
+                handler.startPrefixMapping(prefix, uri);
+            } else if (depth == 0) {
+                prefixMappings.add(new String[] { prefix, uri });
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            if (inContentBlock) {
+                handler.endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            depth++;
+            if (depth == 2 && CONTENT_BLOCK.equals(localName)) {
+                inContentBlock = true;
+                errorHandler.position++;
+                handler.startDocument();
+                for (String[] mapping : prefixMappings) {
+                    handler.startPrefixMapping(mapping[0], mapping[1]);
+                }
+            }
+            if (inContentBlock) {
+                handler.startElement(uri, localName, qName, atts);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (inContentBlock) {
+                handler.endElement(uri, localName, qName);
+                if (depth == 2) {
+                    for (String[] mapping : prefixMappings) {
+                        handler.endPrefixMapping(mapping[0]);
+                    }
+                    handler.endDocument();
+                    inContentBlock = false;
+                }
+            }
+            depth--;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (inContentBlock) {
+                handler.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            if (inContentBlock) {
+                handler.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            if (inContentBlock) {
+                handler.processingInstruction(target, data);
+            }
+        }
+    }
+    
+    /**
+     * Adds the errors in a Content Block to the results, with the position 
+     * of the block in its message. Stops validation once the results have 
+     * reached their limit.
+     */
+    private static final class ContentBlockErrorHandler implements ErrorHandler {
+        private final Validation results;
+        /** One based, as in XPath. */
+        int position;
+
+        ContentBlockErrorHandler(Validation results, int position) {
+            this.results = results;
+            this.position = position;
+        }
+        
+        private void add(Diagnostic.Severity severity, SAXParseException e) {
+            results.add(Diagnostic.of(severity, e, "Content_Block[" + position + "]"));
+        }
+
+        @Override
+        public void warning(SAXParseException e) {
+            add(Diagnostic.Severity.WARNING, e);
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXParseException {
+            add(Diagnostic.Severity.ERROR, e);
+            if (results.isLimitReached()) {
+                throw e;
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXParseException {
+            add(Diagnostic.Severity.FATAL_ERROR, e);
+            if (results.isLimitReached()) {
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Replaces the low-cardinality Strings of an object just unmarshalled 
+     * with their canonical Strings. The target is each object of the 
+     * message, children before their parents.
+     * 
+     * @see #setStringInterner(StringInterner)
+     */
+    protected void internStrings(Object target, StringInterner interner) {
+    }
+    
+    /**
+     * Gets the Content Blocks of a message, so that they can be validated 
+     * separately from the rest of it.
+     * 
+     * @return the Content Blocks, or null if the message doesn't have them.
+     */
+    protected List<?> getContentBlocks(Object message) {
+        return null;
+    }
+    
+    /**
+     * Copies a message that {@link #getContentBlocks(Object)} found Content 
+     * Blocks in, with other Content Blocks. The other fields may be shared 
+     * with the original message.
+     */
+    protected Object withContentBlocks(Object message, List<?> contentBlocks) {
+        throw new UnsupportedOperationException(message.getClass().getName() + " has no Content Blocks");
+    }
+    
     /**
      * Marshals a given TAXII Message to an XML String. 
      * 
@@ -423,10 +1335,207 @@ public abstract class TaxiiXml {
     }
     
     public String marshalToString(final Object msg, boolean prettyPrint) throws JAXBException {
-        Marshaller m = createMarshaller(prettyPrint);
-        final StringWriter sw = new StringWriter();
-        m.marshal(msg, sw);
-        return sw.toString();        
+        Marshaller m = borrowMarshaller(prettyPrint);
+        try {
+            final StringWriter sw = new StringWriter();
+            m.marshal(msg, sw);
+            return sw.toString();        
+        } finally {
+            returnMarshaller(m);
+        }
+    }
+    
+    /**
+     * Marshals a message to UTF-8 encoded bytes. JAXB encodes the XML as it
+     * writes it, into a pooled buffer, so there is no intermediate String.
+     * The XML is equivalent to that of {@link #marshalToString(Object, boolean)},
+     * but not always the same text: JAXB's UTF-8 output puts the namespace 
+     * declarations of an element before its attributes.
+     * 
+     * @param fragment if true, the XML declaration is left out.
+     * @throws JAXBException 
+     *           if any unexpected problem occurs during marshalling
+     */
+    public byte[] marshalToBytes(final Object msg, boolean prettyPrint, boolean fragment) throws JAXBException {
+        final ByteArrayBuffer buffer = marshalToBuffer(msg, prettyPrint, fragment);
+        try {
+            return buffer.toByteArray();
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Marshals a message to a stream, UTF-8 encoded. The message is 
+     * marshalled into a pooled buffer, which is written to the stream in 
+     * one write, so nothing is written if marshalling fails. The stream is 
+     * neither flushed nor closed.
+     * 
+     * @param fragment if true, the XML declaration is left out.
+     * @throws JAXBException 
+     *           if any unexpected problem occurs during marshalling
+     * @throws IOException
+     *           if the stream can't be written.
+     */
+    public void marshalTo(final Object msg, OutputStream out, boolean prettyPrint, boolean fragment) 
+            throws JAXBException, IOException {
+        final ByteArrayBuffer buffer = marshalToBuffer(msg, prettyPrint, fragment);
+        try {
+            buffer.writeTo(out);
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Marshals a message to a channel, UTF-8 encoded. As with 
+     * {@link #marshalTo(Object, OutputStream, boolean, boolean)}, the 
+     * message is marshalled into a pooled buffer first. All of it is 
+     * written before this returns, even to a non-blocking channel.
+     * 
+     * @param fragment if true, the XML declaration is left out.
+     * @throws JAXBException 
+     *           if any unexpected problem occurs during marshalling
+     * @throws IOException
+     *           if the channel can't be written.
+     */
+    public void marshalTo(final Object msg, WritableByteChannel channel, boolean prettyPrint, boolean fragment) 
+            throws JAXBException, IOException {
+        final ByteArrayBuffer buffer = marshalToBuffer(msg, prettyPrint, fragment);
+        try {
+            buffer.writeTo(channel);
+        } finally {
+            returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Marshals a message into a buffer from the pool, which the caller
+     * must hand back with {@link #returnBuffer(ByteArrayBuffer)}.
+     */
+    private ByteArrayBuffer marshalToBuffer(final Object msg, boolean prettyPrint, boolean fragment) 
+            throws JAXBException {
+        final ByteArrayBuffer buffer = borrowBuffer();
+        boolean marshalled = false;
+        final Marshaller m = borrowMarshaller(prettyPrint);
+        try {
+            m.setProperty(Marshaller.JAXB_FRAGMENT, fragment);
+            m.marshal(msg, buffer);
+            marshalled = true;
+        } finally {
+            returnMarshaller(m);
+            if (!marshalled) {
+                returnBuffer(buffer);
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     * Borrows an empty buffer from the pool, which must be handed back with
+     * {@link #returnBuffer(ByteArrayBuffer)}.
+     */
+    ByteArrayBuffer borrowBuffer() {
+        final ByteArrayBuffer pooled = bufferPool.poll();
+        return (null == pooled) ? new ByteArrayBuffer(BUFFER_SIZE) : pooled;
+    }
+    
+    void returnBuffer(ByteArrayBuffer buffer) {
+        buffer.reset();
+        if (buffer.isPoolable()) {
+            bufferPool.offer(buffer);
+        }
+    }
+    
+    /**
+     * Unmarshals a message, keeping the payload of each Content_Block as the
+     * bytes it was received as, rather than building DOM Elements for it. 
+     * The Content elements of the returned message are empty. The message
+     * must be UTF-8 encoded.
+     * 
+     * <p>Only the rest of the message is parsed by JAXB; the payloads are 
+     * skipped over, and are only parsed if asked for, by 
+     * {@link RawContent#toContent()} or {@link RawContent#unmarshal(Unmarshaller)}.
+     * </p>
+     * 
+     * @param buffer The bytes from the buffer's position to its limit are 
+     *          read. The buffer's position is not changed. The payloads are
+     *          slices of an array-backed buffer, so it must not be changed
+     *          while they are in use.
+     * @throws JAXBException 
+     *          if the message isn't UTF-8, or can't be unmarshalled.
+     */
+    public RawMessage unmarshalRaw(ByteBuffer buffer) throws JAXBException {
+        final byte[] bytes;
+        final int offset;
+        final int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            bytes = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            offset = 0;
+        }
+        final List<RawContentScanner.Span> spans = RawContentScanner.scan(bytes, offset, length, true);
+        final Object message;
+        final Unmarshaller u = borrowUnmarshaller();
+        try {
+            message = u.unmarshal(new ByteArrayInputStream(RawContentScanner.envelope(bytes, offset, length, spans)));
+        } finally {
+            returnUnmarshaller(u);
+        }
+        final List<RawContent> contents = new ArrayList<>(spans.size());
+        for (RawContentScanner.Span span : spans) {
+            while (contents.size() < span.block) {
+                contents.add(null); // A Content_Block without Content.
+            }
+            contents.add(span.content);
+        }
+        return new RawMessage(message, contents);
+    }
+    
+    /**
+     * Marshals a message with raw payloads. The message is marshalled as 
+     * usual, then the Content of each Content_Block that has a RawContent 
+     * is replaced by its bytes, which are written as they are. The output is
+     * UTF-8 encoded.
+     * 
+     * @throws JAXBException 
+     *          if the message can't be marshalled.
+     * @throws IOException 
+     *          if the output can't be written.
+     */
+    public void marshalRaw(RawMessage raw, OutputStream out) throws JAXBException, IOException {
+        final ByteArrayBuffer envelope = marshalToBuffer(raw.getMessage(), false, false);
+        try {
+            writeRaw(envelope.array(), envelope.size(), raw.getContents(), out);
+        } finally {
+            returnBuffer(envelope);
+        }
+    }
+    
+    private static void writeRaw(byte[] bytes, int length, List<RawContent> contents, OutputStream out) 
+            throws JAXBException, IOException {
+        int from = 0;
+        for (RawContentScanner.Span span : RawContentScanner.scan(bytes, 0, length, false)) {
+            final RawContent content = (span.block < contents.size()) ? contents.get(span.block) : null;
+            if (null == content) {
+                continue;
+            }
+            out.write(bytes, from, span.bodyStart - from);
+            if (span.emptyElement) {
+                out.write('>');
+            }
+            content.writeTo(out);
+            if (span.emptyElement) {
+                out.write(("</" + span.qName + ">").getBytes(StandardCharsets.UTF_8));
+                from = span.end;
+            } else {
+                from = span.bodyEnd;
+            }
+        }
+        out.write(bytes, from, length - from);
     }
        
     /**
@@ -446,12 +1555,74 @@ public abstract class TaxiiXml {
     }
     
     
+    /**
+     * Returns the codec that reads and writes this TaxiiXml's messages with 
+     * the StAX code generated at build time, instead of the reflective JAXB 
+     * runtime. Its output is identical to 
+     * {@link #marshalToString(Object, boolean)}.
+     */
+    public StaxCodec getStaxCodec() {
+        StaxCodec codec = staxCodec;
+        if (null == codec) {
+            synchronized (this) {
+                codec = staxCodec;
+                if (null == codec) {
+                    codec = new StaxCodec(this);
+                    staxCodec = codec;
+                }
+            }
+        }
+        return codec;
+    }
+    
+    /**
+     * Returns the codec that encodes this TaxiiXml's messages in a compact
+     * binary form, for queues and storage shared by processes that use 
+     * this library.
+     */
+    public BinaryCodec getBinaryCodec() {
+        BinaryCodec codec = binaryCodec;
+        if (null == codec) {
+            synchronized (this) {
+                codec = binaryCodec;
+                if (null == codec) {
+                    codec = new BinaryCodec(this);
+                    binaryCodec = codec;
+                }
+            }
+        }
+        return codec;
+    }
+    
+    /**
+     * Returns the codec that reads and writes this TaxiiXml's messages as 
+     * JSON.
+     */
+    public JsonCodec getJsonCodec() {
+        JsonCodec codec = jsonCodec;
+        if (null == codec) {
+            synchronized (this) {
+                codec = jsonCodec;
+                if (null == codec) {
+                    codec = new JsonCodec(this);
+                    jsonCodec = codec;
+                }
+            }
+        }
+        return codec;
+    }
+    
+    
    /**
     * Validates the given message.
     * 
-    * <p>Technique derived from 
-    * <a href="http://blog.bdoughan.com/2010/11/validate-jaxb-object-model-with-xml.html">Validate a JAXB Object Model With an XML Schema</a>
-    * blog post.</p>
+    * <p>The message is marshalled once, and the SAX events are passed to a
+    * schema ValidatorHandler. If the message is schema valid, spec 
+    * conformance is then checked by the {@link ConformanceRule}s on the 
+    * message itself. In {@link ConformanceMode#SCHEMATRON} mode the SAX 
+    * events also go to a Saxon tree builder instead, and the 
+    * Schematron-derived stylesheet is run over that tree, so the
+    * message is never serialized a second time.</p>
     *
     * @param m
     *       Message to validate
@@ -482,38 +1653,262 @@ public abstract class TaxiiXml {
             boolean failFast, 
             boolean checkSpecConformance) 
             throws JAXBException, SAXException, IOException {
-        JAXBSource source = new JAXBSource(jaxbContext, m);
-        Validator validator = taxiiSchema.newValidator();
-        final Validation results = new Validation();
+        return validate(new MarshalledMessage(m), failFast, checkSpecConformance, false);
+    }
+
+    /**
+     * Validates the message produced by the given source of SAX events, 
+     * optionally unmarshalling it at the same time.
+     * 
+     * @see #validate(Object, boolean, boolean)
+     */
+    private Validation validate(MessageEvents source, 
+            boolean failFast, 
+            boolean checkSpecConformance,
+            boolean unmarshal) 
+            throws JAXBException, SAXException, IOException {
+        final Validation results = new Validation(maxValidationErrors);
         final ValidationErrorHandler errorHandler = new ValidationErrorHandler(results, failFast);
-        validator.setErrorHandler(errorHandler);
-        validator.validate(source);
+        ValidatorHandler validatorHandler = validatorPool.poll();
+        if (null == validatorHandler) {
+            validatorHandler = taxiiSchema.newValidatorHandler();
+        }
+        validatorHandler.setErrorHandler(errorHandler);
+
+        // The validator comes first, so that with failFast nothing else sees 
+        // the event that failed.
+        final List<ContentHandler> handlers = new ArrayList<>(3);
+        handlers.add(validatorHandler);
+        final boolean useSchematron = checkSpecConformance 
+                && ConformanceMode.SCHEMATRON == conformanceMode;
+        BuildingContentHandler treeBuilder = null;
+        if (useSchematron) {
+            try {
+                treeBuilder = Saxon.PROCESSOR.newDocumentBuilder().newBuildingContentHandler();
+            } catch (SaxonApiException e) {
+                throw new RuntimeException("Deployment error", e);
+            }
+            handlers.add(treeBuilder);
+        }
+        // The rules need the objects, which parsed messages don't have yet.
+        // Only the messages that have rules are unmarshalled for them.
+        final boolean useRules = checkSpecConformance && !useSchematron;
+        Unmarshaller unmarshaller = null;
+        UnmarshallerHandler unmarshallerHandler = null;
+        RootElementFilter ruleFilter = null;
+        if (unmarshal) {
+            unmarshaller = borrowUnmarshaller();
+            unmarshallerHandler = unmarshaller.getUnmarshallerHandler();
+            handlers.add(unmarshallerHandler);
+        } else if (useRules && null == source.getMessage() && !ruleRootElements.isEmpty()) {
+            unmarshaller = borrowUnmarshaller();
+            unmarshallerHandler = unmarshaller.getUnmarshallerHandler();
+            ruleFilter = new RootElementFilter(unmarshallerHandler, ruleRootElements);
+            handlers.add(ruleFilter);
+        }
+        final ContentHandler handler = (handlers.size() == 1) 
+                ? validatorHandler 
+                : new TeeContentHandler(handlers.toArray(new ContentHandler[handlers.size()]));
+
+        Object unmarshalled = null;
+        boolean reusable = false;
+        try {
+            source.send(handler, errorHandler);
+            if (null != unmarshallerHandler 
+                    && (null == ruleFilter || ruleFilter.isForwarding())) {
+                unmarshalled = unmarshallerHandler.getResult();
+            }
+            reusable = true;
+        } catch (SAXException e) {
+            // Stopped at the error limit, rather than by failFast.
+            if (failFast || !results.isLimitReached()) {
+                throw e;
+            }
+            return results;
+        } finally {
+            validatorHandler.setErrorHandler(null);
+            if (reusable) {
+                validatorPool.offer(validatorHandler);
+                returnUnmarshaller(unmarshaller);
+            }
+        }
         
         if (results.isSuccess() && checkSpecConformance) {
-            checkConformance(m, errorHandler);
+            if (useSchematron) {
+                checkConformance(treeBuilder, errorHandler);
+            } else {
+                checkConformance((null == unmarshalled) ? source.getMessage() : unmarshalled, results);
+            }
             if (results.isFailure() && failFast) {
                 throw new SAXException("Conformance failure: " + results.getAllErrors());
             }
         }
         
+        if (results.isSuccess() && unmarshal) {
+            results.setUnmarshalledObject(unmarshalled);
+        }
         return results;
     }
     
     /**
-     * Check conformance to TAXII specification beyond what XML Schema provides. 
+     * Something that can send a message to a SAX ContentHandler.
+     */
+    private interface MessageEvents {
+        /**
+         * @param handler receives the message.
+         * @param errorHandler receives any errors in producing the message.
+         */
+        void send(ContentHandler handler, ErrorHandler errorHandler) 
+                throws JAXBException, SAXException, IOException;
+        
+        /**
+         * @return the JAXB object of the message, if there is one.
+         */
+        Object getMessage();
+    }
+    
+    /**
+     * Produces the SAX events of a JAXB object by marshalling it.
+     */
+    private class MarshalledMessage implements MessageEvents {
+        private final Object message;
+
+        MarshalledMessage(Object message) {
+            this.message = message;
+        }
+        
+        @Override
+        public void send(ContentHandler handler, ErrorHandler errorHandler) throws JAXBException, SAXException {
+            final Marshaller marshaller = borrowMarshaller(false);
+            try {
+                marshaller.marshal(message, handler);
+            } catch (MarshalException e) {
+                // Errors thrown by the error handler come back wrapped.
+                if (e.getLinkedException() instanceof SAXException) {
+                    throw (SAXException) e.getLinkedException();
+                }
+                throw e;
+            } finally {
+                returnMarshaller(marshaller);
+            }
+        }
+
+        @Override
+        public Object getMessage() {
+            return message;
+        }
+    }
+    
+    /**
+     * Produces the SAX events of serialized XML by parsing it.
      */
-    private void checkConformance(Object m, 
+    private class ParsedMessage implements MessageEvents {
+        private final InputStream in;
+
+        ParsedMessage(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void send(ContentHandler handler, ErrorHandler errorHandler) throws SAXException, IOException {
+            XMLReader reader = readerPool.poll();
+            if (null == reader) {
+                reader = newXMLReader();
+            }
+            boolean reusable = false;
+            try {
+                reader.setContentHandler(handler);
+                reader.setErrorHandler(errorHandler);
+                reader.parse(new InputSource(in));
+                reusable = true;
+            } finally {
+                reader.setContentHandler(NO_OP_HANDLER);
+                reader.setErrorHandler(NO_OP_HANDLER);
+                if (reusable) {
+                    readerPool.offer(reader);
+                }
+            }
+        }
+
+        @Override
+        public Object getMessage() {
+            return null;
+        }
+    }
+    
+    /**
+     * Creates a namespace aware XMLReader that refuses DTDs, since TAXII 
+     * messages never have one.
+     */
+    private static XMLReader newXMLReader() throws SAXException {
+        try {
+            final SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            spf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return spf.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+    
+    /**
+     * Check conformance to TAXII specification beyond what XML Schema provides,
+     * with the Java rules for the class of the message.
+     * 
+     * @param message the (schema valid) JAXB object of the message, or null
+     *          if it wasn't unmarshalled because no rules apply to it.
+     */
+    private void checkConformance(Object message, Validation results) {
+        if (null == message) {
+            return;
+        }
+        final Object value = JAXBIntrospector.getValue(message);
+        for (ConformanceRule<?> rule : getConformanceRules(value.getClass())) {
+            rule.check(value, results);
+        }
+    }
+    
+    /**
+     * Check conformance to TAXII specification beyond what XML Schema provides,
+     * with the Schematron-derived stylesheet. 
+     * 
+     * @param document the tree built while the message was schema validated.
+     */
+    private void checkConformance(BuildingContentHandler document, 
             ValidationErrorHandler errorHandler) {
-        final XsltTransformer transformer = schematronValidator.load();
+        XsltTransformer transformer = transformerPool.poll();
+        if (null == transformer) {
+            transformer = newValidator(schematronValidatorResource).load();
+        }
         transformer.setMessageListener(errorHandler);
+        boolean reusable = false;
         try {
-            transformer.setSource(new JAXBSource(jaxbContext, m));
+            transformer.setInitialContextNode(document.getDocumentNode());
             transformer.setDestination(new SAXDestination(new DefaultHandler()));
             transformer.transform();
+            reusable = true;
         } 
-        catch (SaxonApiException | JAXBException e) {
+        catch (SaxonApiException e) {
             errorHandler.getResults().addError("Conformance error: " + e.getMessage());
         } 
+        finally {
+            if (reusable) {
+                // Don't hold on to the message or its results while idle.
+                transformer.setMessageListener(null);
+                transformer.setDestination(null);
+                transformer.setInitialContextNode(null);
+                transformerPool.offer(transformer);
+            }
+        }
+    }
+    
+    /**
+     * Holds the Saxon Processor, so that it is only created if a stylesheet is used.
+     */
+    private static final class Saxon {
+        /** Compiles the validator stylesheets, and builds the trees they are run over. */
+        static final Processor PROCESSOR = new Processor(false); // Not the licensed edition.
     }
     
     public String getTaxiiVersion() {
@@ -0,0 +1,438 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Reads XML from a StAX stream for the readers {@link StaxCodec} generates, 
+ * building the same objects JAXB would: unknown elements and attributes 
+ * are skipped, values that can't be parsed are left unset, and the text 
+ * and DOM content of mixed elements keeps the same whitespace.
+ * 
+ * <p>Each read leaves the stream at the end tag of the element it read.</p>
+ */
+public final class XmlInput {
+    
+    private final XMLStreamReader reader;
+    private final StaxCodec codec;
+    private final Unmarshaller.Listener listener;
+    
+    /** true if the stream is already at the event after an element JAXB read. */
+    private boolean advanced = false;
+    
+    /* The namespaces in scope, innermost last, and where each element's declarations start. */
+    private String[] prefixes = new String[16];
+    private String[] uris = new String[16];
+    private int size = 0;
+    private int[] bases = new int[16];
+    private int depth = 0;
+    
+    private final StringBuilder text = new StringBuilder();
+    private DocumentBuilder documentBuilder = null;
+    
+    XmlInput(XMLStreamReader reader, StaxCodec codec, Unmarshaller.Listener listener) {
+        this.reader = reader;
+        this.codec = codec;
+        this.listener = listener;
+    }
+    
+    XMLStreamReader getReader() {
+        return reader;
+    }
+    
+    /**
+     * Moves to the root element, from the start of the document or the root's start tag.
+     */
+    void startDocument() throws XMLStreamException {
+        int event = reader.getEventType();
+        while (event != XMLStreamConstants.START_ELEMENT) {
+            event = reader.next();
+        }
+        push();
+    }
+    
+    /**
+     * @return true if the current element has the given name.
+     */
+    public boolean is(String namespaceUri, String localName) {
+        return localName.equals(reader.getLocalName()) && namespaceUri.equals(nonNull(reader.getNamespaceURI()));
+    }
+    
+    public int getAttributeCount() {
+        return reader.getAttributeCount();
+    }
+    
+    /**
+     * @return true if the attribute at the index is the unqualified attribute with the given name.
+     */
+    public boolean isAttribute(int index, String localName) {
+        final String uri = reader.getAttributeNamespace(index);
+        return localName.equals(reader.getAttributeLocalName(index)) && (null == uri || uri.isEmpty());
+    }
+    
+    public String getAttributeValue(int index) {
+        return reader.getAttributeValue(index);
+    }
+    
+    /**
+     * Moves to the next child element of the current element, skipping 
+     * text. 
+     * 
+     * @return true at the start of a child, false at the end of the 
+     *          current element.
+     */
+    public boolean nextElement() throws XMLStreamException {
+        int event = advanced ? reader.getEventType() : reader.next();
+        advanced = false;
+        for (;;) {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    push();
+                    return true;
+                case XMLStreamConstants.END_ELEMENT:
+                    pop();
+                    return false;
+                default:
+                    event = reader.next();
+            }
+        }
+    }
+    
+    /**
+     * Reads the text of the current element. The text of any child 
+     * elements is skipped.
+     */
+    public String readText() throws XMLStreamException {
+        text.setLength(0);
+        int nested = 0;
+        for (;;) {
+            switch (reader.next()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    if (nested == 0) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    nested++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (nested-- == 0) {
+                        pop();
+                        return text.toString();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * Skips the current element and its content.
+     */
+    public void skipElement() throws XMLStreamException {
+        int nested = 0;
+        for (;;) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    nested++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (nested-- == 0) {
+                        pop();
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * Reads the content of an element with mixed content and lax xs:any 
+     * children. Text is added as Strings, elements the JAXBContext knows as 
+     * objects, and other elements as DOM Elements.
+     * 
+     * @param content the list to add to. May be null.
+     * @return the list, which is only created, as JAXB does, if there is 
+     *          content to add.
+     */
+    public List<Object> readMixed(List<Object> content, Object parent) throws XMLStreamException, JAXBException {
+        boolean first = true;
+        text.setLength(0);
+        for (;;) {
+            final int event = advanced ? reader.getEventType() : reader.next();
+            advanced = false;
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (text.length() > 0) {
+                        content = add(content, text.toString());
+                    }
+                    push();
+                    content = add(content, codec.readElement(this, parent, first));
+                    first = false;
+                    text.setLength(0);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (text.length() > 0) {
+                        content = add(content, text.toString());
+                    }
+                    pop();
+                    return content;
+                default:
+                    break;
+            }
+        }
+    }
+    
+    private static List<Object> add(List<Object> content, Object item) {
+        final List<Object> list = (null == content) ? new ArrayList<Object>() : content;
+        list.add(item);
+        return list;
+    }
+    
+    /**
+     * Reads the current element with a JAXB unmarshaller, for the types 
+     * that have no generated reader.
+     */
+    public Object readWithJaxb() throws JAXBException {
+        final Object value = codec.unmarshalElement(reader);
+        pop();
+        advanced = true;
+        return value;
+    }
+    
+    /**
+     * Called with each object read, children before their parents, as 
+     * JAXB calls Unmarshaller.Listener.afterUnmarshal.
+     */
+    public void read(Object target, Object parent) {
+        if (null != listener) {
+            listener.afterUnmarshal(target, parent);
+        }
+    }
+    
+    /**
+     * Reads the current element with a JAXB unmarshaller, as an instance of 
+     * the class.
+     */
+    public <T> T readWithJaxb(Class<T> type) throws JAXBException {
+        Object value = readWithJaxb();
+        if (value instanceof JAXBElement) {
+            value = ((JAXBElement<?>) value).getValue();
+        }
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+    
+    /**
+     * Reads the current element as a DOM Element, in a Document of its 
+     * own. The namespaces in scope are declared on it.
+     * 
+     * <p>Whitespace before a child element is kept if the element is mixed,
+     * as JAXB decides it: JAXB reuses the state of an element's first child
+     * for its other children, so only the first child of a mixed element is
+     * itself mixed.</p>
+     * 
+     * @param mixed true if the element is mixed.
+     */
+    Element readDom(boolean mixed) throws XMLStreamException {
+        if (null == documentBuilder) {
+            documentBuilder = StaxCodec.newDocumentBuilder();
+        }
+        final Document document = documentBuilder.newDocument();
+        final Element root = createElement(document);
+        // every namespace in scope, the innermost binding of each prefix
+        for (int i = size - 1; i >= 0; i--) {
+            if (XMLConstants.XML_NS_PREFIX.equals(prefixes[i])) {
+                continue;
+            }
+            final String name = prefixes[i].isEmpty() 
+                    ? XMLConstants.XMLNS_ATTRIBUTE 
+                    : XMLConstants.XMLNS_ATTRIBUTE + ':' + prefixes[i];
+            if (!root.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefixes[i].isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : prefixes[i])) {
+                root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, uris[i]);
+            }
+        }
+        document.appendChild(root);
+        
+        Element current = root;
+        final int rootDepth = depth;
+        // whether each open element is mixed, and has had a child element
+        boolean[] mixedStack = new boolean[8];
+        boolean[] parentStack = new boolean[8];
+        int level = 0;
+        mixedStack[0] = mixed;
+        text.setLength(0);
+        for (;;) {
+            switch (reader.next()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (mixedStack[level] || !isWhiteSpace(text)) {
+                        addText(current);
+                    }
+                    text.setLength(0);
+                    final boolean childMixed = mixedStack[level] && !parentStack[level];
+                    parentStack[level] = true;
+                    if (++level == mixedStack.length) {
+                        mixedStack = Arrays.copyOf(mixedStack, 2 * level);
+                        parentStack = Arrays.copyOf(parentStack, 2 * level);
+                    }
+                    mixedStack[level] = childMixed;
+                    parentStack[level] = false;
+                    push();
+                    final Element child = createElement(document);
+                    declareNamespaces(child);
+                    current.appendChild(child);
+                    current = child;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    addText(current);
+                    pop();
+                    if (depth < rootDepth) {
+                        return root;
+                    }
+                    level--;
+                    current = (Element) current.getParentNode();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+    
+    private Element createElement(Document document) {
+        final String uri = reader.getNamespaceURI();
+        final String prefix = reader.getPrefix();
+        final String qName = (null == prefix || prefix.isEmpty()) 
+                ? reader.getLocalName() 
+                : prefix + ':' + reader.getLocalName();
+        final Element element = document.createElementNS((null == uri || uri.isEmpty()) ? null : uri, qName);
+        for (int i = 0, count = reader.getAttributeCount(); i < count; i++) {
+            final String attrUri = reader.getAttributeNamespace(i);
+            final String attrPrefix = reader.getAttributePrefix(i);
+            final String name = (null == attrPrefix || attrPrefix.isEmpty()) 
+                    ? reader.getAttributeLocalName(i) 
+                    : attrPrefix + ':' + reader.getAttributeLocalName(i);
+            element.setAttributeNS((null == attrUri || attrUri.isEmpty()) ? null : attrUri, name, reader.getAttributeValue(i));
+        }
+        return element;
+    }
+    
+    private void declareNamespaces(Element element) {
+        for (int i = 0, count = reader.getNamespaceCount(); i < count; i++) {
+            final String prefix = reader.getNamespacePrefix(i);
+            final String uri = nonNull(reader.getNamespaceURI(i));
+            if (null == prefix || prefix.isEmpty()) {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, uri);
+            } else {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix, uri);
+            }
+        }
+    }
+    
+    /**
+     * Adds the text read since the last tag.
+     */
+    private void addText(Element element) {
+        if (text.length() > 0) {
+            element.appendChild(element.getOwnerDocument().createTextNode(text.toString()));
+        }
+        text.setLength(0);
+    }
+    
+    private static boolean isWhiteSpace(CharSequence s) {
+        for (int i = s.length() - 1; i >= 0; i--) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void push() {
+        if (depth == bases.length) {
+            final int[] bigger = new int[2 * depth];
+            System.arraycopy(bases, 0, bigger, 0, depth);
+            bases = bigger;
+        }
+        bases[depth++] = size;
+        for (int i = 0, count = reader.getNamespaceCount(); i < count; i++) {
+            if (size == uris.length) {
+                final String[] biggerUris = new String[2 * size];
+                final String[] biggerPrefixes = new String[2 * size];
+                System.arraycopy(uris, 0, biggerUris, 0, size);
+                System.arraycopy(prefixes, 0, biggerPrefixes, 0, size);
+                uris = biggerUris;
+                prefixes = biggerPrefixes;
+            }
+            final String prefix = reader.getNamespacePrefix(i);
+            prefixes[size] = (null == prefix) ? XMLConstants.DEFAULT_NS_PREFIX : prefix;
+            uris[size] = nonNull(reader.getNamespaceURI(i));
+            size++;
+        }
+    }
+    
+    private void pop() {
+        size = bases[--depth];
+    }
+    
+    private static String nonNull(String uri) {
+        return (null == uri) ? XMLConstants.NULL_NS_URI : uri;
+    }
+}
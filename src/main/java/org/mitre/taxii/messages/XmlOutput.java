@@ -0,0 +1,557 @@
+package org.mitre.taxii.messages;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Writes XML text character for character the way the JAXB reference 
+ * implementation does when it marshals to a Writer: the same escaping, 
+ * the same order of namespace declarations, the same choice of prefixes 
+ * for DOM content, and the same indentation when the output is formatted.
+ * Used by the readers and writers {@link StaxCodec} generates.
+ * 
+ * <p>Anything that isn't emulated exactly throws 
+ * {@link StaxBinding.Unsupported}, and the message is marshalled with 
+ * JAXB instead.</p>
+ */
+public final class XmlOutput {
+    
+    private static final String XML_DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    private static final String INDENT = "    ";
+    
+    // What was last written inside the current element, as JAXB's DataWriter tracks it.
+    private static final int SEEN_NOTHING = 0;
+    private static final int SEEN_ELEMENT = 1;
+    private static final int SEEN_DATA = 2;
+    
+    private final StringBuilder out;
+    private final boolean formatted;
+    private final StaxCodec codec;
+    
+    private int depth = 0;
+    private int state = SEEN_NOTHING;
+    private int[] stateStack = new int[16];
+    
+    private boolean startTagOpen = false;
+    /** The namespaces declared on the open start tag. Reused, as JAXB does, which fixes the order they're written in. */
+    private final HashMap<String, String> declared = new HashMap<>();
+    
+    /* 
+     * The namespaces in scope, innermost last, and where each element's 
+     * declarations start. The "xml" prefix is always bound.
+     */
+    private String[] prefixes = new String[16];
+    private String[] uris = new String[16];
+    private int size = 0;
+    private int[] bases = new int[16];
+    
+    XmlOutput(StringBuilder out, boolean formatted, StaxCodec codec) {
+        this.out = out;
+        this.formatted = formatted;
+        this.codec = codec;
+        put(XMLConstants.XML_NS_URI, XMLConstants.XML_NS_PREFIX);
+    }
+    
+    void startDocument() {
+        out.append(XML_DECL);
+        if (formatted) {
+            out.append('\n');
+        }
+    }
+    
+    void endDocument() {
+        if (formatted) {
+            out.append('\n');
+        }
+    }
+    
+    /**
+     * Writes a start tag, which is left open for attributes and namespace
+     * declarations.
+     * 
+     * @param qName the element's name, with the prefix it is declared with.
+     */
+    public void startElement(String qName) {
+        if (depth == stateStack.length) {
+            stateStack = grow(stateStack);
+            bases = grow(bases);
+        }
+        stateStack[depth] = SEEN_ELEMENT;
+        bases[depth] = size;
+        if (formatted) {
+            state = SEEN_NOTHING;
+            if (depth > 0) {
+                closeStartTag();
+                out.append('\n');
+                indent();
+                state = SEEN_DATA;
+            }
+        } else {
+            closeStartTag();
+        }
+        out.append('<').append(qName);
+        startTagOpen = true;
+        depth++;
+    }
+    
+    /**
+     * Writes an attribute of the open start tag.
+     */
+    public void attribute(String qName, String value) {
+        out.append(' ').append(qName).append("=\"");
+        escape(value, true);
+        out.append('"');
+    }
+    
+    /**
+     * Writes the text content of the current element.
+     */
+    public void text(String value) {
+        state = SEEN_DATA;
+        closeStartTag();
+        escape(value, false);
+    }
+    
+    /**
+     * Writes an end tag, or closes the start tag as an empty element.
+     */
+    public void endElement(String qName) {
+        depth--;
+        if (formatted && state == SEEN_ELEMENT) {
+            closeStartTag();
+            out.append('\n');
+            indent();
+        }
+        if (startTagOpen) {
+            writeDeclarations();
+            out.append("/>");
+            startTagOpen = false;
+        } else {
+            out.append("</").append(qName).append('>');
+        }
+        state = stateStack[depth];
+        size = bases[depth];
+    }
+    
+    /**
+     * Declares a namespace on the open start tag.
+     */
+    void declare(String prefix, String uri) {
+        put(uri, prefix);
+    }
+    
+    /**
+     * Writes a DOM Element, as JAXB writes the DOM content of xs:any.
+     * Comments and processing instructions are dropped.
+     */
+    public void element(Element element) {
+        // The parent's start tag is closed first, so that none of the
+        // namespaces worked out below are declared on it.
+        closeStartTag();
+        final NamedNodeMap attributes = element.getAttributes();
+        final int count = attributes.getLength();
+        // the namespace declarations the element has, as prefix, URI pairs
+        String[] mappings = null;
+        int mappingCount = 0;
+        for (int i = 0; i < count; i++) {
+            final Attr attr = (Attr) attributes.item(i);
+            final String name = attr.getName();
+            if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+                if (null == mappings) {
+                    mappings = new String[2 * count];
+                }
+                final String prefix;
+                if (name.length() == XMLConstants.XMLNS_ATTRIBUTE.length()) {
+                    prefix = XMLConstants.DEFAULT_NS_PREFIX;
+                } else {
+                    prefix = (null == attr.getLocalName()) ? name.substring(6) : attr.getLocalName();
+                }
+                mappings[mappingCount++] = prefix;
+                mappings[mappingCount++] = attr.getValue();
+            }
+        }
+        final String uri = nonNull(element.getNamespaceURI());
+        final String tagName = element.getTagName();
+        final String localName = (null == element.getLocalName()) ? tagName : element.getLocalName();
+        final String prefix = prefixOf(tagName);
+        
+        final int base = size;
+        final int index = containsMapping(mappings, mappingCount, prefix, uri) 
+                ? force(uri, prefix) 
+                : declareUri(uri, prefix, false);
+        for (int i = 0; i < mappingCount; i += 2) {
+            force(mappings[i + 1], mappings[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            final Attr attr = (Attr) attributes.item(i);
+            final String attrUri = attr.getNamespaceURI();
+            if (!attr.getName().startsWith(XMLConstants.XMLNS_ATTRIBUTE) && null != attrUri && !attrUri.isEmpty()) {
+                declareUri(attrUri, prefixOf(attr.getName()), true);
+            }
+        }
+        
+        // The element's declarations are made before its start tag is written.
+        final int declarationCount = size - base;
+        final String[] declarations = new String[2 * declarationCount];
+        for (int i = 0; i < declarationCount; i++) {
+            declarations[2 * i] = prefixes[base + i];
+            declarations[2 * i + 1] = uris[base + i];
+        }
+        size = base;
+        final String qName = qualify(prefixes[index], localName);
+        startElement(qName);
+        for (int i = 0; i < declarationCount; i++) {
+            put(declarations[2 * i + 1], declarations[2 * i]);
+        }
+        for (int i = 0; i < count; i++) {
+            final Attr attr = (Attr) attributes.item(i);
+            final String name = attr.getName();
+            if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+                continue;
+            }
+            final String attrUri = nonNull(attr.getNamespaceURI());
+            final String attrLocalName = (null == attr.getLocalName()) ? name : attr.getLocalName();
+            attribute(attrUri.isEmpty() ? attrLocalName : qualify(prefixes[prefixIndex(attrUri)], attrLocalName), attr.getValue());
+        }
+        
+        StringBuilder text = null;
+        for (Node child = element.getFirstChild(); null != child; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (null == text) {
+                        text = new StringBuilder();
+                    }
+                    text.append(child.getNodeValue());
+                    break;
+                case Node.ELEMENT_NODE:
+                    text = flush(text);
+                    element((Element) child);
+                    break;
+                default:
+                    break;
+            }
+        }
+        flush(text);
+        endElement(qName);
+    }
+    
+    /**
+     * Writes the content of an element with mixed content and lax xs:any 
+     * children: Strings as text, and other items as elements.
+     */
+    public void writeMixed(List<Object> content) throws JAXBException {
+        for (Object item : content) {
+            if (item instanceof String) {
+                text((String) item);
+            } else {
+                StaxBinding.checkItem(item);
+                codec.writeElement(this, item);
+            }
+        }
+    }
+    
+    /**
+     * Writes an element with JAXB, for the types that have no generated 
+     * writer.
+     */
+    public void writeWithJaxb(Object value) throws JAXBException {
+        codec.marshalElement(value, contentHandler());
+    }
+    
+    private StringBuilder flush(StringBuilder text) {
+        if (null != text && text.length() > 0) {
+            text(text.toString());
+        }
+        return null;
+    }
+    
+    /**
+     * @return a ContentHandler that writes the SAX events of an element to 
+     *          this output, for the parts of a message JAXB marshals. 
+     *          Declarations of namespaces already in scope are dropped.
+     */
+    ContentHandler contentHandler() {
+        return new DefaultHandler() {
+            private final StringBuilder text = new StringBuilder();
+            private String[] mappings = new String[8];
+            private int mappingCount = 0;
+            
+            @Override
+            public void startPrefixMapping(String prefix, String uri) {
+                if (uri.equals(namespaceUri(prefix))) {
+                    return;
+                }
+                if (mappingCount == mappings.length) {
+                    final String[] bigger = new String[2 * mappings.length];
+                    System.arraycopy(mappings, 0, bigger, 0, mappingCount);
+                    mappings = bigger;
+                }
+                mappings[mappingCount++] = prefix;
+                mappings[mappingCount++] = uri;
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) {
+                flushText();
+                XmlOutput.this.startElement(qName);
+                for (int i = 0; i < mappingCount; i += 2) {
+                    put(mappings[i + 1], mappings[i]);
+                }
+                mappingCount = 0;
+                for (int i = 0; i < atts.getLength(); i++) {
+                    attribute(atts.getQName(i), atts.getValue(i));
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                flushText();
+                XmlOutput.this.endElement(qName);
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                text.append(ch, start, length);
+            }
+            
+            private void flushText() {
+                if (text.length() > 0) {
+                    text(text.toString());
+                    text.setLength(0);
+                }
+            }
+        };
+    }
+    
+    /**
+     * @return the URI the prefix is bound to, or null if it isn't.
+     */
+    String namespaceUri(String prefix) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return uris[i];
+            }
+        }
+        return null;
+    }
+    
+    /*
+     * The namespace bookkeeping of JAXB's NamespaceContextImpl, with its 
+     * default NamespacePrefixMapper.
+     */
+    
+    private int declareUri(String uri, String prefix, boolean requirePrefix) {
+        if (uri.isEmpty()) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (uris[i].isEmpty()) {
+                    return i;
+                }
+                if (prefixes[i].isEmpty()) {
+                    // JAXB moves the default namespace to a new prefix.
+                    throw new StaxBinding.Unsupported("No namespace element where there is a default namespace");
+                }
+            }
+            return put(XMLConstants.NULL_NS_URI, XMLConstants.DEFAULT_NS_PREFIX);
+        }
+        String suggested = prefix;
+        for (int i = size - 1; i >= 0; i--) {
+            if (uris[i].equals(uri) && (!requirePrefix || !prefixes[i].isEmpty())) {
+                return i;
+            }
+            if (prefixes[i].equals(suggested)) {
+                suggested = null;
+            }
+        }
+        if (null == suggested && requirePrefix) {
+            suggested = uniquePrefix();
+        }
+        return put(uri, suggested);
+    }
+    
+    private int force(String uri, String prefix) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                if (uris[i].equals(uri)) {
+                    return i;
+                }
+                break;
+            }
+        }
+        return put(uri, prefix);
+    }
+    
+    private int put(String uri, String prefix) {
+        if (size == uris.length) {
+            uris = grow(uris);
+            prefixes = grow(prefixes);
+        }
+        if (null == prefix) {
+            prefix = (size == 1) ? XMLConstants.DEFAULT_NS_PREFIX : uniquePrefix();
+        }
+        uris[size] = uri;
+        prefixes[size] = prefix;
+        if (startTagOpen) {
+            declared.put(prefix, uri);
+        }
+        return size++;
+    }
+    
+    private String uniquePrefix() {
+        String prefix = "ns" + size;
+        while (null != namespaceUri(prefix)) {
+            prefix = prefix + '_';
+        }
+        return prefix;
+    }
+    
+    private int prefixIndex(String uri) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (uris[i].equals(uri)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException(uri);
+    }
+    
+    private static boolean containsMapping(String[] mappings, int count, String prefix, String uri) {
+        for (int i = 0; i < count; i += 2) {
+            if (mappings[i].equals(prefix) && mappings[i + 1].equals(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String prefixOf(String qName) {
+        final int colon = qName.indexOf(':');
+        return (colon < 0) ? XMLConstants.DEFAULT_NS_PREFIX : qName.substring(0, colon);
+    }
+    
+    private static String qualify(String prefix, String localName) {
+        return prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+    
+    private static String nonNull(String uri) {
+        return (null == uri) ? XMLConstants.NULL_NS_URI : uri;
+    }
+    
+    private void closeStartTag() {
+        if (startTagOpen) {
+            writeDeclarations();
+            out.append('>');
+            startTagOpen = false;
+        }
+    }
+    
+    private void writeDeclarations() {
+        if (declared.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, String> declaration : declared.entrySet()) {
+            out.append(' ');
+            if (declaration.getKey().isEmpty()) {
+                out.append("xmlns=\"");
+            } else {
+                out.append("xmlns:").append(declaration.getKey()).append("=\"");
+            }
+            escape(declaration.getValue(), true);
+            out.append('"');
+        }
+        declared.clear();
+    }
+    
+    private void indent() {
+        for (int i = 0; i < depth; i++) {
+            out.append(INDENT);
+        }
+    }
+    
+    /**
+     * Escapes as JAXB's MinimumEscapeHandler does, which also drops 
+     * carriage returns.
+     */
+    private void escape(String value, boolean attribute) {
+        final int length = value.length();
+        int from = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            final String escaped;
+            switch (c) {
+                case '&':
+                    escaped = "&amp;";
+                    break;
+                case '<':
+                    escaped = "&lt;";
+                    break;
+                case '>':
+                    escaped = "&gt;";
+                    break;
+                case '"':
+                    escaped = attribute ? "&quot;" : null;
+                    break;
+                case '\r':
+                    escaped = "";
+                    break;
+                default:
+                    escaped = null;
+                    break;
+            }
+            if (null != escaped) {
+                out.append(value, from, i).append(escaped);
+                from = i + 1;
+            }
+        }
+        out.append(value, from, length);
+    }
+    
+    private static int[] grow(int[] array) {
+        final int[] bigger = new int[2 * array.length];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+    
+    private static String[] grow(String[] array) {
+        final String[] bigger = new String[2 * array.length];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+}
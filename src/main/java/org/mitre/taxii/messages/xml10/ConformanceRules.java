@@ -0,0 +1,220 @@
+package org.mitre.taxii.messages.xml10;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.mitre.taxii.messages.ConformanceRule;
+import org.mitre.taxii.messages.ConformanceRule.Assertion;
+import org.mitre.taxii.util.Validation;
+
+/**
+ * The Schematron rules of the TAXII 1.0 XML Message Binding, checked against
+ * the JAXB object graph. There is one rule for each pattern in the 
+ * Schematron embedded in TAXII_XMLMessageBinding_Schema-1.0-with-sch.xsd.
+ * Any change to those patterns must be made here as well; 
+ * ConformanceRulesTests fails if the two disagree.
+ */
+public final class ConformanceRules {
+    
+    static final Assertion RETRY_TIMESTAMP = new Assertion(
+            "A Status Message of type RETRY should have a Status_Detail containing a timestamp.",
+            ". castable as xs:dateTime");
+    static final Assertion UNSUPPORTED_MESSAGE_BINDINGS = new Assertion(
+            "Status_Detail must contain a space-separated list of Message Binding IDs indicating supported message bindings.",
+            "every $token in tokenize(., ' ') satisfies $token castable as xs:anyURI");
+    static final Assertion UNSUPPORTED_CONTENT_BINDINGS = new Assertion(
+            "Status_Detail must contain a space-separated list of Content Binding IDs indicating supported content bindings.",
+            "every $token in tokenize(., ' ') satisfies $token castable as xs:anyURI");
+    static final Assertion UNSUPPORTED_PROTOCOL_BINDINGS = new Assertion(
+            "Status_Detail must contain a space-separated list of Protocol Binding IDs indicating supported protocol bindings.",
+            "every $token in tokenize(., ' ') satisfies $token castable as xs:anyURI");
+    static final Assertion CONTENT_BINDING_INBOX = new Assertion(
+            "If Content_Binding is present, @service_type SHOULD be \"INBOX\".",
+            "../@service_type='INBOX'");
+    static final Assertion SUBSCRIPTION_ID_REQUIRED = new Assertion(
+            "@subscription_id MUST be present if the action is UNSUBSCRIBE.",
+            "@subscription_id");
+    static final Assertion SUBSCRIPTION_ID_FORBIDDEN = new Assertion(
+            "@subscription_id SHOULD not be present if the action is not UNSUBSCRIBE.",
+            "not(@subscription_id)");
+    static final Assertion PUSH_PARAMETERS_FORBIDDEN = new Assertion(
+            "For values of @action other than SUBSCRIBE senders SHOULD NOT include Push_Parameters.",
+            "not(Push_Parameters)");
+    
+    private static final DatatypeFactory datatypeFactory;
+    static {
+        try {
+            datatypeFactory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new RuntimeException("Deployment error", e);
+        }
+    }
+    
+    /**
+     * Status_Message: the Status_Detail of the status types that define one.
+     */
+    static final ConformanceRule<StatusMessage> STATUS_DETAIL = new ConformanceRule<StatusMessage>(StatusMessage.class,
+            RETRY_TIMESTAMP, UNSUPPORTED_MESSAGE_BINDINGS, UNSUPPORTED_CONTENT_BINDINGS, UNSUPPORTED_PROTOCOL_BINDINGS) {
+        @Override
+        protected void checkMessage(StatusMessage message, Validation results) {
+            final String statusType = message.getStatusType();
+            final String detail = message.getStatusDetail();
+            if (null == detail) {
+                return;
+            }
+            if (StatusTypeEnum.RETRY.value().equals(statusType)) {
+                if (!isDateTime(detail)) {
+                    fail(results, RETRY_TIMESTAMP);
+                }
+            } else if (StatusTypeEnum.UNSUPPORTED_MESSAGE.value().equals(statusType)) {
+                if (!isUriList(detail)) {
+                    fail(results, UNSUPPORTED_MESSAGE_BINDINGS);
+                }
+            } else if (StatusTypeEnum.UNSUPPORTED_CONTENT.value().equals(statusType)) {
+                if (!isUriList(detail)) {
+                    fail(results, UNSUPPORTED_CONTENT_BINDINGS);
+                }
+            } else if (StatusTypeEnum.UNSUPPORTED_PROTOCOL.value().equals(statusType)) {
+                if (!isUriList(detail)) {
+                    fail(results, UNSUPPORTED_PROTOCOL_BINDINGS);
+                }
+            }
+        }
+    };
+    
+    /**
+     * Discovery_Response: only Inbox Services take Content Bindings.
+     */
+    static final ConformanceRule<DiscoveryResponse> SERVICE_CONTENT_BINDINGS = new ConformanceRule<DiscoveryResponse>(DiscoveryResponse.class,
+            CONTENT_BINDING_INBOX) {
+        @Override
+        protected void checkMessage(DiscoveryResponse message, Validation results) {
+            for (ServiceInstanceType service : message.getServiceInstances()) {
+                if (ServiceTypeEnum.INBOX != service.getServiceType()) {
+                    // Reported once for each Content_Binding.
+                    for (int i = 0; i < service.getContentBindings().size(); i++) {
+                        fail(results, CONTENT_BINDING_INBOX);
+                    }
+                }
+            }
+        }
+    };
+    
+    /**
+     * Subscription_Management_Request: @subscription_id depending on the 
+     * action. As in Schematron, only the first rule that matches the action 
+     * is checked, so the Push_Parameters rule (which follows the rule for 
+     * every action but UNSUBSCRIBE) never is. Its unprefixed test wouldn't 
+     * match a TAXII element anyway.
+     */
+    static final ConformanceRule<SubscriptionManagementRequest> SUBSCRIPTION_MANAGEMENT = new ConformanceRule<SubscriptionManagementRequest>(SubscriptionManagementRequest.class,
+            SUBSCRIPTION_ID_REQUIRED, SUBSCRIPTION_ID_FORBIDDEN, PUSH_PARAMETERS_FORBIDDEN) {
+        @Override
+        protected void checkMessage(SubscriptionManagementRequest message, Validation results) {
+            if (FeedActionEnum.UNSUBSCRIBE == message.getAction()) {
+                if (null == message.getSubscriptionId()) {
+                    fail(results, SUBSCRIPTION_ID_REQUIRED);
+                }
+            } else if (null != message.getSubscriptionId()) {
+                fail(results, SUBSCRIPTION_ID_FORBIDDEN);
+            }
+        }
+    };
+
+    private static final List<ConformanceRule<?>> RULES = Collections.unmodifiableList(Arrays.<ConformanceRule<?>>asList(
+            STATUS_DETAIL,
+            SERVICE_CONTENT_BINDINGS,
+            SUBSCRIPTION_MANAGEMENT));
+
+    private ConformanceRules() {}
+    
+    /**
+     * @return the rules, in the order of the Schematron patterns.
+     */
+    public static List<ConformanceRule<?>> getRules() {
+        return RULES;
+    }
+    
+    /**
+     * {@code value castable as xs:dateTime}
+     */
+    private static boolean isDateTime(String value) {
+        try {
+            return DatatypeConstants.DATETIME.equals(
+                    datatypeFactory.newXMLGregorianCalendar(value.trim()).getXMLSchemaType());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * {@code every $token in tokenize(value, ' ') satisfies $token castable as xs:anyURI}
+     */
+    private static boolean isUriList(String value) {
+        for (String token : value.split(" ")) {
+            if (!isUri(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Like Saxon, accepts anything that is a URI once the characters that 
+     * are allowed in an IRI (but not in a URI) have been escaped. 
+     */
+    private static boolean isUri(String value) {
+        final String collapsed = value.trim();
+        final StringBuilder sb = new StringBuilder(collapsed.length());
+        for (byte b : collapsed.getBytes(StandardCharsets.UTF_8)) {
+            final int c = b & 0xff;
+            if (c <= 0x20 || c >= 0x7f || "<>\"{}|\\^`".indexOf(c) >= 0) {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            } else {
+                sb.append((char) c);
+            }
+        }
+        try {
+            new URI(sb.toString());
+            return true;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+}
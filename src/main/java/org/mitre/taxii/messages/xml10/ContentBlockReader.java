@@ -0,0 +1,87 @@
+package org.mitre.taxii.messages.xml10;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.io.InputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the Content Blocks of a TAXII 1.0 Poll_Response or Inbox_Message
+ * one at a time.
+ * 
+ * @see org.mitre.taxii.messages.ContentBlockReader
+ */
+public class ContentBlockReader extends org.mitre.taxii.messages.ContentBlockReader<MessageType, ContentBlock> {
+
+    /** The XML namespace of TAXII 1.0 messages. */
+    public static final String NAMESPACE = "http://taxii.mitre.org/messages/taxii_xml_binding-1";
+
+    /**
+     * Create a reader for a message in an InputStream. The stream is closed
+     * when the reader is.
+     * 
+     * @param taxiiXml
+     * @param in
+     * @throws JAXBException 
+     *          if the message is not a TAXII 1.0 Poll_Response or 
+     *          Inbox_Message, or the start of the message can't be read.
+     */
+    public ContentBlockReader(TaxiiXml taxiiXml, InputStream in) throws JAXBException {
+        super(taxiiXml, in, MessageType.class, ContentBlock.class, NAMESPACE);
+    }
+
+    /**
+     * Create a reader for a message in a StAX stream. The stream must be 
+     * positioned at the start of the document or at the message's start tag.
+     * 
+     * @param taxiiXml
+     * @param reader
+     * @throws JAXBException 
+     *          if the message is not a TAXII 1.0 Poll_Response or 
+     *          Inbox_Message, or the start of the message can't be read.
+     */
+    public ContentBlockReader(TaxiiXml taxiiXml, XMLStreamReader reader) throws JAXBException {
+        super(taxiiXml, reader, MessageType.class, ContentBlock.class, NAMESPACE);
+    }
+
+    @Override
+    protected void mergeTrailer(MessageType message, MessageType trailer) {
+        if (message instanceof PollResponse) {
+            final PollResponse pr = (PollResponse) trailer;
+            if (null != pr.getSignature()) {
+                ((PollResponse) message).setSignature(pr.getSignature());
+            }
+        } else if (message instanceof InboxMessage) {
+            final InboxMessage im = (InboxMessage) trailer;
+            if (null != im.getSignature()) {
+                ((InboxMessage) message).setSignature(im.getSignature());
+            }
+        }
+    }
+}
@@ -29,6 +29,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 import java.util.List;
 import org.mitre.taxii.client.HttpResponseErrorHandler;
 import org.mitre.taxii.client.xml10.ResponseErrorHandler;
+import org.mitre.taxii.util.StringInterner;
 
 /**
  * Version specific implementation of TaxiiXml abstract class.
@@ -40,13 +41,89 @@ public class TaxiiXml extends org.mitre.taxii.messages.TaxiiXml {
     private HttpResponseErrorHandler responseHandler = new ResponseErrorHandler();
     
     public TaxiiXml(String taxiiVersion, String serviceVersion, String taxiiPackage, List<String> otherPackages, String schemaLocation, String validatorLocation) {
-        super(taxiiVersion, serviceVersion, taxiiPackage, otherPackages, schemaLocation, validatorLocation);
+        super(taxiiVersion, serviceVersion, taxiiPackage, otherPackages, schemaLocation, validatorLocation,
+                ConformanceRules.getRules());
     }
     
     public boolean isRequestMessage(Object message) {
         return (message instanceof RequestMessageType);
     }
     
+    @Override
+    protected List<?> getContentBlocks(Object message) {
+        if (message instanceof PollResponse) {
+            return ((PollResponse) message).getContentBlocks();
+        } else if (message instanceof InboxMessage) {
+            return ((InboxMessage) message).getContentBlocks();
+        }
+        return null;
+    }
+    
+    @Override
+    protected Object withContentBlocks(Object message, List<?> contentBlocks) {
+        @SuppressWarnings("unchecked") // Only ever the blocks of a message like this one.
+        final List<ContentBlock> blocks = (List<ContentBlock>) contentBlocks;
+        if (message instanceof PollResponse) {
+            final PollResponse pr = (PollResponse) message;
+            return new PollResponse(pr.getExtendedHeaders(), pr.getMessageId(), pr.getInResponseTo(), 
+                    pr.getMessage(), pr.getInclusiveBeginTimestamp(), pr.getInclusiveEndTimestamp(), 
+                    blocks, pr.getSignature(), pr.getFeedName(), pr.getSubscriptionId());
+        } else if (message instanceof InboxMessage) {
+            final InboxMessage im = (InboxMessage) message;
+            return new InboxMessage(im.getExtendedHeaders(), im.getMessageId(), im.getMessage(), 
+                    im.getSourceSubscription(), blocks, im.getSignature());
+        }
+        return super.withContentBlocks(message, contentBlocks);
+    }
+    
+    @Override
+    protected void internStrings(Object target, StringInterner interner) {
+        // Most frequent first: there is one per Content Block.
+        if (target instanceof ContentBlock) {
+            final ContentBlock cb = (ContentBlock) target;
+            cb.setContentBinding(interner.intern(cb.getContentBinding()));
+        } else if (target instanceof ExtendedHeaderType) {
+            final ExtendedHeaderType header = (ExtendedHeaderType) target;
+            header.setName(interner.intern(header.getName()));
+        } else if (target instanceof PollResponse) {
+            final PollResponse pr = (PollResponse) target;
+            pr.setFeedName(interner.intern(pr.getFeedName()));
+        } else if (target instanceof PollRequest) {
+            final PollRequest pr = (PollRequest) target;
+            pr.setFeedName(interner.intern(pr.getFeedName()));
+            interner.internAll(pr.getContentBindings());
+        } else if (target instanceof SourceSubscriptionType) {
+            final SourceSubscriptionType ss = (SourceSubscriptionType) target;
+            ss.setFeedName(interner.intern(ss.getFeedName()));
+        } else if (target instanceof FeedRecordType) {
+            final FeedRecordType fr = (FeedRecordType) target;
+            fr.setFeedName(interner.intern(fr.getFeedName()));
+            interner.internAll(fr.getContentBindings());
+        } else if (target instanceof ServiceInstanceType) {
+            final ServiceInstanceType si = (ServiceInstanceType) target;
+            si.setProtocolBinding(interner.intern(si.getProtocolBinding()));
+            si.setServiceVersion(interner.intern(si.getServiceVersion()));
+            interner.internAll(si.getMessageBindings());
+            interner.internAll(si.getContentBindings());
+        } else if (target instanceof ServiceContactInfoType) {
+            final ServiceContactInfoType sc = (ServiceContactInfoType) target;
+            sc.setProtocolBinding(interner.intern(sc.getProtocolBinding()));
+            interner.internAll(sc.getMessageBindings());
+        } else if (target instanceof PushMethodType) {
+            final PushMethodType pm = (PushMethodType) target;
+            pm.setProtocolBinding(interner.intern(pm.getProtocolBinding()));
+            interner.internAll(pm.getMessageBindings());
+        } else if (target instanceof PushParameterType) {
+            final PushParameterType pp = (PushParameterType) target;
+            pp.setProtocolBinding(interner.intern(pp.getProtocolBinding()));
+            pp.setMessageBinding(interner.intern(pp.getMessageBinding()));
+            interner.internAll(pp.getContentBindings());
+        } else if (target instanceof StatusMessage) {
+            final StatusMessage sm = (StatusMessage) target;
+            sm.setStatusType(interner.intern(sm.getStatusType()));
+        }
+    }
+    
     public HttpResponseErrorHandler getResponseHandler() {
         return responseHandler;
     }    
@@ -0,0 +1,332 @@
+package org.mitre.taxii.messages.xml11;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.mitre.taxii.messages.ConformanceRule;
+import org.mitre.taxii.messages.ConformanceRule.Assertion;
+import org.mitre.taxii.util.Datatypes;
+import org.mitre.taxii.util.Validation;
+import org.w3c.dom.Node;
+
+/**
+ * The Schematron rules of the TAXII 1.1 XML Message Binding, checked against
+ * the JAXB object graph. There is one rule for each pattern in the 
+ * Schematron embedded in TAXII_XMLMessageBinding_Schema-1.1-with-sch.xsd.
+ * Any change to those patterns must be made here as well; 
+ * ConformanceRulesTests fails if the two disagree.
+ */
+public final class ConformanceRules {
+    
+    static final Assertion INVALID_RESPONSE_PART_MAX_PART_NUMBER = new Assertion(
+            "A Status Message of type INVALID_RESPONSE_PART requires a MAX_PART_NUMBER Status Detail that is a positive integer.",
+            "taxii:Status_Detail/taxii:Detail[@name='MAX_PART_NUMBER'] castable as xs:integer and xs:integer(taxii:Status_Detail/taxii:Detail[@name='MAX_PART_NUMBER']) > 0");
+    static final Assertion PENDING_ESTIMATED_WAIT = new Assertion(
+            "A Status Message of type PENDING requires an ESTIMATED_WAIT Status Detail that is a positiveInteger.",
+            "taxii:Status_Detail/taxii:Detail[@name='ESTIMATED_WAIT'] castable as xs:integer and xs:integer(taxii:Status_Detail/taxii:Detail[@name='ESTIMATED_WAIT']) > 0");
+    static final Assertion PENDING_RESULT_ID = new Assertion(
+            "A Status Message of type PENDING requires a RESULT_ID Status Detail that is a URI.",
+            "string-length(taxii:Status_Detail/taxii:Detail[@name='RESULT_ID']) > 0");
+    static final Assertion PENDING_WILL_PUSH = new Assertion(
+            "A Status Message of type PENDING requires a WILL_PUSH Status Detail that is a boolean.",
+            "taxii:Status_Detail/taxii:Detail[@name='WILL_PUSH'] castable as xs:boolean");
+    static final Assertion RETRY_ESTIMATED_WAIT = new Assertion(
+            "A Status Message of type RETRY has an optional ESTIMATED_WAIT Status Detail of type positiveInteger.",
+            ". castable as xs:integer and xs:integer(.) > 0");
+    static final Assertion CONTENT_BINDING_INBOX = new Assertion(
+            "If Content_Binding is present, @service_type SHOULD be \"INBOX\".",
+            "../@service_type='INBOX'");
+    static final Assertion SUBSCRIPTION_ID_REQUIRED = new Assertion(
+            "Subscription_ID MUST be present if the action is UNSUBSCRIBE, PAUSE, or RESUME.",
+            "taxii:Subscription_ID");
+    static final Assertion SUBSCRIPTION_PARAMETERS_REQUIRED = new Assertion(
+            "Subscription Parameters MUST be present if the action is SUBSCRIBE.",
+            "taxii:Subscription_Parameters");
+    static final Assertion SUBSCRIPTION_PARAMETERS_FORBIDDEN = new Assertion(
+            "Subscription Parameters MUST NOT be present unless the action is SUBSCRIBE.",
+            "taxii:Subscription_Parameters");
+    static final Assertion POLL_REQUEST_TIMESTAMPS = new Assertion(
+            "If both Exclusive_Begin_Timestamp and Inclusive_End_Timestamp are present in a Poll_Request, the Inclusive_End_Timestamp MUST be greater than Exclusive_Begin_Timestamp.",
+            "taxii:Inclusive_End_Timestamp > taxii:Exclusive_Begin_Timestamp");
+    static final Assertion POLL_RESPONSE_RESULT_ID = new Assertion(
+            "The result_id attribute MUST be present if the more field is set to true.",
+            "if (@more = true()) then (string-length(@result_id) > 0) else true()");
+    static final Assertion RECORD_COUNT = new Assertion(
+            "Record_Count MUST be greater than or equal to the number of Content Blocks.",
+            "if (taxii:Content_Block or taxii:Record_Count) then (xs:integer(taxii:Record_Count) >= count(taxii:Content_Block)) else true()");
+    
+    /**
+     * Status_Message: required and optional Status Details of the status types
+     * that define them.
+     */
+    static final ConformanceRule<StatusMessage> STATUS_DETAILS = new ConformanceRule<StatusMessage>(StatusMessage.class,
+            INVALID_RESPONSE_PART_MAX_PART_NUMBER, PENDING_ESTIMATED_WAIT, PENDING_RESULT_ID, PENDING_WILL_PUSH, RETRY_ESTIMATED_WAIT) {
+        @Override
+        protected void checkMessage(StatusMessage message, Validation results) {
+            final String statusType = message.getStatusType();
+            if (StatusTypeEnum.INVALID_RESPONSE_PART.value().equals(statusType)) {
+                if (!isPositiveInteger(detail(message, StatusDetailEnum.MAX_PART_NUMBER))) {
+                    fail(results, INVALID_RESPONSE_PART_MAX_PART_NUMBER);
+                }
+            } else if (StatusTypeEnum.PENDING.value().equals(statusType)) {
+                if (!isPositiveInteger(detail(message, StatusDetailEnum.ESTIMATED_WAIT))) {
+                    fail(results, PENDING_ESTIMATED_WAIT);
+                }
+                final String resultId = detail(message, StatusDetailEnum.RESULT_ID);
+                if (null == resultId || resultId.isEmpty()) {
+                    fail(results, PENDING_RESULT_ID);
+                }
+                if (!isBoolean(detail(message, StatusDetailEnum.WILL_PUSH))) {
+                    fail(results, PENDING_WILL_PUSH);
+                }
+            } else if (StatusTypeEnum.RETRY.value().equals(statusType)) {
+                // Each ESTIMATED_WAIT is checked on its own.
+                for (StatusDetailDetailType detail : details(message)) {
+                    if (StatusDetailEnum.ESTIMATED_WAIT.toString().equals(detail.getName())
+                            && !isPositiveInteger(stringValue(detail))) {
+                        fail(results, RETRY_ESTIMATED_WAIT);
+                    }
+                }
+            }
+        }
+    };
+    
+    /**
+     * Discovery_Response: only Inbox Services take Content Bindings.
+     */
+    static final ConformanceRule<DiscoveryResponse> SERVICE_CONTENT_BINDINGS = new ConformanceRule<DiscoveryResponse>(DiscoveryResponse.class,
+            CONTENT_BINDING_INBOX) {
+        @Override
+        protected void checkMessage(DiscoveryResponse message, Validation results) {
+            for (ServiceInstanceType service : message.getServiceInstances()) {
+                if (ServiceTypeEnum.INBOX != service.getServiceType()) {
+                    // Reported once for each Content_Binding.
+                    for (int i = 0; i < service.getContentBindings().size(); i++) {
+                        fail(results, CONTENT_BINDING_INBOX);
+                    }
+                }
+            }
+        }
+    };
+    
+    /**
+     * Subscription_Management_Request: Subscription_ID and 
+     * Subscription_Parameters depending on the action. As in Schematron, only
+     * the first rule that matches the action is checked.
+     */
+    static final ConformanceRule<SubscriptionManagementRequest> SUBSCRIPTION_MANAGEMENT = new ConformanceRule<SubscriptionManagementRequest>(SubscriptionManagementRequest.class,
+            SUBSCRIPTION_ID_REQUIRED, SUBSCRIPTION_PARAMETERS_REQUIRED, SUBSCRIPTION_PARAMETERS_FORBIDDEN) {
+        @Override
+        protected void checkMessage(SubscriptionManagementRequest message, Validation results) {
+            final CollectionActionEnum action = message.getAction();
+            if (null == action) {
+                return;
+            }
+            switch (action) {
+                case UNSUBSCRIBE:
+                case PAUSE:
+                case RESUME:
+                    if (null == message.getSubscriptionID()) {
+                        fail(results, SUBSCRIPTION_ID_REQUIRED);
+                    }
+                    break;
+                case SUBSCRIBE:
+                    if (null == message.getSubscriptionParameters()) {
+                        fail(results, SUBSCRIPTION_PARAMETERS_REQUIRED);
+                    }
+                    break;
+                default:
+                    if (null != message.getSubscriptionParameters()) {
+                        fail(results, SUBSCRIPTION_PARAMETERS_FORBIDDEN);
+                    }
+            }
+        }
+    };
+    
+    /**
+     * Poll_Request: the timestamps, when both are present, are in order.
+     */
+    static final ConformanceRule<PollRequest> POLL_REQUEST = new ConformanceRule<PollRequest>(PollRequest.class,
+            POLL_REQUEST_TIMESTAMPS) {
+        @Override
+        protected void checkMessage(PollRequest message, Validation results) {
+            final Object begin = message.getExclusiveBeginTimestamp();
+            final Object end = message.getInclusiveEndTimestamp();
+            if (null != begin && null != end && !isAfter(end, begin)) {
+                fail(results, POLL_REQUEST_TIMESTAMPS);
+            }
+        }
+    };
+    
+    /**
+     * Poll_Response: result_id when there is more, and the Record_Count.
+     */
+    static final ConformanceRule<PollResponse> POLL_RESPONSE = new ConformanceRule<PollResponse>(PollResponse.class,
+            POLL_RESPONSE_RESULT_ID, RECORD_COUNT) {
+        @Override
+        protected void checkMessage(PollResponse message, Validation results) {
+            if (Boolean.TRUE.equals(message.isMore()) 
+                    && (null == message.getResultId() || message.getResultId().isEmpty())) {
+                fail(results, POLL_RESPONSE_RESULT_ID);
+            }
+            if (!isRecordCountValid(message.getRecordCount(), message.getContentBlocks())) {
+                fail(results, RECORD_COUNT);
+            }
+        }
+    };
+    
+    /**
+     * Inbox_Message: the Record_Count.
+     */
+    static final ConformanceRule<InboxMessage> INBOX_MESSAGE = new ConformanceRule<InboxMessage>(InboxMessage.class,
+            RECORD_COUNT) {
+        @Override
+        protected void checkMessage(InboxMessage message, Validation results) {
+            if (!isRecordCountValid(message.getRecordCount(), message.getContentBlocks())) {
+                fail(results, RECORD_COUNT);
+            }
+        }
+    };
+    
+    private static final List<ConformanceRule<?>> RULES = Collections.unmodifiableList(Arrays.<ConformanceRule<?>>asList(
+            STATUS_DETAILS,
+            SERVICE_CONTENT_BINDINGS,
+            SUBSCRIPTION_MANAGEMENT,
+            POLL_REQUEST,
+            POLL_RESPONSE,
+            INBOX_MESSAGE));
+
+    private ConformanceRules() {}
+    
+    /**
+     * @return the rules, in the order of the Schematron patterns.
+     */
+    public static List<ConformanceRule<?>> getRules() {
+        return RULES;
+    }
+    
+    private static List<StatusDetailDetailType> details(StatusMessage message) {
+        if (null == message.getStatusDetail()) {
+            return Collections.emptyList();
+        }
+        return message.getStatusDetail().getDetails();
+    }
+    
+    /**
+     * Gets the value of the named Status Detail. Like XPath's atomization of 
+     * a single node, a missing or repeated detail has no value.
+     */
+    private static String detail(StatusMessage message, StatusDetailEnum name) {
+        final List<StatusDetailDetailType> found = new ArrayList<>(1);
+        for (StatusDetailDetailType detail : details(message)) {
+            if (name.toString().equals(detail.getName())) {
+                found.add(detail);
+            }
+        }
+        return (found.size() == 1) ? stringValue(found.get(0)) : null;
+    }
+    
+    /**
+     * The XPath string value of a Detail: its text, including the text of 
+     * any DOM child elements. Children bound to JAXB classes have no text.
+     */
+    private static String stringValue(StatusDetailDetailType detail) {
+        final StringBuilder sb = new StringBuilder();
+        for (Object content : detail.getContent()) {
+            if (content instanceof String) {
+                sb.append((String) content);
+            } else if (content instanceof Node) {
+                sb.append(((Node) content).getTextContent());
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * {@code value castable as xs:integer and xs:integer(value) > 0}
+     */
+    private static boolean isPositiveInteger(String value) {
+        if (null == value) {
+            return false;
+        }
+        final String collapsed = value.trim();
+        if (!collapsed.matches("[+-]?[0-9]+")) {
+            return false;
+        }
+        return new BigInteger(collapsed.startsWith("+") ? collapsed.substring(1) : collapsed).signum() > 0;
+    }
+    
+    /**
+     * {@code value castable as xs:boolean}
+     */
+    private static boolean isBoolean(String value) {
+        if (null == value) {
+            return false;
+        }
+        final String collapsed = value.trim();
+        return "true".equals(collapsed) || "false".equals(collapsed) 
+                || "1".equals(collapsed) || "0".equals(collapsed);
+    }
+    
+    /**
+     * {@code taxii:Inclusive_End_Timestamp > taxii:Exclusive_Begin_Timestamp}
+     * <p>
+     * The stylesheet compares the text of the timestamps, not the points in
+     * time, so XMLGregorianCalendars are compared by their xs:dateTime text
+     * too. With the primitive binding profile the timestamps are longs, which
+     * have lost their text, and are compared as points in time.
+     */
+    private static boolean isAfter(Object end, Object begin) {
+        if (end instanceof XMLGregorianCalendar && begin instanceof XMLGregorianCalendar) {
+            return ((XMLGregorianCalendar) end).toXMLFormat().compareTo(((XMLGregorianCalendar) begin).toXMLFormat()) > 0;
+        }
+        return Datatypes.epochNanos(end) > Datatypes.epochNanos(begin);
+    }
+    
+    /**
+     * {@code if (taxii:Content_Block or taxii:Record_Count) then 
+     * (xs:integer(taxii:Record_Count) >= count(taxii:Content_Block)) else true()}
+     */
+    private static boolean isRecordCountValid(RecordCountType recordCount, List<ContentBlock> contentBlocks) {
+        if (contentBlocks.isEmpty() && null == recordCount) {
+            return true;
+        }
+        if (null == recordCount) {
+            return false;
+        }
+        final Object count = recordCount.getValue();
+        return null != count && Datatypes.compare(count, contentBlocks.size()) >= 0;
+    }
+}
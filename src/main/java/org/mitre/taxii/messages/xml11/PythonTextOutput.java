@@ -1,566 +1,640 @@
 package org.mitre.taxii.messages.xml11;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.math.BigInteger;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Map;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlRootElement;
 import org.mitre.taxii.query.DefaultQuery;
 import org.mitre.taxii.query.DefaultQueryInfo;
+import org.mitre.taxii.util.Datatypes;
 
 /**
  * This class replicates the Python libtaxii to_text() output.
- * 
+ *
  * The cleaner way to implement this would be for each TAXII class have a toText()
  * method. However, the TAXII classes are generated by XJC and I would much rather
- * avoid post-processing the generated code.
- * 
+ * avoid post-processing the generated code. So each class has a Renderer here,
+ * looked up by the class of the object (or its nearest superclass that has
+ * one), which writes the text to an Appendable. A large message can be
+ * written straight to a Writer, e.g. for a file, without building the
+ * whole text in memory.
+ *
  * @author jasenj1
  */
 public class PythonTextOutput {
     private static final String STD_INDENT = "  "; // A "Standard Indent" to use for to_text() methods
-    
+
     public static String toText(Object obj) {
-        return toText(obj,"");        
+        return toText(obj,"");
     }
 
     public static String toText(Object obj, String line_prepend) {
-        String s = new String();
+        StringBuilder sb = new StringBuilder();
+        try {
+            toText(obj, line_prepend, sb, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A StringBuilder doesn't throw.
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the text of toText(obj, line_prepend) to an Appendable.
+     */
+    public static void toText(Object obj, String line_prepend, Appendable out) throws IOException {
+        toText(obj, line_prepend, out, null);
+    }
+
+    /**
+     * Writes the text of toText(obj, line_prepend) to an Appendable.
+     *
+     * Given a TaxiiXml, the Content length of a Content Block is the number
+     * of bytes of the content as it is marshalled, UTF-8 encoded, as libtaxii
+     * prints it. Without one it is printed as "unknown".
+     *
+     * @param taxiiXml the TaxiiXml to marshal content with, or null.
+     */
+    public static void toText(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
         if (null == line_prepend) {
             line_prepend = "";
         }
-        
-        if (obj instanceof SupportedQueryType) {
-            SupportedQueryType self = (SupportedQueryType) obj;
-            s = line_prepend + "=== Supported Query Information ===\n";
-            s += line_prepend + String.format("  Query Format: %s\n", toStringOrNone(self.getFormatId()));
-            for (Object child : self.getContent()) {
-                if (child instanceof DefaultQueryInfo) {
-                    s += org.mitre.taxii.query.PythonTextOutput.toText(child, line_prepend);                    
-                }
-            }
-            return s;
-        }
-        
-        if (obj instanceof QueryType) {
-            QueryType self = (QueryType) obj;
-            s = line_prepend + "=== Query ===\n";
-            s += line_prepend + String.format("  Query Format: %s\n", toStringOrNone(self.getFormatId()));
-            /* QueryType contains an AnyMixedContentType child - which is a List of Object.
-               The format id tells us what the child is at a semantic level, but not in an XML/Object way.
-               From an XML/object perspective all we can do is see what the children are instanceof.
-            
-                Because on the Python side, to_text() is a method on the object, libtaxii can simply obj.to_text()
-                the children of the Query.
-            */
-            for (Object child : self.getContent()) {
-                if (child instanceof DefaultQuery) { // Is it a TAXII Default Query? It will only be this if the query JAXB context was added to the TaxiiXml object.
-                    s+= org.mitre.taxii.query.PythonTextOutput.toText(child, line_prepend);
-                }
-            }
-            return s;
-        }
-                
-        if (obj instanceof ContentBindingIDType) {
-            ContentBindingIDType self = (ContentBindingIDType)obj;
-            s = line_prepend;
-            s += self.getBindingId();
-            if (!self.getSubtypes().isEmpty()) {
-                List<String> subtypes = new ArrayList();
-                for (SubtypeType st : self.getSubtypes()) {
-                    subtypes.add(st.getSubtypeId());
-                }                
-                s += ">" + join(",",subtypes);
-            }            
-            return s;
-        }
-        
-        if (obj instanceof RecordCountType) {
-            RecordCountType self = (RecordCountType)obj;
-            s = line_prepend + "=== Record Count ===\n";
-            s += line_prepend + String.format("  Record Count: %s\n", toStringOrNone(self.getValue()));
-            s += line_prepend + String.format("  Partial Count: %s\n", booleanString(self.isPartialCount()));            
-            return s;
-        }
-        
-        // GenericParameters handled in a method call.
-        
-        if (obj instanceof SubscriptionParametersType) {
-            return genericParameters(obj, "Subscription_Parameters", line_prepend);
-        }
-        
-        if (obj instanceof PollParametersType) {
-            PollParametersType self = (PollParametersType)obj;
-            s = genericParameters(self, "Poll_Parameters", line_prepend);
-            
-            s += line_prepend + String.format("  Allow Asynch: %s\n", booleanString(self.isAllowAsynch()));
-            if(null != self.getDeliveryParameters()) {
-                s += toText(self.getDeliveryParameters(), line_prepend + STD_INDENT);
-            }
-            return s;            
-        }
-        
-        if (obj instanceof ContentBlock) {
-            ContentBlock self = (ContentBlock)obj;
-            
-            s = line_prepend + "=== Content Block ===\n";
-            s += line_prepend + String.format("  Content Binding: %s\n", toText(self.getContentBinding(), "")); // ContentInstanceType
-            /* TODO: On the Python side the below is the length of the marshaled/serialized content.
-                libtaxii stores the content internally as a string. On the Java side the content is
-                a list of objects (see AnyMixedContentType). So to really get the
-                length would require marshaling the content - an expensive operation
-                that requires a TaxiiXml object with the proper JAXB context.
-                i.e. It's a pain to do. Skip it for now.
-            */
-            s += line_prepend + String.format("  Content length: %s\n", "unknown");
-                        
-            s += line_prepend + "  (Content not printed for brevity)\n";
-            if (null != self.getTimestampLabel()) {
-                s += line_prepend + String.format("  Timestamp Label: %s\n", self.getTimestampLabel().toXMLFormat());
-            }
-            s += line_prepend + String.format("  Message: %s\n", toStringOrNone(self.getMessage()));
-            s += line_prepend + String.format("  Padding: %s\n", toStringOrNone(self.getPadding()));
-            
-            return s;            
-        }
-        
-        if (obj instanceof ContentInstanceType) {
-            ContentInstanceType self = (ContentInstanceType)obj;
-            s = line_prepend;
-            s += toStringOrNone(self.getBindingId());
-            if (null != self.getSubtype()) {
-                s += ">" + self.getSubtype().getSubtypeId();
-            }
-        }
+        rendererFor(obj.getClass()).render(obj, line_prepend, out, taxiiXml);
+    }
 
-        if (obj instanceof PushParameterType) {
-            PushParameterType self = (PushParameterType) obj;
-            s = line_prepend + "=== Push Parameters ===\n";
-            s += line_prepend + String.format("  Protocol Binding: %s\n", toStringOrNone(self.getProtocolBinding()));
-            s += line_prepend + String.format("  Inbox Address: %s\n", toStringOrNone(self.getAddress()));
-            s += line_prepend + String.format("  Message Binding: %s\n", toStringOrNone(self.getMessageBinding()));
-            return s;
-        }
-        
-        /*
-            And here we see the problem with this approach. MessageType is a common
-            ancestor for all messages. What happens when an object is an instanceof 
-            multiple class types?
-            Should the ifs be stacked from most specific to least specific type?
-            That's going to be a pain to track.
-        */
-        if (obj instanceof MessageType) {
-            MessageType self = (MessageType) obj;
-
-            XmlRootElement root = self.getClass().getAnnotation(XmlRootElement.class);
-            s = line_prepend + String.format("Message Type: %s\n", root.name());
-            s += line_prepend + String.format("Message ID: %s", toStringOrNone(self.getMessageId()));
-            if (self instanceof ResponseMessageType) {       
-                ResponseMessageType rmt = (ResponseMessageType)self;                
-                s += String.format("; In Response To: %s", toStringOrNone(rmt.getInResponseTo()));
-            }
-            s += "\n";
-                    
-            ExtendedHeadersType eht = self.getExtendedHeaders();
-            if (null != eht) {
-                List<ExtendedHeaderType> ehtList = eht.getExtendedHeaders();
-                for (ExtendedHeaderType eh : ehtList) {
-                    // TODO: Note, this is another case where the Python stores the value as a string, but it really is AnyMixedContentType (See ContentBlockType above).
-                    s += line_prepend + String.format("Extended Header: %s = %s\n", eh.getName(), "unknown");
-                }                
-            }                
-            // Intentional fall through. MessageType is a superclass of many other message types.
-            // return s; 
-        }
-        
-        if (obj instanceof DiscoveryResponse) {
-            DiscoveryResponse self = (DiscoveryResponse)obj;
-            // s is populated by MessageType match already.
-            for( ServiceInstanceType si : self.getServiceInstances()) {
-                s += toText(si, line_prepend + STD_INDENT);                
-            }
-            return s;
-        }
-        
-        if (obj instanceof ServiceInstanceType) {
-            ServiceInstanceType self = (ServiceInstanceType)obj;
-            s = line_prepend +  "=== Service Instance ===\n";
-            s += line_prepend +  String.format("  Service Type: %s\n", toStringOrNone(self.getServiceType().name()));
-            s += line_prepend +  String.format("  Service Version: %s\n", toStringOrNone(self.getServiceVersion()));
-            s += line_prepend +  String.format("  Protocol Binding: %s\n", toStringOrNone(self.getProtocolBinding()));
-            s += line_prepend +  String.format("  Service Address: %s\n", toStringOrNone(self.getAddress()));            
-            for (String mb : self.getMessageBindings()) {
-                s += line_prepend +  String.format("  Message Binding: %s\n", mb);
-            }            
-            if (ServiceTypeEnum.INBOX == self.getServiceType()) {
-                List<String> bindings = new ArrayList();
-                for (ContentBindingIDType binding : self.getContentBindings()) {
-                    bindings.add("'"+toText(binding, "")+"'");
-                }
-                s += line_prepend + String.format("  Inbox Service AC: [%s]\n", join(",", bindings)); 
-            }            
-            s += line_prepend +  String.format("  Available: %s\n", booleanString(self.isAvailable()));
-            s += line_prepend +  String.format("  Message: %s\n",toStringOrNone(self.getMessage()));
-            
-            for (SupportedQueryType q : self.getSupportedQueries()) {
-                s += toText(q, line_prepend + STD_INDENT);
-            }
-            return s;            
+    /**
+     * Writes the text of one TAXII class.
+     */
+    private static abstract class Renderer {
+        abstract void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException;
+    }
+
+    private static final Map<Class<?>, Renderer> RENDERERS = new HashMap<>();
+
+    private static final Renderer UNKNOWN = new Renderer() {
+        @Override
+        void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+            out.append("Sorry, I do not know how to render a ").append(obj.getClass().getName());
         }
+    };
 
-        if (obj instanceof CollectionInformationResponse) {
-            CollectionInformationResponse self = (CollectionInformationResponse) obj;
-            // s is populated by MessageType match already.
-            
-            s += line_prepend + String.format("Contains %s Collection Informations\n", self.getCollections().size());
-            for(CollectionRecordType crt : self.getCollections()) {
-                s += toText(crt, line_prepend + STD_INDENT);
+    /**
+     * The Renderer of a class, or of its nearest superclass that has one.
+     * MessageType is a superclass of all the messages. Its Renderer writes
+     * the header lines, which the Renderers of the messages write first.
+     */
+    private static Renderer rendererFor(Class<?> type) {
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            Renderer r = RENDERERS.get(c);
+            if (null != r) {
+                return r;
             }
-            return s;
         }
-        
-        if (obj instanceof CollectionRecordType) {
-            CollectionRecordType self = (CollectionRecordType) obj;
-
-            s = line_prepend + "=== Data Collection Information ===\n";
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  Collection Type: %s\n", self.getCollectionType().name());
-            s += line_prepend + String.format("  Available: %s\n", booleanString(self.isAvailable()));
-            s += line_prepend + String.format("  Collection Description: %s\n", toStringOrNone(self.getDescription()));
-            if ((null != self.getCollectionVolume()) && (0 != BigInteger.ZERO.compareTo(self.getCollectionVolume()))) {
-                s += line_prepend + String.format("  Volume: %s\n", self.getCollectionVolume());
-            }
-            if (self.getContentBindings().isEmpty()) { // All contents supported:
-                s += line_prepend + String.format("  Supported Content: %s\n", "All");
-            }        
-            for ( ContentBindingIDType cb : self.getContentBindings()) {
-                s += line_prepend + String.format("  Supported Content: %s\n", toText(cb, line_prepend + STD_INDENT));
-            }
-            for (ServiceContactInfoType sci : self.getPollingServices()) {
-                String name = "Polling Service";
-                s += line_prepend + STD_INDENT + String.format("=== %s Instance ===\n",name);
-                s += toText(sci, line_prepend + STD_INDENT);
-            }
-            for ( PushMethodType pm : self.getPushMethods()) {
-                s += toText(pm, (line_prepend + STD_INDENT));
-            }
-            for (InboxServiceBindingsType isb: self.getReceivingInboxServices()) {
-                s += toText(isb, line_prepend + STD_INDENT);
+        return UNKNOWN;
+    }
+
+    static {
+        RENDERERS.put(SupportedQueryType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SupportedQueryType self = (SupportedQueryType) obj;
+                out.append(line_prepend).append("=== Supported Query Information ===\n");
+                line(out, line_prepend, "  Query Format: ", toStringOrNone(self.getFormatId()));
+                for (Object child : self.getContent()) {
+                    if (child instanceof DefaultQueryInfo) {
+                        org.mitre.taxii.query.PythonTextOutput.toText(child, line_prepend, out);
+                    }
+                }
             }
-            s += line_prepend + "==================================\n\n";
-            return s;
-        }
-        
-        if (obj instanceof PushMethodType) {
-            PushMethodType self = (PushMethodType) obj;
-
-            s = line_prepend + "=== Push Method ===\n";
-            s += line_prepend + String.format("  Protocol Binding: %s\n", toStringOrNone(self.getProtocolBinding()));
-            for (String mb : self.getMessageBindings()) {
-                s += line_prepend +  String.format("  Message Binding: %s\n", mb);                
+        });
+
+        RENDERERS.put(QueryType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                QueryType self = (QueryType) obj;
+                out.append(line_prepend).append("=== Query ===\n");
+                line(out, line_prepend, "  Query Format: ", toStringOrNone(self.getFormatId()));
+                /* QueryType contains an AnyMixedContentType child - which is a List of Object.
+                   The format id tells us what the child is at a semantic level, but not in an XML/Object way.
+                   From an XML/object perspective all we can do is see what the children are instanceof.
+
+                    Because on the Python side, to_text() is a method on the object, libtaxii can simply obj.to_text()
+                    the children of the Query.
+                */
+                for (Object child : self.getContent()) {
+                    if (child instanceof DefaultQuery) { // Is it a TAXII Default Query? It will only be this if the query JAXB context was added to the TaxiiXml object.
+                        org.mitre.taxii.query.PythonTextOutput.toText(child, line_prepend, out);
+                    }
+                }
             }
-            return s;            
-        }
-                
-        if (obj instanceof InboxServiceBindingsType) {
-            InboxServiceBindingsType self = (InboxServiceBindingsType)obj;
-            
-            s = line_prepend + "=== Receiving Inbox Service ===\n";
-            s += line_prepend + String.format("  Protocol Binding: %s\n", toStringOrNone(self.getProtocolBinding()));
-            s += line_prepend + String.format("  Address: %s\n", toStringOrNone(self.getAddress()));
-            for (String mb : self.getMessageBindings()) {
-                s += line_prepend +  String.format("  Message Binding: %s\n", mb);
+        });
+
+        RENDERERS.put(ContentBindingIDType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                ContentBindingIDType self = (ContentBindingIDType) obj;
+                out.append(line_prepend).append(self.getBindingId());
+                String separator = ">";
+                for (SubtypeType st : self.getSubtypes()) {
+                    out.append(separator).append(st.getSubtypeId());
+                    separator = ",";
+                }
             }
-            if (self.getContentBindings().isEmpty()) {
-                s += line_prepend + "  Supported Contents: All\n";
-            }            
-            for (ContentBindingIDType cb : self.getContentBindings())
-                s += line_prepend + String.format("  Supported Content: %s\n", toText(cb,""));
-            return s;            
-        }
+        });
+
+        RENDERERS.put(RecordCountType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                RecordCountType self = (RecordCountType) obj;
+                out.append(line_prepend).append("=== Record Count ===\n");
+                line(out, line_prepend, "  Record Count: ", toStringOrNone(self.getValue()));
+                line(out, line_prepend, "  Partial Count: ", booleanString(self.isPartialCount()));
+            }
+        });
 
-        if (obj instanceof PollRequest) {
-            PollRequest self = (PollRequest)obj;
-            
-            /* s will be populated by MessageType match above */            
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            if (null !=self.getSubscriptionID()) {
-                s += line_prepend + String.format("  Subscription ID: %s\n", toStringOrNone(self.getSubscriptionID()));
+        RENDERERS.put(SubscriptionParametersType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SubscriptionParametersType self = (SubscriptionParametersType) obj;
+                genericParameters("Subscription_Parameters", self.getContentBindings(), self.getQuery(), line_prepend, out, taxiiXml);
             }
-            if (null != self.getExclusiveBeginTimestamp()) {
-                s += line_prepend + String.format("  Excl. Begin TS Label: %s\n", self.getExclusiveBeginTimestamp().toXMLFormat());
+        });
+
+        RENDERERS.put(PollParametersType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PollParametersType self = (PollParametersType) obj;
+                genericParameters("Poll_Parameters", self.getContentBindings(), self.getQuery(), line_prepend, out, taxiiXml);
+                line(out, line_prepend, "  Allow Asynch: ", booleanString(self.isAllowAsynch()));
+                if (null != self.getDeliveryParameters()) {
+                    toText(self.getDeliveryParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            if (null != self.getInclusiveEndTimestamp()) {
-                s += line_prepend + String.format("  Incl. End TS Label: %s\n", self.getInclusiveEndTimestamp().toXMLFormat());
+        });
+
+        RENDERERS.put(ContentBlock.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                ContentBlock self = (ContentBlock) obj;
+                out.append(line_prepend).append("=== Content Block ===\n");
+                out.append(line_prepend).append("  Content Binding: ");
+                toText(self.getContentBinding(), "", out, taxiiXml); // ContentInstanceType
+                out.append('\n');
+                /* On the Python side the below is the length of the marshaled/serialized content.
+                    libtaxii stores the content internally as a string. On the Java side the content is
+                    a list of objects (see AnyMixedContentType). So to really get the
+                    length requires marshaling the content, which requires a TaxiiXml object
+                    with the proper JAXB context. The content is counted as it is written, not kept.
+                */
+                line(out, line_prepend, "  Content length: ", null == taxiiXml ? "unknown" : contentLength(self.getContent(), taxiiXml));
+                out.append(line_prepend).append("  (Content not printed for brevity)\n");
+                if (null != self.getTimestampLabel()) {
+                    line(out, line_prepend, "  Timestamp Label: ", Datatypes.xmlFormat(self.getTimestampLabel()));
+                }
+                line(out, line_prepend, "  Message: ", toStringOrNone(self.getMessage()));
+                line(out, line_prepend, "  Padding: ", toStringOrNone(self.getPadding()));
             }
-            if (null != self.getPollParameters()) {
-                s += toText( self.getPollParameters() , line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(ContentInstanceType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                ContentInstanceType self = (ContentInstanceType) obj;
+                out.append(line_prepend).append(toStringOrNone(self.getBindingId()));
+                if (null != self.getSubtype()) {
+                    out.append('>').append(self.getSubtype().getSubtypeId());
+                }
             }
+        });
 
-            return s;            
-        }
-        
-        if (obj instanceof PollResponse) {
-            PollResponse self = (PollResponse)obj;
-            
-            /* s will be populated by MessageType match */
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  More: %s\n", booleanString(self.isMore()));
-            s += line_prepend + String.format("  Result ID: %s\n", toStringOrNone(self.getResultId()));
-            if (null != self.getResultPartNumber()) {
-                s += line_prepend + String.format("  Result Part Num: %s\n", self.getResultPartNumber());
+        RENDERERS.put(PushParameterType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PushParameterType self = (PushParameterType) obj;
+                out.append(line_prepend).append("=== Push Parameters ===\n");
+                line(out, line_prepend, "  Protocol Binding: ", toStringOrNone(self.getProtocolBinding()));
+                line(out, line_prepend, "  Inbox Address: ", toStringOrNone(self.getAddress()));
+                line(out, line_prepend, "  Message Binding: ", toStringOrNone(self.getMessageBinding()));
+            }
+        });
+
+        RENDERERS.put(MessageType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                header((MessageType) obj, line_prepend, out);
             }
-            if (null != self.getRecordCount()) {
-                s += toText(self.getRecordCount(), line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(DiscoveryResponse.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                DiscoveryResponse self = (DiscoveryResponse) obj;
+                header(self, line_prepend, out);
+                for (ServiceInstanceType si : self.getServiceInstances()) {
+                    toText(si, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            if (null != self.getSubscriptionID()) {
-                s += line_prepend + String.format("  Subscription ID: %s\n", self.getSubscriptionID());
-            }                        
-            if (null != self.getMessage()) {
-                s += line_prepend + String.format("  Message: %s\n", self.getMessage());
-            }            
-            if (null != self.getExclusiveBeginTimestamp()) {
-                s += line_prepend + String.format("  Excl. Begin TS Label: %s\n", self.getExclusiveBeginTimestamp().toXMLFormat());
+        });
+
+        RENDERERS.put(ServiceInstanceType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                ServiceInstanceType self = (ServiceInstanceType) obj;
+                out.append(line_prepend).append("=== Service Instance ===\n");
+                line(out, line_prepend, "  Service Type: ", toStringOrNone(self.getServiceType().name()));
+                line(out, line_prepend, "  Service Version: ", toStringOrNone(self.getServiceVersion()));
+                line(out, line_prepend, "  Protocol Binding: ", toStringOrNone(self.getProtocolBinding()));
+                line(out, line_prepend, "  Service Address: ", toStringOrNone(self.getAddress()));
+                for (String mb : self.getMessageBindings()) {
+                    line(out, line_prepend, "  Message Binding: ", mb);
+                }
+                if (ServiceTypeEnum.INBOX == self.getServiceType()) {
+                    out.append(line_prepend).append("  Inbox Service AC: [");
+                    if (self.getContentBindings().isEmpty()) {
+                        out.append("null"); // What libtaxii prints for no bindings.
+                    }
+                    String separator = "'";
+                    for (ContentBindingIDType binding : self.getContentBindings()) {
+                        out.append(separator);
+                        toText(binding, "", out, taxiiXml);
+                        out.append('\'');
+                        separator = ",'";
+                    }
+                    out.append("]\n");
+                }
+                line(out, line_prepend, "  Available: ", booleanString(self.isAvailable()));
+                line(out, line_prepend, "  Message: ", toStringOrNone(self.getMessage()));
+                for (SupportedQueryType q : self.getSupportedQueries()) {
+                    toText(q, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            if (null != self.getInclusiveEndTimestamp()) {
-                s += line_prepend + String.format("  Incl. End TS Label: %s\n", self.getInclusiveEndTimestamp().toXMLFormat());
-            }                        
-            for (ContentBlock cb : self.getContentBlocks()) {
-                s += toText(cb, line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(CollectionInformationResponse.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                CollectionInformationResponse self = (CollectionInformationResponse) obj;
+                header(self, line_prepend, out);
+                out.append(line_prepend).append("Contains ").append(String.valueOf(self.getCollections().size())).append(" Collection Informations\n");
+                for (CollectionRecordType crt : self.getCollections()) {
+                    toText(crt, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            return s;            
-        }
-        
-        if (obj instanceof StatusMessage) {
-            StatusMessage self = (StatusMessage)obj;
-            
-            /* s will be populated by MessageType match */
-            s += line_prepend + String.format("Status Type: %s\n", toStringOrNone(self.getStatusType()));
-                        
-            StatusDetailType sdt = self.getStatusDetail();
-            if (null != sdt) {
-                for (StatusDetailDetailType sddt : sdt.getDetails()) {
-            /* TODO: On the Python side the below is the raw content.
-                libtaxii stores the content internally as a string. On the Java side the content is
-                a list of objects (see AnyMixedContentType). So to really get the
-                value would require marshaling the content - an expensive operation
-                that requires a TaxiiXml object with the proper JAXB context.
-                i.e. It's a pain to do. Skip it for now.
-            */
-                    s += line_prepend + String.format("Status Detail: %s = %s\n", sddt.getName(), sddt.getContent());
+        });
+
+        RENDERERS.put(CollectionRecordType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                CollectionRecordType self = (CollectionRecordType) obj;
+                out.append(line_prepend).append("=== Data Collection Information ===\n");
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  Collection Type: ", self.getCollectionType().name());
+                line(out, line_prepend, "  Available: ", booleanString(self.isAvailable()));
+                line(out, line_prepend, "  Collection Description: ", toStringOrNone(self.getDescription()));
+                if ((null != self.getCollectionVolume()) && (0 != Datatypes.compare(self.getCollectionVolume(), 0))) {
+                    line(out, line_prepend, "  Volume: ", String.valueOf(self.getCollectionVolume()));
+                }
+                if (self.getContentBindings().isEmpty()) { // All contents supported:
+                    line(out, line_prepend, "  Supported Content: ", "All");
+                }
+                for (ContentBindingIDType cb : self.getContentBindings()) {
+                    out.append(line_prepend).append("  Supported Content: ");
+                    toText(cb, line_prepend + STD_INDENT, out, taxiiXml);
+                    out.append('\n');
+                }
+                for (ServiceContactInfoType sci : self.getPollingServices()) {
+                    out.append(line_prepend).append(STD_INDENT).append("=== Polling Service Instance ===\n");
+                    toText(sci, line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                for (PushMethodType pm : self.getPushMethods()) {
+                    toText(pm, line_prepend + STD_INDENT, out, taxiiXml);
                 }
+                for (InboxServiceBindingsType isb : self.getReceivingInboxServices()) {
+                    toText(isb, line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                out.append(line_prepend).append("==================================\n\n");
             }
-                
-            if (null != self.getMessage()) {
-                s += line_prepend + String.format("Message: %s\n", toStringOrNone(self.getMessage()));
+        });
+
+        RENDERERS.put(PushMethodType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PushMethodType self = (PushMethodType) obj;
+                out.append(line_prepend).append("=== Push Method ===\n");
+                line(out, line_prepend, "  Protocol Binding: ", toStringOrNone(self.getProtocolBinding()));
+                for (String mb : self.getMessageBindings()) {
+                    line(out, line_prepend, "  Message Binding: ", mb);
+                }
             }
-            return s;            
-        }
-        
-        if (obj instanceof InboxMessage) {
-            InboxMessage self = (InboxMessage)obj;
-            
-            /* s is populated by MessageType match */            
-            if (null != self.getResultId()) {
-                s += line_prepend + String.format("  Result ID: %s\n", toStringOrNone(self.getResultId()));
+        });
+
+        RENDERERS.put(InboxServiceBindingsType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                InboxServiceBindingsType self = (InboxServiceBindingsType) obj;
+                out.append(line_prepend).append("=== Receiving Inbox Service ===\n");
+                line(out, line_prepend, "  Protocol Binding: ", toStringOrNone(self.getProtocolBinding()));
+                line(out, line_prepend, "  Address: ", toStringOrNone(self.getAddress()));
+                for (String mb : self.getMessageBindings()) {
+                    line(out, line_prepend, "  Message Binding: ", mb);
+                }
+                if (self.getContentBindings().isEmpty()) {
+                    out.append(line_prepend).append("  Supported Contents: All\n");
+                }
+                for (ContentBindingIDType cb : self.getContentBindings()) {
+                    out.append(line_prepend).append("  Supported Content: ");
+                    toText(cb, "", out, taxiiXml);
+                    out.append('\n');
+                }
             }
-            for (String dcn : self.getDestinationCollectionNames()) {
-                s += line_prepend + String.format("  Destination Collection Name: %s\n", toStringOrNone(dcn));
+        });
+
+        RENDERERS.put(PollRequest.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PollRequest self = (PollRequest) obj;
+                header(self, line_prepend, out);
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                if (null != self.getSubscriptionID()) {
+                    line(out, line_prepend, "  Subscription ID: ", self.getSubscriptionID());
+                }
+                if (null != self.getExclusiveBeginTimestamp()) {
+                    line(out, line_prepend, "  Excl. Begin TS Label: ", Datatypes.xmlFormat(self.getExclusiveBeginTimestamp()));
+                }
+                if (null != self.getInclusiveEndTimestamp()) {
+                    line(out, line_prepend, "  Incl. End TS Label: ", Datatypes.xmlFormat(self.getInclusiveEndTimestamp()));
+                }
+                if (null != self.getPollParameters()) {
+                    toText(self.getPollParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            s += line_prepend + String.format("  Message: %s\n", toStringOrNone(self.getMessage()));
-            if (null != self.getSourceSubscription()) {
-                s += toText(self.getSourceSubscription(), line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(PollResponse.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PollResponse self = (PollResponse) obj;
+                header(self, line_prepend, out);
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  More: ", booleanString(self.isMore()));
+                line(out, line_prepend, "  Result ID: ", toStringOrNone(self.getResultId()));
+                final Object resultPartNumber = self.getResultPartNumber(); // long with the primitive profile
+                if (null != resultPartNumber) {
+                    line(out, line_prepend, "  Result Part Num: ", resultPartNumber.toString());
+                }
+                if (null != self.getRecordCount()) {
+                    toText(self.getRecordCount(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                if (null != self.getSubscriptionID()) {
+                    line(out, line_prepend, "  Subscription ID: ", self.getSubscriptionID());
+                }
+                if (null != self.getMessage()) {
+                    line(out, line_prepend, "  Message: ", self.getMessage());
+                }
+                if (null != self.getExclusiveBeginTimestamp()) {
+                    line(out, line_prepend, "  Excl. Begin TS Label: ", Datatypes.xmlFormat(self.getExclusiveBeginTimestamp()));
+                }
+                if (null != self.getInclusiveEndTimestamp()) {
+                    line(out, line_prepend, "  Incl. End TS Label: ", Datatypes.xmlFormat(self.getInclusiveEndTimestamp()));
+                }
+                for (ContentBlock cb : self.getContentBlocks()) {
+                    toText(cb, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            if (null != self.getRecordCount()) {
-                s += toText(self.getRecordCount(), line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(StatusMessage.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                StatusMessage self = (StatusMessage) obj;
+                header(self, line_prepend, out);
+                line(out, line_prepend, "Status Type: ", toStringOrNone(self.getStatusType()));
+                StatusDetailType sdt = self.getStatusDetail();
+                if (null != sdt) {
+                    for (StatusDetailDetailType sddt : sdt.getDetails()) {
+                /* TODO: On the Python side the below is the raw content.
+                    libtaxii stores the content internally as a string. On the Java side the content is
+                    a list of objects (see AnyMixedContentType). So to really get the
+                    value would require marshaling the content - an expensive operation
+                    that requires a TaxiiXml object with the proper JAXB context.
+                    i.e. It's a pain to do. Skip it for now.
+                */
+                        out.append(line_prepend).append("Status Detail: ").append(sddt.getName())
+                                .append(" = ").append(String.valueOf(sddt.getContent())).append('\n');
+                    }
+                }
+                if (null != self.getMessage()) {
+                    line(out, line_prepend, "Message: ", self.getMessage());
+                }
             }
-       
-            s += line_prepend + String.format("  Message has %s Content Blocks\n", self.getContentBlocks().size());
-            
-            for (ContentBlock cb : self.getContentBlocks()) {
-                s += toText(cb, line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(InboxMessage.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                InboxMessage self = (InboxMessage) obj;
+                header(self, line_prepend, out);
+                if (null != self.getResultId()) {
+                    line(out, line_prepend, "  Result ID: ", self.getResultId());
+                }
+                for (String dcn : self.getDestinationCollectionNames()) {
+                    line(out, line_prepend, "  Destination Collection Name: ", toStringOrNone(dcn));
+                }
+                line(out, line_prepend, "  Message: ", toStringOrNone(self.getMessage()));
+                if (null != self.getSourceSubscription()) {
+                    toText(self.getSourceSubscription(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                if (null != self.getRecordCount()) {
+                    toText(self.getRecordCount(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                out.append(line_prepend).append("  Message has ").append(String.valueOf(self.getContentBlocks().size())).append(" Content Blocks\n");
+                for (ContentBlock cb : self.getContentBlocks()) {
+                    toText(cb, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            return s;            
-        }
-        
-        if (obj instanceof SourceSubscriptionType) { // Python libtaxii calls this SubscriptionInformation
-            SourceSubscriptionType self = (SourceSubscriptionType)obj;
-            
-            s = line_prepend + "=== Source Subscription ===\n";
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  Subscription ID: %s\n", toStringOrNone(self.getSubscriptionID()));
-
-            if (null != self.getExclusiveBeginTimestamp()) {
-                s += line_prepend + String.format("  Excl. Begin TS Label: %s\n", self.getExclusiveBeginTimestamp().toXMLFormat());
-            } else {
-                s += line_prepend + String.format("  Excl. Begin TS Label: %s\n", "None");
+        });
+
+        RENDERERS.put(SourceSubscriptionType.class, new Renderer() { // Python libtaxii calls this SubscriptionInformation
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SourceSubscriptionType self = (SourceSubscriptionType) obj;
+                out.append(line_prepend).append("=== Source Subscription ===\n");
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  Subscription ID: ", toStringOrNone(self.getSubscriptionID()));
+                if (null != self.getExclusiveBeginTimestamp()) {
+                    line(out, line_prepend, "  Excl. Begin TS Label: ", Datatypes.xmlFormat(self.getExclusiveBeginTimestamp()));
+                } else {
+                    line(out, line_prepend, "  Excl. Begin TS Label: ", "None");
+                }
+                if (null != self.getInclusiveEndTimestamp()) {
+                    line(out, line_prepend, "  Incl. End TS Label: ", String.valueOf(self.getInclusiveEndTimestamp()));
+                } else {
+                    line(out, line_prepend, "  Incl. End TS Label: ", "None");
+                }
             }
+        });
 
-            if (null != self.getInclusiveEndTimestamp()) {
-                s += line_prepend + String.format("  Incl. End TS Label: %s\n", self.getInclusiveEndTimestamp());
-                        } else {
-                s += line_prepend + String.format("  Incl. End TS Label: %s\n", "None");
+        RENDERERS.put(SubscriptionManagementRequest.class, new Renderer() { // Python libtaxii calls this ManageCollectionSubscriptionRequest
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SubscriptionManagementRequest self = (SubscriptionManagementRequest) obj;
+                header(self, line_prepend, out);
+                CollectionActionEnum action = self.getAction();
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  Action: ", toStringOrNone(action.name()));
+                line(out, line_prepend, "  Subscription ID: ", toStringOrNone(self.getSubscriptionID()));
+                if (CollectionActionEnum.SUBSCRIBE == action) {
+                    toText(self.getSubscriptionParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                if ((CollectionActionEnum.SUBSCRIBE == action) && (null != self.getPushParameters())) {
+                    toText(self.getPushParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            return s;            
-        }
-        
-        if (obj instanceof SubscriptionManagementRequest) { // Python libtaxii calls this ManageCollectionSubscriptionRequest
-            SubscriptionManagementRequest self = (SubscriptionManagementRequest) obj;
-            
-            /* s will be prepopulated by MessageType match */
-            CollectionActionEnum action = self.getAction();                
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  Action: %s\n", toStringOrNone(action.name()));                
-            s += line_prepend + String.format("  Subscription ID: %s\n", toStringOrNone(self.getSubscriptionID()));
-        
-            if  (CollectionActionEnum.SUBSCRIBE == action) {
-                s += toText(self.getSubscriptionParameters(), line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(SubscriptionManagementResponse.class, new Renderer() { // Python libtaxii calls this ManageCollectionSubscriptionResponse
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SubscriptionManagementResponse self = (SubscriptionManagementResponse) obj;
+                header(self, line_prepend, out);
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  Message: ", toStringOrNone(self.getMessage()));
+                for (SubscriptionRecordType srt : self.getSubscriptions()) {
+                    toText(srt, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
+        });
 
-            if ((CollectionActionEnum.SUBSCRIBE == action) && (null != self.getPushParameters())) {
-                s += toText(self.getPushParameters(), line_prepend + STD_INDENT);
+        RENDERERS.put(SubscriptionRecordType.class, new Renderer() { // Python libtaxii calls this SubscriptionInstance
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                SubscriptionRecordType self = (SubscriptionRecordType) obj;
+                out.append(line_prepend).append("=== Subscription Instance ===\n");
+                line(out, line_prepend, "  Status: ", self.getStatus().name());
+                line(out, line_prepend, "  Subscription ID: ", toStringOrNone(self.getSubscriptionID()));
+                if (null != self.getSubscriptionParameters()) {
+                    toText(self.getSubscriptionParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                if (null != self.getPushParameters()) {
+                    toText(self.getPushParameters(), line_prepend + STD_INDENT, out, taxiiXml);
+                }
+                for (ServiceContactInfoType sci : self.getPollInstances()) {
+                    out.append(line_prepend).append(STD_INDENT).append("=== Poll Instance ===\n");
+                    toText(sci, line_prepend + STD_INDENT, out, taxiiXml);
+                }
             }
-            return s;
-            
-        }
-        
-        if (obj instanceof SubscriptionManagementResponse) { // Python libtaxii calls this ManageCollectionSubscriptionResponse
-            SubscriptionManagementResponse self = (SubscriptionManagementResponse)obj;
-            
-            /* s will be prepopulated by MessageType match */
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  Message: %s\n", toStringOrNone(self.getMessage()));
-            for (SubscriptionRecordType srt: self.getSubscriptions()) {
-                s += toText(srt, line_prepend + STD_INDENT);
+        });
+
+        RENDERERS.put(ServiceContactInfoType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                ServiceContactInfoType self = (ServiceContactInfoType) obj;
+                line(out, line_prepend, "  Protocol Binding: ", toStringOrNone(self.getProtocolBinding()));
+                line(out, line_prepend, "  Address: ", toStringOrNone(self.getAddress()));
+                for (String mb : self.getMessageBindings()) {
+                    line(out, line_prepend, "  Message Binding: ", mb);
+                }
             }
-            return s;            
+        });
+
+        RENDERERS.put(PollFulfillment.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+                PollFulfillment self = (PollFulfillment) obj;
+                header(self, line_prepend, out);
+                line(out, line_prepend, "  Collection Name: ", toStringOrNone(self.getCollectionName()));
+                line(out, line_prepend, "  Result ID: ", toStringOrNone(self.getResultId()));
+                line(out, line_prepend, "  Result Part Number: ", toStringOrNone(self.getResultPartNumber()));
+            }
+        });
+    }
+
+    /**
+     * The lines common to all messages.
+     */
+    private static void header(MessageType self, String line_prepend, Appendable out) throws IOException {
+        XmlRootElement root = self.getClass().getAnnotation(XmlRootElement.class);
+        line(out, line_prepend, "Message Type: ", root.name());
+        out.append(line_prepend).append("Message ID: ").append(toStringOrNone(self.getMessageId()));
+        if (self instanceof ResponseMessageType) {
+            out.append("; In Response To: ").append(toStringOrNone(((ResponseMessageType) self).getInResponseTo()));
         }
-        
-        if (obj instanceof SubscriptionRecordType) { // Python libtaxii calls this SubscriptionInstance
-            SubscriptionRecordType self = (SubscriptionRecordType)obj;
-
-            s = line_prepend + "=== Subscription Instance ===\n";
-            s += line_prepend + String.format("  Status: %s\n", self.getStatus().name());
-            s += line_prepend + String.format("  Subscription ID: %s\n", toStringOrNone(self.getSubscriptionID()));
-            if (null != self.getSubscriptionParameters()) {
-                s += toText(self.getSubscriptionParameters(), line_prepend + STD_INDENT);
-            }
-            if (null != self.getPushParameters()) {
-                s += toText(self.getPushParameters(), line_prepend + STD_INDENT);
-            }
-            for (ServiceContactInfoType sci : self.getPollInstances()) {
-                String name = "Poll";
-                s += line_prepend + STD_INDENT + String.format("=== %s Instance ===\n",name);                
-                s += toText(sci, line_prepend + STD_INDENT);
+        out.append('\n');
+
+        ExtendedHeadersType eht = self.getExtendedHeaders();
+        if (null != eht) {
+            for (ExtendedHeaderType eh : eht.getExtendedHeaders()) {
+                // TODO: Note, this is another case where the Python stores the value as a string, but it really is AnyMixedContentType (See ContentBlock above).
+                out.append(line_prepend).append("Extended Header: ").append(eh.getName()).append(" = unknown\n");
             }
-            return s;        
         }
-        
-        if (obj instanceof ServiceContactInfoType) {
-            ServiceContactInfoType self = (ServiceContactInfoType)obj;
-            
-            s += line_prepend + String.format("  Protocol Binding: %s\n", toStringOrNone(self.getProtocolBinding()));
-            s += line_prepend + String.format("  Address: %s\n", toStringOrNone(self.getAddress()));
-            for (String mb : self.getMessageBindings()) {
-                s += line_prepend +  String.format("  Message Binding: %s\n", mb);
-            } 
-            return s;
-        }
-        
-        if (obj instanceof PollFulfillment){
-            PollFulfillment self = (PollFulfillment)obj;
-            
-            /* s will be populated by MessageType match */
-            s += line_prepend + String.format("  Collection Name: %s\n", toStringOrNone(self.getCollectionName()));
-            s += line_prepend + String.format("  Result ID: %s\n", toStringOrNone(self.getResultId()));
-            s += line_prepend + String.format("  Result Part Number: %s\n", toStringOrNone(self.getResultPartNumber()));
-            return s;            
+    }
+
+    private static void genericParameters(String name, List<ContentBindingIDType> contentBindings, QueryType query,
+            String line_prepend, Appendable out, TaxiiXml taxiiXml) throws IOException {
+        out.append(line_prepend).append("=== ").append(name).append(" ===\n");
+        for (ContentBindingIDType cb : contentBindings) {
+            out.append("  Content Binding: ");
+            toText(cb, "", out, taxiiXml);
+            out.append('\n');
         }
-                           
-        if (s.isEmpty()) {
-            s = "Sorry, I do not know how to render a " + obj.getClass().getName();
+        if (null != query) {
+            toText(query, line_prepend + STD_INDENT, out, taxiiXml);
         }
-        return s;        
     }
-    
-    private static String genericParameters(Object obj, String name, String line_prepend) {
-        StringBuilder sb = new StringBuilder();            
-        sb.append(line_prepend).append(String.format("=== %s ===\n", name));
-        
-        /* 
-         * Use reflection to get the common fields.
-         * This would be easier in Groovy.
-         */
+
+    /**
+     * The number of bytes of content as it is marshalled, UTF-8 encoded.
+     */
+    private static String contentLength(AnyMixedContentType content, TaxiiXml taxiiXml) {
+        if (null == content) {
+            return "0";
+        }
+        CountingOutputStream counter = new CountingOutputStream();
         try {
-            // Content Bindings
-            Method getCB = obj.getClass().getMethod("getContentBindings");
-            Object rawCBs = getCB.invoke(obj);
-            List<ContentBindingIDType> cbList = (List)rawCBs;
-            for (ContentBindingIDType cb : cbList) {
-                sb.append(String.format("  Content Binding: %s\n", toText(cb, "")));
-            }
-            
-            // Query
-            Method getQ = obj.getClass().getMethod("getQuery");
-            Object rawQ = getQ.invoke(obj);
-            QueryType q = (QueryType)rawQ;
-            if (null != q) {
-                sb.append(toText(q,line_prepend + STD_INDENT));
-            }                        
-        } catch (NoSuchMethodException ex) {
-            Logger.getLogger(PythonTextOutput.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (SecurityException ex) {
-            Logger.getLogger(PythonTextOutput.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IllegalAccessException ex) {
-            Logger.getLogger(PythonTextOutput.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IllegalArgumentException ex) {
-            Logger.getLogger(PythonTextOutput.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (InvocationTargetException ex) {
-            Logger.getLogger(PythonTextOutput.class.getName()).log(Level.SEVERE, null, ex);
+            taxiiXml.getStaxCodec().writeContent(content.getContent(), counter);
+        } catch (JAXBException e) {
+            return "unknown";
         }
-        
-        return sb.toString();
+        return Long.toString(counter.count);
     }
-    
+
     /**
-     * Implement my own join() method. Java 8 does this out of the box, and
-     * many libraries implement it too (Apache's StringUtil). But in an attempt
-     * to reduce dependencies and support as many versions of Java as possible,
-     * I'll write my own here.
-     * 
-     * @return 
+     * Counts the bytes written to it, and drops them.
      */
-    private static String join(String separator, List<String> list) {
-        if (null == list) return null;
-        
-        int size = list.size();        
-        if (0 == size) return null;
-        StringBuilder sb = new StringBuilder();
-        
-        sb.append(list.get(0));
-        for(int x = 1; x < size; ++x) {
-            sb.append(separator).append(list.get(x));
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
         }
-        
-        return sb.toString();
+    }
+
+    private static void line(Appendable out, String line_prepend, String label, String value) throws IOException {
+        out.append(line_prepend).append(label).append(value).append('\n');
     }
 
     /**
      * Turn a Boolean into a Python string representation.
-     * 
+     *
      * @ return "None", "True", or "False".
      */
     private static String booleanString(Boolean value) {
-        if (null == value) return "None";        
+        if (null == value) return "None";
         return value ? "True" : "False";
     }
-    
+
     private static String toStringOrNone(Object obj) {
         if (null == obj) return "None";
         return obj.toString();
     }
-    
+
 }
@@ -29,6 +29,7 @@ package org.mitre.taxii.messages.xml11;
 import java.util.List;
 import org.mitre.taxii.client.HttpResponseErrorHandler;
 import org.mitre.taxii.client.xml11.ResponseErrorHandler;
+import org.mitre.taxii.util.StringInterner;
 
 /**
  *
@@ -39,13 +40,111 @@ public class TaxiiXml extends org.mitre.taxii.messages.TaxiiXml {
     private HttpResponseErrorHandler responseHandler = new ResponseErrorHandler();
 
     public TaxiiXml(String taxiiVersion, String serviceVersion, String taxiiPackage, List<String> otherPackages, String schemaLocation, String validatorLocation) {
-        super(taxiiVersion, serviceVersion, taxiiPackage, otherPackages, schemaLocation, validatorLocation);
+        super(taxiiVersion, serviceVersion, taxiiPackage, otherPackages, schemaLocation, validatorLocation,
+                ConformanceRules.getRules());
     }
     
     public boolean isRequestMessage(Object message) {
         return (message instanceof RequestMessageType);
     }
     
+    @Override
+    protected List<?> getContentBlocks(Object message) {
+        if (message instanceof PollResponse) {
+            return ((PollResponse) message).getContentBlocks();
+        } else if (message instanceof InboxMessage) {
+            return ((InboxMessage) message).getContentBlocks();
+        }
+        return null;
+    }
+    
+    @Override
+    protected Object withContentBlocks(Object message, List<?> contentBlocks) {
+        @SuppressWarnings("unchecked") // Only ever the blocks of a message like this one.
+        final List<ContentBlock> blocks = (List<ContentBlock>) contentBlocks;
+        if (message instanceof PollResponse) {
+            final PollResponse pr = (PollResponse) message;
+            return new PollResponse(pr.getExtendedHeaders(), pr.getMessageId(), pr.getInResponseTo(), 
+                    pr.getSubscriptionID(), pr.getExclusiveBeginTimestamp(), pr.getInclusiveEndTimestamp(), 
+                    pr.getRecordCount(), pr.getMessage(), blocks, pr.getSignature(), pr.getCollectionName(), 
+                    pr.isMore(), pr.getResultId(), pr.getResultPartNumber());
+        } else if (message instanceof InboxMessage) {
+            final InboxMessage im = (InboxMessage) message;
+            return new InboxMessage(im.getExtendedHeaders(), im.getMessageId(), im.getDestinationCollectionNames(), 
+                    im.getMessage(), im.getSourceSubscription(), im.getRecordCount(), blocks, 
+                    im.getSignature(), im.getResultId());
+        }
+        return super.withContentBlocks(message, contentBlocks);
+    }
+    
+    @Override
+    protected void internStrings(Object target, StringInterner interner) {
+        // Most frequent first: there is one of each per Content Block.
+        if (target instanceof ContentInstanceType) {
+            final ContentInstanceType binding = (ContentInstanceType) target;
+            binding.setBindingId(interner.intern(binding.getBindingId()));
+        } else if (target instanceof SubtypeType) {
+            final SubtypeType subtype = (SubtypeType) target;
+            subtype.setSubtypeId(interner.intern(subtype.getSubtypeId()));
+        } else if (target instanceof ExtendedHeaderType) {
+            final ExtendedHeaderType header = (ExtendedHeaderType) target;
+            header.setName(interner.intern(header.getName()));
+        } else if (target instanceof ContentBindingIDType) {
+            final ContentBindingIDType binding = (ContentBindingIDType) target;
+            binding.setBindingId(interner.intern(binding.getBindingId()));
+        } else if (target instanceof PollResponse) {
+            final PollResponse pr = (PollResponse) target;
+            pr.setCollectionName(interner.intern(pr.getCollectionName()));
+        } else if (target instanceof InboxMessage) {
+            interner.internAll(((InboxMessage) target).getDestinationCollectionNames());
+        } else if (target instanceof PollRequest) {
+            final PollRequest pr = (PollRequest) target;
+            pr.setCollectionName(interner.intern(pr.getCollectionName()));
+        } else if (target instanceof PollFulfillment) {
+            final PollFulfillment pf = (PollFulfillment) target;
+            pf.setCollectionName(interner.intern(pf.getCollectionName()));
+        } else if (target instanceof SourceSubscriptionType) {
+            final SourceSubscriptionType ss = (SourceSubscriptionType) target;
+            ss.setCollectionName(interner.intern(ss.getCollectionName()));
+        } else if (target instanceof CollectionRecordType) {
+            final CollectionRecordType cr = (CollectionRecordType) target;
+            cr.setCollectionName(interner.intern(cr.getCollectionName()));
+        } else if (target instanceof ServiceInstanceType) {
+            final ServiceInstanceType si = (ServiceInstanceType) target;
+            si.setProtocolBinding(interner.intern(si.getProtocolBinding()));
+            si.setServiceVersion(interner.intern(si.getServiceVersion()));
+            interner.internAll(si.getMessageBindings());
+        } else if (target instanceof ServiceContactInfoType) {
+            final ServiceContactInfoType sc = (ServiceContactInfoType) target;
+            sc.setProtocolBinding(interner.intern(sc.getProtocolBinding()));
+            interner.internAll(sc.getMessageBindings());
+        } else if (target instanceof InboxServiceBindingsType) {
+            final InboxServiceBindingsType ib = (InboxServiceBindingsType) target;
+            ib.setProtocolBinding(interner.intern(ib.getProtocolBinding()));
+            interner.internAll(ib.getMessageBindings());
+        } else if (target instanceof PushMethodType) {
+            final PushMethodType pm = (PushMethodType) target;
+            pm.setProtocolBinding(interner.intern(pm.getProtocolBinding()));
+            interner.internAll(pm.getMessageBindings());
+        } else if (target instanceof PushParameterType) {
+            final PushParameterType pp = (PushParameterType) target;
+            pp.setProtocolBinding(interner.intern(pp.getProtocolBinding()));
+            pp.setMessageBinding(interner.intern(pp.getMessageBinding()));
+        } else if (target instanceof StatusDetailDetailType) {
+            final StatusDetailDetailType detail = (StatusDetailDetailType) target;
+            detail.setName(interner.intern(detail.getName()));
+        } else if (target instanceof StatusMessage) {
+            final StatusMessage sm = (StatusMessage) target;
+            sm.setStatusType(interner.intern(sm.getStatusType()));
+        } else if (target instanceof QueryType) {
+            final QueryType query = (QueryType) target;
+            query.setFormatId(interner.intern(query.getFormatId()));
+        } else if (target instanceof SupportedQueryType) {
+            final SupportedQueryType query = (SupportedQueryType) target;
+            query.setFormatId(interner.intern(query.getFormatId()));
+        }
+    }
+    
     public HttpResponseErrorHandler getResponseHandler() {
         return responseHandler;
     }
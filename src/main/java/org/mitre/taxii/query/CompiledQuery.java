@@ -0,0 +1,190 @@
+package org.mitre.taxii.query;
+
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import org.mitre.taxii.messages.xml11.AnyMixedContentType;
+import org.mitre.taxii.messages.xml11.ContentBlock;
+import org.mitre.taxii.util.ParallelChunks;
+import org.w3c.dom.Element;
+
+/**
+ * A TAXII Default Query compiled by a {@link DefaultQueryEngine}, which 
+ * can be evaluated against the content of many Content Blocks. It is 
+ * immutable, so it can be shared between threads.
+ * 
+ * <p>A Content Block matches if its content does. The content is matched 
+ * as XML: the DOM Elements in it, which is how content is read that there
+ * are no JAXB classes for, e.g. STIX. A Targeting Expression is matched 
+ * from each of them. Other content, e.g. text, doesn't match any Criterion
+ * (so a negated one matches it). The DOM is only read, but it must not be
+ * changed while a query is evaluated against it.</p>
+ */
+public final class CompiledQuery {
+    
+    /** A node of the tree a query is compiled into. */
+    static abstract class Node {
+        abstract boolean matches(List<Object> content);
+    }
+    
+    /** Criteria: all (AND) or any (OR) of its children. */
+    static final class Criteria extends Node {
+        private final boolean and;
+        private final Node[] children;
+
+        Criteria(boolean and, List<Node> children) {
+            this.and = and;
+            this.children = children.toArray(new Node[children.size()]);
+        }
+
+        @Override
+        boolean matches(List<Object> content) {
+            for (Node child : children) {
+                if (child.matches(content) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+    }
+    
+    /** A Criterion: whether a node the Target selects passes the Test. */
+    static final class Criterion extends Node {
+        private final Target target;
+        private final Target.ValueTest test;
+        private final boolean negate;
+
+        /**
+         * @param test the test, or null for whether the Target selects anything.
+         */
+        Criterion(Target target, Target.ValueTest test, boolean negate) {
+            this.target = target;
+            this.test = test;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean matches(List<Object> content) {
+            for (Object item : content) {
+                if (item instanceof Element && target.matches((Element) item, test)) {
+                    return !negate;
+                }
+            }
+            return negate;
+        }
+    }
+    
+    /** The fewest Content Blocks evaluated as one task. */
+    private static final int MIN_CHUNK = 64;
+    
+    private final String targetingExpressionId;
+    private final Node root;
+
+    CompiledQuery(String targetingExpressionId, Node root) {
+        this.targetingExpressionId = targetingExpressionId;
+        this.root = root;
+    }
+
+    public String getTargetingExpressionId() {
+        return targetingExpressionId;
+    }
+    
+    /**
+     * Whether the content of a Content Block matches the query.
+     */
+    public boolean matches(ContentBlock block) {
+        final AnyMixedContentType content = block.getContent();
+        return root.matches(null == content ? Collections.<Object>emptyList() : content.getContent());
+    }
+    
+    /**
+     * Whether content, e.g. that of a Content Block, matches the query.
+     */
+    public boolean matches(List<Object> content) {
+        return root.matches(content);
+    }
+    
+    /**
+     * Returns the Content Blocks that match, evaluating them in parallel on
+     * a shared pool with one thread per processor. With a single processor,
+     * they are evaluated on the calling thread.
+     * 
+     * @see #filter(List, ExecutorService)
+     */
+    public List<ContentBlock> filter(List<ContentBlock> blocks) throws InterruptedException {
+        if (Runtime.getRuntime().availableProcessors() == 1) {
+            return filter(blocks, 0, blocks.size());
+        }
+        return filter(blocks, ParallelChunks.getExecutor());
+    }
+    
+    /**
+     * Returns the Content Blocks that match, in order.
+     * 
+     * <p>The blocks are split into a few chunks per processor, and each 
+     * chunk is evaluated as one task. Few blocks are evaluated on the 
+     * calling thread.</p>
+     * 
+     * @param executor
+     *       Runs the tasks. The calling thread waits for them.
+     * @throws InterruptedException 
+     *       If the calling thread is interrupted while waiting. The tasks 
+     *       that hadn't finished are cancelled.
+     */
+    public List<ContentBlock> filter(final List<ContentBlock> blocks, ExecutorService executor) 
+            throws InterruptedException {
+        if (blocks.size() < 2 * MIN_CHUNK) {
+            return filter(blocks, 0, blocks.size());
+        }
+        final List<List<ContentBlock>> chunks = ParallelChunks.invokeAll(blocks.size(), MIN_CHUNK, 
+                new ParallelChunks.Chunk<List<ContentBlock>>() {
+            @Override
+            public List<ContentBlock> call(int from, int to) {
+                return filter(blocks, from, to);
+            }
+        }, executor);
+        final List<ContentBlock> matches = new ArrayList<>();
+        for (List<ContentBlock> chunk : chunks) {
+            matches.addAll(chunk);
+        }
+        return matches;
+    }
+    
+    private List<ContentBlock> filter(List<ContentBlock> blocks, int from, int to) {
+        final List<ContentBlock> matches = new ArrayList<>();
+        for (ContentBlock block : blocks.subList(from, to)) {
+            if (matches(block)) {
+                matches.add(block);
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,463 @@
+package org.mitre.taxii.query;
+
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.xml11.QueryType;
+import org.mitre.taxii.messages.xml11.StatusDetailEnum;
+import org.mitre.taxii.messages.xml11.StatusTypeEnum;
+import org.mitre.taxii.util.Iso8601;
+import org.w3c.dom.Element;
+
+/**
+ * Compiles TAXII Default Queries, e.g. those of Poll Requests, into 
+ * {@link CompiledQuery} objects that can be evaluated against the content
+ * of Content Blocks.
+ * 
+ * <p>The Core, Regex and Timestamp capability modules are supported:</p>
+ * <ul>
+ * <li>Core: equals and not_equals, with a match_type of 
+ * case_sensitive_string, case_insensitive_string or number; greater_than,
+ * greater_than_or_equal, less_than and less_than_or_equal, comparing 
+ * numbers; exists and does_not_exist; begins_with, ends_with and contains,
+ * with case_sensitive true or false.</li>
+ * <li>Regex: matches, true if the regular expression (in 
+ * java.util.regex syntax) matches any part of the value, with 
+ * case_sensitive true or false.</li>
+ * <li>Timestamp: equals, greater_than, greater_than_or_equal, less_than and
+ * less_than_or_equal, comparing xs:dateTime values as instants. A value 
+ * without a time zone is taken to be UTC.</li>
+ * </ul>
+ * <p>A Targeting Expression is a '/' separated path of element names from
+ * the root element of the content, optionally ending in an attribute name 
+ * prefixed with '@', e.g. STIX_Package/Indicators/Indicator/@id. A name of
+ * '*' matches any one element or attribute, and '**' any number of 
+ * elements, including none. Names are matched against local names, 
+ * ignoring namespaces. Other expressions, e.g. ones with prefixed names, 
+ * are unsupported.</p>
+ * 
+ * <p>A Criterion matches if any node its Targeting Expression selects 
+ * passes the Test; for does_not_exist, if it selects none. The value of an
+ * element is its text content. A value that isn't a number, or timestamp, 
+ * doesn't pass a Test that compares them.</p>
+ * 
+ * <p>A query that can't be compiled throws a {@link QueryException} with 
+ * the Status Type to respond with.</p>
+ */
+public final class DefaultQueryEngine {
+    
+    /** The Targeting Expression IDs supported by default: those of STIX XML. */
+    public static final List<String> STIX_TARGETING_EXPRESSION_IDS = Collections.unmodifiableList(Arrays.asList(
+            ContentBindings.CB_STIX_XML_10, ContentBindings.CB_STIX_XML_101, 
+            ContentBindings.CB_STIX_XML_11, ContentBindings.CB_STIX_XML_111));
+    
+    private static final String BAD_MESSAGE = StatusTypeEnum.BAD_MESSAGE.value();
+    
+    /** The relationships of each capability module, but exists and does_not_exist. */
+    private static final Map<String, List<String>> RELATIONSHIPS = new HashMap<>();
+    
+    static {
+        RELATIONSHIPS.put(DefaultQueryXml.CM_CORE, Arrays.asList(
+                DefaultQueryXml.R_EQUALS, DefaultQueryXml.R_NOT_EQUALS, 
+                DefaultQueryXml.R_GREATER_THAN, DefaultQueryXml.R_GREATER_THAN_OR_EQUAL, 
+                DefaultQueryXml.R_LESS_THAN, DefaultQueryXml.R_LESS_THAN_OR_EQUAL, 
+                DefaultQueryXml.R_BEGINS_WITH, DefaultQueryXml.R_ENDS_WITH, DefaultQueryXml.R_CONTAINS));
+        RELATIONSHIPS.put(DefaultQueryXml.CM_REGEX, Arrays.asList(DefaultQueryXml.R_MATCHES));
+        RELATIONSHIPS.put(DefaultQueryXml.CM_TIMESTAMP, Arrays.asList(
+                DefaultQueryXml.R_EQUALS, 
+                DefaultQueryXml.R_GREATER_THAN, DefaultQueryXml.R_GREATER_THAN_OR_EQUAL, 
+                DefaultQueryXml.R_LESS_THAN, DefaultQueryXml.R_LESS_THAN_OR_EQUAL));
+    }
+    
+    private final Set<String> targetingExpressionIds;
+
+    public DefaultQueryEngine() {
+        this(STIX_TARGETING_EXPRESSION_IDS);
+    }
+    
+    /**
+     * @param targetingExpressionIds
+     *          the Targeting Expression IDs to accept. The expressions of 
+     *          all of them are matched as described above.
+     */
+    public DefaultQueryEngine(Collection<String> targetingExpressionIds) {
+        this.targetingExpressionIds = Collections.unmodifiableSet(new LinkedHashSet<>(targetingExpressionIds));
+    }
+
+    public Set<String> getTargetingExpressionIds() {
+        return targetingExpressionIds;
+    }
+    
+    /**
+     * Compiles the query of a Poll Request or Subscription.
+     * 
+     * @throws QueryException 
+     *          with UNSUPPORTED_QUERY if the Query Format isn't TAXII 
+     *          Default Query 1.0, or as {@link #compile(DefaultQuery)}.
+     */
+    public CompiledQuery compile(QueryType query) throws QueryException {
+        if (!DefaultQueryXml.FID_TAXII_DEFAULT_QUERY_10.equals(query.getFormatId())) {
+            throw new QueryException(StatusTypeEnum.UNSUPPORTED_QUERY.value(), 
+                    "Unsupported query format: " + query.getFormatId(), 
+                    StatusDetailEnum.SUPPORTED_QUERY.name(), DefaultQueryXml.FID_TAXII_DEFAULT_QUERY_10);
+        }
+        for (Object child : query.getContent()) {
+            if (child instanceof JAXBElement) {
+                child = ((JAXBElement<?>) child).getValue();
+            }
+            if (child instanceof Element) {
+                // Read without the Default Query classes in the JAXB context.
+                try {
+                    child = QueryContext.CONTEXT.createUnmarshaller().unmarshal((Element) child);
+                } catch (JAXBException e) {
+                    throw new QueryException(BAD_MESSAGE, "Can't read the query: " + e, e);
+                }
+            }
+            if (child instanceof DefaultQuery) {
+                return compile((DefaultQuery) child);
+            }
+        }
+        throw new QueryException(BAD_MESSAGE, "The query has no Default_Query");
+    }
+    
+    /**
+     * Compiles a Default Query.
+     * 
+     * @throws QueryException 
+     *          with DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION_ID, 
+     *          DefaultQueryXml.ST_UNSUPPORTED_CAPABILITY_MODULE or 
+     *          DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION if the query uses what 
+     *          isn't supported, or BAD_MESSAGE if it is malformed.
+     */
+    public CompiledQuery compile(DefaultQuery query) throws QueryException {
+        final String id = query.getTargetingExpressionId();
+        if (!targetingExpressionIds.contains(id)) {
+            throw new QueryException(DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION_ID, 
+                    "Unsupported targeting expression id: " + id, 
+                    DefaultQueryXml.SD_TARGETING_EXPRESSION_ID, targetingExpressionIds.toArray(new String[targetingExpressionIds.size()]));
+        }
+        return new CompiledQuery(id, compile(query.getCriteria()));
+    }
+    
+    private CompiledQuery.Node compile(CriteriaType criteria) throws QueryException {
+        if (null == criteria) {
+            throw new QueryException(BAD_MESSAGE, "Missing Criteria");
+        }
+        final boolean and;
+        if (DefaultQueryXml.OP_AND.equals(criteria.getOperator())) {
+            and = true;
+        } else if (DefaultQueryXml.OP_OR.equals(criteria.getOperator())) {
+            and = false;
+        } else {
+            throw new QueryException(BAD_MESSAGE, "Unknown operator: " + criteria.getOperator());
+        }
+        // A Criterion is usually cheaper to evaluate than nested Criteria.
+        final List<CompiledQuery.Node> children = new ArrayList<>();
+        for (CriterionType criterion : criteria.getCriterions()) {
+            children.add(compile(criterion));
+        }
+        for (CriteriaType child : criteria.getCriterias()) {
+            children.add(compile(child));
+        }
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+        return new CompiledQuery.Criteria(and, children);
+    }
+    
+    private CompiledQuery.Node compile(CriterionType criterion) throws QueryException {
+        final TestType test = criterion.getTest();
+        if (null == test) {
+            throw new QueryException(BAD_MESSAGE, "Missing Test");
+        }
+        final String capability = test.getCapabilityId();
+        if (!DefaultQueryXml.CM_IDS.contains(capability)) {
+            throw new QueryException(DefaultQueryXml.ST_UNSUPPORTED_CAPABILITY_MODULE, 
+                    "Unsupported capability module: " + capability, 
+                    DefaultQueryXml.SD_CAPABILITY_MODULE, DefaultQueryXml.CM_IDS.toArray(new String[DefaultQueryXml.CM_IDS.size()]));
+        }
+        final Target target = Target.compile(criterion.getTarget());
+        final String relationship = test.getRelationship();
+        final Map<String, String> parameters = new HashMap<>();
+        for (ParameterType parameter : test.getParameters()) {
+            parameters.put(parameter.getName(), parameter.getValue());
+        }
+        
+        if (DefaultQueryXml.CM_CORE.equals(capability)) {
+            if (DefaultQueryXml.R_EXISTS.equals(relationship)) {
+                return new CompiledQuery.Criterion(target, null, criterion.isNegate());
+            }
+            if (DefaultQueryXml.R_DOES_NOT_EXIST.equals(relationship)) {
+                return new CompiledQuery.Criterion(target, null, !criterion.isNegate());
+            }
+        }
+        return new CompiledQuery.Criterion(target, compileTest(capability, relationship, parameters), criterion.isNegate());
+    }
+    
+    private static Target.ValueTest compileTest(String capability, String relationship, Map<String, String> parameters) 
+            throws QueryException {
+        if (!RELATIONSHIPS.get(capability).contains(relationship)) {
+            throw new QueryException(BAD_MESSAGE, "Unknown relationship " + relationship + " for " + capability);
+        }
+        final String value = parameter(parameters, DefaultQueryXml.P_VALUE, relationship);
+        if (DefaultQueryXml.CM_CORE.equals(capability)) {
+            switch (relationship) {
+                case DefaultQueryXml.R_EQUALS:
+                case DefaultQueryXml.R_NOT_EQUALS:
+                    final boolean equals = DefaultQueryXml.R_EQUALS.equals(relationship);
+                    final String matchType = parameter(parameters, DefaultQueryXml.P_MATCH_TYPE, relationship);
+                    switch (matchType) {
+                        case DefaultQueryXml.MT_CASE_SENSITIVE_STRING:
+                            return new Target.ValueTest() {
+                                @Override
+                                boolean matches(String v) {
+                                    return v.equals(value) == equals;
+                                }
+                            };
+                        case DefaultQueryXml.MT_CASE_INSENSITIVE_STRING:
+                            return new Target.ValueTest() {
+                                @Override
+                                boolean matches(String v) {
+                                    return v.equalsIgnoreCase(value) == equals;
+                                }
+                            };
+                        case DefaultQueryXml.MT_NUMBER:
+                            return compare(number(value), equals ? Comparison.EQUAL : Comparison.NOT_EQUAL);
+                        default:
+                            throw new QueryException(BAD_MESSAGE, "Unknown match type: " + matchType);
+                    }
+                case DefaultQueryXml.R_GREATER_THAN:
+                case DefaultQueryXml.R_GREATER_THAN_OR_EQUAL:
+                case DefaultQueryXml.R_LESS_THAN:
+                case DefaultQueryXml.R_LESS_THAN_OR_EQUAL:
+                    return compare(number(value), Comparison.of(relationship));
+                case DefaultQueryXml.R_BEGINS_WITH:
+                    if (caseSensitive(parameters, relationship)) {
+                        return new Target.ValueTest() {
+                            @Override
+                            boolean matches(String v) {
+                                return v.startsWith(value);
+                            }
+                        };
+                    }
+                    return new Target.ValueTest() {
+                        @Override
+                        boolean matches(String v) {
+                            return v.regionMatches(true, 0, value, 0, value.length());
+                        }
+                    };
+                case DefaultQueryXml.R_ENDS_WITH:
+                    if (caseSensitive(parameters, relationship)) {
+                        return new Target.ValueTest() {
+                            @Override
+                            boolean matches(String v) {
+                                return v.endsWith(value);
+                            }
+                        };
+                    }
+                    return new Target.ValueTest() {
+                        @Override
+                        boolean matches(String v) {
+                            return v.length() >= value.length() 
+                                    && v.regionMatches(true, v.length() - value.length(), value, 0, value.length());
+                        }
+                    };
+                case DefaultQueryXml.R_CONTAINS:
+                    if (caseSensitive(parameters, relationship)) {
+                        return new Target.ValueTest() {
+                            @Override
+                            boolean matches(String v) {
+                                return v.contains(value);
+                            }
+                        };
+                    }
+                    return find(Pattern.compile(Pattern.quote(value), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+                default:
+                    throw new QueryException(BAD_MESSAGE, "Unknown Core relationship: " + relationship);
+            }
+        }
+        
+        if (DefaultQueryXml.CM_REGEX.equals(capability)) {
+            final int flags = caseSensitive(parameters, relationship) ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            try {
+                return find(Pattern.compile(value, flags));
+            } catch (PatternSyntaxException e) {
+                throw new QueryException(BAD_MESSAGE, "Invalid regular expression: " + value, e);
+            }
+        }
+        
+        // DefaultQueryXml.CM_TIMESTAMP
+        switch (relationship) {
+            case DefaultQueryXml.R_EQUALS:
+            case DefaultQueryXml.R_GREATER_THAN:
+            case DefaultQueryXml.R_GREATER_THAN_OR_EQUAL:
+            case DefaultQueryXml.R_LESS_THAN:
+            case DefaultQueryXml.R_LESS_THAN_OR_EQUAL:
+                final Comparison comparison = DefaultQueryXml.R_EQUALS.equals(relationship) ? Comparison.EQUAL : Comparison.of(relationship);
+                final long timestamp;
+                try {
+                    timestamp = Iso8601.parseEpochNanos(value);
+                } catch (IllegalArgumentException e) {
+                    throw new QueryException(BAD_MESSAGE, "Invalid timestamp: " + value, e);
+                }
+                return new Target.ValueTest() {
+                    @Override
+                    boolean matches(String v) {
+                        final long t;
+                        try {
+                            t = Iso8601.parseEpochNanos(v);
+                        } catch (IllegalArgumentException e) {
+                            return false;
+                        }
+                        return comparison.holds(t < timestamp ? -1 : (t == timestamp ? 0 : 1));
+                    }
+                };
+            default:
+                throw new QueryException(BAD_MESSAGE, "Unknown Timestamp relationship: " + relationship);
+        }
+    }
+    
+    /** How a value compares with the parameter. */
+    private enum Comparison {
+        EQUAL, NOT_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL;
+        
+        static Comparison of(String relationship) {
+            switch (relationship) {
+                case DefaultQueryXml.R_GREATER_THAN:
+                    return GREATER_THAN;
+                case DefaultQueryXml.R_GREATER_THAN_OR_EQUAL:
+                    return GREATER_THAN_OR_EQUAL;
+                case DefaultQueryXml.R_LESS_THAN:
+                    return LESS_THAN;
+                default:
+                    return LESS_THAN_OR_EQUAL;
+            }
+        }
+        
+        /** @param c the sign of the value compared to the parameter. */
+        boolean holds(int c) {
+            switch (this) {
+                case EQUAL:
+                    return c == 0;
+                case NOT_EQUAL:
+                    return c != 0;
+                case GREATER_THAN:
+                    return c > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return c >= 0;
+                case LESS_THAN:
+                    return c < 0;
+                default:
+                    return c <= 0;
+            }
+        }
+    }
+    
+    private static Target.ValueTest compare(final BigDecimal number, final Comparison comparison) {
+        return new Target.ValueTest() {
+            @Override
+            boolean matches(String v) {
+                final BigDecimal n;
+                try {
+                    n = new BigDecimal(v.trim());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return comparison.holds(n.compareTo(number));
+            }
+        };
+    }
+    
+    private static Target.ValueTest find(final Pattern pattern) {
+        return new Target.ValueTest() {
+            @Override
+            boolean matches(String v) {
+                return pattern.matcher(v).find();
+            }
+        };
+    }
+    
+    private static String parameter(Map<String, String> parameters, String name, String relationship) 
+            throws QueryException {
+        final String value = parameters.get(name);
+        if (null == value) {
+            throw new QueryException(BAD_MESSAGE, "Missing parameter " + name + " for " + relationship);
+        }
+        return value;
+    }
+    
+    private static BigDecimal number(String value) throws QueryException {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            throw new QueryException(BAD_MESSAGE, "Invalid number: " + value, e);
+        }
+    }
+    
+    private static boolean caseSensitive(Map<String, String> parameters, String relationship) throws QueryException {
+        final String value = parameter(parameters, DefaultQueryXml.P_CASE_SENSITIVE, relationship).trim();
+        if ("true".equals(value) || "1".equals(value)) {
+            return true;
+        }
+        if ("false".equals(value) || "0".equals(value)) {
+            return false;
+        }
+        throw new QueryException(BAD_MESSAGE, "Invalid boolean for " + DefaultQueryXml.P_CASE_SENSITIVE + ": " + value);
+    }
+    
+    /**
+     * Holds a JAXBContext for reading Default Queries held as DOM, so that 
+     * it is only created if it is needed.
+     */
+    private static final class QueryContext {
+        static final JAXBContext CONTEXT = newContext();
+        
+        private static JAXBContext newContext() {
+            try {
+                return JAXBContext.newInstance(DefaultQuery.class.getPackage().getName());
+            } catch (JAXBException e) {
+                throw new RuntimeException("Deployment error", e);
+            }
+        }
+    }
+}
@@ -95,7 +95,55 @@ public final class DefaultQueryXml {
     public static final String ST_UNSUPPORTED_TARGETING_EXPRESSION = "UNSUPPORTED_TARGETING_EXPRESSION";
     /** Status Type indicating an unsupported targeting expression id */
     public static final String ST_UNSUPPORTED_TARGETING_EXPRESSION_ID = "UNSUPPORTED_TARGETING_EXPRESSION_ID";
-    
+
+    // Status Detail names
+    /** Status Detail listing a supported capability module */
+    public static final String SD_CAPABILITY_MODULE = "CAPABILITY_MODULE";
+    /** Status Detail listing a supported targeting expression id */
+    public static final String SD_TARGETING_EXPRESSION_ID = "TARGETING_EXPRESSION_ID";
+
+    // Relationships
+    /** Relationship equals (Core and Timestamp) */
+    public static final String R_EQUALS = "equals";
+    /** Relationship not_equals (Core) */
+    public static final String R_NOT_EQUALS = "not_equals";
+    /** Relationship greater_than (Core and Timestamp) */
+    public static final String R_GREATER_THAN = "greater_than";
+    /** Relationship greater_than_or_equal (Core and Timestamp) */
+    public static final String R_GREATER_THAN_OR_EQUAL = "greater_than_or_equal";
+    /** Relationship less_than (Core and Timestamp) */
+    public static final String R_LESS_THAN = "less_than";
+    /** Relationship less_than_or_equal (Core and Timestamp) */
+    public static final String R_LESS_THAN_OR_EQUAL = "less_than_or_equal";
+    /** Relationship does_not_exist (Core) */
+    public static final String R_DOES_NOT_EXIST = "does_not_exist";
+    /** Relationship exists (Core) */
+    public static final String R_EXISTS = "exists";
+    /** Relationship begins_with (Core) */
+    public static final String R_BEGINS_WITH = "begins_with";
+    /** Relationship ends_with (Core) */
+    public static final String R_ENDS_WITH = "ends_with";
+    /** Relationship contains (Core) */
+    public static final String R_CONTAINS = "contains";
+    /** Relationship matches (Regex) */
+    public static final String R_MATCHES = "matches";
+
+    // Parameters
+    /** Parameter holding the value to compare with */
+    public static final String P_VALUE = "value";
+    /** Parameter holding how values are compared by equals and not_equals */
+    public static final String P_MATCH_TYPE = "match_type";
+    /** Parameter holding whether string comparisons are case sensitive */
+    public static final String P_CASE_SENSITIVE = "case_sensitive";
+
+    // Match types
+    /** Match type for case sensitive string comparison */
+    public static final String MT_CASE_SENSITIVE_STRING = "case_sensitive_string";
+    /** Match type for case insensitive string comparison */
+    public static final String MT_CASE_INSENSITIVE_STRING = "case_insensitive_string";
+    /** Match type for numeric comparison */
+    public static final String MT_NUMBER = "number";
+
     private final JAXBContext jaxbContext;
     private final Schema defaultQuerySchema;
     
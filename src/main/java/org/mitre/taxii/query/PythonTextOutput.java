@@ -5,96 +5,153 @@
  */
 package org.mitre.taxii.query;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
+ * The libtaxii to_text() output of the Default Query classes. Like
+ * org.mitre.taxii.messages.xml11.PythonTextOutput, which calls it for the
+ * content of Queries, it looks up a Renderer by class.
  *
  * @author jasenj1
  */
 public class PythonTextOutput {
     private static final String STD_INDENT = "  "; // A "Standard Indent" to use for to_text() methods
-    
+
     public static String toText(Object obj) {
-        return toText(obj,"");        
+        return toText(obj,"");
     }
 
     public static String toText(Object obj, String line_prepend) {
-        String s = new String();
+        StringBuilder sb = new StringBuilder();
+        try {
+            toText(obj, line_prepend, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A StringBuilder doesn't throw.
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the text of toText(obj, line_prepend) to an Appendable.
+     */
+    public static void toText(Object obj, String line_prepend, Appendable out) throws IOException {
         if (null == line_prepend) {
             line_prepend = "";
         }
-        
-        if (obj instanceof DefaultQuery) {
-            DefaultQuery self = (DefaultQuery)obj;
-            // The opening line is rendered by taxii.messages.xml11's PythonOutputText.
-            // s = super(DefaultQuery, self).to_text(line_prepend)
-            s += line_prepend + String.format("  Targeting Expression ID: %s\n", self.getTargetingExpressionId());
-            s += toText(self.getCriteria(), line_prepend);
-            
-            return s;
+        rendererFor(obj.getClass()).render(obj, line_prepend, out);
+    }
+
+    /**
+     * Writes the text of one Default Query class.
+     */
+    private static abstract class Renderer {
+        abstract void render(Object obj, String line_prepend, Appendable out) throws IOException;
+    }
+
+    private static final Map<Class<?>, Renderer> RENDERERS = new HashMap<>();
+
+    private static final Renderer UNKNOWN = new Renderer() {
+        @Override
+        void render(Object obj, String line_prepend, Appendable out) throws IOException {
+            out.append("Sorry, I do not know how to render a ").append(obj.getClass().getName());
         }
-        
-        if (obj instanceof CriteriaType) {
-            CriteriaType self = (CriteriaType)obj;
-            s = line_prepend + "=== Criteria ===\n";
-            s += line_prepend + String.format("  Operator: %s\n", self.getOperator());
-            for (CriteriaType criteria : self.getCriterias()) {
-                s += toText(criteria, line_prepend + STD_INDENT);
-            }
-            for (CriterionType criterion : self.getCriterions()) {
-                s += toText(criterion, line_prepend + STD_INDENT);
+    };
+
+    /**
+     * The Renderer of a class, or of its nearest superclass that has one.
+     */
+    private static Renderer rendererFor(Class<?> type) {
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            Renderer r = RENDERERS.get(c);
+            if (null != r) {
+                return r;
             }
-            return s;            
-        }
-        
-        if (obj instanceof CriterionType) {
-            CriterionType self = (CriterionType)obj;
-
-            s = line_prepend + "=== Criterion ===\n";
-            s += line_prepend + String.format("  Negate: %s\n", booleanString(self.isNegate()));
-            s += line_prepend + String.format("  Target: %s\n", self.getTarget());
-            s += toText(self.getTest(), line_prepend + STD_INDENT);
-            return s;            
         }
-        
-        if (obj instanceof TestType) {
-            TestType self = (TestType)obj;
-
-            s = line_prepend + "=== Test ==\n";
-            s += line_prepend + String.format("  Capability ID: %s\n", self.getCapabilityId());
-            s += line_prepend + String.format("  Relationship: %s\n", self.getRelationship());            
-            for (ParameterType parameter : self.getParameters()) {
-                s += line_prepend + String.format("  Parameter: %s = %s\n", parameter.getName(), parameter.getValue());
+        return UNKNOWN;
+    }
+
+    static {
+        RENDERERS.put(DefaultQuery.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out) throws IOException {
+                DefaultQuery self = (DefaultQuery) obj;
+                // The opening line is rendered by taxii.messages.xml11's PythonOutputText.
+                // s = super(DefaultQuery, self).to_text(line_prepend)
+                line(out, line_prepend, "  Targeting Expression ID: ", self.getTargetingExpressionId());
+                toText(self.getCriteria(), line_prepend, out);
             }
-            return s;            
-        }
-        
-        if (obj instanceof TargetingExpressionInfoType) {
-            TargetingExpressionInfoType self = (TargetingExpressionInfoType)obj;
-            
-            s = line_prepend + "=== Targeting Expression Info ===\n";
-            s += line_prepend + String.format("  Targeting Expression ID: %s\n", self.getTargetingExpressionId());
-            for (String scope : self.getPreferredScopes()) {
-                s += line_prepend + String.format("  Preferred Scope: %s\n",scope);
+        });
+
+        RENDERERS.put(CriteriaType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out) throws IOException {
+                CriteriaType self = (CriteriaType) obj;
+                out.append(line_prepend).append("=== Criteria ===\n");
+                line(out, line_prepend, "  Operator: ", self.getOperator());
+                for (CriteriaType criteria : self.getCriterias()) {
+                    toText(criteria, line_prepend + STD_INDENT, out);
+                }
+                for (CriterionType criterion : self.getCriterions()) {
+                    toText(criterion, line_prepend + STD_INDENT, out);
+                }
             }
-            for (String scope : self.getAllowedScopes()) {
-                s += line_prepend + String.format("  Allowed Scope: %s\n",scope);
+        });
+
+        RENDERERS.put(CriterionType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out) throws IOException {
+                CriterionType self = (CriterionType) obj;
+                out.append(line_prepend).append("=== Criterion ===\n");
+                line(out, line_prepend, "  Negate: ", booleanString(self.isNegate()));
+                line(out, line_prepend, "  Target: ", self.getTarget());
+                toText(self.getTest(), line_prepend + STD_INDENT, out);
             }
-            return s;            
-        }
+        });
+
+        RENDERERS.put(TestType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out) throws IOException {
+                TestType self = (TestType) obj;
+                out.append(line_prepend).append("=== Test ==\n");
+                line(out, line_prepend, "  Capability ID: ", self.getCapabilityId());
+                line(out, line_prepend, "  Relationship: ", self.getRelationship());
+                for (ParameterType parameter : self.getParameters()) {
+                    out.append(line_prepend).append("  Parameter: ").append(parameter.getName())
+                            .append(" = ").append(parameter.getValue()).append('\n');
+                }
+            }
+        });
+
+        RENDERERS.put(TargetingExpressionInfoType.class, new Renderer() {
+            @Override
+            void render(Object obj, String line_prepend, Appendable out) throws IOException {
+                TargetingExpressionInfoType self = (TargetingExpressionInfoType) obj;
+                out.append(line_prepend).append("=== Targeting Expression Info ===\n");
+                line(out, line_prepend, "  Targeting Expression ID: ", self.getTargetingExpressionId());
+                for (String scope : self.getPreferredScopes()) {
+                    line(out, line_prepend, "  Preferred Scope: ", scope);
+                }
+                for (String scope : self.getAllowedScopes()) {
+                    line(out, line_prepend, "  Allowed Scope: ", scope);
+                }
+            }
+        });
+    }
+
+    private static void line(Appendable out, String line_prepend, String label, String value) throws IOException {
+        out.append(line_prepend).append(label).append(value).append('\n');
+    }
 
-        if (s.isEmpty()) {
-            s = "Sorry, I do not know how to render a " + obj.getClass().getName();
-        }
-        return s;        
-    }   
-    
     /**
      * Turn a Boolean into a Python string representation.
-     * 
+     *
      * @ return "None", "True", or "False".
      */
     private static String booleanString(Boolean value) {
-        if (null == value) return "None";        
+        if (null == value) return "None";
         return value ? "True" : "False";
     }
-    
+
 }
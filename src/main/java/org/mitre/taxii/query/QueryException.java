@@ -0,0 +1,119 @@
+package org.mitre.taxii.query;
+
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.mitre.taxii.messages.xml11.ObjectFactory;
+import org.mitre.taxii.messages.xml11.StatusDetailType;
+import org.mitre.taxii.messages.xml11.StatusMessage;
+
+/**
+ * Thrown when a query can't be compiled, with the Status Type a TAXII
+ * service responds with: one of the DefaultQueryXml.ST_UNSUPPORTED_* types,
+ * UNSUPPORTED_QUERY for a Query Format other than TAXII Default Query, or
+ * BAD_MESSAGE for a query that is malformed, e.g. one missing a parameter.
+ */
+public class QueryException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String statusType;
+    private final String detailName;
+    private final List<String> detailValues;
+
+    public QueryException(String statusType, String message) {
+        this(statusType, message, (String) null);
+    }
+
+    /**
+     * @param detailName
+     *          the name of the Status Detail listing what is supported,
+     *          e.g. DefaultQueryXml.SD_CAPABILITY_MODULE, or null.
+     * @param detailValues
+     *          what is supported.
+     */
+    public QueryException(String statusType, String message, String detailName, String... detailValues) {
+        super(message);
+        this.statusType = statusType;
+        this.detailName = detailName;
+        this.detailValues = Collections.unmodifiableList(Arrays.asList(detailValues));
+    }
+
+    public QueryException(String statusType, String message, Throwable cause) {
+        super(message, cause);
+        this.statusType = statusType;
+        this.detailName = null;
+        this.detailValues = Collections.emptyList();
+    }
+
+    /**
+     * The Status Type to respond with.
+     */
+    public String getStatusType() {
+        return statusType;
+    }
+
+    /**
+     * The name of the Status Detail listing what is supported, or null.
+     */
+    public String getDetailName() {
+        return detailName;
+    }
+
+    /**
+     * The values of the Status Detail, one Detail each.
+     */
+    public List<String> getDetailValues() {
+        return detailValues;
+    }
+
+    /**
+     * Creates a Status Message reporting this exception, with the Status
+     * Type, the Status Details and the message of the exception. As with
+     * StatusMessageHelper, the message id and in response to are left for
+     * the caller to set.
+     */
+    public StatusMessage toStatusMessage() {
+        final ObjectFactory factory = new ObjectFactory();
+        final StatusMessage sm = factory.createStatusMessage()
+                .withStatusType(statusType)
+                .withMessage(getMessage());
+        if (null != detailName && !detailValues.isEmpty()) {
+            final StatusDetailType details = factory.createStatusDetailType();
+            for (String value : detailValues) {
+                details.getDetails().add(factory.createStatusDetailDetailType()
+                        .withName(detailName)
+                        .withContent(value));
+            }
+            sm.setStatusDetail(details);
+        }
+        return sm;
+    }
+}
@@ -0,0 +1,252 @@
+package org.mitre.taxii.query;
+
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A compiled Targeting Expression: a '/' separated path of element names 
+ * from the root element of the content, optionally ending in an attribute
+ * name prefixed with '@'. A name of '*' matches any one element (or, after
+ * '@', any attribute), and '**' matches any number of elements, including 
+ * none. Names are matched against local names, ignoring namespaces, e.g.
+ * STIX_Package/Indicators/Indicator/@id or **&#47;Title.
+ * 
+ * <p>Expressions without '**' are matched by walking down from the root, 
+ * stopping at the first node that passes; the others are evaluated a step
+ * at a time over the set of nodes each step selects, so that no node is 
+ * visited more than once a step.</p>
+ */
+final class Target {
+    
+    /** What the value of a targeted node must pass. */
+    static abstract class ValueTest {
+        abstract boolean matches(String value);
+    }
+    
+    private static final String ANY = "*";
+    private static final String DESCENDANTS = "**";
+    
+    /** A name: no whitespace or separators, and no namespace prefix. */
+    private static final Pattern NAME = Pattern.compile("[^\\s/@:*\\[\\]()='\"]+");
+    
+    private final String expression;
+    private final String[] steps;
+    /** The attribute the expression ends with, ANY, or null. */
+    private final String attribute;
+    private final boolean descendants;
+
+    private Target(String expression, String[] steps, String attribute, boolean descendants) {
+        this.expression = expression;
+        this.steps = steps;
+        this.attribute = attribute;
+        this.descendants = descendants;
+    }
+    
+    /**
+     * @throws QueryException 
+     *          with DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION if 
+     *          the expression isn't one this class supports.
+     */
+    static Target compile(String expression) throws QueryException {
+        if (null == expression || expression.isEmpty()) {
+            throw unsupported(expression);
+        }
+        final String[] parts = expression.split("/", -1);
+        final List<String> steps = new ArrayList<>(parts.length);
+        String attribute = null;
+        boolean descendants = false;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.startsWith("@") && i == parts.length - 1) {
+                attribute = part.substring(1);
+                if (!ANY.equals(attribute) && !NAME.matcher(attribute).matches()) {
+                    throw unsupported(expression);
+                }
+            } else if (DESCENDANTS.equals(part)) {
+                if (!descendants || !DESCENDANTS.equals(steps.get(steps.size() - 1))) {
+                    steps.add(DESCENDANTS); // "**/**" is the same as "**".
+                }
+                descendants = true;
+            } else if (ANY.equals(part) || NAME.matcher(part).matches()) {
+                steps.add(part);
+            } else {
+                throw unsupported(expression);
+            }
+        }
+        if (steps.isEmpty()) { // Just an attribute.
+            throw unsupported(expression);
+        }
+        return new Target(expression, steps.toArray(new String[steps.size()]), attribute, descendants);
+    }
+    
+    private static QueryException unsupported(String expression) {
+        return new QueryException(DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION, 
+                "Unsupported targeting expression: " + expression);
+    }
+    
+    /**
+     * Whether any node the expression selects under the root passes the 
+     * test, or, with a null test, whether it selects any.
+     */
+    boolean matches(Element root, ValueTest test) {
+        if (!descendants) {
+            return walk(root, 0, test);
+        }
+        Set<Element> current = Collections.singleton(root);
+        for (int step = 0; step < steps.length; step++) {
+            final boolean last = step == steps.length - 1;
+            final Set<Element> selected = newSet();
+            if (DESCENDANTS.equals(steps[step])) {
+                for (Element e : current) {
+                    addDescendants(e, selected);
+                }
+            } else {
+                for (Element e : current) {
+                    if (nameMatches(steps[step], e)) {
+                        selected.add(e);
+                    }
+                }
+            }
+            if (last) {
+                for (Element e : selected) {
+                    if (selects(e, test)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (DESCENDANTS.equals(steps[step])) {
+                current = selected; // "**" can match no elements, so the next step applies to these.
+            } else {
+                current = newSet();
+                for (Element e : selected) {
+                    for (Element child = firstChild(e); null != child; child = nextSibling(child)) {
+                        current.add(child);
+                    }
+                }
+            }
+            if (current.isEmpty()) {
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    /** The fast path, for expressions without "**". */
+    private boolean walk(Element e, int step, ValueTest test) {
+        if (!nameMatches(steps[step], e)) {
+            return false;
+        }
+        if (step == steps.length - 1) {
+            return selects(e, test);
+        }
+        for (Element child = firstChild(e); null != child; child = nextSibling(child)) {
+            if (walk(child, step + 1, test)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /** Whether the element, or the attribute of it the expression ends with, passes. */
+    private boolean selects(Element e, ValueTest test) {
+        if (null == attribute) {
+            return null == test || test.matches(e.getTextContent());
+        }
+        final NamedNodeMap attributes = e.getAttributes();
+        for (int i = 0, n = attributes.getLength(); i < n; i++) {
+            final Attr a = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(a.getNamespaceURI())) {
+                continue;
+            }
+            if ((ANY.equals(attribute) || attribute.equals(localName(a))) 
+                    && (null == test || test.matches(a.getValue()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean nameMatches(String step, Element e) {
+        return ANY.equals(step) || step.equals(localName(e));
+    }
+    
+    private static String localName(Node node) {
+        final String localName = node.getLocalName();
+        if (null != localName) {
+            return localName;
+        }
+        // Built without namespace support.
+        final String name = node.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+    
+    private static void addDescendants(Element e, Set<Element> set) {
+        if (set.add(e)) {
+            for (Element child = firstChild(e); null != child; child = nextSibling(child)) {
+                addDescendants(child, set);
+            }
+        }
+    }
+    
+    private static Set<Element> newSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+    }
+    
+    private static Element firstChild(Node node) {
+        Node child = node.getFirstChild();
+        while (null != child && Node.ELEMENT_NODE != child.getNodeType()) {
+            child = child.getNextSibling();
+        }
+        return (Element) child;
+    }
+    
+    private static Element nextSibling(Node node) {
+        Node sibling = node.getNextSibling();
+        while (null != sibling && Node.ELEMENT_NODE != sibling.getNodeType()) {
+            sibling = sibling.getNextSibling();
+        }
+        return (Element) sibling;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
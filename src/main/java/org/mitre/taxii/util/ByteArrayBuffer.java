@@ -0,0 +1,121 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A ByteArrayOutputStream whose bytes can be used without copying them, 
+ * and that can be reset and pooled with an {@link ObjectPool}. Not thread 
+ * safe, unlike ByteArrayOutputStream; a buffer is used by one thread at a 
+ * time.
+ */
+public final class ByteArrayBuffer extends ByteArrayOutputStream {
+
+    /** Buffers that have grown larger than this aren't worth keeping. */
+    public static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+    public ByteArrayBuffer(int size) {
+        super(size);
+    }
+
+    /**
+     * @return the array holding the bytes, from 0 to {@link #size()}. It 
+     *          is replaced when the buffer grows.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return a copy of the bytes, trimmed to their length.
+     */
+    @Override
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[count];
+        System.arraycopy(buf, 0, bytes, 0, count);
+        return bytes;
+    }
+
+    @Override
+    public void write(int b) {
+        if (count == buf.length) {
+            grow(count + 1);
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len > buf.length - count) {
+            grow(count + len);
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Writes all the bytes to the channel, which may take several writes 
+     * for a non-blocking channel.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(buf, 0, count);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * @return true if the buffer is small enough to keep in a pool.
+     */
+    public boolean isPoolable() {
+        return buf.length <= MAX_POOLED_CAPACITY;
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError();
+        }
+        int capacity = buf.length << 1;
+        if (capacity < minCapacity) {
+            capacity = minCapacity;
+        }
+        final byte[] grown = new byte[capacity];
+        System.arraycopy(buf, 0, grown, 0, count);
+        buf = grown;
+    }
+}
@@ -0,0 +1,92 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Reads timestamps and integers from the generated classes whichever 
+ * binding profile they were generated with: XMLGregorianCalendar and 
+ * BigInteger by default, or long with the "primitive" profile.
+ * 
+ * Code that works with both takes the value as an Object, e.g. 
+ * {@code Datatypes.epochNanos(pollRequest.getExclusiveBeginTimestamp())}.
+ */
+public final class Datatypes {
+    
+    // prevent construction of utility class
+    private Datatypes() {
+    }
+    
+    /**
+     * @param timestamp an XMLGregorianCalendar, or epoch nanoseconds.
+     * @return nanoseconds since the epoch.
+     * @throws IllegalArgumentException if the timestamp isn't one of those, 
+     *          or is out of range.
+     */
+    public static long epochNanos(Object timestamp) {
+        if (timestamp instanceof Number) {
+            return ((Number) timestamp).longValue();
+        } else if (timestamp instanceof XMLGregorianCalendar) {
+            final XMLGregorianCalendar cal = (XMLGregorianCalendar) timestamp;
+            final BigDecimal fraction = cal.getFractionalSecond();
+            final int timezone = cal.getTimezone();
+            return Iso8601.toEpochNanos(cal.getYear(), cal.getMonth(), cal.getDay(), 
+                    cal.getHour(), cal.getMinute(), cal.getSecond(), 
+                    (null == fraction) ? 0 : fraction.movePointRight(9).intValue(),
+                    (DatatypeConstants.FIELD_UNDEFINED == timezone) ? 0 : timezone);
+        }
+        throw new IllegalArgumentException("Not a timestamp: " + timestamp);
+    }
+    
+    /**
+     * @param timestamp an XMLGregorianCalendar, or epoch nanoseconds.
+     * @return the timestamp as an xs:dateTime.
+     */
+    public static String xmlFormat(Object timestamp) {
+        if (timestamp instanceof XMLGregorianCalendar) {
+            return ((XMLGregorianCalendar) timestamp).toXMLFormat();
+        }
+        return Iso8601.printEpochNanos(epochNanos(timestamp));
+    }
+    
+    /**
+     * Compares an integer, a BigInteger or a long, with a long.
+     */
+    public static int compare(Object number, long value) {
+        if (number instanceof BigInteger) {
+            return ((BigInteger) number).compareTo(BigInteger.valueOf(value));
+        }
+        final long n = ((Number) number).longValue();
+        return (n < value) ? -1 : ((n == value) ? 0 : 1);
+    }
+}
@@ -0,0 +1,226 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventLocator;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * One warning, error, or fatal error found by validation.
+ * 
+ * The text of a diagnostic is only formatted when it is asked for, so
+ * results that nobody reads cost little more than the events they hold.
+ */
+public final class Diagnostic {
+    
+    public enum Severity {
+        WARNING, ERROR, FATAL_ERROR
+    }
+    
+    private final Severity severity;
+    /** A SAXParseException, a ValidationEvent, or the message itself. */
+    private final Object source;
+    /** Where in the message the problem is, e.g. Content_Block[3], or null. */
+    private final String path;
+    /** The XPath test that failed, for conformance errors, or null. */
+    private final String xpath;
+    /** Formatted on first use. */
+    private String text;
+
+    private Diagnostic(Severity severity, Object source, String path, String xpath) {
+        this.severity = severity;
+        this.source = source;
+        this.path = path;
+        this.xpath = xpath;
+    }
+    
+    /* ======================
+     * factory methods
+     */
+
+    public static Diagnostic of(Severity severity, String message) {
+        return new Diagnostic(severity, message, null, null);
+    }
+
+    public static Diagnostic of(Severity severity, SAXParseException e) {
+        return new Diagnostic(severity, e, null, null);
+    }
+
+    /**
+     * A SAX error found at the given path within the message, e.g. Content_Block[3].
+     */
+    public static Diagnostic of(Severity severity, SAXParseException e, String path) {
+        return new Diagnostic(severity, e, path, null);
+    }
+
+    /**
+     * A JAXB event. Its severity is the event's.
+     */
+    public static Diagnostic of(ValidationEvent e) {
+        final Severity severity;
+        switch (e.getSeverity()) {
+            case ValidationEvent.WARNING:
+                severity = Severity.WARNING;
+                break;
+            case ValidationEvent.ERROR:
+                severity = Severity.ERROR;
+                break;
+            case ValidationEvent.FATAL_ERROR:
+                severity = Severity.FATAL_ERROR;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported ValidationEvent severity: " + e.getSeverity());
+        }
+        return new Diagnostic(severity, e, null, null);
+    }
+
+    /**
+     * A failed conformance assertion.
+     * 
+     * @param message the text of the assertion.
+     * @param xpath the XPath test of the assertion.
+     */
+    public static Diagnostic conformance(String message, String xpath) {
+        return new Diagnostic(Severity.ERROR, message, null, xpath);
+    }
+
+    /* ===============
+     * accessors
+     */
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    /**
+     * @return the SAXParseException or ValidationEvent reported, or null.
+     */
+    public Object getSource() {
+        return (source instanceof String) ? null : source;
+    }
+
+    /**
+     * @return the message, without location.
+     */
+    public String getMessage() {
+        if (source instanceof SAXParseException) {
+            return ((SAXParseException) source).getMessage();
+        } else if (source instanceof ValidationEvent) {
+            return ((ValidationEvent) source).getMessage();
+        }
+        return (String) source;
+    }
+
+    /**
+     * @return the XML Schema constraint that failed, e.g. cvc-complex-type.2.4.a, 
+     *          or null if it isn't known.
+     */
+    public String getRuleId() {
+        final String message = getMessage();
+        if (null == message || !message.startsWith("cvc-")) {
+            return null;
+        }
+        final int end = message.indexOf(':');
+        return (end < 0) ? null : message.substring(0, end);
+    }
+
+    /**
+     * @return the XPath test that failed, for conformance errors, or null.
+     */
+    public String getXPath() {
+        return xpath;
+    }
+
+    /**
+     * @return where in the message the problem is, e.g. Content_Block[3], 
+     *          or null if it isn't known.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getSystemId() {
+        if (source instanceof SAXParseException) {
+            return ((SAXParseException) source).getSystemId();
+        }
+        final ValidationEventLocator locator = getLocator();
+        return (null == locator || null == locator.getURL()) ? null : locator.getURL().toExternalForm();
+    }
+
+    /**
+     * @return the line number, or -1 if it isn't known.
+     */
+    public int getLineNumber() {
+        if (source instanceof SAXParseException) {
+            return ((SAXParseException) source).getLineNumber();
+        }
+        final ValidationEventLocator locator = getLocator();
+        return (null == locator) ? -1 : locator.getLineNumber();
+    }
+
+    /**
+     * @return the column number, or -1 if it isn't known.
+     */
+    public int getColumnNumber() {
+        if (source instanceof SAXParseException) {
+            return ((SAXParseException) source).getColumnNumber();
+        }
+        final ValidationEventLocator locator = getLocator();
+        return (null == locator) ? -1 : locator.getColumnNumber();
+    }
+
+    private ValidationEventLocator getLocator() {
+        return (source instanceof ValidationEvent) ? ((ValidationEvent) source).getLocator() : null;
+    }
+
+    /**
+     * @return the diagnostic formatted as Validation has always reported it.
+     */
+    @Override
+    public String toString() {
+        String result = text;
+        if (null == result) {
+            if (source instanceof SAXParseException) {
+                result = Validation.formatException((SAXParseException) source);
+            } else if (source instanceof ValidationEvent) {
+                result = ValidationErrorHandler.formatEvent((ValidationEvent) source);
+            } else if (null != xpath) {
+                result = source + " (" + xpath + ")";
+            } else {
+                result = (String) source;
+            }
+            if (null != path) {
+                result = path + ": " + result;
+            }
+            text = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+/**
+ * Parses and formats xs:dateTime values as nanoseconds since the epoch 
+ * (1970-01-01T00:00:00Z), without going through XMLGregorianCalendar.
+ * 
+ * <p>
+ * A long holds instants from 1677 to 2262, which covers any timestamp a 
+ * TAXII message is likely to carry; values outside that range are 
+ * rejected. A value without a time zone is taken to be UTC. Fractional 
+ * seconds beyond nanoseconds are truncated.
+ * </p>
+ * <p>
+ * {@link #parseEpochNanos(String)} and {@link #printEpochNanos(long)} are 
+ * the parse and print methods of the "primitive" binding profile (see
+ * src/main/resources/binding-profiles/primitive/binding.xjb), which binds 
+ * xs:dateTime to long.
+ * </p>
+ */
+public final class Iso8601 {
+    
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long SECONDS_PER_DAY = 86400L;
+    
+    // prevent construction of utility class
+    private Iso8601() {
+    }
+    
+    /**
+     * Parse an xs:dateTime, e.g. 2014-12-19T00:00:00.123456Z.
+     * 
+     * @return nanoseconds since the epoch.
+     * @throws IllegalArgumentException if the value isn't an xs:dateTime, or is out of range.
+     */
+    public static long parseEpochNanos(String lexical) {
+        final String s = lexical.trim();
+        final int length = s.length();
+        int i = 0;
+        final boolean negativeYear = (length > 0 && s.charAt(0) == '-');
+        if (negativeYear) {
+            i++;
+        }
+        final int yearStart = i;
+        while (i < length && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i - yearStart < 4 || i - yearStart > 9 
+                || (i - yearStart > 4 && s.charAt(yearStart) == '0')) {
+            throw invalid(lexical);
+        }
+        final int year = (negativeYear ? -1 : 1) * Integer.parseInt(s.substring(yearStart, i));
+        i = expect(s, i, '-', lexical);
+        final int month = digits(s, i, 2, lexical);
+        i = expect(s, i + 2, '-', lexical);
+        final int day = digits(s, i, 2, lexical);
+        i = expect(s, i + 2, 'T', lexical);
+        final int hour = digits(s, i, 2, lexical);
+        i = expect(s, i + 2, ':', lexical);
+        final int minute = digits(s, i, 2, lexical);
+        i = expect(s, i + 2, ':', lexical);
+        final int second = digits(s, i, 2, lexical);
+        i += 2;
+        int nano = 0;
+        if (i < length && s.charAt(i) == '.') {
+            i++;
+            final int fractionStart = i;
+            while (i < length && isDigit(s.charAt(i))) {
+                if (i - fractionStart < 9) {
+                    nano = nano * 10 + (s.charAt(i) - '0');
+                }
+                i++;
+            }
+            if (i == fractionStart) {
+                throw invalid(lexical);
+            }
+            for (int digits = i - fractionStart; digits < 9; digits++) {
+                nano *= 10;
+            }
+        }
+        int offsetMinutes = 0;
+        if (i < length) {
+            final char sign = s.charAt(i);
+            if (sign == 'Z' && i + 1 == length) {
+                i++;
+            } else if ((sign == '+' || sign == '-') && i + 6 == length) {
+                final int offsetHours = digits(s, i + 1, 2, lexical);
+                expect(s, i + 3, ':', lexical);
+                offsetMinutes = offsetHours * 60 + digits(s, i + 4, 2, lexical);
+                if (offsetHours > 14 || offsetMinutes > 14 * 60) {
+                    throw invalid(lexical);
+                }
+                if (sign == '-') {
+                    offsetMinutes = -offsetMinutes;
+                }
+            } else {
+                throw invalid(lexical);
+            }
+        }
+        if (year == 0 || hour == 24 && (minute != 0 || second != 0 || nano != 0)) {
+            throw invalid(lexical);
+        }
+        return toEpochNanos(year, month, day, hour, minute, second, nano, offsetMinutes);
+    }
+    
+    /**
+     * Convert the fields of a date and time to nanoseconds since the epoch.
+     * 
+     * @param offsetMinutes the time zone's offset from UTC.
+     * @throws IllegalArgumentException if a field is out of range, or the 
+     *          instant can't be held in a long.
+     */
+    public static long toEpochNanos(int year, int month, int day, 
+            int hour, int minute, int second, int nano, int offsetMinutes) {
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 24 || minute < 0 || minute > 59 
+                || second < 0 || second > 59 || nano < 0 || nano >= NANOS_PER_SECOND) {
+            throw new IllegalArgumentException("Invalid date or time: " 
+                    + year + "-" + month + "-" + day + "T" + hour + ":" + minute + ":" + second);
+        }
+        final long seconds = daysFromCivil(year, month, day) * SECONDS_PER_DAY 
+                + hour * 3600L + minute * 60L + second - offsetMinutes * 60L;
+        // At the ends of the range the multiplication wraps; a sign that 
+        // disagrees with the seconds means the instant didn't fit.
+        final long epochNanos = seconds * NANOS_PER_SECOND + nano;
+        if (seconds > Long.MAX_VALUE / NANOS_PER_SECOND || seconds < Long.MIN_VALUE / NANOS_PER_SECOND - 1
+                || (seconds < 0) != (epochNanos < 0)) {
+            throw new IllegalArgumentException("Out of range: " + year + "-" + month + "-" + day);
+        }
+        return epochNanos;
+    }
+
+    /**
+     * Format nanoseconds since the epoch as an xs:dateTime in UTC, e.g. 
+     * 2014-12-19T00:00:00.123456Z. Trailing zeros of the fractional seconds
+     * are dropped, and there are at most six digits unless the value has 
+     * sub-microsecond precision, so values read from TAXII 1.1 
+     * Timestamp_Labels print back within the schema's pattern.
+     */
+    public static String printEpochNanos(long epochNanos) {
+        final long seconds = floorDiv(epochNanos, NANOS_PER_SECOND);
+        final int nano = (int) (epochNanos - seconds * NANOS_PER_SECOND);
+        final long days = floorDiv(seconds, SECONDS_PER_DAY);
+        final int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+        
+        // Civil from days, after H. Hinnant's algorithm.
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        
+        final StringBuilder sb = new StringBuilder(32);
+        if (year < 0) {
+            sb.append('-');
+        }
+        pad(sb, Math.abs(year), 4);
+        sb.append('-');
+        pad(sb, month, 2);
+        sb.append('-');
+        pad(sb, day, 2);
+        sb.append('T');
+        pad(sb, secondOfDay / 3600, 2);
+        sb.append(':');
+        pad(sb, secondOfDay / 60 % 60, 2);
+        sb.append(':');
+        pad(sb, secondOfDay % 60, 2);
+        if (nano != 0) {
+            sb.append('.');
+            final int start = sb.length();
+            if (nano % 1000 == 0) {
+                pad(sb, nano / 1000, 6);
+            } else {
+                pad(sb, nano, 9);
+            }
+            int end = sb.length();
+            while (end > start && sb.charAt(end - 1) == '0') {
+                end--;
+            }
+            sb.setLength(end);
+        }
+        return sb.append('Z').toString();
+    }
+    
+    private static long daysFromCivil(long year, int month, int day) {
+        final long y = (month <= 2) ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+    
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+    
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+    }
+    
+    private static void pad(StringBuilder sb, long value, int width) {
+        final String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+    }
+    
+    private static int digits(String s, int start, int count, String lexical) {
+        if (start + count > s.length()) {
+            throw invalid(lexical);
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = s.charAt(i);
+            if (!isDigit(c)) {
+                throw invalid(lexical);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private static int expect(String s, int i, char c, String lexical) {
+        if (i >= s.length() || s.charAt(i) != c) {
+            throw invalid(lexical);
+        }
+        return i + 1;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static IllegalArgumentException invalid(String lexical) {
+        return new IllegalArgumentException("Not an xs:dateTime: " + lexical);
+    }
+}
@@ -0,0 +1,99 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple, thread safe pool of idle objects that are expensive to create but
+ * can be reused, one thread at a time, e.g. JAXB Marshallers.
+ * 
+ * <p>
+ * The pool does not create objects itself. Callers take an idle object with
+ * {@link #poll()}, create a new one if it returns null, and hand the object
+ * back with {@link #offer(Object)} when they are done with it. The caller is 
+ * responsible for putting the object back into a clean state before offering
+ * it. At most maxIdle objects are kept; any more offered are dropped to be
+ * garbage collected.
+ * </p>
+ * 
+ * @param <T> the type of pooled object
+ */
+public final class ObjectPool<T> {
+    
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final int maxIdle;
+
+    /**
+     * @param maxIdle The maximum number of idle objects to keep.
+     */
+    public ObjectPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+    
+    /**
+     * Take an idle object from the pool.
+     * 
+     * @return an idle object, or null if there are none.
+     */
+    public T poll() {
+        final T obj = idle.poll();
+        if (null != obj) {
+            idleCount.decrementAndGet();
+        }
+        return obj;
+    }
+    
+    /**
+     * Give an object back to the pool so that it can be reused. 
+     * 
+     * @param obj An object, in a clean state, that is no longer in use.
+     * @return true if the object was kept, false if the pool was full.
+     */
+    public boolean offer(T obj) {
+        if (null == obj) {
+            return false;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return false;
+        }
+        idle.offer(obj);
+        return true;
+    }
+    
+    /**
+     * Returns the number of idle objects in the pool.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+}
@@ -0,0 +1,170 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs work over a range of items, e.g. the messages of a batch or the 
+ * Content Blocks of a Poll_Response, in parallel. The range is split into
+ * a few chunks per processor, to even out the load, and each chunk is one
+ * task.
+ */
+public final class ParallelChunks {
+    
+    /** How many chunks a range is split into for each processor. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    
+    // prevent construction of utility class
+    private ParallelChunks() {
+    }
+    
+    /**
+     * The work done on one chunk of a range.
+     * 
+     * @param <T> the result of a chunk.
+     */
+    public interface Chunk<T> {
+        /**
+         * @param from the first item of the chunk.
+         * @param to the item after the last item of the chunk.
+         */
+        T call(int from, int to) throws Exception;
+    }
+    
+    /**
+     * The shared pool, with one daemon thread per processor. It is only 
+     * created if it is used.
+     */
+    public static ExecutorService getExecutor() {
+        return SharedExecutor.EXECUTOR;
+    }
+    
+    /**
+     * @return how many items go in each chunk of a range, at least minChunk.
+     */
+    public static int chunkSize(int size, int minChunk) {
+        return Math.max(minChunk, size / (CHUNKS_PER_THREAD * Runtime.getRuntime().availableProcessors()));
+    }
+    
+    /**
+     * Submits a task for each chunk of a range, in order, without waiting
+     * for them. If a task can't be submitted, those that were are cancelled.
+     * 
+     * @param size the number of items in the range.
+     * @param minChunk the fewest items in a chunk.
+     */
+    public static <T> List<Future<T>> submit(int size, int minChunk, Chunk<T> chunk, ExecutorService executor) {
+        final List<Callable<T>> tasks = tasks(size, minChunk, chunk);
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+        } catch (RuntimeException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return futures;
+    }
+    
+    /**
+     * Runs a task for each chunk of a range and waits for them.
+     * 
+     * @param size the number of items in the range.
+     * @param minChunk the fewest items in a chunk.
+     * @return the results of the chunks, in order.
+     * @throws InterruptedException 
+     *       If the calling thread is interrupted while waiting. The tasks 
+     *       that hadn't finished are cancelled.
+     * @throws RuntimeException
+     *       The RuntimeException a task threw, or a RuntimeException 
+     *       wrapping the checked exception it threw.
+     */
+    public static <T> List<T> invokeAll(int size, int minChunk, Chunk<T> chunk, ExecutorService executor) 
+            throws InterruptedException {
+        final List<T> results = new ArrayList<>();
+        for (Future<T> future : executor.invokeAll(tasks(size, minChunk, chunk))) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        return results;
+    }
+    
+    private static <T> List<Callable<T>> tasks(int size, int minChunk, final Chunk<T> chunk) {
+        final int chunkSize = chunkSize(size, minChunk);
+        final List<Callable<T>> tasks = new ArrayList<>(size / chunkSize + 1);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(size, start + chunkSize);
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return chunk.call(from, to);
+                }
+            });
+        }
+        return tasks;
+    }
+    
+    /**
+     * Holds the shared pool, so that it is only created if it is used.
+     */
+    private static final class SharedExecutor {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "taxii-worker-" + count.incrementAndGet());
+                thread.setDaemon(true); // Don't keep the JVM alive.
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,185 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * A SAX ContentHandler that passes a document on to another ContentHandler
+ * only if its root element is one of a given set, e.g. so that a document is
+ * only unmarshalled when something is going to use the result.
+ * 
+ * <p>
+ * The events before the root element (the locator, the start of the 
+ * document and its prefix mappings) are held back until the root element
+ * is seen, and then either passed on or dropped along with the rest.
+ * </p>
+ */
+public class RootElementFilter implements ContentHandler {
+
+    private final ContentHandler handler;
+    private final Set<QName> rootElements;
+    private Locator locator;
+    private boolean documentStarted;
+    private final List<String[]> prefixMappings = new ArrayList<>();
+    private boolean decided;
+    private boolean forwarding;
+
+    /**
+     * @param handler The handler to pass the document on to.
+     * @param rootElements The names of the root elements of the documents to pass on.
+     */
+    public RootElementFilter(ContentHandler handler, Set<QName> rootElements) {
+        this.handler = handler;
+        this.rootElements = rootElements;
+    }
+    
+    /**
+     * @return true if the root element has been seen, and the document is 
+     * being passed on.
+     */
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        if (decided) {
+            if (forwarding) {
+                handler.setDocumentLocator(locator);
+            }
+        } else {
+            this.locator = locator;
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (decided) {
+            if (forwarding) {
+                handler.startDocument();
+            }
+        } else {
+            documentStarted = true;
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        if (forwarding) {
+            handler.endDocument();
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (decided) {
+            if (forwarding) {
+                handler.startPrefixMapping(prefix, uri);
+            }
+        } else {
+            prefixMappings.add(new String[] { prefix, uri });
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        if (forwarding) {
+            handler.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (!decided) {
+            decided = true;
+            forwarding = rootElements.contains(new QName(uri, localName));
+            if (forwarding) {
+                if (null != locator) {
+                    handler.setDocumentLocator(locator);
+                }
+                if (documentStarted) {
+                    handler.startDocument();
+                }
+                for (String[] mapping : prefixMappings) {
+                    handler.startPrefixMapping(mapping[0], mapping[1]);
+                }
+            }
+            locator = null;
+            prefixMappings.clear();
+        }
+        if (forwarding) {
+            handler.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (forwarding) {
+            handler.endElement(uri, localName, qName);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (forwarding) {
+            handler.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        if (forwarding) {
+            handler.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (forwarding) {
+            handler.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        if (forwarding) {
+            handler.skippedEntity(name);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe, bounded table of canonical Strings, so that values that 
+ * repeat through a message, e.g. Content Binding IDs and collection names,
+ * are held once rather than once per occurrence.
+ * 
+ * <p>
+ * Unlike {@link String#intern()}, the table only grows to maxSize entries.
+ * Once it is full, Strings that aren't already in it are returned as they
+ * are, so a peer sending many distinct values can't make it grow without 
+ * bound. Strings longer than {@link #MAX_LENGTH} are never kept.
+ * </p>
+ */
+public final class StringInterner {
+    
+    /** The longest String that is interned. */
+    public static final int MAX_LENGTH = 256;
+    
+    private final ConcurrentMap<String, String> table = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    /**
+     * @param maxSize The maximum number of Strings to keep.
+     */
+    public StringInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * @param s A String. May be null.
+     * @return the canonical String equal to s. That is s itself if it is 
+     *          newly added, or if the table is full.
+     */
+    public String intern(String s) {
+        if (null == s || s.length() > MAX_LENGTH) {
+            return s;
+        }
+        final String canonical = table.get(s);
+        if (null != canonical) {
+            return canonical;
+        }
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            return s;
+        }
+        final String existing = table.putIfAbsent(s, s);
+        if (null != existing) {
+            size.decrementAndGet();
+            return existing;
+        }
+        return s;
+    }
+    
+    /**
+     * Replaces each String in the list with its canonical String.
+     * 
+     * @param values A modifiable list. May be null.
+     */
+    public void internAll(List<String> values) {
+        if (null == values) {
+            return;
+        }
+        for (ListIterator<String> it = values.listIterator(); it.hasNext();) {
+            final String value = it.next();
+            final String canonical = intern(value);
+            if (canonical != value) {
+                it.set(canonical);
+            }
+        }
+    }
+    
+    /**
+     * Adds the public static final String fields of a class, e.g. 
+     * {@link org.mitre.taxii.Versions}, so that the values received are
+     * replaced by the constants.
+     * 
+     * @return this StringInterner.
+     */
+    public StringInterner internConstants(Class<?> constants) {
+        for (Field field : constants.getFields()) {
+            final int modifiers = field.getModifiers();
+            if (field.getType() == String.class 
+                    && Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)) {
+                try {
+                    intern((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException("Deployment error", e);
+                }
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Returns the number of Strings in the table.
+     */
+    public int size() {
+        return size.get();
+    }
+}
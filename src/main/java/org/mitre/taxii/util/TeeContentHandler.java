@@ -0,0 +1,132 @@
+package org.mitre.taxii.util;
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * A SAX ContentHandler that passes every event on to each of a number of 
+ * other ContentHandlers, in order. This lets one pass over a document, e.g. 
+ * marshalling a JAXB object, feed several consumers.
+ * 
+ * <p>
+ * If a handler throws, the event is not passed on to the handlers after it, 
+ * and the exception is thrown to the caller.
+ * </p>
+ */
+public class TeeContentHandler implements ContentHandler {
+
+    private final ContentHandler[] handlers;
+
+    /**
+     * @param handlers The handlers to pass events on to.
+     */
+    public TeeContentHandler(ContentHandler... handlers) {
+        this.handlers = handlers.clone();
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        for (ContentHandler handler : handlers) {
+            handler.setDocumentLocator(locator);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startDocument();
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endDocument();
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endElement(uri, localName, qName);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.skippedEntity(name);
+        }
+    }
+}
@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package org.mitre.taxii.util;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -34,7 +35,16 @@ import org.xml.sax.SAXParseException;
 
 /**
  * Validation results that keeps track of all warnings, errors, and fatal
- * errors as strings. Inspired by SAX's ErrorHandler interface.
+ * errors. Inspired by SAX's ErrorHandler interface.
+ * 
+ * Each problem is kept as a {@link Diagnostic}, which is only formatted as 
+ * a string when it is read. The lists are only created when something is 
+ * added to them, so a successful validation allocates nothing more than 
+ * this object.
+ * 
+ * The number of errors and fatal errors kept can be capped. Once the cap is
+ * reached, further errors are dropped, and {@link ValidationErrorHandler}
+ * stops validation.
  *
  * @author Jonathan W. Cranford
  */
@@ -44,9 +54,34 @@ public final class Validation {
      * DESIGN NOTE: We use a List here to keeps the warnings, errors, and fatal
      * errors in same order in which they are added.
      */
-    private final List<String> warnings = new ArrayList<>();
-    private final List<String> errors = new ArrayList<>();
-    private final List<String> fatalErrors = new ArrayList<>();
+    private List<Diagnostic> warnings;
+    private List<Diagnostic> errors;
+    private List<Diagnostic> fatalErrors;
+    /** The most errors and fatal errors kept. */
+    private final int maxErrors;
+    /** The number of errors and fatal errors dropped because of maxErrors. */
+    private int droppedErrors;
+    /** The message unmarshalled while it was validated, if asked for. */
+    private Object unmarshalledObject;
+
+    /**
+     * Results that keep every error.
+     */
+    public Validation() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Results that keep at most maxErrors errors and fatal errors.
+     * 
+     * @param maxErrors the cap, at least 1.
+     */
+    public Validation(int maxErrors) {
+        if (maxErrors < 1) {
+            throw new IllegalArgumentException("maxErrors must be at least 1: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+    }
 
     /* ======================
      * factory methods
@@ -82,8 +117,8 @@ public final class Validation {
     /** Validation is successful if there are no warnings, errors, or
      * fatalErrors.*/
     public boolean isSuccess() {
-        return (errors.isEmpty()
-                && fatalErrors.isEmpty());
+        return (null == errors
+                && null == fatalErrors);
     }
 
     public boolean isFailure() {
@@ -91,15 +126,34 @@ public final class Validation {
     }
 
     public boolean hasWarnings() {
-        return ! warnings.isEmpty();
+        return null != warnings;
     }
 
     public boolean hasErrors() {
-        return ! errors.isEmpty();
+        return null != errors;
     }
 
     public boolean hasFatalErrors() {
-        return ! fatalErrors.isEmpty();
+        return null != fatalErrors;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @return true once as many errors and fatal errors as are kept have been added.
+     */
+    public boolean isLimitReached() {
+        return size(errors) + size(fatalErrors) >= maxErrors;
+    }
+
+    /**
+     * @return the number of errors and fatal errors not kept because the 
+     *          limit had been reached.
+     */
+    public int getDroppedErrorCount() {
+        return droppedErrors;
     }
 
 
@@ -107,7 +161,7 @@ public final class Validation {
      * Returns a read-only list of warnings.
      */
     public List<String> getWarnings() {
-       return Collections.unmodifiableList(warnings);
+       return strings(warnings);
     }
 
 
@@ -115,7 +169,7 @@ public final class Validation {
      * Returns a read-only list of errors.
      */
     public List<String> getErrors() {
-        return Collections.unmodifiableList(errors);
+        return strings(errors);
     }
 
 
@@ -123,13 +177,23 @@ public final class Validation {
      * Returns a read-only list of fatal errors.
      */
     public List<String> getFatalErrors() {
-        return Collections.unmodifiableList(fatalErrors);
+        return strings(fatalErrors);
+    }
+
+    /**
+     * Returns a read-only list of the diagnostics of the given severity.
+     */
+    public List<Diagnostic> getDiagnostics(Diagnostic.Severity severity) {
+        final List<Diagnostic> diagnostics = diagnostics(severity);
+        return (null == diagnostics) 
+                ? Collections.<Diagnostic>emptyList() 
+                : Collections.unmodifiableList(diagnostics);
     }
 
 
     public StringBuilder appendAllErrors(StringBuilder sb) {
-        Iterators.appendWithLabel("FATAL ERRORS", sb, fatalErrors.iterator(), Iterators.EOL);
-        return Iterators.appendWithLabel("ERRORS", sb, errors.iterator(), Iterators.EOL);
+        Iterators.appendWithLabel("FATAL ERRORS", sb, getFatalErrors().iterator(), Iterators.EOL);
+        return Iterators.appendWithLabel("ERRORS", sb, getErrors().iterator(), Iterators.EOL);
     }
 
     public StringBuilder appendAllErrorsAndWarnings(StringBuilder sb) {
@@ -138,7 +202,7 @@ public final class Validation {
     }
 
     public StringBuilder appendAllWarnings(StringBuilder sb) {
-        return Iterators.appendWithLabel("WARNINGS", sb, warnings.iterator(), Iterators.EOL);
+        return Iterators.appendWithLabel("WARNINGS", sb, getWarnings().iterator(), Iterators.EOL);
     }
     
 
@@ -155,17 +219,73 @@ public final class Validation {
     }
 
     public Validation addWarning(String warning) {
-        warnings.add(warning);
-        return this;
+        return add(Diagnostic.of(Diagnostic.Severity.WARNING, warning));
     }
 
     public Validation addError(String error) {
-        errors.add(error);
-        return this;
+        return add(Diagnostic.of(Diagnostic.Severity.ERROR, error));
     }
 
     public Validation addFatalError(String fatalError) {
-        fatalErrors.add(fatalError);
+        return add(Diagnostic.of(Diagnostic.Severity.FATAL_ERROR, fatalError));
+    }
+
+    /**
+     * Adds a diagnostic to the list for its severity. Errors and fatal errors 
+     * past the limit are counted, but not kept.
+     */
+    public Validation add(Diagnostic diagnostic) {
+        final Diagnostic.Severity severity = diagnostic.getSeverity();
+        if (Diagnostic.Severity.WARNING != severity && isLimitReached()) {
+            droppedErrors++;
+            return this;
+        }
+        List<Diagnostic> diagnostics = diagnostics(severity);
+        if (null == diagnostics) {
+            diagnostics = new ArrayList<>();
+            switch (severity) {
+                case WARNING:
+                    warnings = diagnostics;
+                    break;
+                case ERROR:
+                    errors = diagnostics;
+                    break;
+                default:
+                    fatalErrors = diagnostics;
+                    break;
+            }
+        }
+        diagnostics.add(diagnostic);
+        return this;
+    }
+    
+    /**
+     * Adds all the diagnostics of other results to these, in the same order.
+     */
+    public Validation addAll(Validation other) {
+        for (Diagnostic.Severity severity : new Diagnostic.Severity[] {
+                Diagnostic.Severity.FATAL_ERROR, Diagnostic.Severity.ERROR, Diagnostic.Severity.WARNING}) {
+            final List<Diagnostic> diagnostics = other.diagnostics(severity);
+            if (null != diagnostics) {
+                for (Diagnostic diagnostic : diagnostics) {
+                    add(diagnostic);
+                }
+            }
+        }
+        droppedErrors += other.droppedErrors;
+        return this;
+    }
+    
+    /**
+     * Returns the message unmarshalled during validation, or null if it was
+     * not asked for or validation failed.
+     */
+    public Object getUnmarshalledObject() {
+        return unmarshalledObject;
+    }
+
+    public Validation setUnmarshalledObject(Object unmarshalledObject) {
+        this.unmarshalledObject = unmarshalledObject;
         return this;
     }
     
@@ -177,6 +297,39 @@ public final class Validation {
                     e.getMessage());
     }
 
+    private List<Diagnostic> diagnostics(Diagnostic.Severity severity) {
+        switch (severity) {
+            case WARNING:
+                return warnings;
+            case ERROR:
+                return errors;
+            default:
+                return fatalErrors;
+        }
+    }
 
-}
+    private static int size(List<?> list) {
+        return (null == list) ? 0 : list.size();
+    }
+
+    /**
+     * A read-only view of diagnostics as strings, formatted as they are read.
+     */
+    private static List<String> strings(final List<Diagnostic> diagnostics) {
+        if (null == diagnostics) {
+            return Collections.emptyList();
+        }
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return diagnostics.get(index).toString();
+            }
+
+            @Override
+            public int size() {
+                return diagnostics.size();
+            }
+        };
+    }
 
+}
@@ -41,6 +41,9 @@ import org.xml.sax.SAXParseException;
  * An error handler that adds all warnings, errors, and fatalErrors to the
  * given Validation object. Implements the SAX ErrorHandler, JAXB
  * ValidationEventHandler, and Saxon MessageListener interfaces.
+ * 
+ * Validation stops at the first error if failFast is true, and otherwise 
+ * once the results have reached their limit of errors.
  */
 public final class ValidationErrorHandler 
 implements ErrorHandler, ValidationEventHandler, MessageListener {
@@ -73,14 +76,14 @@ implements ErrorHandler, ValidationEventHandler, MessageListener {
 
     @Override
     public void warning(SAXParseException e) {
-        results.addWarning(Validation.formatException(e));
+        results.add(Diagnostic.of(Diagnostic.Severity.WARNING, e));
     }
     
    
     @Override
     public void error(SAXParseException exception) throws SAXParseException  {
-        results.addError(Validation.formatException(exception));
-        if (failFast) {
+        results.add(Diagnostic.of(Diagnostic.Severity.ERROR, exception));
+        if (isStopping()) {
             throw exception;
         }
     }
@@ -88,21 +91,21 @@ implements ErrorHandler, ValidationEventHandler, MessageListener {
 
     @Override
     public void fatalError(SAXParseException exception) throws SAXParseException  {
-        results.addFatalError(Validation.formatException(exception));
-        if (failFast) {
+        results.add(Diagnostic.of(Diagnostic.Severity.FATAL_ERROR, exception));
+        if (isStopping()) {
             throw exception;
         }
     }
 
     
     private boolean warning(ValidationEvent e) {
-        results.addWarning(formatEvent(e));
+        results.add(Diagnostic.of(e));
         return true;
     }
 
     private boolean error(ValidationEvent e) {
-        results.addError(formatEvent(e));
-        if (failFast) {
+        results.add(Diagnostic.of(e));
+        if (isStopping()) {
             return false;   // don't continue
         } else {
             return true;    // continue
@@ -110,8 +113,8 @@ implements ErrorHandler, ValidationEventHandler, MessageListener {
     }
     
     private boolean fatalError(ValidationEvent e) {
-        results.addFatalError(formatEvent(e));
-        if (failFast) {
+        results.add(Diagnostic.of(e));
+        if (isStopping()) {
             return false;   // don't continue
         } else {
             return true;    // continue
@@ -170,6 +173,13 @@ implements ErrorHandler, ValidationEventHandler, MessageListener {
         return results;
     }
     
+    /**
+     * @return true if validation should stop after the error just added.
+     */
+    private boolean isStopping() {
+        return failFast || results.isLimitReached();
+    }
+    
     
     private static void appendLocator(StringBuilder sb, ValidationEventLocator loc) {
         if (loc.getURL() == null 
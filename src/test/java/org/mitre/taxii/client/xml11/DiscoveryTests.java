@@ -8,6 +8,10 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.net.ssl.SSLContext;
 import javax.xml.bind.JAXBException;
 import org.apache.http.HttpHost;
@@ -27,12 +31,14 @@ import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.mitre.taxii.client.HttpClient;
+import org.mitre.taxii.client.ResponseValidationListener;
 import org.mitre.taxii.messages.TaxiiXml;
 import org.mitre.taxii.messages.xml11.DiscoveryRequest;
 import org.mitre.taxii.messages.xml11.DiscoveryResponse;
 import org.mitre.taxii.messages.xml11.MessageHelper;
 import org.mitre.taxii.messages.xml11.ObjectFactory;
 import org.mitre.taxii.messages.xml11.TaxiiXmlFactory;
+import org.mitre.taxii.util.Validation;
 
 /**
  *
@@ -88,6 +94,82 @@ public class DiscoveryTests {
         assertTrue("Received Discovery Response", (responseObj instanceof DiscoveryResponse));
     }
 
+    @Test
+    public void pooledDiscoveryTest() throws IOException, JAXBException, URISyntaxException {
+
+        // A pooled client should survive multiple calls, reusing its connections.
+        HttpClient taxiiClient = new HttpClient(10, 2);
+
+        final String serverUrl = serverURL + "services/discovery/";
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                DiscoveryRequest dr = factory.createDiscoveryRequest()
+                        .withMessageId(MessageHelper.generateMessageId());
+
+                Object responseObj = taxiiClient.callTaxiiService(new URI(serverUrl), dr);
+
+                assertTrue("Received Discovery Response", (responseObj instanceof DiscoveryResponse));
+            }
+        } finally {
+            taxiiClient.close();
+        }
+    }
+
+    @Test
+    public void asyncDiscoveryTest() throws IOException, URISyntaxException, InterruptedException, ExecutionException {
+
+        HttpClient taxiiClient = new HttpClient();
+
+        final String serverUrl = serverURL + "services/discovery/";
+
+        try {
+            DiscoveryRequest dr = factory.createDiscoveryRequest()
+                    .withMessageId(MessageHelper.generateMessageId());
+
+            Future<Object> response = taxiiClient.callTaxiiServiceAsync(new URI(serverUrl), dr);
+
+            assertTrue("Received Discovery Response", (response.get() instanceof DiscoveryResponse));
+        } finally {
+            taxiiClient.close();
+        }
+    }
+
+    @Test
+    public void validatedDiscoveryTest() throws IOException, JAXBException, URISyntaxException {
+
+        HttpClient taxiiClient = new HttpClient();
+
+        final String serverUrl = serverURL + "services/discovery/";
+        final List<String> problems = new ArrayList<>();
+
+        try {
+            // Validate every Discovery Response before the call returns.
+            taxiiClient.setResponseValidation(DiscoveryRequest.class, HttpClient.ResponseValidation.INLINE, 1.0);
+            taxiiClient.setResponseValidationListener(new ResponseValidationListener() {
+                @Override
+                public void invalidResponse(URI uri, Object request, Object response, Validation results) {
+                    problems.add(results.getAllErrors());
+                }
+
+                @Override
+                public void validationFailed(URI uri, Object request, Object response, Exception e) {
+                    problems.add(e.toString());
+                }
+            });
+
+            DiscoveryRequest dr = factory.createDiscoveryRequest()
+                    .withMessageId(MessageHelper.generateMessageId());
+
+            Object responseObj = taxiiClient.callTaxiiService(new URI(serverUrl), dr);
+
+            assertTrue("Received Discovery Response", (responseObj instanceof DiscoveryResponse));
+            assertTrue("Response is valid: " + problems, problems.isEmpty());
+        } finally {
+            taxiiClient.close();
+        }
+    }
+
     @Test
     public void basicAuthDiscoveryTest() throws IOException, JAXBException, URISyntaxException {
 
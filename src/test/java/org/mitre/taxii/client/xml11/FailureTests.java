@@ -86,6 +86,23 @@ public class FailureTests {
         assertTrue("Received Status Message", (responseObj instanceof StatusMessage));
     }
 
+    @Test(expected = IOException.class)
+    public void maxResponseSizeDiscoveryTest() throws IOException, JAXBException, URISyntaxException {
+        HttpClient taxiiClient = new HttpClient();
+        taxiiClient.setMaxResponseSize(100); // Smaller than any Discovery Response.
+        final String serverUrl = serverURL + "services/discovery/";
+
+        // Prepare the message to send.
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                .withMessageId(MessageHelper.generateMessageId());
+
+        try {
+            taxiiClient.callTaxiiService(new URI(serverUrl), dr);
+        } finally {
+            taxiiClient.close();
+        }
+    }
+
     @Test
     public void failBasicAuthDiscoveryTest() throws IOException, JAXBException, URISyntaxException {
         
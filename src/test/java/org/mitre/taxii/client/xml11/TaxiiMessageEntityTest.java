@@ -0,0 +1,73 @@
+package org.mitre.taxii.client.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.client.TaxiiMessageEntity;
+import org.mitre.taxii.messages.xml11.InboxMessage;
+import org.mitre.taxii.messages.xml11.MessageHelper;
+import org.mitre.taxii.messages.xml11.ObjectFactory;
+import org.mitre.taxii.messages.xml11.TaxiiXml;
+import org.mitre.taxii.messages.xml11.TaxiiXmlFactory;
+
+/**
+ * Check that the streaming request entity writes the message it was built
+ * with. Does not need a TAXII server.
+ */
+public class TaxiiMessageEntityTest {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public TaxiiMessageEntityTest() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private InboxMessage createInboxMessage() {
+        InboxMessage im = factory.createInboxMessage()
+                .withMessageId(MessageHelper.generateMessageId())
+                .withMessage("Non-ASCII text: café ☃");
+        for (int i = 0; i < 100; i++) {
+            im.getContentBlocks().add(factory.createContentBlock()
+                    .withContentBinding(factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                    .withContent(factory.createAnyMixedContentType().withContent("Block " + i)));
+        }
+        return im;
+    }
+
+    @Test
+    public void writesMessage() throws JAXBException, IOException {
+        InboxMessage im = createInboxMessage();
+
+        TaxiiMessageEntity entity = new TaxiiMessageEntity(taxiiXml, im);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+
+        // The byte and character serializers in JAXB order namespace declarations
+        // differently, so compare the objects rather than the text.
+        final Unmarshaller u = taxiiXml.getJaxbContext().createUnmarshaller();
+        Object fromXml = u.unmarshal(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(im, fromXml);
+        assertTrue("Entity is chunked by default", entity.isChunked());
+        assertEquals(-1, entity.getContentLength());
+    }
+
+    @Test
+    public void knownLength() throws IOException {
+        InboxMessage im = createInboxMessage();
+
+        TaxiiMessageEntity entity = new TaxiiMessageEntity(taxiiXml, im);
+        entity.setChunked(false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+
+        assertEquals(out.size(), entity.getContentLength());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+package org.mitre.taxii.messages.xml10;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mitre.taxii.messages.ConformanceRule;
+import org.mitre.taxii.messages.ConformanceRule.Assertion;
+import org.mitre.taxii.messages.TaxiiXml.ConformanceMode;
+import org.mitre.taxii.util.Validation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the Java conformance rules agree with the Schematron they were
+ * written from. This test assumes that the current working directory is 
+ * the project directory.
+ */
+public class ConformanceRulesTests {
+    
+    private static final String SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+    
+    private static TaxiiXml taxiiXml;
+    private static TaxiiXml reference;
+    private static Unmarshaller unmarshaller;
+    
+    @BeforeClass
+    public static void init() throws Exception {
+        TaxiiXmlFactory txf = new TaxiiXmlFactory();
+        taxiiXml = txf.createTaxiiXml();
+        reference = txf.createTaxiiXml();
+        reference.setConformanceMode(ConformanceMode.SCHEMATRON);
+        unmarshaller = taxiiXml.getJaxbContext().createUnmarshaller();
+    }
+    
+    /**
+     * Every assert and report in the Schematron is implemented by a rule.
+     */
+    @Test
+    public void rulesCoverSchematron() throws Exception {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        final Document schema = dbf.newDocumentBuilder()
+                .parse(new File("schemas/TAXII_XMLMessageBinding_Schema-1.0-with-sch.xsd"));
+        final Set<String> expected = new HashSet<>();
+        for (String name : new String[] { "assert", "report" }) {
+            final NodeList nodes = schema.getElementsByTagNameNS(SCHEMATRON_NS, name);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                final Element e = (Element) nodes.item(i);
+                expected.add(normalize(e.getTextContent()) + " (" + e.getAttribute("test") + ")");
+            }
+        }
+        final Set<String> actual = new HashSet<>();
+        for (ConformanceRule<?> rule : ConformanceRules.getRules()) {
+            for (Assertion assertion : rule.getAssertions()) {
+                actual.add(assertion.toString());
+            }
+        }
+        assertEquals(expected, actual);
+    }
+    
+    /**
+     * The rules and the stylesheet report the same errors for every test message.
+     */
+    @Test
+    public void rulesMatchSchematron() throws Exception {
+        for (File file : testFiles()) {
+            final Object m = unmarshaller.unmarshal(file);
+            final List<String> expected = normalize(reference.validateAll(m, true).getErrors());
+            assertEquals(file.getName(), expected, normalize(taxiiXml.validateAll(m, true).getErrors()));
+            try (InputStream in = new FileInputStream(file); InputStream referenceIn = new FileInputStream(file)) {
+                assertEquals(file.getName(), 
+                        normalize(reference.validateAll(referenceIn, true).getErrors()),
+                        normalize(taxiiXml.validateAll(in, true).getErrors()));
+            }
+        }
+    }
+    
+    /**
+     * Parsed messages are unmarshalled for the rules, but only returned when asked for.
+     */
+    @Test
+    public void unmarshalledOnlyOnRequest() throws Exception {
+        for (File file : testFiles()) {
+            if (file.getName().endsWith("-valid.xml")) {
+                Validation results;
+                try (InputStream in = new FileInputStream(file)) {
+                    results = taxiiXml.validateAll(in, true);
+                }
+                assertTrue(file.getName(), results.isSuccess());
+                assertEquals(null, results.getUnmarshalledObject());
+            }
+        }
+    }
+    
+    private static List<File> testFiles() throws IOException {
+        final List<File> files = new ArrayList<>();
+        Files.walkFileTree(
+                Paths.get("src/test/resources/schematron/1.0"),
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (!file.toFile().isHidden()) {
+                            files.add(file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        return files;
+    }
+    
+    private static List<String> normalize(List<String> messages) {
+        final List<String> normalized = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            normalized.add(normalize(message));
+        }
+        return normalized;
+    }
+    
+    private static String normalize(String s) {
+        return s.trim().replaceAll("\\s+", " ");
+    }
+}
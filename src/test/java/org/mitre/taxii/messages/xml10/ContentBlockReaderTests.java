@@ -0,0 +1,80 @@
+package org.mitre.taxii.messages.xml10;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Read Content Blocks one at a time from a marshalled message.
+ */
+public class ContentBlockReaderTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public ContentBlockReaderTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private InputStream marshal(Object msg) throws JAXBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.createMarshaller(false).marshal(msg, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Test
+    public void pollResponse() throws JAXBException, IOException {
+        PollResponse pr = TestUtil.createPollResponse(100)
+                                .withMessage("Woooooooo");
+        List<ContentBlock> blocks = new ArrayList<>(pr.getContentBlocks());
+
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, marshal(pr))) {
+            PollResponse header = (PollResponse) reader.getMessage();
+            assertEquals("default", header.getFeedName());
+            assertTrue(header.getContentBlocks().isEmpty());
+
+            List<ContentBlock> read = new ArrayList<>();
+            while (reader.hasNext()) {
+                read.add(reader.next());
+            }
+            assertEquals(blocks, read);
+        }
+    }
+
+    @Test
+    public void inboxMessageFromStreamReader() throws JAXBException, IOException, XMLStreamException {
+        List<ContentBlock> blocks = TestUtil.createPollResponse(2).getContentBlocks();
+        InboxMessage im = factory.createInboxMessage()
+                                .withMessageId("1")
+                                .withMessage("Inbox")
+                                .withContentBlocks(blocks);
+
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, 
+                XMLInputFactory.newInstance().createXMLStreamReader(marshal(im)))) {
+            assertEquals("Inbox", ((InboxMessage) reader.getMessage()).getMessage());
+            assertEquals(blocks.get(0), reader.next());
+            assertEquals(blocks.get(1), reader.next());
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test(expected = JAXBException.class)
+    public void wrongVersion() throws JAXBException, IOException {
+        org.mitre.taxii.messages.xml11.PollResponse pr = new org.mitre.taxii.messages.xml11.ObjectFactory().createPollResponse()
+                                .withMessageId("1")
+                                .withInResponseTo("1")
+                                .withCollectionName("blah");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new org.mitre.taxii.messages.xml11.TaxiiXmlFactory().createTaxiiXml().createMarshaller(false).marshal(pr, out);
+
+        new ContentBlockReader(taxiiXml, new ByteArrayInputStream(out.toByteArray())).close();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+Copyright (c) 2015, The MITRE Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of The MITRE Corporation nor the 
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+
+package org.mitre.taxii.messages.xml11;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.bind.Unmarshaller;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mitre.taxii.util.Validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for validating a batch of messages in parallel. This test assumes 
+ * that the current working directory is the project directory.
+ */
+public class BatchValidationTests {
+    
+    private static TaxiiXml taxiiXml;
+    private static List<Object> messages;
+    
+    @BeforeClass
+    public static void init() throws Exception {
+        TaxiiXmlFactory txf = new TaxiiXmlFactory();
+        taxiiXml = txf.createTaxiiXml();
+        final Unmarshaller unmarshaller = taxiiXml.getJaxbContext().createUnmarshaller();
+        messages = new ArrayList<>();
+        // Enough copies of valid and invalid messages to be split into many chunks.
+        final File[] files = new File("src/test/resources/schematron/1.1/status-messages").listFiles();
+        for (int i = 0; i < 20; i++) {
+            for (File file : files) {
+                messages.add(unmarshaller.unmarshal(file));
+            }
+        }
+    }
+    
+    @Test
+    public void resultsInOrder() throws Exception {
+        final List<Validation> results = taxiiXml.validateBatch(messages, true);
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(taxiiXml.validateAll(messages.get(i), true).getErrors(), results.get(i).getErrors());
+        }
+    }
+    
+    @Test
+    public void customExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final List<Validation> results = taxiiXml.validateBatch(messages, false, executor);
+            for (Validation result : results) {
+                assertTrue(result.isSuccess());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void failedMessageDoesntStopBatch() throws Exception {
+        final List<Object> batch = new ArrayList<>();
+        batch.add(messages.get(0));
+        batch.add("Not a TAXII message");
+        batch.add(messages.get(0));
+        final List<Validation> results = taxiiXml.validateBatch(batch, true);
+        assertTrue(results.get(1).hasFatalErrors());
+        assertEquals(results.get(0).getErrors(), results.get(2).getErrors());
+        assertEquals(Collections.emptyList(), taxiiXml.validateBatch(Collections.emptyList(), true));
+    }
+}
@@ -0,0 +1,192 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.bind.UnmarshalException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.Versions;
+import org.mitre.taxii.messages.BinaryCodec;
+import org.mitre.taxii.messages.RawMessage;
+
+/**
+ * The compact binary encoding of messages.
+ */
+public class BinaryCodecTests {
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+    private final BinaryCodec codec = taxiiXml.getBinaryCodec();
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertSame(codec, taxiiXml.getBinaryCodec());
+        PollResponse pr = TestUtil.createPollResponse(3);
+        byte[] bytes = codec.encode(pr);
+        assertEquals(pr, codec.decode(bytes));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(pr, out);
+        assertArrayEquals(bytes, out.toByteArray());
+
+        // Only the bytes from the position to the limit are read.
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2);
+        buffer.put((byte) 'x').put(bytes).put((byte) 'y').flip();
+        buffer.position(1).limit(bytes.length + 1);
+        assertEquals(pr, codec.decode(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void smallerThanXml() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(10);
+        byte[] bytes = codec.encode(pr);
+        int xmlLength = taxiiXml.marshalToBytes(pr, false, false).length;
+        assertTrue(bytes.length + " >= " + xmlLength, bytes.length * 2 < xmlLength);
+        // The Content Binding ID is written from the dictionary.
+        byte[] urn = ContentBindings.CB_STIX_XML_111.getBytes(StandardCharsets.UTF_8);
+        assertEquals(-1, indexOf(bytes, urn));
+    }
+
+    @Test
+    public void rawPayloads() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(3);
+        byte[] xml = taxiiXml.marshalToBytes(pr, false, false);
+        RawMessage raw = taxiiXml.unmarshalRaw(ByteBuffer.wrap(xml));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encodeRaw(raw, out);
+        assertArrayEquals(codec.encode(pr), out.toByteArray());
+
+        RawMessage decoded = codec.decodeRaw(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(3, decoded.getContents().size());
+        assertEquals(raw.getContents().get(1).toString(), decoded.getContents().get(1).toString());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        taxiiXml.marshalRaw(raw, expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        taxiiXml.marshalRaw(decoded, actual);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void nullOverDefault() throws Exception {
+        PollRequest pr = factory.createPollRequest()
+                .withMessageId("1")
+                .withCollectionName("default")
+                .withPollParameters(factory.createPollParametersType().withResponseType(null));
+        PollRequest decoded = (PollRequest) codec.decode(codec.encode(pr));
+        assertNull(decoded.getPollParameters().getResponseType());
+        assertEquals(pr, decoded);
+    }
+
+    @Test
+    public void interning() throws Exception {
+        taxiiXml.setStringInterning(true);
+        PollResponse pr = TestUtil.createPollResponse(2);
+        pr.getContentBlocks().get(0).getContentBinding().withSubtype(factory.createSubtypeType().withSubtypeId("my-subtype"));
+        pr.getContentBlocks().get(1).getContentBinding().withSubtype(factory.createSubtypeType().withSubtypeId("my-subtype"));
+        PollResponse decoded = (PollResponse) codec.decode(codec.encode(pr));
+        assertSame(ContentBindings.CB_STIX_XML_111, decoded.getContentBlocks().get(0).getContentBinding().getBindingId());
+        assertSame(decoded.getContentBlocks().get(0).getContentBinding().getSubtype().getSubtypeId(),
+                decoded.getContentBlocks().get(1).getContentBinding().getSubtype().getSubtypeId());
+    }
+
+    @Test(expected = UnmarshalException.class)
+    public void notEncoded() throws Exception {
+        codec.decode(taxiiXml.marshalToBytes(TestUtil.createPollResponse(1), false, false));
+    }
+
+    @Test(expected = UnmarshalException.class)
+    public void otherVersion() throws Exception {
+        byte[] bytes = codec.encode(TestUtil.createPollResponse(1));
+        assertEquals(BinaryCodec.FORMAT_VERSION, bytes[3]);
+        bytes[3]++;
+        codec.decode(bytes);
+    }
+
+    /**
+     * A message as version 1 of the format writes it. Messages that are
+     * already stored must stay readable.
+     */
+    @Test
+    public void formatVersion1() throws Exception {
+        PollResponse pr = factory.createPollResponse()
+                .withMessageId("1")
+                .withInResponseTo("2")
+                .withCollectionName("c")
+                .withMore(false)
+                .withContentBlocks(factory.createContentBlock()
+                        .withContentBinding(factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                        .withContent(factory.createAnyMixedContentType().withContent("x")));
+        byte[] bytes = fromHex("545842010410000000261101311901322101632c05000000140c00000000040e0178001406000000030a0a0000480000");
+        assertEquals(pr, codec.decode(bytes));
+        assertArrayEquals(bytes, codec.encode(pr));
+    }
+
+    @Test
+    public void dictionaryHasEveryUrn() throws Exception {
+        for (Class<?> constants : new Class<?>[] {Versions.class, ContentBindings.class}) {
+            for (Field field : constants.getFields()) {
+                String urn = (String) field.get(null);
+                PollResponse pr = TestUtil.createPollResponse(1);
+                pr.getContentBlocks().get(0).getContentBinding().setBindingId(urn);
+                byte[] bytes = codec.encode(pr);
+                assertEquals(urn, -1, indexOf(bytes, urn.getBytes(StandardCharsets.UTF_8)));
+                assertEquals(pr, codec.decode(bytes));
+            }
+        }
+    }
+
+    @Test
+    public void unknownFieldSkipped() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(2);
+        byte[] bytes = codec.encode(pr);
+        // A string field with an index past those of Poll_Response, as a 
+        // later release might add, at the end of the message's fields.
+        byte[] field = {(byte) 0xA9, 0x06, 3, 'n', 'e', 'w'};
+        assertTrue(bytes[5] >= 0); // a one byte class index
+        int length = ByteBuffer.wrap(bytes, 6, 4).getInt() + field.length;
+        ByteBuffer withField = ByteBuffer.allocate(bytes.length + field.length);
+        withField.put(bytes, 0, 6).putInt(length)
+                .put(bytes, 10, bytes.length - 11).put(field).put((byte) 0).flip();
+        assertEquals(pr, codec.decode(withField));
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        byte[] bytes = codec.encode(TestUtil.createPollResponse(2));
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                codec.decode(Arrays.copyOf(bytes, length));
+                fail("Decoded " + length + " bytes");
+            } catch (UnmarshalException e) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        outer:
+        for (int i = 0; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,100 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import javax.xml.bind.JAXBException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.util.Validation;
+import org.xml.sax.SAXException;
+
+/**
+ * Validate serialized messages without unmarshalling them first.
+ */
+public class ByteValidationTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    private static final String NS = "http://taxii.mitre.org/messages/taxii_xml_binding-1.1";
+    // Record_Count is less than the number of Content Blocks, which only the Schematron catches.
+    private static final String NONCONFORMANT = 
+            "<Inbox_Message xmlns=\"" + NS + "\" message_id=\"1\">"
+            + "<Record_Count>0</Record_Count>"
+            + "<Content_Block><Content_Binding binding_id=\"b\"/><Content>x</Content></Content_Block>"
+            + "</Inbox_Message>";
+    // message_id is required by the schema.
+    private static final String INVALID = 
+            "<Discovery_Request xmlns=\"" + NS + "\"/>";
+
+    public ByteValidationTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private byte[] marshal(Object msg) throws JAXBException, IOException {
+        return taxiiXml.marshalToString(msg, false).getBytes("UTF-8");
+    }
+
+    @Test
+    public void validAndUnmarshalled() throws JAXBException, SAXException, IOException {
+        InboxMessage im = factory.createInboxMessage()
+                                .withMessageId("1")
+                                .withRecordCount(factory.createRecordCountType().withValue(BigInteger.ONE))
+                                .withContentBlocks(factory.createContentBlock()
+                                    .withContentBinding(factory.createContentInstanceType().withBindingId("b"))
+                                    .withContent(factory.createAnyMixedContentType().withContent("x")));
+
+        Validation results = taxiiXml.validateFast(new ByteArrayInputStream(marshal(im)), true, true);
+        assertTrue(results.isSuccess());
+        assertEquals(im, results.getUnmarshalledObject());
+
+        results = taxiiXml.validateAll(new ByteArrayInputStream(marshal(im)), true);
+        assertTrue(results.isSuccess());
+        assertNull(results.getUnmarshalledObject());
+    }
+
+    @Test
+    public void byteBuffer() throws JAXBException, SAXException, IOException {
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                                .withMessageId("1");
+        ByteBuffer buffer = ByteBuffer.wrap(marshal(dr));
+
+        Validation results = taxiiXml.validateAll(buffer, true, true);
+        assertTrue(results.isSuccess());
+        assertEquals(dr, results.getUnmarshalledObject());
+        assertEquals("buffer position is unchanged", 0, buffer.position());
+
+        assertTrue(taxiiXml.validateFast(buffer, true).isSuccess());
+    }
+
+    @Test
+    public void schemaInvalid() throws JAXBException, SAXException, IOException {
+        Validation results = taxiiXml.validateAll(new ByteArrayInputStream(INVALID.getBytes("UTF-8")), true, true);
+        assertTrue(results.isFailure());
+        assertNull(results.getUnmarshalledObject());
+    }
+
+    @Test(expected = SAXException.class)
+    public void schemaInvalidFast() throws JAXBException, SAXException, IOException {
+        taxiiXml.validateFast(new ByteArrayInputStream(INVALID.getBytes("UTF-8")), true);
+    }
+
+    @Test
+    public void nonconformant() throws JAXBException, SAXException, IOException {
+        Validation results = taxiiXml.validateAll(ByteBuffer.wrap(NONCONFORMANT.getBytes("UTF-8")), true, true);
+        assertTrue(results.isFailure());
+        assertNull(results.getUnmarshalledObject());
+
+        // Schema valid, so fine if conformance isn't checked.
+        results = taxiiXml.validateAll(ByteBuffer.wrap(NONCONFORMANT.getBytes("UTF-8")), false, true);
+        assertTrue(results.isSuccess());
+        assertTrue(results.getUnmarshalledObject() instanceof InboxMessage);
+    }
+
+    @Test(expected = SAXException.class)
+    public void notWellFormed() throws JAXBException, SAXException, IOException {
+        taxiiXml.validateAll(new ByteArrayInputStream("<Inbox_Message".getBytes("UTF-8")), true);
+    }
+}
@@ -0,0 +1,127 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.JAXBException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Read Content Blocks one at a time from a marshalled message.
+ */
+public class ContentBlockReaderTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public ContentBlockReaderTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private ByteArrayInputStream marshal(Object msg) throws JAXBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.createMarshaller(false).marshal(msg, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Test
+    public void pollResponse() throws JAXBException, IOException {
+        PollResponse pr = TestUtil.createPollResponse(500)
+                                .withMore(Boolean.TRUE)
+                                .withResultId("123")
+                                .withResultPartNumber(BigInteger.ONE)
+                                .withMessage("Woooooooo");
+        List<ContentBlock> blocks = new ArrayList<>(pr.getContentBlocks());
+
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, marshal(pr))) {
+            PollResponse header = (PollResponse) reader.getMessage();
+            assertEquals("PollResp1", header.getMessageId());
+            assertEquals("default", header.getCollectionName());
+            assertEquals("Woooooooo", header.getMessage());
+            assertEquals(pr.getRecordCount(), header.getRecordCount());
+            assertTrue(header.getContentBlocks().isEmpty());
+
+            int i = 0;
+            while (reader.hasNext()) {
+                assertEquals(blocks.get(i++), reader.next());
+            }
+            assertEquals(blocks.size(), i);
+
+            // Put the blocks back and the whole message should match.
+            header.withContentBlocks(blocks);
+            assertEquals(pr, header);
+        }
+    }
+
+    @Test
+    public void inboxMessage() throws JAXBException, IOException {
+        List<ContentBlock> blocks = TestUtil.createPollResponse(3).getContentBlocks();
+        InboxMessage im = factory.createInboxMessage()
+                                .withMessageId("Inbox1")
+                                .withDestinationCollectionNames("collection1", "collection2")
+                                .withRecordCount(factory.createRecordCountType()
+                                                    .withValue(BigInteger.valueOf(3)))
+                                .withContentBlocks(blocks);
+
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, marshal(im))) {
+            InboxMessage header = (InboxMessage) reader.getMessage();
+            assertEquals(im.getRecordCount(), header.getRecordCount());
+            assertEquals(im.getDestinationCollectionNames(), header.getDestinationCollectionNames());
+
+            List<ContentBlock> read = new ArrayList<>();
+            while (reader.hasNext()) {
+                read.add(reader.next());
+            }
+            assertEquals(blocks, read);
+        }
+    }
+
+    @Test
+    public void noContentBlocks() throws JAXBException, IOException {
+        PollResponse pr = factory.createPollResponse()
+                                .withMessageId("PollResp2")
+                                .withInResponseTo("tmp")
+                                .withCollectionName("blah");
+
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, marshal(pr))) {
+            assertFalse(reader.hasNext());
+            assertEquals(pr, reader.getMessage());
+        }
+    }
+
+    @Test(expected = JAXBException.class)
+    public void notPollResponse() throws JAXBException, IOException {
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                                .withMessageId("Disc1");
+
+        new ContentBlockReader(taxiiXml, marshal(dr)).close();
+    }
+
+    @Test
+    public void failureClosesStream() throws JAXBException, IOException {
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                                .withMessageId("Disc1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.createMarshaller(false).marshal(dr, out);
+        final boolean[] closed = { false };
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray()) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        try {
+            new ContentBlockReader(taxiiXml, in).close();
+            fail("Expected a JAXBException");
+        } catch (JAXBException ex) {
+            // Expected
+        }
+        assertTrue(closed[0]);
+    }
+}
@@ -0,0 +1,103 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.util.Diagnostic;
+import org.mitre.taxii.util.Validation;
+
+/**
+ * Structured validation results, and the limit on how many errors are found.
+ */
+public class ErrorLimitTests {
+    private static final String NS = "http://taxii.mitre.org/messages/taxii_xml_binding-1.1";
+    
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public ErrorLimitTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    /** A Poll Response with the given number of blocks, every other one invalid. */
+    private PollResponse createPollResponse(int count) {
+        PollResponse pr = TestUtil.createPollResponse(count);
+        for (int i = 0; i < count; i += 2) {
+            pr.getContentBlocks().get(i).setContentBinding(null);
+        }
+        return pr;
+    }
+
+    @Test
+    public void unlimited() throws Exception {
+        Validation results = taxiiXml.validateAll(createPollResponse(200), true);
+        assertEquals(100, results.getErrors().size());
+        assertFalse(results.isLimitReached());
+    }
+
+    @Test
+    public void stopsAtLimit() throws Exception {
+        taxiiXml.setMaxValidationErrors(5);
+        Validation results = taxiiXml.validateAll(createPollResponse(200), true);
+        assertEquals(5, results.getErrors().size());
+        assertTrue(results.isLimitReached());
+        assertEquals(5, results.getDiagnostics(Diagnostic.Severity.ERROR).size());
+    }
+
+    @Test
+    public void splitStopsAtLimit() throws Exception {
+        taxiiXml.setMaxValidationErrors(5);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Validation results = taxiiXml.validateSplit(createPollResponse(1000), true, executor);
+            assertEquals(5, results.getErrors().size());
+            assertTrue(results.getErrors().get(0).startsWith("Content_Block[1]: "));
+            assertEquals("Content_Block[1]", results.getDiagnostics(Diagnostic.Severity.ERROR).get(0).getPath());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noZeroLimit() {
+        taxiiXml.setMaxValidationErrors(0);
+    }
+
+    @Test
+    public void schemaDiagnostic() throws Exception {
+        Validation results = taxiiXml.validateAll(
+                new ByteArrayInputStream(("<Discovery_Request xmlns=\"" + NS + "\"/>").getBytes("UTF-8")), true);
+        Diagnostic error = results.getDiagnostics(Diagnostic.Severity.ERROR).get(0);
+        assertEquals(1, error.getLineNumber());
+        assertTrue(error.getRuleId(), error.getRuleId().startsWith("cvc-"));
+        assertTrue(error.getMessage().contains("message_id"));
+        assertTrue(error.getSource() instanceof org.xml.sax.SAXParseException);
+        // The formatted text is unchanged.
+        assertEquals(Validation.formatException((org.xml.sax.SAXParseException) error.getSource()), 
+                results.getErrors().get(0));
+    }
+
+    @Test
+    public void conformanceDiagnostic() throws Exception {
+        // Fewer records than Content Blocks.
+        Validation results = taxiiXml.validateAll(new ByteArrayInputStream((
+                "<Inbox_Message xmlns=\"" + NS + "\" message_id=\"1\">"
+                + "<Record_Count>0</Record_Count>"
+                + "<Content_Block><Content_Binding binding_id=\"b\"/><Content>x</Content></Content_Block>"
+                + "</Inbox_Message>").getBytes("UTF-8")), true);
+        Diagnostic error = results.getDiagnostics(Diagnostic.Severity.ERROR).get(0);
+        assertNotNull(error.getXPath());
+        assertNull(error.getRuleId());
+        assertEquals(error.getMessage() + " (" + error.getXPath() + ")", results.getErrors().get(0));
+    }
+
+    @Test
+    public void success() throws Exception {
+        Validation results = taxiiXml.validateAll(createPollResponse(0), true);
+        assertTrue(results.getAllErrorsAndWarnings(), results.isSuccess());
+        assertTrue(results.getErrors().isEmpty());
+        assertTrue(results.getDiagnostics(Diagnostic.Severity.WARNING).isEmpty());
+    }
+}
@@ -0,0 +1,109 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.xml.bind.UnmarshalException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.JsonCodec;
+import org.w3c.dom.Element;
+
+/**
+ * Reading and writing messages as JSON.
+ */
+public class JsonCodecTests {
+
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+    private final JsonCodec codec = taxiiXml.getJsonCodec();
+
+    @Test
+    public void mapping() throws Exception {
+        assertSame(codec, taxiiXml.getJsonCodec());
+        PollResponse pr = TestUtil.createPollResponse(1).withMessage("Line 1\nLine \"2\"");
+        assertEquals("{\"Poll_Response\":{"
+                + "\"@collection_name\":\"default\",\"@more\":\"false\",\"@in_response_to\":\"PollReq1\",\"@message_id\":\"PollResp1\","
+                + "\"Record_Count\":{\"@partial_count\":\"true\",\"#text\":\"1\"},"
+                + "\"Message\":\"Line 1\\nLine \\\"2\\\"\","
+                + "\"Content_Block\":[{\"Content_Binding\":{\"@binding_id\":\"" + ContentBindings.CB_STIX_XML_111 + "\"},"
+                + "\"Content\":\"Block 0 &lt;\u00e9t\u00e9&gt; &amp; \ud83d\ude00\"}]}}",
+                codec.marshalToString(pr));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final String stix = "<stix:STIX_Package xmlns:stix=\"http://stix.mitre.org/stix-1\" id=\"a\"><stix:Title>A &amp; B</stix:Title></stix:STIX_Package>";
+        final InboxMessage im = (InboxMessage) taxiiXml.getStaxCodec().unmarshal(new StringReader(
+                "<taxii_11:Inbox_Message xmlns:taxii_11=\"http://taxii.mitre.org/messages/taxii_xml_binding-1.1\" message_id=\"1\">"
+                + "<taxii_11:Content_Block><taxii_11:Content_Binding binding_id=\"" + ContentBindings.CB_STIX_XML_111 + "\"/>"
+                + "<taxii_11:Content> " + stix + " </taxii_11:Content></taxii_11:Content_Block></taxii_11:Inbox_Message>"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.marshal(im, out);
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains(stix.replace("\"", "\\\"")));
+
+        InboxMessage read = (InboxMessage) codec.unmarshal(new ByteArrayInputStream(out.toByteArray()));
+        List<Object> content = read.getContentBlocks().get(0).getContent().getContent();
+        assertEquals(3, content.size());
+        assertEquals("http://stix.mitre.org/stix-1", ((Element) content.get(1)).getNamespaceURI());
+        assertEquals(taxiiXml.marshalToString(im, true), taxiiXml.marshalToString(read, true));
+    }
+
+    @Test
+    public void contentBlockReader() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(100);
+        byte[] json = codec.marshalToString(pr).getBytes(StandardCharsets.UTF_8);
+        try (ContentBlockReader reader = new ContentBlockReader(taxiiXml, codec.createStreamReader(new ByteArrayInputStream(json)))) {
+            PollResponse header = (PollResponse) reader.getMessage();
+            assertEquals("PollResp1", header.getMessageId());
+            assertTrue(header.getContentBlocks().isEmpty());
+            int count = 0;
+            while (reader.hasNext()) {
+                ContentBlock cb = reader.next();
+                assertEquals(pr.getContentBlocks().get(count), cb);
+                count++;
+            }
+            assertEquals(100, count);
+        }
+    }
+
+    @Test
+    public void literals() throws Exception {
+        PollResponse pr = (PollResponse) codec.unmarshal(new StringReader("\uFEFF{ \"Poll_Response\" : {\n"
+                + "  \"@message_id\": \"1\", \"@in_response_to\": \"2\", \"@collection_name\": \"c\", \"@more\": true,\n"
+                + "  \"Record_Count\": {\"@partial_count\": false, \"#text\": 10},\n"
+                + "  \"Message\": null,\n"
+                + "  \"Content_Block\": []\n"
+                + "} }"));
+        assertTrue(pr.isMore());
+        assertEquals(BigInteger.TEN, pr.getRecordCount().getValue());
+        assertFalse(pr.getRecordCount().isPartialCount());
+        assertNull(pr.getMessage());
+        assertTrue(pr.getContentBlocks().isEmpty());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        final String[] inputs = {
+            "{\"Not_A_Message\":{}}",
+            "{\"Discovery_Request\":{\"@message_id\":\"1\"}",
+            "{\"Discovery_Request\":{\"@message_id\":\"1\"}} x",
+            "{\"Status_Message\":{\"@message_id\":\"1\",\"Message\":\"m\",\"@status_type\":\"SUCCESS\"}}",
+            "{\"Inbox_Message\":{\"@message_id\":\"1\",\"Content_Block\":[{\"Content\":\"<a>\"}]}}",
+            "[]",
+        };
+        for (String input : inputs) {
+            try {
+                codec.unmarshal(new StringReader(input));
+                fail("Read " + input);
+            } catch (UnmarshalException e) {
+                // expected
+            }
+        }
+    }
+}
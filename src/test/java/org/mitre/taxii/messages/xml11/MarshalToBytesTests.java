@@ -0,0 +1,114 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Marshalling messages straight to UTF-8 bytes.
+ */
+public class MarshalToBytesTests {
+
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+
+    private Object unmarshal(byte[] xml) throws JAXBException {
+        Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        try {
+            return u.unmarshal(new ByteArrayInputStream(xml));
+        } finally {
+            taxiiXml.returnUnmarshaller(u);
+        }
+    }
+
+    @Test
+    public void sameAsMarshaller() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(3);
+        for (boolean prettyPrint : new boolean[] {false, true}) {
+            byte[] bytes = taxiiXml.marshalToBytes(pr, prettyPrint, false);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            taxiiXml.createMarshaller(prettyPrint).marshal(pr, expected);
+            assertArrayEquals(expected.toByteArray(), bytes);
+            assertEquals(pr, unmarshal(bytes));
+        }
+    }
+
+    @Test
+    public void fragment() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(1);
+        String xml = new String(taxiiXml.marshalToBytes(pr, false, true), StandardCharsets.UTF_8);
+        assertTrue(xml, xml.startsWith("<taxii_11:Poll_Response"));
+        assertTrue(new String(taxiiXml.marshalToBytes(pr, false, false), StandardCharsets.UTF_8).startsWith("<?xml"));
+        // The pooled marshaller is reset.
+        assertTrue(taxiiXml.marshalToString(pr, false).startsWith("<?xml"));
+    }
+
+    @Test
+    public void outputStream() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('x');
+        taxiiXml.marshalTo(pr, out, true, false);
+        byte[] expected = taxiiXml.marshalToBytes(pr, true, false);
+        assertEquals(expected.length + 1, out.size());
+        assertEquals(pr, unmarshal(Arrays.copyOfRange(out.toByteArray(), 1, out.size())));
+    }
+
+    @Test
+    public void channel() throws Exception {
+        // A large message, so the pooled buffer grows.
+        PollResponse pr = TestUtil.createPollResponse(2000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.marshalTo(pr, new TrickleChannel(Channels.newChannel(out)), false, false);
+        assertArrayEquals(taxiiXml.marshalToBytes(pr, false, false), out.toByteArray());
+        assertEquals(pr, unmarshal(out.toByteArray()));
+    }
+
+    @Test
+    public void nothingWrittenOnFailure() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            taxiiXml.marshalTo("Not a message", out, false, false);
+            fail("Marshalled");
+        } catch (JAXBException e) {
+            // expected
+        }
+        assertEquals(0, out.size());
+    }
+
+    /** Writes at most a few bytes at a time, like a non-blocking channel. */
+    private static class TrickleChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+
+        TrickleChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + Math.min(7, slice.remaining()));
+            int n = channel.write(slice);
+            src.position(src.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
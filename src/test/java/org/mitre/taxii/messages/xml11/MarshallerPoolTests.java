@@ -0,0 +1,74 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Check that pooled marshallers and unmarshallers are reused and come back
+ * in a clean state.
+ */
+public class MarshallerPoolTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public MarshallerPoolTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private String marshal(Marshaller m, Object msg) throws JAXBException {
+        StringWriter sw = new StringWriter();
+        m.marshal(msg, sw);
+        return sw.toString();
+    }
+
+    @Test
+    public void marshallerIsReset() throws JAXBException {
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                                .withMessageId("1");
+
+        Marshaller m = taxiiXml.borrowMarshaller(false);
+        m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        assertFalse(marshal(m, dr).startsWith("<?xml"));
+        taxiiXml.returnMarshaller(m);
+
+        Marshaller m2 = taxiiXml.borrowMarshaller(false);
+        try {
+            assertSame(m, m2);
+            assertTrue(marshal(m2, dr).startsWith("<?xml"));
+        } finally {
+            taxiiXml.returnMarshaller(m2);
+        }
+    }
+
+    @Test
+    public void unmarshallerIsReused() throws JAXBException {
+        DiscoveryRequest dr = factory.createDiscoveryRequest()
+                                .withMessageId("1");
+        String xml = taxiiXml.marshalToString(dr, false);
+
+        Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        taxiiXml.returnUnmarshaller(u);
+        Unmarshaller u2 = taxiiXml.borrowUnmarshaller();
+        try {
+            assertSame(u, u2);
+            assertEquals(dr, u2.unmarshal(new StringReader(xml)));
+        } finally {
+            taxiiXml.returnUnmarshaller(u2);
+        }
+    }
+
+    @Test
+    public void borrowedTwiceAreDifferent() throws JAXBException {
+        Marshaller m = taxiiXml.borrowMarshaller(false);
+        Marshaller m2 = taxiiXml.borrowMarshaller(false);
+        assertNotSame(m, m2);
+        taxiiXml.returnMarshaller(m);
+        taxiiXml.returnMarshaller(m2);
+    }
+}
@@ -0,0 +1,90 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.Versions;
+import org.mitre.taxii.messages.MessagePeek;
+
+/**
+ * Read the routing information of messages without unmarshalling them.
+ */
+public class MessagePeekTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+    private final org.mitre.taxii.messages.xml10.TaxiiXml taxiiXml10 = 
+            new org.mitre.taxii.messages.xml10.TaxiiXmlFactory().createTaxiiXml();
+
+    private byte[] marshal(Object message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.createMarshaller(false).marshal(message, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void pollResponse() throws Exception {
+        PollResponse pr = factory.createPollResponse()
+                .withMessageId("PollResp1")
+                .withInResponseTo("PollReq1")
+                .withCollectionName("default")
+                .withResultId("result1")
+                .withMore(true)
+                .withRecordCount(factory.createRecordCountType().withValue(BigInteger.ZERO));
+        ByteBuffer buffer = ByteBuffer.wrap(marshal(pr));
+        
+        MessagePeek peek = MessagePeek.peek(buffer);
+        assertEquals("Poll_Response", peek.getMessageType());
+        assertEquals(Versions.VID_TAXII_XML_11, peek.getTaxiiVersion());
+        assertEquals("PollResp1", peek.getMessageId());
+        assertEquals("PollReq1", peek.getInResponseTo());
+        assertEquals("default", peek.getCollectionName());
+        assertEquals("result1", peek.getResultId());
+        assertTrue(peek.isMore());
+        assertSame(taxiiXml, peek.select(taxiiXml10, taxiiXml));
+        // The buffer can still be read in full.
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void moreIsXsBoolean() throws Exception {
+        String xml = "<taxii_11:Poll_Response xmlns:taxii_11=\"http://taxii.mitre.org/messages/taxii_xml_binding-1.1\""
+                + " message_id=\"1\" in_response_to=\"2\" collection_name=\"default\" more=\"%s\" result_id=\"r\"/>";
+        assertTrue(MessagePeek.peek(new ByteArrayInputStream(String.format(xml, "1").getBytes("UTF-8"))).isMore());
+        assertTrue(MessagePeek.peek(new ByteArrayInputStream(String.format(xml, " true ").getBytes("UTF-8"))).isMore());
+        assertFalse(MessagePeek.peek(new ByteArrayInputStream(String.format(xml, "0").getBytes("UTF-8"))).isMore());
+    }
+
+    @Test
+    public void inboxMessage() throws Exception {
+        InboxMessage im = factory.createInboxMessage()
+                .withMessageId("Inbox1")
+                .withDestinationCollectionNames("collection1", "collection2");
+        MessagePeek peek = MessagePeek.peek(new ByteArrayInputStream(marshal(im)));
+        assertEquals("Inbox_Message", peek.getMessageType());
+        assertEquals("collection1", peek.getCollectionName());
+        assertNull(peek.getInResponseTo());
+        assertFalse(peek.isMore());
+    }
+
+    @Test
+    public void taxii10() throws Exception {
+        String xml = "<taxii:Poll_Request xmlns:taxii=\"http://taxii.mitre.org/messages/taxii_xml_binding-1\""
+                + " message_id=\"1\" feed_name=\"feed\"><taxii:Exclusive_Begin_Timestamp/></taxii:Poll_Request>";
+        MessagePeek peek = MessagePeek.peek(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        assertEquals(Versions.VID_TAXII_XML_10, peek.getTaxiiVersion());
+        assertEquals("Poll_Request", peek.getMessageType());
+        assertEquals("feed", peek.getCollectionName());
+        assertSame(taxiiXml10, peek.select(taxiiXml10, taxiiXml));
+    }
+
+    @Test
+    public void notTaxii() throws Exception {
+        MessagePeek peek = MessagePeek.peek(new ByteArrayInputStream("<?xml version=\"1.0\"?><foo/>".getBytes("UTF-8")));
+        assertEquals("foo", peek.getMessageType());
+        assertNull(peek.getTaxiiVersion());
+        assertNull(peek.select(taxiiXml10, taxiiXml));
+    }
+}
@@ -0,0 +1,113 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.StaxCodec;
+import org.xml.sax.SAXException;
+
+/**
+ * Rough comparison of the per-message cost of creating a new Marshaller and
+ * Unmarshaller for every message against borrowing them from the TaxiiXml
+ * pool. Also times the generated StaxCodec, and validateFast(), which uses 
+ * the pooled Validator and XsltTransformer.
+ * 
+ * Not a unit test. Run the main method with the test classpath.
+ */
+public class PoolingBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+    private static final int VALIDATE_ITERATIONS = 2000;
+
+    public static void main(String[] args) throws JAXBException, SAXException, IOException {
+        final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+        final InboxMessage msg = createMessage();
+        final String xml = taxiiXml.marshalToString(msg, false);
+
+        for (int i = 0; i < 3; i++) {
+            run(taxiiXml, msg, xml, WARMUP, false);
+            run(taxiiXml, msg, xml, WARMUP, true);
+        }
+
+        report("new Marshaller/Unmarshaller", run(taxiiXml, msg, xml, ITERATIONS, false), ITERATIONS);
+        report("pooled Marshaller/Unmarshaller", run(taxiiXml, msg, xml, ITERATIONS, true), ITERATIONS);
+
+        final StaxCodec codec = taxiiXml.getStaxCodec();
+        runCodec(codec, msg, xml, WARMUP);
+        report("StaxCodec", runCodec(codec, msg, xml, ITERATIONS), ITERATIONS);
+
+        for (int i = 0; i < VALIDATE_ITERATIONS; i++) {
+            taxiiXml.validateFast(msg, true);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < VALIDATE_ITERATIONS; i++) {
+            taxiiXml.validateFast(msg, true);
+        }
+        report("validateFast", System.nanoTime() - start, VALIDATE_ITERATIONS);
+    }
+
+    private static InboxMessage createMessage() {
+        ObjectFactory factory = new ObjectFactory();
+        List<ContentBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blocks.add(factory.createContentBlock()
+                    .withContentBinding(
+                        factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                    .withContent(
+                        factory.createAnyMixedContentType().withContent("Block " + i)));
+        }
+        return factory.createInboxMessage()
+                    .withMessageId("1")
+                    .withMessage("Benchmark")
+                    .withRecordCount(factory.createRecordCountType().withValue(BigInteger.valueOf(blocks.size())))
+                    .withContentBlocks(blocks);
+    }
+
+    /**
+     * Marshal and unmarshal the message the given number of times.
+     * 
+     * @return elapsed nanoseconds.
+     */
+    private static long run(TaxiiXml taxiiXml, InboxMessage msg, String xml, int iterations, boolean pooled) throws JAXBException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Marshaller m = pooled ? taxiiXml.borrowMarshaller(false) : taxiiXml.createMarshaller(false);
+            Unmarshaller u = pooled ? taxiiXml.borrowUnmarshaller() : taxiiXml.getJaxbContext().createUnmarshaller();
+            try {
+                m.marshal(msg, new StringWriter());
+                u.unmarshal(new StringReader(xml));
+            } finally {
+                if (pooled) {
+                    taxiiXml.returnMarshaller(m);
+                    taxiiXml.returnUnmarshaller(u);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Marshal and unmarshal the message with the codec the given number of times.
+     * 
+     * @return elapsed nanoseconds.
+     */
+    private static long runCodec(StaxCodec codec, InboxMessage msg, String xml, int iterations) throws JAXBException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.marshal(msg, new StringWriter(), false, false);
+            codec.unmarshal(new StringReader(xml));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String label, long nanos, int iterations) {
+        System.out.printf("%-32s %8.2f us/message%n", label, nanos / 1000.0 / iterations);
+    }
+}
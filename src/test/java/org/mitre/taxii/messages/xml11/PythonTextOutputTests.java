@@ -1,6 +1,10 @@
 package org.mitre.taxii.messages.xml11;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 public class PythonTextOutputTests {
@@ -113,5 +117,31 @@ public class PythonTextOutputTests {
 
         String s = PythonTextOutput.toText(obj);
         System.out.println(s);                        
-    }    
+    }
+
+    @Test
+    public void AppendableTest() throws IOException {
+        ObjectFactory of = new ObjectFactory();
+        PollResponse obj = of.createPollResponse()
+                .withMessageId("msg id 002")
+                .withInResponseTo("msg id 001")
+                .withCollectionName("collection")
+                .withRecordCount(of.createRecordCountType().withValue(BigInteger.ONE))
+                .withContentBlocks(of.createContentBlock()
+                        .withContentBinding(of.createContentInstanceType().withBindingId("Test Binding ID"))
+                        .withContent(of.createAnyMixedContentType().withContent("\u00e9t\u00e9 & more")));
+
+        StringWriter out = new StringWriter();
+        out.write("> ");
+        PythonTextOutput.toText(obj, "  ", out);
+        assertEquals("> " + PythonTextOutput.toText(obj, "  "), out.toString());
+        assertTrue(out.toString(), out.toString().contains("    Content length: unknown\n"));
+
+        // Given a TaxiiXml, the content is counted as it is marshalled.
+        TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+        int length = "\u00e9t\u00e9 &amp; more".getBytes(StandardCharsets.UTF_8).length;
+        StringBuilder sb = new StringBuilder();
+        PythonTextOutput.toText(obj, "", sb, taxiiXml);
+        assertEquals(PythonTextOutput.toText(obj).replace("Content length: unknown", "Content length: " + length), sb.toString());
+    }
 }
@@ -0,0 +1,114 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.messages.RawContent;
+import org.mitre.taxii.messages.RawMessage;
+import org.w3c.dom.Element;
+
+/**
+ * Keep Content_Block payloads as raw bytes.
+ */
+public class RawContentTests {
+    private static final String NS = "http://taxii.mitre.org/messages/taxii_xml_binding-1.1";
+    private static final String STIX = "http://stix.mitre.org/stix-1";
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+
+    private byte[] marshal(Object message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.createMarshaller(false).marshal(message, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] bytes = marshal(TestUtil.createPollResponse(3));
+        RawMessage raw = taxiiXml.unmarshalRaw(ByteBuffer.wrap(bytes));
+        
+        PollResponse pr = (PollResponse) raw.getMessage();
+        assertEquals(3, pr.getContentBlocks().size());
+        assertTrue(pr.getContentBlocks().get(0).getContent().getContent().isEmpty());
+        assertEquals("PollReq1", pr.getInResponseTo());
+        
+        assertEquals(3, raw.getContents().size());
+        assertEquals("Block 1 &lt;\u00e9t\u00e9&gt; &amp; \ud83d\ude00", raw.getContents().get(1).toString());
+        assertEquals("Block 1 <\u00e9t\u00e9> & \ud83d\ude00", raw.getContents().get(1).toContent().get(0));
+
+        // Written back as it was.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.marshalRaw(raw, out);
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void inheritedNamespaces() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<Poll_Response xmlns=\"" + NS + "\" xmlns:stix=\"" + STIX + "\""
+                + " message_id=\"1\" in_response_to=\"2\" collection_name=\"c\">"
+                + "<Content_Block><Content_Binding binding_id=\"b\"/>"
+                + "<Content><stix:STIX_Package id=\"p1\"><!-- > --><stix:Title a='&gt;'>T</stix:Title></stix:STIX_Package></Content>"
+                + "</Content_Block>"
+                + "<Content_Block><Content_Binding binding_id=\"b\"/><Content/></Content_Block>"
+                + "</Poll_Response>";
+        RawMessage raw = taxiiXml.unmarshalRaw(ByteBuffer.wrap(xml.getBytes("UTF-8")));
+        assertEquals(2, raw.getContents().size());
+        
+        String payload = raw.getContents().get(0).toString();
+        // The declarations in scope are copied onto the payload.
+        assertTrue(payload, payload.startsWith("<stix:STIX_Package xmlns=\"" + NS + "\" xmlns:stix=\"" + STIX + "\" id=\"p1\">"));
+        Element element = (Element) raw.getContents().get(0).toContent().get(0);
+        assertEquals(STIX, element.getNamespaceURI());
+        assertEquals("STIX_Package", element.getLocalName());
+        assertEquals(0, raw.getContents().get(1).length());
+
+        // Equal to the message unmarshalled as usual.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        taxiiXml.marshalRaw(raw, out);
+        Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        PollResponse expected = (PollResponse) u.unmarshal(new java.io.ByteArrayInputStream(xml.getBytes("UTF-8")));
+        PollResponse actual = (PollResponse) u.unmarshal(new java.io.ByteArrayInputStream(out.toByteArray()));
+        Element expectedElement = (Element) expected.getContentBlocks().get(0).getContent().getContent().get(0);
+        Element actualElement = (Element) actual.getContentBlocks().get(0).getContent().getContent().get(0);
+        assertEquals(expectedElement.getNamespaceURI(), actualElement.getNamespaceURI());
+        assertEquals(expectedElement.getAttribute("id"), actualElement.getAttribute("id"));
+        assertEquals(expectedElement.getTextContent(), actualElement.getTextContent());
+    }
+
+    @Test
+    public void unmarshalPayload() throws Exception {
+        String xml = "<taxii_11:Inbox_Message xmlns:taxii_11=\"" + NS + "\" message_id=\"1\">"
+                + "<taxii_11:Content_Block><taxii_11:Content_Binding binding_id=\"b\"/>"
+                + "<taxii_11:Content>\n  <taxii_11:Discovery_Request message_id=\"inner\"/>\n</taxii_11:Content>"
+                + "</taxii_11:Content_Block></taxii_11:Inbox_Message>";
+        RawMessage raw = taxiiXml.unmarshalRaw(ByteBuffer.wrap(xml.getBytes("UTF-8")));
+        List<RawContent> contents = raw.getContents();
+        Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        try {
+            DiscoveryRequest dr = (DiscoveryRequest) contents.get(0).unmarshal(u);
+            assertEquals("inner", dr.getMessageId());
+        } finally {
+            taxiiXml.returnUnmarshaller(u);
+        }
+    }
+
+    @Test(expected = JAXBException.class)
+    public void notUtf8() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Discovery_Request xmlns=\"" + NS + "\" message_id=\"1\"/>";
+        taxiiXml.unmarshalRaw(ByteBuffer.wrap(xml.getBytes("ISO-8859-1")));
+    }
+
+    @Test
+    public void noContentBlocks() throws Exception {
+        byte[] bytes = marshal(factory.createDiscoveryRequest().withMessageId("1"));
+        RawMessage raw = taxiiXml.unmarshalRaw(ByteBuffer.wrap(bytes));
+        assertTrue(raw.getMessage() instanceof DiscoveryRequest);
+        assertTrue(raw.getContents().isEmpty());
+    }
+}
@@ -27,7 +27,9 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package org.mitre.taxii.messages.xml11;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -37,6 +39,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.BeforeClass;
@@ -103,4 +106,23 @@ public class SchemaValidationTests {
             fail("Test error: test file must end in -valid.xml or -invalid.xml: " + file.getPath());
         }
     }    
+
+    /**
+     * Validate the file's bytes directly, without unmarshalling it first.
+     */
+    @Test
+    public void testFileBytes() throws Exception {
+        final Validation val;
+        try (InputStream in = new FileInputStream(file)) {
+            val = taxiiXml.validateAll(in, true, true);
+        }
+        if (file.getName().endsWith("-valid.xml")) {
+            assertTrue("Expected " + file.getName() + " to be valid!", val.isSuccess());
+            assertTrue(val.getUnmarshalledObject() instanceof MessageType);
+        }
+        else {
+            assertTrue("Expected " + file.getName() + " to be invalid!", val.isFailure());
+            assertNull(val.getUnmarshalledObject());
+        }
+    }    
 }
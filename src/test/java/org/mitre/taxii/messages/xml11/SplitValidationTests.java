@@ -0,0 +1,82 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.math.BigInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mitre.taxii.util.Validation;
+
+/**
+ * Validate messages with many Content Blocks in parallel chunks.
+ */
+public class SplitValidationTests {
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    private static ExecutorService executor;
+
+    public SplitValidationTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+    
+    @BeforeClass
+    public static void startExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+    
+    @AfterClass
+    public static void stopExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void validPollResponse() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(1000);
+        Validation results = taxiiXml.validateSplit(pr, true, executor);
+        assertTrue(results.getAllErrorsAndWarnings(), results.isSuccess());
+    }
+
+    @Test
+    public void invalidContentBlocks() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(1000);
+        pr.getContentBlocks().get(300).setContentBinding(null);
+        pr.getContentBlocks().get(999).setContentBinding(null);
+        
+        Validation whole = taxiiXml.validateAll(pr, true);
+        Validation split = taxiiXml.validateSplit(pr, true, executor);
+        assertEquals(whole.getErrors().size(), split.getErrors().size());
+        assertTrue(split.getErrors().get(0).startsWith("Content_Block[301]: "));
+        assertTrue(split.getErrors().get(split.getErrors().size() - 1).startsWith("Content_Block[1000]: "));
+    }
+
+    @Test
+    public void invalidEnvelope() throws Exception {
+        InboxMessage im = factory.createInboxMessage()
+                                .withMessageId("not a number")
+                                .withContentBlocks(TestUtil.createPollResponse(1000).getContentBlocks());
+        Validation results = taxiiXml.validateSplit(im, true, executor);
+        assertTrue(results.isFailure());
+        assertFalse(results.getErrors().get(0).startsWith("Content_Block"));
+        // The original message is left alone.
+        assertEquals(1000, im.getContentBlocks().size());
+    }
+
+    @Test
+    public void conformance() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(1000)
+                                .withRecordCount(factory.createRecordCountType()
+                                                    .withValue(BigInteger.TEN));
+        Validation results = taxiiXml.validateSplit(pr, true, executor);
+        assertEquals(taxiiXml.validateAll(pr, true).getErrors(), results.getErrors());
+    }
+
+    @Test
+    public void smallMessage() throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(3);
+        assertTrue(taxiiXml.validateSplit(pr, true, executor).isSuccess());
+    }
+}
@@ -0,0 +1,99 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.UnmarshalException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.StaxCodec;
+import org.w3c.dom.Element;
+
+/**
+ * The StAX codec generated at build time reads and writes what JAXB does.
+ */
+public class StaxCodecTests {
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+    private final StaxCodec codec = taxiiXml.getStaxCodec();
+
+    @Test
+    public void generated() {
+        assertSame(codec, taxiiXml.getStaxCodec());
+        assertTrue(codec.isGenerated(PollResponse.class));
+        assertTrue(codec.isGenerated(DiscoveryRequest.class));
+        assertFalse(codec.isGenerated(String.class));
+    }
+
+    @Test
+    public void mixedContent() throws Exception {
+        final String xml = "<taxii_11:Inbox_Message xmlns:taxii_11=\"http://taxii.mitre.org/messages/taxii_xml_binding-1.1\" message_id=\"1\">"
+                + "<taxii_11:Content_Block><taxii_11:Content_Binding binding_id=\"" + ContentBindings.CB_STIX_XML_111 + "\"/>"
+                + "<taxii_11:Content>  <stix:STIX_Package xmlns:stix=\"http://stix.mitre.org/stix-1\" id=\"a\">"
+                + "<stix:Title>A &amp; B</stix:Title>  </stix:STIX_Package> <![CDATA[<tail>]]></taxii_11:Content>"
+                + "</taxii_11:Content_Block></taxii_11:Inbox_Message>";
+
+        final InboxMessage im = (InboxMessage) codec.unmarshal(new StringReader(xml));
+        final List<Object> content = im.getContentBlocks().get(0).getContent().getContent();
+        assertEquals(3, content.size());
+        assertEquals("  ", content.get(0));
+        final Element stix = (Element) content.get(1);
+        assertEquals("http://stix.mitre.org/stix-1", stix.getNamespaceURI());
+        assertEquals("A & B", stix.getTextContent().trim());
+        assertEquals(" <tail>", content.get(2));
+
+        final Object jaxb = taxiiXml.getJaxbContext().createUnmarshaller().unmarshal(new StringReader(xml));
+        assertEquals(taxiiXml.marshalToString(jaxb, true), codec.marshalToString(im, true));
+    }
+
+    @Test
+    public void bytes() throws Exception {
+        final PollResponse pr = factory.createPollResponse()
+                .withMessageId("PollResp1")
+                .withInResponseTo("PollReq1")
+                .withCollectionName("default")
+                .withMore(false)
+                .withRecordCount(factory.createRecordCountType().withValue(BigInteger.TEN).withPartialCount(true))
+                .withMessage("\u00e9t\u00e9 \ud83d\ude00");
+        final byte[] bytes = codec.marshalToString(pr, false).getBytes(StandardCharsets.UTF_8);
+        assertEquals(taxiiXml.marshalToString(pr, false), new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(pr, codec.unmarshal(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void subclassIsMarshalledWithJaxb() throws Exception {
+        // JAXB writes an xsi:type for the subclass, which the generated code doesn't.
+        final ContentBlock block = new ContentBlock() {
+        };
+        block.withContentBinding(factory.createContentInstanceType().withBindingId("b"))
+                .withContent(factory.createAnyMixedContentType().withContent("x"));
+        final List<ContentBlock> blocks = new ArrayList<>();
+        blocks.add(block);
+        final InboxMessage im = factory.createInboxMessage().withMessageId("1").withContentBlocks(blocks);
+        assertEquals(taxiiXml.marshalToString(im, true), codec.marshalToString(im, true));
+    }
+
+    @Test
+    public void interning() throws Exception {
+        taxiiXml.setStringInterning(true);
+        final InboxMessage im = factory.createInboxMessage()
+                .withMessageId("1")
+                .withContentBlocks(factory.createContentBlock()
+                        .withContentBinding(factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                        .withContent(factory.createAnyMixedContentType().withContent("x")));
+        final String xml = taxiiXml.marshalToString(im, false);
+        final InboxMessage read = (InboxMessage) codec.unmarshal(new StringReader(xml));
+        // The Content Binding ID is replaced by the constant.
+        assertSame(ContentBindings.CB_STIX_XML_111, read.getContentBlocks().get(0).getContentBinding().getBindingId());
+    }
+
+    @Test(expected = UnmarshalException.class)
+    public void malformed() throws Exception {
+        codec.unmarshal(new StringReader("<taxii_11:Discovery_Request xmlns:taxii_11=\"http://taxii.mitre.org/messages/taxii_xml_binding-1.1\">"));
+    }
+}
@@ -0,0 +1,107 @@
+package org.mitre.taxii.messages.xml11;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.util.StringInterner;
+import org.mitre.taxii.util.Validation;
+
+/**
+ * Interning the repeated Strings of unmarshalled messages.
+ */
+public class StringInterningTests {
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final TaxiiXmlFactory txf = new TaxiiXmlFactory();
+    private final TaxiiXml taxiiXml;
+
+    public StringInterningTests() {
+        taxiiXml = txf.createTaxiiXml();
+    }
+
+    private byte[] createPollResponse(int count) throws Exception {
+        PollResponse pr = TestUtil.createPollResponse(count);
+        for (ContentBlock cb : pr.getContentBlocks()) {
+            cb.getContentBinding().withSubtype(factory.createSubtypeType().withSubtypeId("my-subtype"));
+        }
+        return taxiiXml.marshalToString(pr, false).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private PollResponse unmarshal(byte[] xml) throws Exception {
+        Unmarshaller u = taxiiXml.borrowUnmarshaller();
+        try {
+            return (PollResponse) u.unmarshal(new ByteArrayInputStream(xml));
+        } finally {
+            taxiiXml.returnUnmarshaller(u);
+        }
+    }
+
+    @Test
+    public void offByDefault() throws Exception {
+        assertFalse(taxiiXml.isStringInterning());
+        assertNull(taxiiXml.getInterningListener());
+        PollResponse pr = unmarshal(createPollResponse(2));
+        assertEquals(ContentBindings.CB_STIX_XML_111, pr.getContentBlocks().get(0).getContentBinding().getBindingId());
+        assertNotSame(pr.getContentBlocks().get(0).getContentBinding().getBindingId(),
+                pr.getContentBlocks().get(1).getContentBinding().getBindingId());
+    }
+
+    @Test
+    public void internsRepeatedStrings() throws Exception {
+        taxiiXml.setStringInterning(true);
+        PollResponse pr = unmarshal(createPollResponse(100));
+        String subtype = pr.getContentBlocks().get(0).getContentBinding().getSubtype().getSubtypeId();
+        for (ContentBlock cb : pr.getContentBlocks()) {
+            // The Content Binding IDs are replaced by the constant.
+            assertSame(ContentBindings.CB_STIX_XML_111, cb.getContentBinding().getBindingId());
+            assertSame(subtype, cb.getContentBinding().getSubtype().getSubtypeId());
+        }
+        assertEquals("default", pr.getCollectionName());
+    }
+
+    @Test
+    public void internsWhenValidating() throws Exception {
+        taxiiXml.setStringInterning(true);
+        Validation results = taxiiXml.validateAll(new ByteArrayInputStream(createPollResponse(3)), true, true);
+        assertTrue(results.getAllErrors(), results.isSuccess());
+        PollResponse pr = (PollResponse) results.getUnmarshalledObject();
+        assertSame(ContentBindings.CB_STIX_XML_111, pr.getContentBlocks().get(2).getContentBinding().getBindingId());
+    }
+
+    @Test
+    public void turnedOff() throws Exception {
+        taxiiXml.setStringInterning(true);
+        taxiiXml.setStringInterning(false);
+        PollResponse pr = unmarshal(createPollResponse(2));
+        assertNotSame(ContentBindings.CB_STIX_XML_111, pr.getContentBlocks().get(0).getContentBinding().getBindingId());
+    }
+
+    @Test
+    public void boundedTable() throws Exception {
+        StringInterner interner = new StringInterner(2);
+        taxiiXml.setStringInterner(interner);
+        PollResponse pr = unmarshal(createPollResponse(10));
+        assertEquals(2, interner.size());
+        // Full, so the collection name, unmarshalled last, isn't kept.
+        assertNotSame(pr.getCollectionName(), interner.intern(new String("default")));
+        assertSame(pr.getContentBlocks().get(0).getContentBinding().getBindingId(),
+                pr.getContentBlocks().get(9).getContentBinding().getBindingId());
+    }
+
+    @Test
+    public void internAll() {
+        StringInterner interner = new StringInterner(10);
+        String a = interner.intern(new String("a"));
+        List<String> values = new ArrayList<>();
+        values.add(new String("a"));
+        values.add(null);
+        interner.internAll(values);
+        assertSame(a, values.get(0));
+        assertNull(values.get(1));
+    }
+}
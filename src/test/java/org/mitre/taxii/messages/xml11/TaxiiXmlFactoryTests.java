@@ -0,0 +1,28 @@
+package org.mitre.taxii.messages.xml11;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.query.DefaultQuery;
+
+public class TaxiiXmlFactoryTests {
+
+    @Test
+    public void sharedJaxbContext() {
+        TaxiiXml taxiiXml1 = new TaxiiXmlFactory().createTaxiiXml();
+        TaxiiXml taxiiXml2 = new TaxiiXmlFactory().createTaxiiXml();
+
+        assertNotSame(taxiiXml1, taxiiXml2);
+        assertSame(taxiiXml1.getJaxbContext(), taxiiXml2.getJaxbContext());
+    }
+
+    @Test
+    public void separateJaxbContext() {
+        TaxiiXml taxiiXml1 = new TaxiiXmlFactory().createTaxiiXml();
+
+        TaxiiXmlFactory txf = new TaxiiXmlFactory();
+        txf.addJaxbContextPackage(DefaultQuery.class.getPackage().getName());
+        TaxiiXml taxiiXml2 = txf.createTaxiiXml();
+
+        assertNotSame(taxiiXml1.getJaxbContext(), taxiiXml2.getJaxbContext());
+    }
+}
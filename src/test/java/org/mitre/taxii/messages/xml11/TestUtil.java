@@ -1,13 +1,21 @@
 package org.mitre.taxii.messages.xml11;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.BinaryCodec;
+import org.mitre.taxii.messages.JsonCodec;
+import org.mitre.taxii.messages.StaxCodec;
 import org.mitre.taxii.util.Validation;
 import org.xml.sax.SAXException;
 
@@ -123,6 +131,10 @@ public class TestUtil {
         // easier to debug
         assertEquals("round tripping from XML to object back to XML failed",
                 xmlString, xmlString2);
+
+        assertCodecParity(taxiiXml, msg, prettyPrint, xmlString);
+        assertBinaryParity(taxiiXml, msg, prettyPrint);
+        assertJsonParity(taxiiXml, msg, prettyPrint);
         
         if (compareObject) {
         assertEquals("round tripping from object to XML back to object failed! ",
@@ -131,6 +143,66 @@ public class TestUtil {
         
     }    
     
+    /**
+     * Confirm that decoding the binary encoding of a message gives what 
+     * unmarshalling its XML does.
+     */
+    public static void assertBinaryParity(TaxiiXml taxiiXml, Object msg, boolean prettyPrint) 
+            throws JAXBException {
+        final BinaryCodec binary = taxiiXml.getBinaryCodec();
+        final Object decoded = binary.decode(binary.encode(msg));
+        assertEquals("the binary encoding read back a different message", 
+                taxiiXml.marshalToString(msg, prettyPrint), taxiiXml.marshalToString(decoded, prettyPrint));
+    }
+    
+    /**
+     * Confirm that reading the JSON of a message gives what unmarshalling 
+     * its XML does.
+     */
+    public static void assertJsonParity(TaxiiXml taxiiXml, Object msg, boolean prettyPrint) 
+            throws JAXBException {
+        final JsonCodec json = taxiiXml.getJsonCodec();
+        final Object read = json.unmarshal(new StringReader(json.marshalToString(msg)));
+        assertEquals("the JSON read back a different message", 
+                taxiiXml.marshalToString(msg, prettyPrint), taxiiXml.marshalToString(read, prettyPrint));
+    }
+    
+    /**
+     * Confirm that the generated StAX codec writes exactly the XML JAXB 
+     * writes, and reads it back to what JAXB reads.
+     * 
+     * @param fragment the message as marshalled by JAXB as a fragment.
+     */
+    public static void assertCodecParity(TaxiiXml taxiiXml, Object msg, boolean prettyPrint, String fragment) 
+            throws JAXBException {
+        final StaxCodec codec = taxiiXml.getStaxCodec();
+        final StringWriter sw = new StringWriter();
+        codec.marshal(msg, sw, prettyPrint, true);
+        assertEquals("the StAX codec wrote a different fragment than JAXB", fragment, sw.toString());
+        
+        for (boolean pretty : new boolean[] {prettyPrint, !prettyPrint}) {
+            final String xmlString = taxiiXml.marshalToString(msg, pretty);
+            assertEquals("the StAX codec wrote different XML than JAXB", 
+                    xmlString, codec.marshalToString(msg, pretty));
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            codec.marshal(msg, bytes, pretty);
+            assertArrayEquals("the StAX codec wrote different bytes than JAXB",
+                    xmlString.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+
+            // DOM content doesn't compare equal, so compare what's read by re-marshalling it.
+            final Unmarshaller u = taxiiXml.borrowUnmarshaller();
+            final Object fromJaxb;
+            try {
+                fromJaxb = u.unmarshal(new StringReader(xmlString));
+            } finally {
+                taxiiXml.returnUnmarshaller(u);
+            }
+            final Object fromCodec = codec.unmarshal(new StringReader(xmlString));
+            assertEquals("the StAX codec read a different message than JAXB", 
+                    taxiiXml.marshalToString(fromJaxb, pretty), taxiiXml.marshalToString(fromCodec, pretty));
+        }
+    }
+    
     public static void assertValid(TaxiiXml taxiiXml, MessageType msg) 
             throws JAXBException, SAXException, IOException {
         final Validation results = taxiiXml.validateAll(msg, true);
@@ -143,4 +215,24 @@ public class TestUtil {
         }
     }
     
+    /**
+     * A Poll_Response with the given number of STIX Content_Blocks, whose 
+     * content needs escaping and has characters outside the BMP.
+     */
+    public static PollResponse createPollResponse(int count) {
+        final ObjectFactory factory = new ObjectFactory();
+        final PollResponse pr = factory.createPollResponse()
+                .withMessageId("PollResp1")
+                .withInResponseTo("PollReq1")
+                .withCollectionName("default")
+                .withMore(false)
+                .withRecordCount(factory.createRecordCountType().withValue(BigInteger.valueOf(count)).withPartialCount(true));
+        for (int i = 0; i < count; i++) {
+            pr.withContentBlocks(factory.createContentBlock()
+                    .withContentBinding(factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                    .withContent(factory.createAnyMixedContentType().withContent("Block " + i + " <\u00e9t\u00e9> & \ud83d\ude00")));
+        }
+        return pr;
+    }
+    
 }
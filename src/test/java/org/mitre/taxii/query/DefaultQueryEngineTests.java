@@ -0,0 +1,257 @@
+package org.mitre.taxii.query;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMResult;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mitre.taxii.ContentBindings;
+import org.mitre.taxii.messages.xml11.ContentBlock;
+import org.mitre.taxii.messages.xml11.ObjectFactory;
+import org.mitre.taxii.messages.xml11.PollRequest;
+import org.mitre.taxii.messages.xml11.QueryType;
+import org.mitre.taxii.messages.xml11.StatusMessage;
+import org.mitre.taxii.messages.xml11.StatusTypeEnum;
+import org.mitre.taxii.messages.xml11.TaxiiXml;
+import org.mitre.taxii.messages.xml11.TaxiiXmlFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Evaluating TAXII Default Queries against Content Blocks.
+ */
+public class DefaultQueryEngineTests {
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private final DefaultQueryEngine engine = new DefaultQueryEngine();
+
+    private static final String STIX = "<stix:STIX_Package xmlns:stix=\"http://stix.mitre.org/stix-1\" "
+            + "xmlns:indicator=\"http://stix.mitre.org/Indicator-2\" id=\"example:package-%d\" timestamp=\"2015-01-%02dT12:00:00Z\">"
+            + "<stix:STIX_Header><stix:Title>Package %d</stix:Title></stix:STIX_Header>"
+            + "<stix:Indicators><stix:Indicator id=\"example:indicator-%d\"><indicator:Confidence>%d</indicator:Confidence></stix:Indicator></stix:Indicators>"
+            + "</stix:STIX_Package>";
+
+    private ContentBlock block(int i) throws Exception {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        final Element stix = dbf.newDocumentBuilder()
+                .parse(new InputSource(new StringReader(String.format(STIX, i, i % 28 + 1, i, i, i * 10))))
+                .getDocumentElement();
+        return factory.createContentBlock()
+                .withContentBinding(factory.createContentInstanceType().withBindingId(ContentBindings.CB_STIX_XML_111))
+                .withContent(factory.createAnyMixedContentType().withContent("\n", stix, "\n"));
+    }
+
+    private static CriterionType criterion(String target, String capability, String relationship, String... parameters) {
+        final TestType test = new TestType().withCapabilityId(capability).withRelationship(relationship);
+        for (int i = 0; i < parameters.length; i += 2) {
+            test.withParameters(new ParameterType(parameters[i + 1], parameters[i]));
+        }
+        return new CriterionType().withTarget(target).withTest(test);
+    }
+
+    private static DefaultQuery query(String operator, CriterionType... criterions) {
+        return new DefaultQuery()
+                .withTargetingExpressionId(ContentBindings.CB_STIX_XML_111)
+                .withCriteria(new CriteriaType().withOperator(operator).withCriterions(criterions));
+    }
+
+    private boolean matches(CriterionType criterion, int i) throws Exception {
+        return engine.compile(query(DefaultQueryXml.OP_AND, criterion)).matches(block(i));
+    }
+
+    @Test
+    public void core() throws Exception {
+        assertTrue(matches(criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "equals",
+                "value", "Package 1", "match_type", "case_sensitive_string"), 1));
+        assertFalse(matches(criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "equals",
+                "value", "PACKAGE 1", "match_type", "case_sensitive_string"), 1));
+        assertTrue(matches(criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "equals",
+                "value", "PACKAGE 1", "match_type", "case_insensitive_string"), 1));
+        assertTrue(matches(criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "not_equals",
+                "value", "Package 2", "match_type", "case_sensitive_string"), 1));
+        assertTrue(matches(criterion("STIX_Package/Indicators/Indicator/Confidence", DefaultQueryXml.CM_CORE, "equals",
+                "value", "30.0", "match_type", "number"), 3));
+        assertTrue(matches(criterion("STIX_Package/Indicators/Indicator/Confidence", DefaultQueryXml.CM_CORE, "greater_than",
+                "value", "25"), 3));
+        assertFalse(matches(criterion("STIX_Package/Indicators/Indicator/Confidence", DefaultQueryXml.CM_CORE, "less_than_or_equal",
+                "value", "25"), 3));
+        // Not a number.
+        assertFalse(matches(criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "greater_than",
+                "value", "0"), 1));
+        assertTrue(matches(criterion("STIX_Package/Indicators/Indicator/@id", DefaultQueryXml.CM_CORE, "exists"), 1));
+        assertTrue(matches(criterion("STIX_Package/Indicators/Indicator/@idref", DefaultQueryXml.CM_CORE, "does_not_exist"), 1));
+        assertFalse(matches(criterion("STIX_Package/Indicators", DefaultQueryXml.CM_CORE, "does_not_exist"), 1));
+        assertTrue(matches(criterion("STIX_Package/@id", DefaultQueryXml.CM_CORE, "begins_with",
+                "value", "EXAMPLE:", "case_sensitive", "false"), 1));
+        assertFalse(matches(criterion("STIX_Package/@id", DefaultQueryXml.CM_CORE, "begins_with",
+                "value", "EXAMPLE:", "case_sensitive", "true"), 1));
+        assertTrue(matches(criterion("STIX_Package/@id", DefaultQueryXml.CM_CORE, "ends_with",
+                "value", "GE-7", "case_sensitive", "false"), 7));
+        assertTrue(matches(criterion("STIX_Package/*/Title", DefaultQueryXml.CM_CORE, "contains",
+                "value", "KAGE", "case_sensitive", "false"), 1));
+        // Negation.
+        assertFalse(matches(criterion("STIX_Package/Indicators/Indicator/@id", DefaultQueryXml.CM_CORE, "exists").withNegate(true), 1));
+    }
+
+    @Test
+    public void regexAndTimestamp() throws Exception {
+        assertTrue(matches(criterion("**/Title", DefaultQueryXml.CM_REGEX, "matches",
+                "value", "^package \\d$", "case_sensitive", "false"), 4));
+        assertFalse(matches(criterion("**/Title", DefaultQueryXml.CM_REGEX, "matches",
+                "value", "^package \\d$", "case_sensitive", "true"), 4));
+        assertTrue(matches(criterion("STIX_Package/@timestamp", DefaultQueryXml.CM_TIMESTAMP, "greater_than",
+                "value", "2015-01-05T11:00:00-02:00"), 5)); // 13:00Z on the 5th
+        assertFalse(matches(criterion("STIX_Package/@timestamp", DefaultQueryXml.CM_TIMESTAMP, "greater_than",
+                "value", "2015-01-05T13:00:00Z"), 4));
+        assertTrue(matches(criterion("STIX_Package/@timestamp", DefaultQueryXml.CM_TIMESTAMP, "equals",
+                "value", "2015-01-02T12:00:00.000Z"), 1));
+    }
+
+    @Test
+    public void targets() throws Exception {
+        assertTrue(matches(criterion("**/@id", DefaultQueryXml.CM_CORE, "equals",
+                "value", "example:indicator-3", "match_type", "case_sensitive_string"), 3));
+        assertTrue(matches(criterion("**/Indicator/**/Confidence", DefaultQueryXml.CM_CORE, "exists"), 3));
+        assertTrue(matches(criterion("**", DefaultQueryXml.CM_CORE, "equals",
+                "value", "30", "match_type", "number"), 3));
+        assertTrue(matches(criterion("*/*/*/@*", DefaultQueryXml.CM_CORE, "ends_with",
+                "value", "-3", "case_sensitive", "true"), 3));
+        // The first name is that of the root element.
+        assertFalse(matches(criterion("STIX_Header/Title", DefaultQueryXml.CM_CORE, "exists"), 3));
+        assertFalse(matches(criterion("**/@xmlns", DefaultQueryXml.CM_CORE, "exists"), 3));
+    }
+
+    @Test
+    public void criteria() throws Exception {
+        final CriterionType title1 = criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "equals",
+                "value", "Package 1", "match_type", "case_sensitive_string");
+        final CriterionType title2 = criterion("STIX_Package/STIX_Header/Title", DefaultQueryXml.CM_CORE, "equals",
+                "value", "Package 2", "match_type", "case_sensitive_string");
+        final CriterionType confidence = criterion("**/Confidence", DefaultQueryXml.CM_CORE, "less_than",
+                "value", "15");
+        final CompiledQuery or = engine.compile(query(DefaultQueryXml.OP_OR, title1, title2));
+        assertTrue(or.matches(block(1)));
+        assertTrue(or.matches(block(2)));
+        assertFalse(or.matches(block(3)));
+
+        final DefaultQuery nested = query(DefaultQueryXml.OP_AND, confidence);
+        nested.getCriteria().withCriterias(new CriteriaType().withOperator(DefaultQueryXml.OP_OR).withCriterions(title1, title2));
+        final CompiledQuery and = engine.compile(nested);
+        assertTrue(and.matches(block(1)));
+        assertFalse(and.matches(block(2)));
+        assertEquals(ContentBindings.CB_STIX_XML_111, and.getTargetingExpressionId());
+        // Text content matches nothing.
+        assertFalse(and.matches(factory.createContentBlock().withContent(factory.createAnyMixedContentType().withContent("Package 1"))));
+    }
+
+    @Test
+    public void filter() throws Exception {
+        final List<ContentBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            blocks.add(block(i));
+        }
+        final CompiledQuery query = engine.compile(query(DefaultQueryXml.OP_AND,
+                criterion("STIX_Package/@id", DefaultQueryXml.CM_REGEX, "matches", "value", "7$", "case_sensitive", "true")));
+        final List<ContentBlock> expected = new ArrayList<>();
+        for (ContentBlock block : blocks) {
+            if (query.matches(block)) {
+                expected.add(block);
+            }
+        }
+        assertEquals(100, expected.size());
+        assertEquals(expected, query.filter(blocks));
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, query.filter(blocks, executor));
+            assertEquals(expected.subList(0, 2), query.filter(blocks.subList(0, 20), executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void queryType() throws Exception {
+        // Without the Default Query classes, the query is read as DOM.
+        final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+        final DefaultQueryXml dqx = DefaultQueryXml.newInstance();
+        final PollRequest pr = factory.createPollRequest()
+                .withMessageId("1")
+                .withCollectionName("default")
+                .withPollParameters(factory.createPollParametersType()
+                        .withQuery(factory.createQueryType()
+                                .withFormatId(DefaultQueryXml.FID_TAXII_DEFAULT_QUERY_10)
+                                .withContent(query(DefaultQueryXml.OP_AND, criterion("**/Title", DefaultQueryXml.CM_CORE, "exists")))));
+        final PollRequest read = (PollRequest) taxiiXml.getStaxCodec().unmarshal(new StringReader(marshal(taxiiXml, pr, dqx)));
+        final QueryType query = read.getPollParameters().getQuery();
+        assertTrue(query.getContent().get(0) instanceof Element);
+        assertTrue(engine.compile(query).matches(block(1)));
+
+        try {
+            engine.compile(factory.createQueryType().withFormatId("urn:example:query"));
+            fail("Compiled");
+        } catch (QueryException e) {
+            assertEquals(StatusTypeEnum.UNSUPPORTED_QUERY.value(), e.getStatusType());
+        }
+    }
+
+    private static String marshal(TaxiiXml taxiiXml, PollRequest pr, DefaultQueryXml dqx) throws Exception {
+        // The query is marshalled separately, as the TaxiiXml doesn't know its classes.
+        final DefaultQuery query = (DefaultQuery) pr.getPollParameters().getQuery().getContent().get(0);
+        final DOMResult result = new DOMResult();
+        dqx.createMarshaller(false).marshal(query, result);
+        pr.getPollParameters().getQuery().getContent().set(0,
+                ((Document) result.getNode()).getDocumentElement());
+        return taxiiXml.marshalToString(pr, false);
+    }
+
+    @Test
+    public void unsupported() throws Exception {
+        final CriterionType exists = criterion("**/Title", DefaultQueryXml.CM_CORE, "exists");
+        assertStatus(DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION_ID,
+                query(DefaultQueryXml.OP_AND, exists).withTargetingExpressionId("urn:example:other"));
+        assertStatus(DefaultQueryXml.ST_UNSUPPORTED_CAPABILITY_MODULE,
+                query(DefaultQueryXml.OP_AND, criterion("**/Title", "urn:example:capability", "exists")));
+        for (String target : new String[] {"", "stix:STIX_Package", "STIX_Package//Title", "@id", "STIX_Package/@id/Title", "Title[1]"}) {
+            assertStatus(DefaultQueryXml.ST_UNSUPPORTED_TARGETING_EXPRESSION,
+                    query(DefaultQueryXml.OP_AND, criterion(target, DefaultQueryXml.CM_CORE, "exists")));
+        }
+        final String badMessage = StatusTypeEnum.BAD_MESSAGE.value();
+        assertStatus(badMessage, query("XOR", exists));
+        assertStatus(badMessage, query(DefaultQueryXml.OP_AND, criterion("**", DefaultQueryXml.CM_CORE, "equals", "value", "x")));
+        assertStatus(badMessage, query(DefaultQueryXml.OP_AND, criterion("**", DefaultQueryXml.CM_REGEX, "equals", "value", "x")));
+        assertStatus(badMessage, query(DefaultQueryXml.OP_AND, criterion("**", DefaultQueryXml.CM_REGEX, "matches", "value", "(", "case_sensitive", "true")));
+        assertStatus(badMessage, query(DefaultQueryXml.OP_AND, criterion("**", DefaultQueryXml.CM_TIMESTAMP, "less_than", "value", "yesterday")));
+        assertStatus(badMessage, query(DefaultQueryXml.OP_AND, criterion("**", DefaultQueryXml.CM_CORE, "contains", "value", "x", "case_sensitive", "maybe")));
+    }
+
+    @Test
+    public void statusMessage() throws Exception {
+        try {
+            engine.compile(query(DefaultQueryXml.OP_AND, criterion("**/Title", "urn:example:capability", "exists")));
+            fail("Compiled");
+        } catch (QueryException e) {
+            final StatusMessage sm = e.toStatusMessage().withMessageId("2").withInResponseTo("1");
+            assertEquals(DefaultQueryXml.ST_UNSUPPORTED_CAPABILITY_MODULE, sm.getStatusType());
+            assertEquals(DefaultQueryXml.CM_IDS.size(), sm.getStatusDetail().getDetails().size());
+            assertEquals(DefaultQueryXml.SD_CAPABILITY_MODULE, sm.getStatusDetail().getDetails().get(0).getName());
+            assertEquals(DefaultQueryXml.CM_CORE, sm.getStatusDetail().getDetails().get(0).getContent().get(0));
+            final TaxiiXml taxiiXml = new TaxiiXmlFactory().createTaxiiXml();
+            assertTrue(taxiiXml.validateAll(sm, true).isSuccess());
+        }
+    }
+
+    private void assertStatus(String statusType, DefaultQuery query) {
+        try {
+            engine.compile(query);
+            fail("Compiled");
+        } catch (QueryException e) {
+            assertEquals(e.getMessage(), statusType, e.getStatusType());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.mitre.taxii.util;
+
+import java.math.BigInteger;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * The hand-written xs:dateTime parser and formatter used by the "primitive"
+ * binding profile, checked against XMLGregorianCalendar.
+ */
+public class Iso8601Tests {
+
+    private final DatatypeFactory datatypeFactory;
+
+    public Iso8601Tests() throws Exception {
+        datatypeFactory = DatatypeFactory.newInstance();
+    }
+
+    private long calendarNanos(String lexical) {
+        final XMLGregorianCalendar cal = datatypeFactory.newXMLGregorianCalendar(lexical);
+        return Datatypes.epochNanos(cal);
+    }
+
+    @Test
+    public void parseMatchesCalendar() {
+        final String[] values = {
+            "1970-01-01T00:00:00Z",
+            "2014-12-19T00:00:00Z",
+            "2014-12-19T00:00:00.123456Z",
+            "2014-12-19T23:59:59.999999999Z",
+            "2000-02-29T12:30:00+05:30",
+            "1969-12-31T23:59:59.5-08:00",
+            "1900-03-01T00:00:00Z",
+            "2262-04-11T23:47:16Z",
+            "1677-09-21T00:12:44Z",
+        };
+        for (String value : values) {
+            assertEquals(value, calendarNanos(value), Iso8601.parseEpochNanos(value));
+        }
+    }
+
+    @Test
+    public void knownValues() {
+        assertEquals(0L, Iso8601.parseEpochNanos("1970-01-01T00:00:00Z"));
+        assertEquals(1000L, Iso8601.parseEpochNanos("1970-01-01T00:00:00.000001Z"));
+        assertEquals(-1L, Iso8601.parseEpochNanos("1969-12-31T23:59:59.999999999Z"));
+        assertEquals(1418947200000000000L, Iso8601.parseEpochNanos("2014-12-19T00:00:00Z"));
+        assertEquals(Iso8601.parseEpochNanos("2014-12-20T00:00:00Z"),
+                Iso8601.parseEpochNanos("2014-12-19T24:00:00Z"));
+        // no time zone is taken to be UTC
+        assertEquals(Iso8601.parseEpochNanos("2014-12-19T00:00:00Z"),
+                Iso8601.parseEpochNanos("2014-12-19T00:00:00"));
+        // digits beyond nanoseconds are truncated
+        assertEquals(Iso8601.parseEpochNanos("2014-12-19T00:00:00.123456789Z"),
+                Iso8601.parseEpochNanos("2014-12-19T00:00:00.1234567891Z"));
+    }
+
+    @Test
+    public void print() {
+        assertEquals("1970-01-01T00:00:00Z", Iso8601.printEpochNanos(0L));
+        assertEquals("1969-12-31T23:59:59.999999999Z", Iso8601.printEpochNanos(-1L));
+        assertEquals("2014-12-19T00:00:00.5Z", Iso8601.printEpochNanos(1418947200500000000L));
+        assertEquals("2014-12-19T00:00:00.123456Z", Iso8601.printEpochNanos(1418947200123456000L));
+        assertEquals("2000-02-29T07:00:00Z",
+                Iso8601.printEpochNanos(Iso8601.parseEpochNanos("2000-02-29T12:30:00+05:30")));
+    }
+
+    @Test
+    public void roundTrip() {
+        // a spread of instants across the range of a long
+        long nanos = Long.MIN_VALUE + Iso8601.parseEpochNanos("1970-01-01T00:00:01Z");
+        final long step = BigInteger.valueOf(Long.MAX_VALUE).shiftRight(12).longValue() + 123456789L;
+        for (int i = 0; i < 8000; i++) {
+            final String printed = Iso8601.printEpochNanos(nanos);
+            assertEquals(printed, nanos, Iso8601.parseEpochNanos(printed));
+            assertEquals(printed, nanos, calendarNanos(printed));
+            nanos += step;
+        }
+    }
+
+    @Test
+    public void rejectsInvalid() {
+        final String[] values = {
+            "",
+            "2014-12-19",
+            "2014-12-19T00:00",
+            "14-12-19T00:00:00Z",
+            "2014-13-19T00:00:00Z",
+            "2014-02-30T00:00:00Z",
+            "2014-12-19T24:00:01Z",
+            "2014-12-19T00:60:00Z",
+            "2014-12-19T00:00:00.Z",
+            "2014-12-19T00:00:00+15:00",
+            "2014-12-19T00:00:00ZZ",
+            "2014-12-19 00:00:00Z",
+            "3000-01-01T00:00:00Z",
+        };
+        for (String value : values) {
+            try {
+                Iso8601.parseEpochNanos(value);
+                fail("Parsed " + value);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}